@@ -0,0 +1,70 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.javr.assembler.Assembler;
+import de.codesourcery.javr.assembler.ObjectCodeWriter;
+import de.codesourcery.javr.ui.Project;
+import de.codesourcery.javr.ui.config.ProjectConfiguration;
+
+/**
+ * Measures a full {@link Assembler#compile} of the benchmark project.
+ * 
+ * <p>Object code is written to memory only.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AssemblerBenchmark 
+{
+    private ProjectConfiguration config;
+    
+    @Setup
+    public void setup() throws IOException 
+    {
+        config = BenchmarkSupport.loadProjectConfiguration();
+    }
+    
+    @Benchmark
+    public ObjectCodeWriter compile() throws IOException 
+    {
+        final Project project = BenchmarkSupport.createProject( config );
+        final ObjectCodeWriter writer = new ObjectCodeWriter();
+        if ( ! new Assembler().compile( project , writer , project , project ) ) {
+            throw new IllegalStateException("Compilation of benchmark project failed");
+        }
+        return writer;
+    }
+}
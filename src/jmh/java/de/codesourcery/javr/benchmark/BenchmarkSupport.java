@@ -0,0 +1,109 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import de.codesourcery.javr.assembler.CompilationContext;
+import de.codesourcery.javr.assembler.CompilationUnit;
+import de.codesourcery.javr.assembler.CompilerSettings;
+import de.codesourcery.javr.assembler.ObjectCodeWriter;
+import de.codesourcery.javr.ui.IProject;
+import de.codesourcery.javr.ui.Project;
+import de.codesourcery.javr.ui.config.ProjectConfiguration;
+
+/**
+ * Helper methods shared by all benchmarks.
+ * 
+ * <p>The project used as benchmark input defaults to <code>examples/projects/dcf77</code> 
+ * and can be changed using the <code>javr.benchmark.project</code> system property.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class BenchmarkSupport 
+{
+    public static final String PROJECT_DIR_PROPERTY = "javr.benchmark.project";
+    
+    private BenchmarkSupport() {
+    }
+    
+    public static File getProjectDir() 
+    {
+        return new File( System.getProperty( PROJECT_DIR_PROPERTY , "examples/projects/dcf77" ) ).getAbsoluteFile();
+    }
+    
+    public static ProjectConfiguration loadProjectConfiguration() throws IOException 
+    {
+        final File baseDir = getProjectDir();
+        try ( InputStream in = new FileInputStream( new File( baseDir , IProject.PROJECT_FILE ) ) ) 
+        {
+            return ProjectConfiguration.load( baseDir , in );
+        }
+    }
+    
+    /**
+     * Creates a fresh project for the benchmark input.
+     * 
+     * @return
+     * @throws IOException
+     */
+    public static Project createProject() throws IOException 
+    {
+        return createProject( loadProjectConfiguration() );
+    }
+    
+    public static Project createProject(ProjectConfiguration config) throws IOException 
+    {
+        return new Project( new CompilationUnit( config.getCompilationRootResource() ) , config );
+    }
+    
+    /**
+     * Sets up a compilation context the same way {@link de.codesourcery.javr.assembler.Assembler} does.
+     * 
+     * @param project
+     * @param writer
+     * @return
+     */
+    public static CompilationContext createCompilationContext(Project project,ObjectCodeWriter writer) 
+    {
+        final CompilationUnit unit = project.getCompileRoot();
+        project.getGlobalSymbolTable().clear();
+        unit.beforeCompilationStarts( project.getGlobalSymbolTable() );
+        
+        final CompilerSettings settings = new CompilerSettings();
+        settings.populateFrom( project.getConfiguration().getCompilerSettings() );
+        final CompilationContext context = new CompilationContext( unit , project.getGlobalSymbolTable() , writer , project , settings , project.getConfig() );
+        context.setGenerateRelocations( project.getConfiguration().getOutputFormat().supportsRelocation() );
+        return context;
+    }
+    
+    /**
+     * Returns pseudo-random bytes (fixed seed).
+     * 
+     * @param size
+     * @return
+     */
+    public static byte[] randomBytes(int size) 
+    {
+        final byte[] result = new byte[size];
+        new Random( 0xdeadbeef ).nextBytes( result );
+        return result;
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.javr.assembler.arch.Architecture;
+import de.codesourcery.javr.assembler.arch.IArchitecture;
+import de.codesourcery.javr.assembler.arch.IArchitecture.DisassemblerSettings;
+
+/**
+ * Measures disassembling a 32 KB image of pseudo-random data.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DisassemblerBenchmark 
+{
+    private static final int IMAGE_SIZE = 32*1024;
+    
+    private final IArchitecture arch = Architecture.ATMEGA328P.getImplementation();
+    private final byte[] image = BenchmarkSupport.randomBytes( IMAGE_SIZE );
+    private final DisassemblerSettings settings = new DisassemblerSettings();
+    
+    public DisassemblerBenchmark() 
+    {
+        settings.printAddresses = true;
+        settings.printBytes = true;
+    }
+    
+    @Benchmark
+    public String disassemble() 
+    {
+        return arch.disassemble( image , image.length , settings );
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.codesourcery.javr.assembler.arch.InstructionEncoder;
+
+/**
+ * Measures {@link InstructionEncoder#encode(int, int)} and {@link InstructionEncoder#decode(int)}
+ * using the two-register ADD encoding, covering all 32x32 register combinations.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstructionEncoderBenchmark 
+{
+    private static final int OPS = 32*32;
+    
+    private final InstructionEncoder encoder = new InstructionEncoder("000011rdddddrrrr");
+    
+    private final int[] encoded = new int[OPS];
+    
+    public InstructionEncoderBenchmark() 
+    {
+        final int shift = encoder.getInstructionLengthInBytes()*8;
+        for ( int dst = 0 , i = 0 ; dst < 32 ; dst++ ) 
+        {
+            for ( int src = 0 ; src < 32 ; src++ ) {
+                encoded[i++] = encoder.encode( dst , src ) << shift;
+            }
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(OPS)
+    public void encode(Blackhole bh) 
+    {
+        for ( int dst = 0 ; dst < 32 ; dst++ ) 
+        {
+            for ( int src = 0 ; src < 32 ; src++ ) {
+                bh.consume( encoder.encode( dst , src ) );
+            }
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(OPS)
+    public void decode(Blackhole bh) 
+    {
+        for ( int i = 0 ; i < OPS ; i++ ) 
+        {
+            final List<Integer> args = encoder.decode( encoded[i] );
+            bh.consume( args );
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.codesourcery.javr.assembler.CompilationContext;
+import de.codesourcery.javr.assembler.ObjectCodeWriter;
+import de.codesourcery.javr.assembler.parser.Lexer;
+import de.codesourcery.javr.assembler.parser.LexerImpl;
+import de.codesourcery.javr.assembler.parser.PreprocessingLexer;
+import de.codesourcery.javr.assembler.parser.Scanner;
+import de.codesourcery.javr.assembler.util.Resource;
+import de.codesourcery.javr.assembler.util.StringResource;
+import de.codesourcery.javr.ui.Project;
+
+/**
+ * Measures tokenizing the benchmark project's compilation root, 
+ * with and without the preprocessor (that also expands #include directives).
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark 
+{
+    private String source;
+    private Project project;
+    
+    @Setup
+    public void setup() throws IOException 
+    {
+        project = BenchmarkSupport.createProject();
+        final Resource root = project.getCompileRoot().getResource();
+        try ( InputStream in = root.createInputStream() ) {
+            source = new String( IOUtils.toByteArray( in ) , root.getEncoding() );
+        }
+    }
+    
+    private static void consume(Lexer lexer,Blackhole bh) 
+    {
+        while ( ! lexer.eof() ) {
+            bh.consume( lexer.next() );
+        }
+    }
+    
+    @Benchmark
+    public void scannerAndLexer(Blackhole bh) 
+    {
+        consume( new LexerImpl( new Scanner( new StringResource( "main.asm" , source ) ) ) , bh );
+    }
+
+    @Benchmark
+    public void streamingScannerAndLexer(Blackhole bh) 
+    {
+        consume( new LexerImpl( new Scanner( new StringResource( "main.asm" , source ) , 1024 ) ) , bh );
+    }
+    
+    @Benchmark
+    public void preprocessingLexerWithIncludes(Blackhole bh) 
+    {
+        final CompilationContext context = BenchmarkSupport.createCompilationContext( project , new ObjectCodeWriter() );
+        final Lexer delegate = new LexerImpl( new Scanner( project.getCompileRoot().getResource() ) );
+        consume( new PreprocessingLexer( delegate , context ) , bh );
+    }
+}
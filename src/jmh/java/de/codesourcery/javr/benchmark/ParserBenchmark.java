@@ -0,0 +1,69 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.javr.assembler.CompilationContext;
+import de.codesourcery.javr.assembler.ObjectCodeWriter;
+import de.codesourcery.javr.assembler.parser.LexerImpl;
+import de.codesourcery.javr.assembler.parser.PreprocessingLexer;
+import de.codesourcery.javr.assembler.parser.Scanner;
+import de.codesourcery.javr.assembler.parser.ast.AST;
+import de.codesourcery.javr.ui.Project;
+
+/**
+ * Measures {@link de.codesourcery.javr.assembler.parser.Parser#parse} on the benchmark project (including
+ * all files pulled in via #include).
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark 
+{
+    private Project project;
+    
+    @Setup
+    public void setup() throws IOException 
+    {
+        project = BenchmarkSupport.createProject();
+    }
+    
+    @Benchmark
+    public AST parse() 
+    {
+        final CompilationContext context = BenchmarkSupport.createCompilationContext( project , new ObjectCodeWriter() );
+        final PreprocessingLexer lexer = new PreprocessingLexer( new LexerImpl( new Scanner( project.getCompileRoot().getResource() ) ) , context );
+        return project.getConfig().createParser().parse( context , project.getCompileRoot() , lexer );
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.javr.assembler.Assembler;
+import de.codesourcery.javr.assembler.CompilationContext;
+import de.codesourcery.javr.assembler.ObjectCodeWriter;
+import de.codesourcery.javr.assembler.phases.Phase;
+import de.codesourcery.javr.ui.Project;
+
+/**
+ * Measures each compiler {@link Phase} in isolation.
+ * 
+ * <p>Before each invocation, a fresh project is set up and all phases preceding 
+ * the one being measured are run (outside of the measurement).</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 200, batchSize = 1)
+@Measurement(iterations = 200, batchSize = 1)
+@Fork(1)
+public class PhaseBenchmark 
+{
+    @Param({"ParseSourcePhase","SyntaxCheckPhase","GatherSymbolsPhase","SubstituteRegisterAliases",
+            "ExpandMacrosPhase","PrepareGenerateCodePhase","GenerateCodePhase"})
+    public String phaseName;
+    
+    private CompilationContext context;
+    private Phase phase;
+    
+    @Setup(Level.Invocation)
+    public void setup() throws Exception 
+    {
+        final Project project = BenchmarkSupport.createProject();
+        context = BenchmarkSupport.createCompilationContext( project , new ObjectCodeWriter() );
+        
+        final List<Phase> phases = Assembler.createPhases( project );
+        phase = null;
+        for ( Phase p : phases ) 
+        {
+            if ( p.getClass().getSimpleName().equals( phaseName ) ) {
+                phase = p;
+                break;
+            }
+            run( p );
+            if ( project.getCompileRoot().hasErrors( true ) ) {
+                throw new IllegalStateException("Phase "+p.getName()+" failed on benchmark input");
+            }
+        }
+        if ( phase == null ) {
+            throw new IllegalArgumentException("Unknown phase: "+phaseName);
+        }
+    }
+    
+    private void run(Phase p) throws Exception 
+    {
+        context.beforePhase();
+        p.beforeRun( context );
+        p.run( context );
+        p.afterSuccessfulRun( context );
+    }
+    
+    @Benchmark
+    public CompilationContext runPhase() throws Exception 
+    {
+        run( phase );
+        return context;
+    }
+}
@@ -0,0 +1,263 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+import org.apache.log4j.Logger;
+
+import de.codesourcery.javr.assembler.util.FileHashCache;
+import de.codesourcery.javr.assembler.util.FileResource;
+import de.codesourcery.javr.assembler.util.Resource;
+
+/**
+ * Writes the output files (artifacts) of a compilation.
+ *
+ * <p>Every artifact is generated and written by an independent task, all tasks run concurrently
+ * on a {@link ForkJoinPool}. Since generators run concurrently, they must not
+ * modify any shared state.</p>
+ *
+ * <p>Files are written to a temporary file in the target directory that is then atomically
+ * renamed, so other programs never observe a partially written file. Files that already
+ * have the desired content are not touched at all (and thus keep their modification time).</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class ArtifactWriter 
+{
+    private static final Logger LOG = Logger.getLogger(ArtifactWriter.class);
+
+    private final ForkJoinPool pool;
+    private final List<Artifact> artifacts = new ArrayList<>();
+
+    /**
+     * Generates the content of an artifact.
+     *
+     * @author tobias.gierke@code-sourcery.de
+     */
+    @FunctionalInterface
+    public interface IContentGenerator 
+    {
+        public void generate(OutputStream out) throws IOException;
+    }
+
+    public static final class Artifact 
+    {
+        public final Resource resource;
+        private final IContentGenerator generator;
+
+        private volatile int size;
+        private volatile boolean updated;
+
+        private Artifact(Resource resource, IContentGenerator generator) 
+        {
+            this.resource = resource;
+            this.generator = generator;
+        }
+
+        /**
+         * Returns the number of bytes in the artifact.
+         * 
+         * @return
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * Returns whether the artifact had to be (re-)written.
+         * 
+         * @return <code>false</code> if the resource already had the generated content
+         */
+        public boolean isUpdated() {
+            return updated;
+        }
+
+        private void write() throws IOException
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            generator.generate( out );
+            final byte[] data = out.toByteArray();
+            size = data.length;
+            updated = writeIfChanged( resource , data );
+            if ( LOG.isDebugEnabled() ) {
+                LOG.debug("write(): "+( updated ? "Wrote " : "Unchanged, skipped " )+data.length+" bytes to "+resource);
+            }
+        }
+    }
+
+    public ArtifactWriter() {
+        this( ForkJoinPool.commonPool() );
+    }
+
+    public ArtifactWriter(ForkJoinPool pool) 
+    {
+        Validate.notNull(pool, "pool must not be NULL");
+        this.pool = pool;
+    }
+
+    /**
+     * Registers an artifact to be written by {@link #writeAll()}.
+     * 
+     * @param resource
+     * @param generator
+     * @return
+     */
+    public Artifact add(Resource resource,IContentGenerator generator) 
+    {
+        Validate.notNull(resource, "resource must not be NULL");
+        Validate.notNull(generator, "generator must not be NULL");
+        final Artifact result = new Artifact( resource , generator );
+        artifacts.add( result );
+        return result;
+    }
+
+    public List<Artifact> getArtifacts() {
+        return Collections.unmodifiableList( artifacts );
+    }
+
+    /**
+     * Generates and writes all registered artifacts, waiting for all of them to finish.
+     *
+     * @throws IOException the first I/O error that occurred, other tasks are still run to completion
+     */
+    public void writeAll() throws IOException 
+    {
+        if ( artifacts.size() == 1 ) 
+        {
+            artifacts.get(0).write();
+            return;
+        }
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>( artifacts.size() );
+        for ( Artifact artifact : artifacts ) 
+        {
+            tasks.add( pool.submit( () -> 
+            {
+                try {
+                    artifact.write();
+                } catch (IOException e) {
+                    throw new UncheckedIOException( e );
+                }
+            }));
+        }
+        Throwable error = null;
+        for ( ForkJoinTask<?> task : tasks ) 
+        {
+            try {
+                task.join();
+            } 
+            catch(RuntimeException | Error e) 
+            {
+                if ( error == null ) {
+                    error = e;
+                } else {
+                    error.addSuppressed( e );
+                }
+            }
+        }
+        if ( error instanceof UncheckedIOException ) {
+            throw ((UncheckedIOException) error).getCause();
+        }
+        if ( error instanceof RuntimeException ) {
+            throw (RuntimeException) error;
+        }
+        if ( error != null ) {
+            throw (Error) error;
+        }
+    }
+
+    /**
+     * Writes data to a resource unless the resource already has exactly this content.
+     *
+     * @param resource
+     * @param data
+     * @return <code>true</code> if the resource was written, <code>false</code> if it already had the given content
+     * @throws IOException
+     */
+    public static boolean writeIfChanged(Resource resource,byte[] data) throws IOException 
+    {
+        Validate.notNull(resource, "resource must not be NULL");
+        Validate.notNull(data, "data must not be NULL");
+
+        if ( resource instanceof FileResource ) {
+            return writeIfChanged( ((FileResource) resource).getFile() , data );
+        }
+        if ( resource.exists() && resource.size() == data.length ) 
+        {
+            try ( InputStream in = resource.createInputStream() ) 
+            {
+                if ( Arrays.equals( IOUtils.toByteArray( in ) , data ) ) {
+                    return false;
+                }
+            }
+        }
+        try ( OutputStream out = resource.createOutputStream() ) {
+            out.write( data );
+        }
+        return true;
+    }
+
+    private static boolean writeIfChanged(File file,byte[] data) throws IOException 
+    {
+        if ( file.isFile() && file.length() == data.length && Arrays.equals( Files.readAllBytes( file.toPath() ) , data ) ) {
+            return false;
+        }
+        // temporary file must be in the same directory for the rename to be atomic,
+        // not using File#createTempFile() here as that would create the file with owner-only permissions
+        final File dir = file.getAbsoluteFile().getParentFile();
+        final File tmp = new File( dir , "."+file.getName()+"."+Long.toHexString( System.nanoTime() )+".tmp" );
+        try 
+        {
+            try ( FileChannel channel = FileChannel.open( tmp.toPath() , StandardOpenOption.WRITE , StandardOpenOption.CREATE_NEW ) ) 
+            {
+                final ByteBuffer buffer = ByteBuffer.wrap( data );
+                while ( buffer.hasRemaining() ) {
+                    channel.write( buffer );
+                }
+            }
+            try {
+                Files.move( tmp.toPath() , file.toPath() , StandardCopyOption.ATOMIC_MOVE , StandardCopyOption.REPLACE_EXISTING );
+            } catch(AtomicMoveNotSupportedException e) {
+                Files.move( tmp.toPath() , file.toPath() , StandardCopyOption.REPLACE_EXISTING );
+            }
+        } 
+        finally 
+        {
+            tmp.delete();
+            FileHashCache.getInstance().invalidate( file );
+        }
+        return true;
+    }
+}
@@ -23,6 +23,10 @@ import java.util.Optional;
 import org.apache.commons.lang3.Validate;
 import org.apache.log4j.Logger;
 
+import de.codesourcery.javr.assembler.metrics.CompileMetrics;
+import de.codesourcery.javr.assembler.metrics.ICompileMetricsListener;
+import de.codesourcery.javr.assembler.metrics.MetricsCollector;
+import de.codesourcery.javr.assembler.metrics.PhaseMetrics;
 import de.codesourcery.javr.assembler.phases.ExpandMacrosPhase;
 import de.codesourcery.javr.assembler.phases.GatherSymbolsPhase;
 import de.codesourcery.javr.assembler.phases.GenerateCodePhase;
@@ -42,6 +46,10 @@ public class Assembler
 
     private CompilationContext compilationContext;
 
+    private final List<ICompileMetricsListener> metricsListeners = new ArrayList<>();
+    
+    private CompileMetrics lastMetrics;
+
     public boolean compile(IProject project,IObjectCodeWriter codeWriter,ResourceFactory rf, IConfigProvider config) throws IOException
     {
         Validate.notNull(project, "project must not be NULL");
@@ -58,19 +66,14 @@ public class Assembler
         this.compilerSettings.populateFrom( project.getConfiguration().getCompilerSettings() );
         this.compilationContext = new CompilationContext( unit , project.getGlobalSymbolTable() , codeWriter , rf , compilerSettings , config.getConfig() );
         this.compilationContext.setGenerateRelocations( project.getConfiguration().getOutputFormat().supportsRelocation());
+        this.compilationContext.setCrossReferenceIndex( project.getCrossReferenceIndex() );
         
-        final List<Phase> phases = new ArrayList<>();
-        phases.add( new ParseSourcePhase(config) );
-        phases.add( new SyntaxCheckPhase() );
-        phases.add( new GatherSymbolsPhase() );
-        phases.add( new SubstituteRegisterAliases() );
-        phases.add( new ExpandMacrosPhase() );
-        phases.add( new PrepareGenerateCodePhase() );
-        phases.add( new GenerateCodePhase() );
+        final List<Phase> phases = createPhases( config );
 
         LOG.info("assemble(): Now compiling "+unit);
 
-        final StringBuilder debugOutput = new StringBuilder(); 
+        final MetricsCollector metrics = new MetricsCollector( metricsListeners );
+        this.compilationContext.setMetricsCollector( metrics );
         boolean success = false;
         try 
         {
@@ -79,30 +82,29 @@ public class Assembler
                 LOG.debug("Assembler phase: "+phase);
                 compilationContext.beforePhase();
 
-                final long start = System.currentTimeMillis();
+                final long start = System.nanoTime();
+                final long allocatedAtStart = MetricsCollector.currentThreadAllocatedBytes();
                 boolean hasErrors;
                 try 
                 {
                     phase.beforeRun( compilationContext );
 
-                    final long timeAtPhaseStart = System.currentTimeMillis();
+                    final long timeAtPhaseStart = System.nanoTime();
                     phase.run( compilationContext );
-                    final long timeAfterPhaseStart = System.currentTimeMillis();
+                    final long timeAfterPhaseStart = System.nanoTime();
 
                     hasErrors = unit.hasErrors(true);
                     if ( ! hasErrors ) {
                         phase.afterSuccessfulRun( compilationContext );
                     } 
-                    final long timeAfterRun = System.currentTimeMillis();
+                    final long timeAfterRun = System.nanoTime();
                     
-                    final String msg = "**** Phase "+phase+" ****\n"+
-                    		     "Preparation   : "+(timeAtPhaseStart-start)+" ms\n"+
-                    		     "Runtime       : "+(timeAfterPhaseStart-timeAtPhaseStart)+" ms\n"+
-                    		     "Postprocessing: "+(timeAfterRun-timeAfterPhaseStart)+" ms";
-                    if ( debugOutput.length() > 0 ) {
-                    	debugOutput.append("\n");
-                    }
-                    debugOutput.append(msg);
+                    metrics.phaseFinished( new PhaseMetrics( phase.getName() , 
+                            timeAtPhaseStart-start , 
+                            timeAfterPhaseStart-timeAtPhaseStart , 
+                            timeAfterRun-timeAfterPhaseStart , 
+                            MetricsCollector.allocatedBytesSince( allocatedAtStart ) ,
+                            ! hasErrors ) );
                 } 
                 catch (Exception e) 
                 {
@@ -119,22 +121,71 @@ public class Assembler
                     return false;
                 }                
             }
-
-            System.err.flush();
-            System.out.flush();
-            System.out.println( "=================================");
-            System.out.println( debugOutput );
-            System.out.println( "=================================");
-            System.out.flush();
             success = true;
         } 
         finally 
         {
-            codeWriter.finish( compilationContext , success );
+            try {
+                codeWriter.finish( compilationContext , success );
+            } 
+            finally 
+            {
+                // hand the symbols of this run to readers that must not see a half-populated table
+                project.getGlobalSymbolTable().publishSnapshot();
+                lastMetrics = metrics.compilationFinished( unit , success );
+                if ( LOG.isDebugEnabled() ) {
+                    LOG.debug("compile(): Compilation metrics:\n"+lastMetrics);
+                }
+            }
         }
         return true;
     }
 
+    /**
+     * Registers a listener that receives performance metrics of all subsequent compilations.
+     * 
+     * @param listener
+     */
+    public void addMetricsListener(ICompileMetricsListener listener) 
+    {
+        Validate.notNull(listener, "listener must not be NULL");
+        metricsListeners.add( listener );
+    }
+    
+    public void removeMetricsListener(ICompileMetricsListener listener) 
+    {
+        Validate.notNull(listener, "listener must not be NULL");
+        metricsListeners.remove( listener );
+    }
+    
+    /**
+     * Returns the performance metrics of the most recent compilation.
+     * 
+     * @return metrics or <code>null</code> if {@link #compile(IProject, IObjectCodeWriter, ResourceFactory, IConfigProvider)} has not been called yet
+     */
+    public CompileMetrics getLastMetrics() {
+        return lastMetrics;
+    }
+
+    /**
+     * Creates the compiler phases in the order they need to be executed.
+     * 
+     * @param config
+     * @return
+     */
+    public static List<Phase> createPhases(IConfigProvider config) 
+    {
+        final List<Phase> phases = new ArrayList<>();
+        phases.add( new ParseSourcePhase(config) );
+        phases.add( new SyntaxCheckPhase() );
+        phases.add( new GatherSymbolsPhase() );
+        phases.add( new SubstituteRegisterAliases() );
+        phases.add( new ExpandMacrosPhase() );
+        phases.add( new PrepareGenerateCodePhase() );
+        phases.add( new GenerateCodePhase() );
+        return phases;
+    }
+    
     public CompilerSettings getCompilerSettings() {
         return compilerSettings;
     }
@@ -18,15 +18,19 @@ package de.codesourcery.javr.assembler;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Recording;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -35,9 +39,14 @@ import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PatternLayout;
 
-import de.codesourcery.hex2raw.IntelHex;
+import de.codesourcery.javr.assembler.arch.Architecture;
+import de.codesourcery.javr.assembler.arch.DeviceRegistry;
 import de.codesourcery.javr.assembler.arch.IArchitecture;
-import de.codesourcery.javr.assembler.arch.impl.ATMega88;
+import de.codesourcery.javr.assembler.cache.BuildCache;
+import de.codesourcery.javr.assembler.diff.FirmwareDiff;
+import de.codesourcery.javr.assembler.metrics.CompileMetrics;
+import de.codesourcery.javr.assembler.metrics.JfrMetricsListener;
+import de.codesourcery.javr.assembler.metrics.MemoryMap;
 import de.codesourcery.javr.assembler.parser.Lexer;
 import de.codesourcery.javr.assembler.parser.LexerImpl;
 import de.codesourcery.javr.assembler.parser.Parser;
@@ -46,7 +55,9 @@ import de.codesourcery.javr.assembler.parser.Parser.Severity;
 import de.codesourcery.javr.assembler.parser.Scanner;
 import de.codesourcery.javr.assembler.util.FileResource;
 import de.codesourcery.javr.assembler.util.FileResourceFactory;
+import de.codesourcery.javr.assembler.util.IntelHex;
 import de.codesourcery.javr.assembler.util.Resource;
+import de.codesourcery.javr.ui.ObjectMapperFactory;
 import de.codesourcery.javr.ui.Project;
 import de.codesourcery.javr.ui.config.IConfig;
 import de.codesourcery.javr.ui.config.ProjectConfiguration;
@@ -57,6 +68,8 @@ public class CmdLine
 {
     private static final Logger LOG = Logger.getLogger(CmdLine.class);
     
+    private static final String CACHE_BUILD = "build";
+    
     private boolean verbose = false;
     private boolean hideWarnings = false;
     
@@ -68,14 +81,22 @@ public class CmdLine
     private static int printHelp() 
     {
         System.out.println();
-        System.out.println("Usage:\n [-v] [-h] <source file>\n\n");
-        System.out.println("Assembles the source file for an ATMega88.\n");
+        System.out.println("Usage:\n [-v] [-h] <source file>\n diff [-h] <old image> <new image>\n\n");
+        System.out.println("Assembles the source file for an ATMega88 or the part selected with --device.\n");
         System.out.println("-h/--help             => show help");
         System.out.println("-v                    => verbose output");
         System.out.println("--ignore-segment-size => compile even if output size exceeds the architecture limits");
         System.out.println("--max-errors <num>    => sets the maximum number of errors that is permitted before compilation is aborted");
         System.out.println("-f <intel|raw>        => output format (intel hex or raw binary)");
+        System.out.println("--device <name>       => assemble for a specific part (for example ATmega328P)");
         System.out.println("--hide-warnings       => do not print warning messages");
+        System.out.println("--build-cache <dir>   => re-use build artifacts from this cache directory if none of the inputs changed");
+        System.out.println("--build-cache-size <MB> => max. size of the build cache directory (default: "+(BuildCache.DEFAULT_MAX_SIZE/(1024*1024))+" MB)");
+        System.out.println("--metrics-json <file> => write compilation performance metrics to a JSON file");
+        System.out.println("--metrics-jfr <file>  => record compilation performance metrics as Java Flight Recorder events to a file");
+        System.out.println("--map                 => write a memory map (<source file>.map and <source file>.map.json), bypasses build cache hits");
+        System.out.println();
+        System.out.println("diff                  => compare two firmware images instead, see 'diff --help'");
         return 1;
     }
 
@@ -95,6 +116,10 @@ public class CmdLine
     {
         setupConsoleAppender();
         
+        if ( arguments.length > 0 && "diff".equals( arguments[0] ) ) {
+            return FirmwareDiff.run( Arrays.copyOfRange( arguments , 1 , arguments.length ) );
+        }
+        
         final Assembler asm = new Assembler();    
         
         final Set<String> switches = new HashSet<>( Arrays.asList( new String[] {"-v","-h", "--help" , "--verbose"} ) );
@@ -111,6 +136,12 @@ public class CmdLine
         
         final Set<String> argsSeen = new HashSet<>();
         OutputFormat outputFormat = null;
+        File buildCacheDir = null;
+        long buildCacheSize = BuildCache.DEFAULT_MAX_SIZE;
+        File metricsJsonFile = null;
+        File metricsJfrFile = null;
+        boolean writeMemoryMap = false;
+        String deviceName = null;
         
         final CompilerSettings compilerSettings = new CompilerSettings();
         for ( int i = 0 ; i < args.size() ; i++ ) 
@@ -128,6 +159,16 @@ public class CmdLine
                 compilerSettings.setFailOnAddressOutOfRange( false );
                 argsToRemove = 1;
             } 
+            else if ( "--map".equals( arg ) ) 
+            {
+                if ( argsSeen.contains( arg ) ) 
+                {
+                    return error("Duplicate command-line argument '"+arg+"'");
+                }
+                argsSeen.add( arg );
+                writeMemoryMap = true;
+                argsToRemove = 1;
+            }
             else if ( "--hide-warnings".equals( arg ) ) 
             {
                 if ( argsSeen.contains( arg ) ) 
@@ -172,6 +213,72 @@ public class CmdLine
                 }
                 argsToRemove = 2;                
             }
+            else if ( "--build-cache".equals( arg ) ) 
+            {
+                if ( ! hasMoreArgs ) {
+                    return error("--build-cache option needs an argument");
+                }
+                if ( argsSeen.contains( arg ) ) 
+                {
+                    return error("Duplicate command-line argument '"+arg+"'");
+                }
+                argsSeen.add( arg );
+                buildCacheDir = new File( nextArg.trim() );
+                argsToRemove = 2;
+            }
+            else if ( "--build-cache-size".equals( arg ) ) 
+            {
+                if ( ! hasMoreArgs ) {
+                    return error("--build-cache-size option needs an argument");
+                }
+                if ( argsSeen.contains( arg ) ) 
+                {
+                    return error("Duplicate command-line argument '"+arg+"'");
+                }
+                argsSeen.add( arg );
+                try {
+                    buildCacheSize = Long.parseLong( nextArg.trim() )*1024*1024;
+                } catch(NumberFormatException e) {
+                    return error("Invalid command-line, expected a number but got '"+nextArg.trim()+"'");
+                }
+                if ( buildCacheSize <= 0 ) {
+                    return error("Build cache size must be > 0");
+                }
+                argsToRemove = 2;
+            }
+            else if ( "--device".equals( arg ) ) 
+            {
+                if ( ! hasMoreArgs ) {
+                    return error("--device option needs an argument");
+                }
+                if ( argsSeen.contains( arg ) ) 
+                {
+                    return error("Duplicate command-line argument '"+arg+"'");
+                }
+                argsSeen.add( arg );
+                if ( ! DeviceRegistry.getInstance().isKnownDevice( nextArg.trim() ) ) {
+                    return error("Unknown device '"+nextArg.trim()+"', supported devices are: "+String.join(", ", DeviceRegistry.getInstance().getDeviceNames() ) );
+                }
+                deviceName = nextArg.trim();
+                argsToRemove = 2;
+            }
+            else if ( "--metrics-json".equals( arg ) || "--metrics-jfr".equals( arg ) ) 
+            {
+                if ( ! hasMoreArgs ) {
+                    return error(arg+" option needs an argument");
+                }
+                if ( argsSeen.contains( arg ) ) 
+                {
+                    return error("Duplicate command-line argument '"+arg+"'");
+                }
+                argsSeen.add( arg );
+                if ( "--metrics-json".equals( arg ) ) {
+                    metricsJsonFile = new File( nextArg.trim() );
+                } else {
+                    metricsJfrFile = new File( nextArg.trim() );
+                }
+                argsToRemove = 2;
+            }
              
             if ( argsToRemove != 0 ) 
             {
@@ -201,17 +308,50 @@ public class CmdLine
             return error( "Failed to open file",e );
         }
 
-        final IArchitecture arch = new ATMega88();
+        final IArchitecture arch = deviceName != null ? DeviceRegistry.getInstance().getArchitecture( deviceName ) : Architecture.ATMEGA88.getImplementation();
 
-        final ObjectCodeWriter writer;
+        final Map<Segment,OutputSpec> outputSpecs;
+        final Resource mapFile;
+        final Resource mapJsonFile;
         try {
-            writer = createOutputWriter(srcFile, outputFormat, unit, arch);
+            outputSpecs = createOutputSpecs(srcFile, outputFormat);
+            mapFile = writeMemoryMap ? new FileResource( new File( srcFile.getParentFile() , srcFile.getName()+".map" ) , Resource.ENCODING_UTF ) : null;
+            mapJsonFile = writeMemoryMap ? new FileResource( new File( srcFile.getParentFile() , srcFile.getName()+".map.json" ) , Resource.ENCODING_UTF ) : null;
         } 
         catch (IOException e1) 
         {
             return error("Failed to create output files",e1);
         }
 
+        final BuildCache buildCache = buildCacheDir == null ? null : new BuildCache( buildCacheDir , buildCacheSize );
+        final String cacheKey = buildCache == null ? null : BuildCache.rootKey( unit.getResource() , srcFile.getParentFile() , compilerSettings , arch , outputSpecs );
+        // the memory map needs the symbol table, cached entries cannot provide it
+        if ( cacheKey != null && ! writeMemoryMap ) 
+        {
+            final Optional<BuildCache.Entry> cached = buildCache.lookup( cacheKey , srcFile.getParentFile() );
+            if ( cached.isPresent() ) 
+            {
+                try {
+                    cached.get().restore( outputSpecs );
+                    cached.get().restoreMessages( unit );
+                } catch (IOException e) {
+                    return error("Failed to restore build artifacts from cache",e);
+                }
+                System.out.println("Using cached build artifacts for "+srcFile.getAbsolutePath() );
+                printMessages( unit );
+                if ( metricsJsonFile != null ) 
+                {
+                    final CompileMetrics metrics = new CompileMetrics( unit.getResource().toString() , true , 0 , 0 , 0 , 0 , 
+                            new ArrayList<>() , new ArrayList<>() , new HashMap<>() );
+                    writeMetrics( metrics.withCacheStatistics( CACHE_BUILD , buildCache.getStatistics() ) , metricsJsonFile );
+                }
+                return 0;
+            }
+        }
+
+        final Set<Segment> segmentsWritten = new HashSet<>();
+        final ObjectCodeWriter writer = createOutputWriter(outputSpecs, segmentsWritten, arch, unit, mapFile, mapJsonFile);
+
         System.out.println("Compiling "+srcFile.getAbsolutePath() );
         final ResourceFactory rf = FileResourceFactory.createInstance( srcFile.getParentFile() );
 
@@ -236,23 +376,75 @@ public class CmdLine
             }
         };
 
+        Recording recording = null;
+        if ( metricsJfrFile != null ) 
+        {
+            asm.addMetricsListener( new JfrMetricsListener() );
+            recording = new Recording();
+            recording.enable( JfrMetricsListener.UnitParsedEvent.class );
+            recording.enable( JfrMetricsListener.PhaseFinishedEvent.class );
+            recording.enable( JfrMetricsListener.CompilationFinishedEvent.class );
+            recording.start();
+        }
+        
         try 
         {
             final ProjectConfiguration projectConfiguration = new ProjectConfiguration();
             projectConfiguration.setCompilerSettings( compilerSettings );
 
             final Project project = new Project( unit , projectConfiguration );
-            asm.compile( project , writer , rf , ()-> config );
+            final boolean success = asm.compile( project , writer , rf , ()-> config );
             printMessages(unit);
+            if ( success && cacheKey != null ) 
+            {
+                storeInCache( buildCache , cacheKey , srcFile.getParentFile() , unit , outputSpecs , segmentsWritten );
+            }
         } 
         catch (IOException e) 
         {
             printMessages(unit);
             return error("compilation failed",e);
         }
+        finally 
+        {
+            if ( recording != null ) 
+            {
+                try {
+                    recording.stop();
+                    recording.dump( metricsJfrFile.toPath() );
+                } catch (IOException e) {
+                    LOG.error("run(): Failed to write flight recording to "+metricsJfrFile.getAbsolutePath(),e);
+                    System.err.println("ERROR: Failed to write flight recording to "+metricsJfrFile.getAbsolutePath()+": "+e.getMessage());
+                } finally {
+                    recording.close();
+                }
+            }
+        }
+        
+        if ( metricsJsonFile != null && asm.getLastMetrics() != null ) 
+        {
+            CompileMetrics metrics = asm.getLastMetrics();
+            if ( buildCache != null ) {
+                metrics = metrics.withCacheStatistics( CACHE_BUILD , buildCache.getStatistics() );
+            }
+            writeMetrics( metrics , metricsJsonFile );
+        }
         return 0;
     }
     
+    private static void writeMetrics(CompileMetrics metrics,File file) 
+    {
+        try {
+            ObjectMapperFactory.getObjectMapper().writerWithDefaultPrettyPrinter().writeValue( file , metrics );
+        } 
+        catch(IOException e) 
+        {
+            // compilation succeeded, failing to write metrics is not fatal
+            LOG.error("writeMetrics(): Failed to write compilation metrics to "+file.getAbsolutePath(),e);
+            System.err.println("ERROR: Failed to write compilation metrics to "+file.getAbsolutePath()+": "+e.getMessage());
+        }
+    }
+    
     private void printMessages(CompilationUnit unit) 
     {
         final List<CompilationMessage> messages = unit.getMessages( true );
@@ -283,10 +475,35 @@ public class CmdLine
         }
     }
     
-    private static ObjectCodeWriter createOutputWriter(final File srcFile,OutputFormat format,final CompilationUnit unit, final IArchitecture arch)throws IOException 
+    private static void storeInCache(BuildCache cache,String cacheKey,File baseDir,CompilationUnit unit,Map<Segment,OutputSpec> outputSpecs,Set<Segment> segmentsWritten) 
+    {
+        final List<BuildCache.Input> inputs = BuildCache.gatherInputs( unit );
+        if ( inputs == null ) {
+            return;
+        }
+        try 
+        {
+            final Map<Segment,byte[]> artifacts = new HashMap<>();
+            for ( Segment s : segmentsWritten ) 
+            {
+                try ( InputStream in = outputSpecs.get( s ).resource.createInputStream() ) {
+                    artifacts.put( s , IOUtils.toByteArray( in ) );
+                }
+            }
+            final List<BuildCache.Message> messages = unit.getMessages( true ).stream()
+                    .map( BuildCache.Message::of )
+                    .collect( Collectors.toList() );
+            cache.store( cacheKey , baseDir , new BuildCache.Entry( inputs , messages , artifacts ) );
+        } 
+        catch(IOException e) 
+        {
+            // build succeeded, failing to update the cache is not fatal
+            LOG.error("storeInCache(): Failed to update build cache "+cache.getDirectory().getAbsolutePath(),e);
+        }
+    }
+    
+    private static Map<Segment,OutputSpec> createOutputSpecs(final File srcFile,OutputFormat format) throws IOException 
     {
-        final boolean[] compilationSuccess={false};
-
         final String fileSuffix;
         switch(format) 
         {
@@ -303,13 +520,17 @@ public class CmdLine
         outputSpec.put( Segment.FLASH , new OutputSpec(flashOut,Segment.FLASH, format ) ); 
         outputSpec.put( Segment.EEPROM, new OutputSpec(epromOut,Segment.EEPROM, format ) );
         outputSpec.put( Segment.SRAM , new OutputSpec(sramOut,Segment.SRAM,format ) );
-
+        return outputSpec;
+    }
+    
+    private static ObjectCodeWriter createOutputWriter(final Map<Segment,OutputSpec> outputSpec,final Set<Segment> segmentsWritten, final IArchitecture arch,
+            final CompilationUnit unit, final Resource mapFile, final Resource mapJsonFile)
+    {
         return new ObjectCodeWriter() 
         {
             @Override
             public void finish(ICompilationContext context,boolean success) throws IOException 
             {
-                compilationSuccess[0] = success;
                 super.finish(context,success);
 
                 if ( ! success ) 
@@ -317,6 +538,9 @@ public class CmdLine
                     return;
                 }
 
+                final ArtifactWriter writer = new ArtifactWriter();
+                final Map<Segment,ArtifactWriter.Artifact> artifacts = new EnumMap<>( Segment.class );
+                final Map<Segment,Integer> bytesUsed = new EnumMap<>( Segment.class );
                 for ( Segment s : Segment.values() ) 
                 {
                     final OutputSpec spec = outputSpec.get( s );
@@ -331,32 +555,48 @@ public class CmdLine
                         LOG.info("finish(): Not writing file, compilation produced no data for segment "+s);
                         continue;
                     }
-                    int bytesWritten;
-                    try ( InputStream in = buffer.createInputStream() ; OutputStream out = spec.resource.createOutputStream() ) 
+                    // generators run concurrently, so hand them a copy of the data
+                    final byte[] data = buffer.toByteArray();
+                    final int startAddress = buffer.getStartAddress().getByteAddress();
+                    if ( spec.format == OutputFormat.INTEL_HEX ) 
                     {
-                        if ( spec.format == OutputFormat.INTEL_HEX ) 
-                        {
-                            bytesWritten = new IntelHex().rawToHex( in , out , buffer.getStartAddress().getByteAddress() ); 
-                        } 
-                        else if ( spec.format == OutputFormat.RAW ) 
-                        {
-                            bytesWritten = IOUtils.copy( in , out );
-                        } else {
-                            throw new RuntimeException("Unhandled output format: "+spec.format);
-                        }
+                        artifacts.put( s , writer.add( spec.resource , out -> new IntelHex().encode( data , 0 , data.length , startAddress , out ) ) ); 
+                    } 
+                    else if ( spec.format == OutputFormat.RAW ) 
+                    {
+                        artifacts.put( s , writer.add( spec.resource , out -> out.write( data ) ) );
+                    } else {
+                        throw new RuntimeException("Unhandled output format: "+spec.format);
                     }
-                    
+                    bytesUsed.put( s , data.length );
+                }      
+                
+                if ( mapFile != null ) 
+                {
+                    final MemoryMap memoryMap = MemoryMap.create( unit , context.globalSymbolTable() , this , arch );
+                    writer.add( mapFile , memoryMap::writeText );
+                    writer.add( mapJsonFile , memoryMap::writeJson );
+                }
+                
+                writer.writeAll();
+                
+                for ( Map.Entry<Segment,ArtifactWriter.Artifact> entry : artifacts.entrySet() )
+                {
+                    final Segment s = entry.getKey();
+                    final ArtifactWriter.Artifact artifact = entry.getValue();
+                    final int bytesWritten = bytesUsed.get( s );
+                    segmentsWritten.add( s );
                     if ( bytesWritten > 0 )
                     {
                         final int segSize = arch.getSegmentSize( s );
                         System.out.println("Architecture "+arch+" has "+segSize+" bytes of "+s);
                         final float percentage = 100.0f*(bytesWritten/(float) segSize);
                         final DecimalFormat DF = new DecimalFormat("#####0.00");
-                        final String msg = s+": Wrote "+bytesWritten+" bytes ("+DF.format(percentage)+" %) to "+spec.resource;
+                        final String msg = s+": Wrote "+bytesWritten+" bytes ("+DF.format(percentage)+" %) to "+artifact.resource;
                         context.message( CompilationMessage.info( context.currentCompilationUnit() , msg ) );                    
                     }
-                    LOG.info("finish(): Wrote "+bytesWritten+" bytes to "+spec.resource+" in format "+spec.format);
-                }      
+                    LOG.info("finish(): "+( artifact.isUpdated() ? "Wrote " : "Unchanged " )+artifact.getSize()+" bytes to "+artifact.resource+" in format "+outputSpec.get( s ).format);
+                }
             }
         };
     }
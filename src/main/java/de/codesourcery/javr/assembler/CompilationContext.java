@@ -25,9 +25,11 @@ import org.apache.log4j.Logger;
 
 import de.codesourcery.javr.assembler.arch.IArchitecture;
 import de.codesourcery.javr.assembler.elf.Relocation;
+import de.codesourcery.javr.assembler.metrics.MetricsCollector;
 import de.codesourcery.javr.assembler.parser.Parser.CompilationMessage;
 import de.codesourcery.javr.assembler.parser.Parser.Severity;
 import de.codesourcery.javr.assembler.parser.ast.ASTNode;
+import de.codesourcery.javr.assembler.symbols.CrossReferenceIndex;
 import de.codesourcery.javr.assembler.symbols.SymbolTable;
 import de.codesourcery.javr.assembler.util.Resource;
 import de.codesourcery.javr.ui.config.IConfig;
@@ -63,6 +65,9 @@ public final class CompilationContext implements ICompilationContext
     
     private int errorCount; // total error count
     
+    private MetricsCollector metricsCollector = new MetricsCollector();
+    private CrossReferenceIndex crossReferenceIndex = new CrossReferenceIndex();
+    
     public CompilationContext(
     		CompilationUnit rootCompilationUnit,
     		SymbolTable globalSymbolTable,
@@ -292,4 +297,26 @@ public final class CompilationContext implements ICompilationContext
     public void setGenerateRelocations(boolean yesNo) {
         this.generateLocations = yesNo;
     }
+    
+    @Override
+    public MetricsCollector getMetricsCollector() {
+        return metricsCollector;
+    }
+    
+    public void setMetricsCollector(MetricsCollector metricsCollector) 
+    {
+        Validate.notNull(metricsCollector, "metricsCollector must not be NULL");
+        this.metricsCollector = metricsCollector;
+    }
+    
+    @Override
+    public CrossReferenceIndex getCrossReferenceIndex() {
+        return crossReferenceIndex;
+    }
+    
+    public void setCrossReferenceIndex(CrossReferenceIndex crossReferenceIndex) 
+    {
+        Validate.notNull(crossReferenceIndex, "crossReferenceIndex must not be NULL");
+        this.crossReferenceIndex = crossReferenceIndex;
+    }
 }
\ No newline at end of file
@@ -16,7 +16,10 @@
 package de.codesourcery.javr.assembler;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.lang3.Validate;
 import org.apache.log4j.Logger;
@@ -165,12 +168,23 @@ public class CompilationUnit
 
     public List<CompilationMessage> getMessages(boolean includeDependencies) 
     {
-        final List<CompilationMessage>  result = new ArrayList<>( this.messages );
-        if ( includeDependencies ) 
+        if ( ! includeDependencies ) {
+            return new ArrayList<>( this.messages );
+        }
+        // collect into a single list, visiting units included more than once only once
+        final List<CompilationMessage> result = new ArrayList<>();
+        final Set<CompilationUnit> visited = Collections.newSetFromMap( new IdentityHashMap<>() );
+        final List<CompilationUnit> stack = new ArrayList<>();
+        stack.add( this );
+        while ( ! stack.isEmpty() ) 
         {
-            for ( CompilationUnit child : dependencies ) 
+            final CompilationUnit unit = stack.remove( stack.size()-1 );
+            if ( visited.add( unit ) ) 
             {
-                result.addAll( child.getMessages( true ) );
+                result.addAll( unit.messages );
+                for ( int i = unit.dependencies.size()-1 ; i >= 0 ; i-- ) {
+                    stack.add( unit.dependencies.get(i) );
+                }
             }
         }
         return result;
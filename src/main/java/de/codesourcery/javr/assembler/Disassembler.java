@@ -28,20 +28,23 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import de.codesourcery.javr.assembler.arch.Architecture;
 import de.codesourcery.javr.assembler.arch.IArchitecture;
 import de.codesourcery.javr.assembler.arch.IArchitecture.DisassemblerSettings;
-import de.codesourcery.javr.assembler.arch.impl.ATMega328p;
+import de.codesourcery.javr.assembler.util.IntelHex;
 
 public class Disassembler {
 
-    private IArchitecture architecture = new ATMega328p();
+    private IArchitecture architecture = Architecture.ATMEGA328P.getImplementation();
     
     private final DisassemblerSettings settings = defaultSettings( new DisassemblerSettings() );
     private boolean verboseMode;
+    private boolean hexInput;
 
     private static void printHelp() 
     {
-        System.out.println("USAGE: [-h|--help] [-v|--verbose]  [--stdin] [--avr-as] <input file> [output file]");
+        System.out.println("USAGE: [-h|--help] [-v|--verbose]  [--stdin] [--avr-as] [--hex] <input file> [output file]");
+        System.out.println("\nInput files ending with '.hex' or input read with --hex are expected to be in Intel HEX format, all other input is treated as raw binary.");
     }
     
     public static void main(String[] arguments) 
@@ -89,6 +92,9 @@ public class Disassembler {
                     case "--avr-as":
                         disasm.setAvrAsMode( true );
                         break;
+                    case "--hex":
+                        disasm.setHexInput( true );
+                        break;
                     default:
                         if ( arg.startsWith("-") ) {
                             throw new RuntimeException("ERROR: Unknown command-line option: '"+arg+"'");
@@ -102,6 +108,9 @@ public class Disassembler {
                             if ( disasm.isVerboseMode() ) {
                                 System.out.println("INFO: Reading input from "+file);
                             }                                
+                            if ( file.getName().toLowerCase().endsWith(".hex") ) {
+                                disasm.setHexInput( true );
+                            }
                             in = new FileInputStream( file );
                         }
                         else if ( out == System.out ) 
@@ -156,6 +165,19 @@ public class Disassembler {
         return verboseMode;
     }
 
+    /**
+     * Sets whether input is in Intel HEX format instead of raw binary.
+     * 
+     * @param hexInput
+     */
+    public void setHexInput(boolean hexInput) {
+        this.hexInput = hexInput;
+    }
+
+    public boolean isHexInput() {
+        return hexInput;
+    }
+
     public void setAvrAsMode(boolean yesNo) 
     {
         if ( yesNo ) {
@@ -185,6 +207,33 @@ public class Disassembler {
     }
 
     public void disassemble(InputStream in,OutputStream out) throws IOException 
+    {
+        final byte[] data;
+        if ( hexInput ) 
+        {
+            final IntelHex.Image image;
+            try {
+                image = IntelHex.decode( in );
+            } finally {
+                in.close();
+            }
+            // gaps are filled with 0xff so that disassembled addresses match the image
+            data = image.toByteArray();
+            settings.startAddress = image.getStartAddress();
+        } else {
+            data = readFully( in );
+        }
+        if ( verboseMode ) {
+            System.out.println("Disassembling "+data.length+" bytes");
+        }
+
+        final String disassembly = architecture.disassemble( data , data.length , settings );
+        try( BufferedWriter writer = new BufferedWriter( new OutputStreamWriter( out ) ) ) {
+            writer.write( disassembly );
+        }
+    }    
+
+    private static byte[] readFully(InputStream in) throws IOException 
     {
         final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
         final byte[] tmpBuffer = new byte[1024];
@@ -198,14 +247,6 @@ public class Disassembler {
             in.close();
         }
 
-        final byte[] data = buffer.toByteArray();
-        if ( verboseMode ) {
-            System.out.println("Disassembling "+data.length+" bytes");
-        }
-
-        final String disassembly = architecture.disassemble( data , data.length , settings );
-        try( BufferedWriter writer = new BufferedWriter( new OutputStreamWriter( out ) ) ) {
-            writer.write( disassembly );
-        }
-    }    
+        return buffer.toByteArray();
+    }
 }
@@ -17,8 +17,10 @@ package de.codesourcery.javr.assembler;
 
 import de.codesourcery.javr.assembler.arch.IArchitecture;
 import de.codesourcery.javr.assembler.elf.Relocation;
+import de.codesourcery.javr.assembler.metrics.MetricsCollector;
 import de.codesourcery.javr.assembler.parser.Parser.CompilationMessage;
 import de.codesourcery.javr.assembler.parser.ast.ASTNode;
+import de.codesourcery.javr.assembler.symbols.CrossReferenceIndex;
 import de.codesourcery.javr.assembler.symbols.SymbolTable;
 import de.codesourcery.javr.assembler.util.Resource;
 
@@ -151,4 +153,22 @@ public interface ICompilationContext
     public CompilationUnit currentCompilationUnit();
     
     public IArchitecture getArchitecture();    
-}
\ No newline at end of file
+
+    /**
+     * Returns the collector for performance metrics of this compilation.
+     * 
+     * @return collector, by default a new instance whose results are discarded
+     */
+    public default MetricsCollector getMetricsCollector() {
+        return new MetricsCollector();
+    }
+
+    /**
+     * Returns the index that receives all symbol references found during compilation.
+     * 
+     * @return index, by default a new instance whose contents are discarded
+     */
+    public default CrossReferenceIndex getCrossReferenceIndex() {
+        return new CrossReferenceIndex();
+    }
+}
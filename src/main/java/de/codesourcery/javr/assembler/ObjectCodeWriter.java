@@ -16,13 +16,12 @@
 package de.codesourcery.javr.assembler;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.Validate;
 
 import de.codesourcery.javr.assembler.elf.Relocation;
@@ -152,12 +151,7 @@ public class ObjectCodeWriter implements IObjectCodeWriter
         @Override
         public byte[] toByteArray() throws IOException
         {
-            final ByteArrayOutputStream codeOut = new ByteArrayOutputStream();
-            try ( InputStream in = createInputStream() ) 
-            {
-                IOUtils.copy( in , codeOut );
-            }
-            return codeOut.toByteArray(); 
+            return Arrays.copyOf( data , dataPtr );
         }
 
         @Override
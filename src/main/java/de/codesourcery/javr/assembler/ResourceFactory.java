@@ -29,4 +29,17 @@ public interface ResourceFactory
     public Resource resolveResource(String child) throws IOException;
     
     public Resource resolveResource(Resource parent,String child) throws IOException;
+
+    /**
+     * Returns the resource to read the current content of a resource from.
+     *
+     * <p>Factories may serve content that has not been written to the
+     * underlying storage yet (like unsaved editor contents).</p>
+     *
+     * @param resource
+     * @return
+     */
+    public default Resource getContent(Resource resource) {
+        return resource;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,419 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import de.codesourcery.javr.assembler.arch.Architecture;
+import de.codesourcery.javr.assembler.arch.DeviceRegistry;
+import de.codesourcery.javr.assembler.arch.IArchitecture;
+import de.codesourcery.javr.assembler.arch.IArchitecture.DisassemblerSettings;
+import de.codesourcery.javr.assembler.parser.Lexer;
+import de.codesourcery.javr.assembler.parser.LexerImpl;
+import de.codesourcery.javr.assembler.parser.Parser;
+import de.codesourcery.javr.assembler.parser.Scanner;
+import de.codesourcery.javr.assembler.util.HexDump;
+import de.codesourcery.javr.assembler.util.Resource;
+import de.codesourcery.javr.assembler.util.StringResource;
+import de.codesourcery.javr.ui.Project;
+import de.codesourcery.javr.ui.config.IConfig;
+import de.codesourcery.javr.ui.config.ProjectConfiguration;
+import de.codesourcery.javr.ui.config.ProjectConfiguration.OutputFormat;
+
+/**
+ * Randomized round-trip test for the disassembler and the assembler.
+ *
+ * <p>Random data is disassembled, the disassembly gets assembled again and the resulting
+ * flash image must be identical to the input. Everything happens in-process and on all cores, 
+ * failing inputs are shrunk to a minimal example before being reported.</p>
+ *
+ * <p>Replaces <code>scripts/test_roundtrip.sh</code> for checking javr against itself, comparing 
+ * against <code>avr-as</code> still requires the script.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class RoundTripFuzzer 
+{
+    private final IArchitecture arch;
+    private final IConfig config;
+    private final DisassemblerSettings settings = new DisassemblerSettings();
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int chunkSize = 4096;
+    private int maxFailures = 10;
+
+    /**
+     * A failed round-trip.
+     */
+    public static final class Failure 
+    {
+        public final byte[] input;
+        public final String disassembly;
+        /** assembled data, <code>NULL</code> if assembling the disassembly failed */
+        public final byte[] output;
+        public final String message;
+
+        public Failure(byte[] input, String disassembly, byte[] output, String message) 
+        {
+            this.input = input;
+            this.disassembly = disassembly;
+            this.output = output;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() 
+        {
+            final HexDump dump = new HexDump();
+            String result = message+"\nInput:\n"+dump.hexDump( 0 , input , input.length )+"\nDisassembly:\n"+disassembly;
+            if ( output != null ) {
+                result += "\nOutput:\n"+dump.hexDump( 0 , output , output.length );
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Outcome of a fuzzing run.
+     */
+    public static final class Result 
+    {
+        public final long inputs;
+        public final long bytes;
+        public final long instructions;
+        public final long elapsedMillis;
+        public final List<Failure> failures;
+
+        public Result(long inputs, long bytes, long instructions, long elapsedMillis, List<Failure> failures) 
+        {
+            this.inputs = inputs;
+            this.bytes = bytes;
+            this.instructions = instructions;
+            this.elapsedMillis = elapsedMillis;
+            this.failures = Collections.unmodifiableList( failures );
+        }
+
+        public boolean isSuccess() {
+            return failures.isEmpty();
+        }
+
+        @Override
+        public String toString() 
+        {
+            final long perMinute = elapsedMillis == 0 ? 0 : instructions*60_000/elapsedMillis;
+            return "Checked "+instructions+" instructions ("+bytes+" bytes in "+inputs+" inputs) in "+elapsedMillis+" ms ("+perMinute+" instructions/minute), "+failures.size()+" failures";
+        }
+    }
+
+    public RoundTripFuzzer(IArchitecture arch) 
+    {
+        Validate.notNull(arch, "arch must not be NULL");
+        this.arch = arch;
+        this.config = new IConfig() 
+        {
+            @Override
+            public String getEditorIndentString() { return "  "; }
+
+            @Override
+            public IArchitecture getArchitecture() { return arch; }
+
+            @Override
+            public Parser createParser() { return new Parser( arch ); }
+
+            @Override
+            public Lexer createLexer(Scanner s) { return new LexerImpl( s ); }
+        };
+        settings.printAddresses = false;
+        settings.printBytes = false;
+        settings.resolveRelativeAddresses = true;
+    }
+
+    public RoundTripFuzzer setThreads(int threads) 
+    {
+        Validate.isTrue( threads > 0 , "threads must be > 0");
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Sets the size of the random inputs.
+     * 
+     * @param chunkSize size in bytes, must be even
+     * @return
+     */
+    public RoundTripFuzzer setChunkSize(int chunkSize) 
+    {
+        Validate.isTrue( chunkSize > 0 && (chunkSize & 1) == 0 , "chunk size must be even and > 0");
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * Sets the number of failures after which fuzzing stops.
+     * 
+     * @param maxFailures
+     * @return
+     */
+    public RoundTripFuzzer setMaxFailures(int maxFailures) 
+    {
+        Validate.isTrue( maxFailures > 0 , "maxFailures must be > 0");
+        this.maxFailures = maxFailures;
+        return this;
+    }
+
+    /**
+     * Runs the fuzzer until either a number of inputs have been checked, the time limit has been reached
+     * or {@link #setMaxFailures(int) too many} failures occurred.
+     * 
+     * @param seed seed for the random inputs, each thread uses its own deterministic sequence of inputs
+     * @param maxInputs max. number of inputs to check
+     * @param maxMillis time limit in milliseconds
+     * @return
+     */
+    public Result run(long seed,long maxInputs,long maxMillis) throws InterruptedException 
+    {
+        final long start = System.currentTimeMillis();
+        final long deadline = start + maxMillis;
+        final AtomicLong inputs = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong instructions = new AtomicLong();
+        final List<Failure> failures = Collections.synchronizedList( new ArrayList<>() );
+
+        final ExecutorService pool = Executors.newFixedThreadPool( threads );
+        try 
+        {
+            final List<Future<?>> futures = new ArrayList<>();
+            for ( int i = 0 ; i < threads ; i++ ) 
+            {
+                final Random rnd = new Random( seed + i );
+                futures.add( pool.submit( () -> 
+                {
+                    final byte[] data = new byte[ chunkSize ];
+                    while ( System.currentTimeMillis() < deadline && failures.size() < maxFailures && inputs.incrementAndGet() <= maxInputs ) 
+                    {
+                        rnd.nextBytes( data );
+                        final Failure failure = roundTrip( data.clone() , instructions );
+                        if ( failure != null ) {
+                            failures.add( shrink( failure ) );
+                        }
+                        bytes.addAndGet( data.length );
+                    }
+                    return null;
+                }));
+            }
+            for ( Future<?> f : futures ) 
+            {
+                try {
+                    f.get();
+                } catch(ExecutionException e) {
+                    throw new RuntimeException( e.getCause() );
+                }
+            }
+        } 
+        finally 
+        {
+            pool.shutdownNow();
+            pool.awaitTermination( 10 , TimeUnit.SECONDS );
+        }
+        final long checked = Math.min( inputs.get() , maxInputs );
+        return new Result( checked , bytes.get() , instructions.get() , System.currentTimeMillis() - start , new ArrayList<>( failures ) );
+    }
+
+    /**
+     * Disassembles and re-assembles some data.
+     * 
+     * @param data
+     * @return failure or <code>NULL</code> if the round-trip succeeded
+     */
+    protected Failure check(byte[] data) 
+    {
+        return roundTrip( data , null );
+    }
+
+    private Failure roundTrip(byte[] data,AtomicLong instructionCount) 
+    {
+        final String disassembly = arch.disassemble( data , data.length , settings );
+        if ( instructionCount != null ) {
+            instructionCount.addAndGet( disassembly.chars().filter( c -> c == '\n' ).count() + 1 );
+        }
+        final CompilationUnit unit = new CompilationUnit( new StringResource( "roundtrip" , disassembly+"\n" ) );
+        final byte[] output;
+        try 
+        {
+            output = assemble( unit );
+        } 
+        catch(Exception e) {
+            return new Failure( data , disassembly , null , "Assembler crashed: "+e );
+        }
+        if ( output == null ) 
+        {
+            final String messages = unit.getMessages( true ).stream().map( m -> m.message ).collect( Collectors.joining(",") );
+            return new Failure( data , disassembly , null , "Compilation failed: "+messages );
+        }
+        if ( ! Arrays.equals( data , output ) ) 
+        {
+            int offset = 0;
+            while ( offset < data.length && offset < output.length && data[offset] == output[offset] ) {
+                offset++;
+            }
+            return new Failure( data , disassembly , output , "Output differs at offset "+offset+" (input: "+data.length+" bytes, output: "+output.length+" bytes)" );
+        }
+        return null;
+    }
+
+    private byte[] assemble(CompilationUnit unit) throws IOException 
+    {
+        final ProjectConfiguration projectConfig = new ProjectConfiguration();
+        projectConfig.setOutputFormat( OutputFormat.RAW );
+        final CompilerSettings compilerSettings = new CompilerSettings();
+        compilerSettings.setFailOnAddressOutOfRange( false );
+        compilerSettings.setWarnIfInOutCanBeUsed( false );
+        projectConfig.setCompilerSettings( compilerSettings );
+
+        final ObjectCodeWriter writer = new ObjectCodeWriter();
+        final Project project = new Project( unit , projectConfig );
+        if ( ! new Assembler().compile( project , writer , NO_INCLUDES , () -> config ) ) {
+            return null;
+        }
+        return writer.getBuffer( Segment.FLASH ).toByteArray();
+    }
+
+    private static final ResourceFactory NO_INCLUDES = new ResourceFactory() 
+    {
+        @Override
+        public Resource resolveResource(Resource parent, String child) throws IOException {
+            throw new IOException("Not supported: "+child);
+        }
+
+        @Override
+        public Resource resolveResource(String child) throws IOException {
+            throw new IOException("Not supported: "+child);
+        }
+    };
+
+    /**
+     * Shrinks a failing input.
+     * 
+     * @param failure
+     * @return smallest failing input that could be found
+     */
+    protected Failure shrink(Failure failure) 
+    {
+        final byte[] input = failure.input;
+
+        // most failures are caused by a single instruction
+        for ( int len = 2 ; len <= 4 ; len += 2 ) 
+        {
+            for ( int i = 0 ; i + len <= input.length ; i += 2 ) 
+            {
+                final Failure f = check( Arrays.copyOfRange( input , i , i+len ) );
+                if ( f != null ) {
+                    return f;
+                }
+            }
+        }
+
+        // remove word-aligned chunks of decreasing size for as long as the input keeps failing
+        Failure best = failure;
+        for ( int chunk = evenHalf( input.length ) ; chunk >= 2 ; ) 
+        {
+            boolean removedAny = false;
+            for ( int start = 0 ; start < best.input.length && best.input.length > chunk ; ) 
+            {
+                final byte[] current = best.input;
+                final byte[] candidate = new byte[ current.length - Math.min( chunk , current.length - start ) ];
+                System.arraycopy( current , 0 , candidate , 0 , start );
+                System.arraycopy( current , Math.min( start+chunk , current.length ) , candidate , start , candidate.length - start );
+                final Failure f = check( candidate );
+                if ( f != null ) 
+                {
+                    best = f;
+                    removedAny = true;
+                } else {
+                    start += chunk;
+                }
+            }
+            if ( ! removedAny ) {
+                chunk = chunk == 2 ? 0 : evenHalf( chunk );
+            }
+        }
+        return best;
+    }
+
+    private static int evenHalf(int value) {
+        return Math.max( 2 , (value/2) & ~1 );
+    }
+
+    private static void usage(String error) 
+    {
+        System.err.println("ERROR: "+error);
+        System.err.println("Usage: [--seed <seed>] [--seconds <seconds>] [--threads <count>] [--chunk-size <bytes>] [--device <name>]");
+        System.exit( 1 );
+    }
+
+    public static void main(String[] args) throws InterruptedException 
+    {
+        Logger.getRootLogger().setLevel( Level.FATAL );
+
+        long seed = System.currentTimeMillis();
+        long seconds = 60;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int chunkSize = 4096;
+        String device = null;
+        for ( int i = 0 ; i < args.length ; i += 2 ) 
+        {
+            final String arg = args[i];
+            if ( i+1 >= args.length ) {
+                usage("Option "+arg+" needs an argument");
+            }
+            final String value = args[i+1];
+            switch( arg ) 
+            {
+                case "--seed":       seed = Long.parseLong( value ); break;
+                case "--seconds":    seconds = Long.parseLong( value ); break;
+                case "--threads":    threads = Integer.parseInt( value ); break;
+                case "--chunk-size": chunkSize = Integer.parseInt( value ); break;
+                case "--device":     device = value; break;
+                default:
+                    usage("Unknown option "+arg);
+            }
+        }
+
+        final IArchitecture arch = device == null ? Architecture.ATMEGA88.getImplementation() : DeviceRegistry.getInstance().getArchitecture( device );
+        final RoundTripFuzzer fuzzer = new RoundTripFuzzer( arch ).setThreads( threads ).setChunkSize( chunkSize );
+        System.out.println("Fuzzing "+arch.getDeviceName()+" with seed "+seed+" for "+seconds+" seconds...");
+        final Result result = fuzzer.run( seed , Long.MAX_VALUE , seconds*1000 );
+        result.failures.forEach( f -> System.out.println( "\n"+f ) );
+        System.out.println( result );
+        System.exit( result.isSuccess() ? 0 : 1 );
+    }
+}
@@ -32,9 +32,12 @@ package de.codesourcery.javr.assembler.arch;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
 import de.codesourcery.javr.assembler.Instruction;
@@ -105,7 +108,7 @@ public abstract class AbstractArchitecture implements IArchitecture
         // special no-argument type
         NONE;
 
-        private boolean requiresRegisterRef;
+        private final boolean requiresRegisterRef;
 
         private ArgumentType() {
             this(true);
@@ -375,6 +378,8 @@ public abstract class AbstractArchitecture implements IArchitecture
     {
         public final InstructionSelector selector;
         public final List<InstructionEncoding> encodings = new ArrayList<>();
+        // length shared by all encodings or -1 if the length depends on the operands and the selector needs to be asked 
+        private int fixedLengthInBytes = -1;
 
         public EncodingEntry(InstructionSelector chooser,InstructionEncoding[] encodings) 
         {
@@ -402,20 +407,171 @@ public abstract class AbstractArchitecture implements IArchitecture
                 }
             }
             this.encodings.add(enc);
+            final int len = enc.getInstructionLengthInBytes();
+            fixedLengthInBytes = this.encodings.size() == 1 || fixedLengthInBytes == len ? len : -1;
         }
 
         public InstructionEncoding getEncoding(InstructionNode insn) {
             return selector.pick( insn , encodings );
         }
 
-        public int getInstructionLengthInBytes(InstructionNode insn,boolean estimate) {
+        /**
+         * Returns whether all encodings have the same length so that the
+         * instruction length can be determined without looking at the operands.
+         * 
+         * @return
+         */
+        public boolean hasFixedLength() {
+            return fixedLengthInBytes != -1;
+        }
+
+        public int getInstructionLengthInBytes(InstructionNode insn,boolean estimate) 
+        {
+            if ( fixedLengthInBytes != -1 ) {
+                return fixedLengthInBytes;
+            }
             return selector.getMaxInstructionLengthInBytes( insn , encodings , estimate );
         }
     }
 
+    /**
+     * Instructions that are assembled by rewriting them into a different instruction
+     * (because our instruction encoding doesn't work properly for them).
+     */
+    protected enum Rewrite 
+    {
+        NONE(null),
+        /** "ROL rX" is assembled as "ADC rX,rX" */
+        ROL("adc"),
+        /** "CLR rX" is assembled as "EOR rX,rX" */
+        CLR("eor"),
+        /** "LSL rX" is assembled as "ADD rX,rX" */
+        LSL("add"),
+        /** "TST rX" is assembled as "AND rX,rX" */
+        TST("and"),
+        /** "SER rX" is assembled as "LDI rX,0xff" */
+        SER("ldi");
+
+        public final String targetMnemonic;
+
+        private Rewrite(String targetMnemonic) {
+            this.targetMnemonic = targetMnemonic;
+        }
+
+        public static Rewrite forMnemonic(String mnemonic) 
+        {
+            for ( Rewrite r : values() ) 
+            {
+                if ( r != NONE && r.name().equalsIgnoreCase( mnemonic ) ) {
+                    return r;
+                }
+            }
+            return NONE;
+        }
+    }
+
+    /**
+     * Immutable result of resolving an instruction's mnemonic to its encodings.
+     * 
+     * Bindings are computed once per mnemonic and architecture and get cached
+     * on the {@link InstructionNode} so that subsequent compiler passes do not need to look up 
+     * the mnemonic again.
+     * 
+     * @author tobias.gierke@code-sourcery.de
+     */
+    public static final class InstructionBinding 
+    {
+        private final AbstractArchitecture architecture;
+        /**
+         * Mnemonic this binding was created for.
+         */
+        public final String mnemonic;
+        /**
+         * Encodings of the instruction's mnemonic.
+         */
+        public final EncodingEntry encodings;
+        /**
+         * Rewrite rule applied when validating/compiling this instruction.
+         */
+        protected final Rewrite rewrite;
+        /**
+         * Encodings used to validate/compile this instruction (differs from {@link #encodings} if the instruction gets rewritten).
+         */
+        public final EncodingEntry codeEncodings;
+        // encoding to use if the code encodings do not depend on the instruction's operands, otherwise NULL
+        private final InstructionEncoding fixedEncoding;
+        private final int fixedExpectedArgumentCount;
+
+        private InstructionBinding(AbstractArchitecture architecture,String mnemonic,EncodingEntry encodings,Rewrite rewrite,EncodingEntry codeEncodings) 
+        {
+            this.architecture = architecture;
+            this.mnemonic = mnemonic;
+            this.encodings = encodings;
+            this.rewrite = rewrite;
+            this.codeEncodings = codeEncodings;
+            if ( codeEncodings.selector == DEFAULT_INSN_SELECTOR && codeEncodings.encodings.size() == 1 ) 
+            {
+                this.fixedEncoding = codeEncodings.encodings.get(0);
+                this.fixedExpectedArgumentCount = countExpectedArguments( fixedEncoding );
+            } 
+            else 
+            {
+                if ( rewrite != Rewrite.NONE ) {
+                    throw new RuntimeException("Internal error, rewritten instruction "+mnemonic+" must have exactly one encoding");
+                }
+                this.fixedEncoding = null;
+                this.fixedExpectedArgumentCount = -1;
+            }
+        }
+
+        /**
+         * Returns the encoding to use when validating/compiling an instruction.
+         * 
+         * @param insn
+         * @return
+         */
+        public InstructionEncoding getEncoding(InstructionNode insn) 
+        {
+            return fixedEncoding != null ? fixedEncoding : codeEncodings.getEncoding( insn );
+        }
+
+        /**
+         * Returns the number of operands (explicit and implicit) an encoding expects.
+         * 
+         * @param encoding
+         * @return
+         */
+        public int getExpectedArgumentCount(InstructionEncoding encoding) 
+        {
+            return encoding == fixedEncoding ? fixedExpectedArgumentCount : countExpectedArguments( encoding );
+        }
+
+        private static int countExpectedArguments(InstructionEncoding encoding) 
+        {
+            int expectedArgumentCount = encoding.getArgumentCountFromPattern();
+            if ( encoding.hasImplicitSourceArgument() ) 
+            {
+                expectedArgumentCount++;
+            }
+            if ( encoding.hasImplicitDestinationArgument() ) 
+            {
+                expectedArgumentCount++;
+            }        
+            return expectedArgumentCount;
+        }
+
+        @Override
+        public String toString() {
+            return mnemonic+" -> "+( rewrite == Rewrite.NONE ? mnemonic : rewrite.targetMnemonic );
+        }
+    }
+
     // key is mnemonic in lower-case, value is corresponding encoding entry
     protected final Map<String,EncodingEntry> instructions = new HashMap<>();
 
+    // key is mnemonic in lower-case, value is the corresponding binding. Populated lazily.
+    private final Map<String,InstructionBinding> bindings = new ConcurrentHashMap<>();
+
     // map of alternative names
     // key is alternative mnemonic, value is mnemonic used as key in 'instructions' hashmap
     private final Map<String,String> alternativeMnemonics = new HashMap<>();
@@ -425,9 +581,36 @@ public abstract class AbstractArchitecture implements IArchitecture
     // TODO: Currently not used as I had trouble decoding the instructions reliably...might improve disassembler performance though
     protected final PrefixTree prefixTree = new PrefixTree();
 
+    // decoded instructions indexed by their first 16-bit word, populated lazily.
+    // Entries are immutable so racing threads at worst decode the same word twice
+    private final InstructionInfo[] instructionInfoCache = new InstructionInfo[ 65536 ];
+
+    // set once the constructor finished, instruction tables must not be changed afterwards
+    private final boolean initialized;
+    
     public AbstractArchitecture() 
     {
+        this( Collections.emptySet() );
+    }
+
+    /**
+     * Creates an architecture that only supports a subset of the instructions
+     * registered by {@link #initInstructions()}.
+     * 
+     * @param unsupportedMnemonics lower-case mnemonics to remove from the instruction tables, aliases of
+     * these mnemonics are removed as well. Mnemonics that are unknown to this architecture are ignored.
+     */
+    protected AbstractArchitecture(Collection<String> unsupportedMnemonics) 
+    {
+        Validate.notNull(unsupportedMnemonics, "unsupportedMnemonics must not be NULL");
         initInstructions();
+        for ( String mnemonic : unsupportedMnemonics ) 
+        {
+            if ( instructions.remove( mnemonic ) != null ) {
+                alternativeMnemonics.values().removeIf( mnemonic::equals );
+            }
+        }
+        this.initialized = true;
 
         // check for ambiguous patterns
         final Map<Integer,List<InstructionEncoding>> patterns = new HashMap<>();
@@ -481,6 +664,7 @@ public abstract class AbstractArchitecture implements IArchitecture
 
     protected InstructionEncoding insn(String mnemonic,String pattern,ArgumentType dstType,ArgumentType srcType,boolean multipleEncodings,InstructionSelector chooser) 
     {
+        assertNotInitialized();
         if ( ! mnemonic.toLowerCase().equals( mnemonic ) ) {
             throw new IllegalArgumentException("Mnemonics need to be lower-case");
         }            
@@ -502,6 +686,13 @@ public abstract class AbstractArchitecture implements IArchitecture
         return ins;
     }     
 
+    private void assertNotInitialized() 
+    {
+        if ( initialized ) {
+            throw new IllegalStateException("Architecture tables are immutable once the architecture has been constructed");
+        }
+    }
+    
     private void sanityCheck(InstructionEncoding entry) 
     {
         final String mnemonic = entry.mnemonic;
@@ -526,6 +717,7 @@ public abstract class AbstractArchitecture implements IArchitecture
     protected final void add(EncodingEntry entry) 
     {
         Validate.notNull(entry, "entry must not be NULL");
+        assertNotInitialized();
         if ( entry.encodings.isEmpty() ) {
             throw new IllegalArgumentException("Encoding entry needs to have at least one encoding");
         }
@@ -558,49 +750,40 @@ public abstract class AbstractArchitecture implements IArchitecture
     @Override
     public int getInstructionLengthInBytes(InstructionNode node, ICompilationContext context,boolean estimate) 
     {
-        final EncodingEntry variants = lookupInstruction( node.instruction.getMnemonic().toLowerCase() );
-        if ( variants == null ) {
-            throw new RuntimeException("Unknown instruction: "+node.instruction.getMnemonic()); 
-        }          
-        return variants.getInstructionLengthInBytes( node , estimate );
+        return bind( node ).encodings.getInstructionLengthInBytes( node , estimate );
     }
 
     @Override
-    public boolean validate(InstructionNode node,ICompilationContext context) 
+    public boolean validateOperandCount(InstructionNode node,ICompilationContext context) 
     {
-        node = maybeRewrite( node, context );
-
-        ASTNode dstArgument = null;
-        ASTNode srcArgument = null;
-        switch( node.childCount() ) 
-        {
-            case 0: 
-                break;
-            case 2: srcArgument = node.child(1);
-            //      $$FALL-THROUGH$$
-            case 1: dstArgument = node.child(0); 
-            break;
-            default:
+        final InstructionBinding binding = bind( node );
+        if ( binding.rewrite != Rewrite.NONE && node.childCount() != 1 ) {
+            context.error( node.instruction.getMnemonic().toUpperCase()+" accepts only one argument", node);
         }
-        final int argCount = ( dstArgument != null ? 1 : 0 ) + (srcArgument != null ? 1 : 0 );
 
-        final EncodingEntry variants = lookupInstruction( node.instruction.getMnemonic() );
-        final InstructionEncoding encoding = variants.getEncoding( node );
-        int expectedArgumentCount = encoding.getArgumentCountFromPattern();
-        if ( encoding.hasImplicitSourceArgument() ) 
-        {
-            expectedArgumentCount++;
-        }
-        if ( encoding.hasImplicitDestinationArgument() ) 
-        {
-            expectedArgumentCount++;
-        }        
+        final ASTNode[] operands = getOperands( node , binding );
+        final int argCount = ( operands[0] != null ? 1 : 0 ) + ( operands[1] != null ? 1 : 0 );
 
-        if ( argCount != expectedArgumentCount ) 
+        final InstructionEncoding encoding = binding.getEncoding( node );
+        if ( argCount != binding.getExpectedArgumentCount( encoding ) ) 
         {
             context.message( CompilationMessage.error( context.currentCompilationUnit() , encoding.mnemonic.toUpperCase()+" expects "+encoding.getArgumentCountFromPattern()+" arguments but got "+argCount,node ) );
             return false;
         }        
+        return true;
+    }
+
+    @Override
+    public boolean validate(InstructionNode node,ICompilationContext context) 
+    {
+        if ( ! validateOperandCount( node , context ) ) {
+            return false;
+        }
+        final InstructionBinding binding = bind( node );
+        final ASTNode[] operands = getOperands( node , binding );
+        final ASTNode dstArgument = operands[0];
+        final ASTNode srcArgument = operands[1];
+        final InstructionEncoding encoding = binding.getEncoding( node );
 
         boolean result = true;
         if ( encoding.dstType != ArgumentType.NONE ) {
@@ -612,116 +795,16 @@ public abstract class AbstractArchitecture implements IArchitecture
         return result;
     }
 
-    private InstructionNode maybeRewrite(InstructionNode insn, ICompilationContext context) {
-
-        final InstructionNode originalInsn = insn;
-        final String mnemonic = insn.instruction.getMnemonic();
-
-        if (  mnemonic.equalsIgnoreCase("rol" ) ) // TODO: Dirty hack as our instruction encoding doesn't work properly for ROL ...
-        {
-            // turn "rol rX" into "ADC rX,rX"
-            insn = (InstructionNode) insn.createCopy( true );
-            insn.instruction = new Instruction("adc");
-            if ( insn.childCount() == 1 )
-            {
-                insn.addChild( insn.child(0).createCopy( true ) );
-            } else {
-                context.error( "ROL accepts only one argument", originalInsn);
-            }
-        }
-        else if (  mnemonic.equalsIgnoreCase("clr" ) ) // TODO: Dirty hack as our instruction encoding doesn't work properly for CLR ...
-        {
-            // turn "CLR rX" into "EOR rX,rX"
-            insn = (InstructionNode) insn.createCopy( true );
-            insn.instruction = new Instruction("eor");
-            if ( insn.childCount() == 1 )
-            {
-                insn.addChild( insn.child(0).createCopy( true ) );
-            } else {
-                context.error( "CLR accepts only one argument", originalInsn);
-            }
-        }
-        else if (  mnemonic.equalsIgnoreCase("lsl" ) ) // TODO: Dirty hack as our instruction encoding doesn't work properly for LSL ...
-        {
-            // turn "LSL rX" into "ADD rX,rX"
-            insn = (InstructionNode) insn.createCopy( true );
-            insn.instruction = new Instruction("add");
-            if ( insn.childCount() == 1 )
-            {
-                insn.addChild( insn.child(0).createCopy( true ) );
-            } else {
-                context.error( "LSL accepts only one argument", originalInsn);
-            }
-        }
-        else if (  mnemonic.equalsIgnoreCase("tst" ) ) // TODO: Dirty hack as our instruction encoding doesn't work properly for TST ...
-        {
-            // turn "TST rX" into "AND rX,rX"
-            insn = (InstructionNode) insn.createCopy( true );
-            insn.instruction = new Instruction("and");
-            if ( insn.childCount() == 1 )
-            {
-                insn.addChild( insn.child(0).createCopy( true ) );
-            } else {
-                context.error( "TST accepts only one argument", originalInsn);
-            }
-        }
-        else if (  mnemonic.equalsIgnoreCase("ser" ) ) // TODO: Dirty hack as our instruction encoding doesn't work properly for SER ...
-        {
-            // turn "SER rX" into "LDI rX,0xff"
-            insn = (InstructionNode) insn.createCopy( true );
-            insn.instruction = new Instruction("ldi");
-            if ( insn.childCount() == 1 )
-            {
-                TextRegion region = insn.child(0).getTextRegion();
-                region = region == null ? new TextRegion(0,0,0,0) : region.createCopy();
-                insn.addChild( new IntNumberLiteralNode( 0xff, IntNumberLiteralNode.LiteralType.HEXADECIMAL, region) );
-            } else {
-                context.error( "SER accepts only one argument", originalInsn);
-            }
-        }
-        return insn;
-    }
-
-    @Override
-    public void compile(InstructionNode insn, ICompilationContext context) 
+    /**
+     * Returns the destination and source operands of an instruction, taking the
+     * binding's rewrite rule into account.
+     * 
+     * @param insn
+     * @param binding
+     * @return array with destination operand (or <code>null</code>) at index 0 and source operand (or <code>null</code>) at index 1
+     */
+    private static ASTNode[] getOperands(InstructionNode insn,InstructionBinding binding) 
     {
-        final String mnemonic = insn.instruction.getMnemonic();
-        final EncodingEntry variants;
-        
-        if (  mnemonic.equalsIgnoreCase("rol" ) ) // TODO: Dirty hack as our instruction encoding doesn't work properly for ROL ...
-        {
-            // turn "rol rX" into "ADC rX,rX"
-            variants = lookupInstruction( "adc" );
-            insn = maybeRewrite( insn, context );
-        }
-        else if (  mnemonic.equalsIgnoreCase("clr" ) ) // TODO: Dirty hack as our instruction encoding doesn't work properly for CLR ...
-        {
-            // turn "CLR rX" into "EOR rX,rX"
-            variants = lookupInstruction( "eor" );
-            insn = maybeRewrite( insn, context );
-        } 
-        else if (  mnemonic.equalsIgnoreCase("lsl" ) ) // TODO: Dirty hack as our instruction encoding doesn't work properly for LSL ... 
-        {
-            // turn "LSL rX" into "ADD rX,rX"
-            variants = lookupInstruction( "add" );
-            insn = maybeRewrite( insn, context );
-        } 
-        else if (  mnemonic.equalsIgnoreCase("tst" ) ) // TODO: Dirty hack as our instruction encoding doesn't work properly for TST ... 
-        {
-            // turn "TST rX" into "AND rX,rX"
-            variants = lookupInstruction( "and" );
-            insn = maybeRewrite( insn, context );
-        }
-        else if (  mnemonic.equalsIgnoreCase("ser" ) ) // TODO: Dirty hack as our instruction encoding doesn't work properly for SER ...
-        {
-            // turn "SER rX" into "LDI rX,0xff"
-            variants = lookupInstruction( "ldi" );
-            insn = maybeRewrite( insn, context );
-        }
-        else {
-            variants = lookupInstruction( mnemonic );
-        }
-
         ASTNode dstArgument = null;
         ASTNode srcArgument = null;
         switch( insn.childCount() ) 
@@ -734,20 +817,34 @@ public abstract class AbstractArchitecture implements IArchitecture
             break;
             default:
         }
-        final int argCount = ( dstArgument != null ? 1 : 0 ) + (srcArgument != null ? 1 : 0 );        
-
-        final InstructionEncoding encoding = variants.getEncoding( insn );
-        int expectedArgumentCount = encoding.getArgumentCountFromPattern();
-        if ( encoding.hasImplicitSourceArgument() ) 
+        if ( binding.rewrite != Rewrite.NONE && insn.childCount() == 1 ) 
         {
-            expectedArgumentCount++;
+            if ( binding.rewrite == Rewrite.SER ) 
+            {
+                // turn "SER rX" into "LDI rX,0xff"
+                TextRegion region = dstArgument.getTextRegion();
+                region = region == null ? new TextRegion(0,0,0,0) : region.createCopy();
+                srcArgument = new IntNumberLiteralNode( 0xff, IntNumberLiteralNode.LiteralType.HEXADECIMAL, region);
+            } else {
+                // turn "XXX rX" into "YYY rX,rX"
+                srcArgument = dstArgument;
+            }
         }
-        if ( encoding.hasImplicitDestinationArgument() ) 
-        {
-            expectedArgumentCount++;
-        }        
+        return new ASTNode[] { dstArgument , srcArgument };
+    }
 
-        if ( argCount != expectedArgumentCount ) 
+    @Override
+    public void compile(InstructionNode insn, ICompilationContext context) 
+    {
+        final InstructionBinding binding = bind( insn );
+
+        final ASTNode[] operands = getOperands( insn , binding );
+        final ASTNode dstArgument = operands[0];
+        final ASTNode srcArgument = operands[1];
+        final int argCount = ( dstArgument != null ? 1 : 0 ) + (srcArgument != null ? 1 : 0 );        
+
+        final InstructionEncoding encoding = binding.getEncoding( insn );
+        if ( argCount != binding.getExpectedArgumentCount( encoding ) ) 
         {
             throw new RuntimeException( encoding.mnemonic+" expects "+encoding.getArgumentCountFromPattern()+" arguments but got "+argCount);
         }
@@ -1350,7 +1447,8 @@ public abstract class AbstractArchitecture implements IArchitecture
         {
             for ( InstructionEncoding enc : entry.encodings ) 
             {
-                if ( enc.encoder.matches( bigEndianMSBLeft ) ) {
+                // 32-bit instructions truncated by the end of the input do not match
+                if ( enc.getInstructionLengthInBytes() <= bytesInValue && enc.encoder.matches( bigEndianMSBLeft ) ) {
                     result.add( enc );
                 }
             }
@@ -1358,6 +1456,83 @@ public abstract class AbstractArchitecture implements IArchitecture
         return result;
     }
 
+    /**
+     * Picks the encoding that best matches a value.
+     * 
+     * @param bigEndianMSBLeft
+     * @param bytesInValue
+     * @return encoding or <code>null</code> if the value does not match any instruction
+     */
+    private InstructionEncoding decode(int bigEndianMSBLeft,int bytesInValue) 
+    {
+        final List<InstructionEncoding> matches = getMatches(bigEndianMSBLeft,bytesInValue);
+        if ( matches.isEmpty() ) {
+            return null;
+        }
+        matches.sort( (a,b) -> { // sort descending by number of significant ('1' or '0' bits) in matched pattern
+            return Integer.compare( b.encoder.getOpcodeBitCount() , a.encoder.getOpcodeBitCount() );
+        });
+        // keep only the longest matches and discard anything else
+        final int longestMatch = matches.get(0).encoder.getOpcodeBitCount();
+        matches.removeIf( m -> m.encoder.getOpcodeBitCount() < longestMatch );
+
+        return matches.get(0).disasmSelector.pick( matches , bigEndianMSBLeft );
+    }
+    
+    private static boolean isAddress(ArgumentType type) 
+    {
+        switch( type ) 
+        {
+            case TWENTYTWO_BIT_FLASH_MEM_ADDRESS:
+            case SIXTEEN_BIT_SRAM_MEM_ADDRESS:
+            case SEVEN_BIT_SIGNED_COND_BRANCH_OFFSET:
+            case TWELVE_BIT_SIGNED_JUMP_OFFSET:
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * Converts a bitmask in pattern order (first instruction word in the most significant bits) to 
+     * the order of the instruction's raw bytes (16-bit words stored little-endian, first word first).
+     */
+    private static int toRawMask(int patternMask,int lengthInBytes) 
+    {
+        if ( lengthInBytes == 4 ) {
+            return ( patternMask >>> 16 ) | ( patternMask & 0xffff ) << 16;
+        }
+        return patternMask & 0xffff;
+    }
+    
+    @Override
+    public InstructionInfo getInstructionInfo(byte[] data,int offset,int len) 
+    {
+        final int remaining = len - offset;
+        if ( remaining < 2 ) {
+            return InstructionInfo.UNKNOWN;
+        }
+        // opcode bits of all instructions are in the first word, so the result only depends on it
+        final int word = ( data[offset] & 0xff ) << 8 | ( data[offset+1] & 0xff );
+        InstructionInfo result = instructionInfoCache[ word ];
+        if ( result == null ) 
+        {
+            // same conversion as in disassemble()
+            final InstructionEncoding encoding = decode( reverseBytes( word << 16 , 4 ) , 4 );
+            if ( encoding == null ) {
+                result = InstructionInfo.UNKNOWN;
+            } else {
+                final String mnemonic = encoding.disasmMnemonic != null ? encoding.disasmMnemonic : encoding.mnemonic;
+                final int addressMask = ( isAddress( encoding.srcType ) ? encoding.encoder.getSrcMask() : 0 ) | 
+                                        ( isAddress( encoding.dstType ) ? encoding.encoder.getDstMask() : 0 );
+                result = new InstructionInfo( mnemonic , encoding.getInstructionLengthInBytes() , toRawMask( addressMask , encoding.getInstructionLengthInBytes() ) );
+            }
+            instructionInfoCache[ word ] = result;
+        }
+        // 32-bit instruction truncated by the end of the input
+        return result.lengthInBytes <= remaining ? result : InstructionInfo.UNKNOWN;
+    }
+    
     @Override
     public String disassemble(byte[] data,int len,DisassemblerSettings settings) 
     {
@@ -1394,13 +1569,13 @@ public abstract class AbstractArchitecture implements IArchitecture
             String comment = "";
 
             //            System.out.println("0x"+Integer.toHexString( currentByteAddress )+": Trying to match "+bytesToProcess+" bytes : "+Integer.toBinaryString( bigEndianMSBLeft ) );
-            final List<InstructionEncoding> matches = getMatches(bigEndianMSBLeft,bytesToProcess);
+            final InstructionEncoding encoding = decode( bigEndianMSBLeft , bytesToProcess );
             if ( buffer.length() > 0 ) 
             {
                 buffer.append("\n");
             }
 
-            if ( matches.isEmpty() ) // unknown opcode, print as .db/.byte XX
+            if ( encoding == null ) // unknown opcode, print as .db/.byte XX
             {
                 buffer.append( settings.byteOpcode ).append(" ");
                 final int skip = remaining >= 2 ? 2 : remaining;
@@ -1414,15 +1589,6 @@ public abstract class AbstractArchitecture implements IArchitecture
             } 
             else 
             {
-                matches.sort( (a,b) -> { // sort descending by number of significant ('1' or '0' bits) in matched pattern
-                    return Integer.compare( b.encoder.getOpcodeBitCount() , a.encoder.getOpcodeBitCount() );
-                });
-                // keep only the longest matches and discard anything else
-                final int longestMatch = matches.get(0).encoder.getOpcodeBitCount();
-                matches.removeIf( m -> m.encoder.getOpcodeBitCount() < longestMatch );
-
-                final InstructionEncoding encoding = matches.get(0).disasmSelector.pick( matches , bigEndianMSBLeft );
-
                 // (optional) print current address
                 if ( settings.printAddresses ) {
                     comment += StringUtils.leftPad( Integer.toHexString( currentByteAddress ) , 4 , '0' )+":    ";
@@ -1844,17 +2010,43 @@ public abstract class AbstractArchitecture implements IArchitecture
         return result;
     }
 
+    /**
+     * Returns the binding for an instruction, creating and caching it on the node if necessary.
+     * 
+     * @param node
+     * @return
+     * @throws RuntimeException if the instruction's mnemonic is unknown
+     */
+    protected final InstructionBinding bind(InstructionNode node) 
+    {
+        InstructionBinding result = node.getBinding();
+        if ( result == null || result.architecture != this ) 
+        {
+            result = bindings.computeIfAbsent( node.instruction.getMnemonic() , this::createBinding );
+            node.setBinding( result );
+        }
+        return result;
+    }
+
+    private InstructionBinding createBinding(String mnemonic) 
+    {
+        final EncodingEntry encodings = lookupInstruction( mnemonic );
+        final Rewrite rewrite = Rewrite.forMnemonic( mnemonic );
+        final EncodingEntry codeEncodings = rewrite == Rewrite.NONE ? encodings : lookupInstruction( rewrite.targetMnemonic );
+        return new InstructionBinding( this , mnemonic , encodings , rewrite , codeEncodings );
+    }
+
     @Override
     public int getExplicitArgumentCount(InstructionNode node)
     {
-        final EncodingEntry entry = lookupInstruction( node.instruction.getMnemonic(), true );
-        return entry.getEncoding( node ).getArgumentCountFromPattern();
+        return bind( node ).encodings.getEncoding( node ).getArgumentCountFromPattern();
     }
 
     protected final void aliasMnemonic(String alias,String realDeal) 
     {
         Validate.notBlank(alias, "alias must not be NULL or blank");
         Validate.notBlank(realDeal, "mnemonic must not be NULL or blank");
+        assertNotInitialized();
         if ( ! alias.toLowerCase().equals( alias ) ) {
             throw new RuntimeException("Mnemonics need to be all lower-case: "+alias);
         }
@@ -22,6 +22,9 @@ import de.codesourcery.javr.assembler.arch.impl.ATXmega;
 /**
  * Enumeration of all supported architectures.
  *
+ * <p>Building the instruction tables of an architecture is expensive, use {@link #getImplementation()}
+ * to get the JVM-wide shared (and immutable) instance instead of creating new ones.</p>
+ *
  * @author tobias.gierke@code-sourcery.de
  * @see IArchitecture
  */
@@ -48,6 +51,8 @@ public enum Architecture
     
     private final String id;
     
+    private volatile IArchitecture sharedInstance;
+    
     private Architecture(String id) {
         this.id = id;
     }
@@ -56,5 +61,36 @@ public enum Architecture
         return id;
     }
     
+    /**
+     * Returns the shared implementation of this architecture.
+     * 
+     * <p>Architecture implementations are immutable once constructed so the returned
+     * instance may be used concurrently by any number of threads and projects.</p>
+     * 
+     * @return
+     */
+    public IArchitecture getImplementation() 
+    {
+        IArchitecture result = sharedInstance;
+        if ( result == null ) 
+        {
+            synchronized( this ) 
+            {
+                result = sharedInstance;
+                if ( result == null ) {
+                    result = createImplementation();
+                    sharedInstance = result;
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Creates a new, private implementation of this architecture.
+     * 
+     * @return
+     * @see #getImplementation()
+     */
     public abstract IArchitecture createImplementation();
 }
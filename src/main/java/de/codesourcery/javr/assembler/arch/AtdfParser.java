@@ -0,0 +1,326 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.arch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import de.codesourcery.javr.assembler.arch.DeviceDescriptor.Core;
+
+/**
+ * Parses part descriptions in Atmel's ATDF (AVR Tools Device File) XML format.
+ *
+ * <p>Only the subset of the format that is relevant to the assembler is interpreted:</p>
+ * <ul>
+ *   <li><code>devices/device</code> (part name and <code>architecture</code>, either <code>AVR8</code> or <code>AVR8_XMEGA</code>)</li>
+ *   <li>the <code>prog</code>, <code>data</code> and <code>eeprom</code> address spaces and their <code>ram</code>, <code>io</code> and <code>regs</code> memory segments</li>
+ *   <li><code>interrupts/interrupt</code> (the vector table size is derived from the highest vector index)</li>
+ *   <li>register names and offsets from <code>modules</code>, offsets are relocated by the base address of the 
+ *   corresponding <code>peripherals/module/instance/register-group</code>s if there are any</li>
+ *   <li>an optional <code>property-group</code> named <code>JAVR</code> with a property <code>UNSUPPORTED_INSTRUCTIONS</code> 
+ *   that holds a comma-separated list of mnemonics the part does not implement</li>
+ * </ul>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class AtdfParser 
+{
+    public static final String PROPERTY_GROUP = "JAVR";
+    public static final String PROPERTY_UNSUPPORTED_INSTRUCTIONS = "UNSUPPORTED_INSTRUCTIONS";
+
+    /**
+     * Parses a device description.
+     * 
+     * @param in stream to read from, will <b>not</b> be closed
+     * @return
+     * @throws IOException on I/O errors or if the input is not a valid device description
+     */
+    public static DeviceDescriptor parse(InputStream in) throws IOException 
+    {
+        Validate.notNull(in, "input stream must not be NULL");
+
+        final Document doc;
+        try 
+        {
+            doc = createDocumentBuilder().parse( in );
+        } 
+        catch (SAXException e) {
+            throw new IOException("Malformed device description: "+e.getMessage(),e);
+        }
+
+        try {
+            return parse( doc.getDocumentElement() );
+        } 
+        catch(IllegalArgumentException e) {
+            throw new IOException("Invalid device description: "+e.getMessage(),e);
+        }
+    }
+
+    private static DocumentBuilder createDocumentBuilder() throws IOException 
+    {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        try 
+        {
+            // device descriptions never need DTDs or external entities
+            factory.setFeature( "http://apache.org/xml/features/disallow-doctype-decl" , true );
+            factory.setFeature( XMLConstants.FEATURE_SECURE_PROCESSING , true );
+            factory.setExpandEntityReferences( false );
+            final DocumentBuilder builder = factory.newDocumentBuilder();
+            builder.setErrorHandler( new DefaultHandler() ); // the default handler prints to stderr
+            return builder;
+        } 
+        catch (ParserConfigurationException e) {
+            throw new IOException("Failed to create XML parser",e);
+        }
+    }
+
+    private static DeviceDescriptor parse(Element root) 
+    {
+        if ( ! "avr-tools-device-file".equals( root.getTagName() ) ) {
+            throw new IllegalArgumentException("Expected <avr-tools-device-file> but got <"+root.getTagName()+">");
+        }
+        final List<Element> devices = children( child( root , "devices" ) , "device" );
+        if ( devices.size() != 1 ) {
+            throw new IllegalArgumentException("Expected exactly one <device> but got "+devices.size());
+        }
+        final Element device = devices.get(0);
+        final String name = attribute( device , "name" );
+        final Core core;
+        try {
+            core = Core.valueOf( attribute( device , "architecture" ) );
+        } catch(IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported architecture '"+device.getAttribute("architecture")+"' for device "+name);
+        }
+
+        // memory map
+        int flashSize = -1;
+        int eepromSize = 0;
+        int sramStart = -1;
+        int sramSize = 0;
+        int ioStart = -1;
+        int ioSize = 0;
+        int registerCount = 32;
+        for ( Element space : children( child( device , "address-spaces" ) , "address-space" ) ) 
+        {
+            final String id = space.hasAttribute("id") ? space.getAttribute("id") : attribute( space , "name" );
+            switch( id ) 
+            {
+                case "prog":   flashSize = number( space , "size" ); break;
+                case "eeprom": eepromSize = number( space , "size" ); break;
+                case "data":
+                    for ( Element segment : children( space , "memory-segment" ) ) 
+                    {
+                        switch( attribute( segment , "type" ) ) 
+                        {
+                            case "ram":
+                                // some parts have several RAM segments (e.g. internal + external) , only the first one is internal SRAM 
+                                if ( sramStart == -1 ) 
+                                {
+                                    sramStart = number( segment , "start" );
+                                    sramSize = number( segment , "size" );
+                                }
+                                break;
+                            case "io":
+                                ioStart = number( segment , "start" );
+                                ioSize = number( segment , "size" );
+                                break;
+                            case "regs":
+                                registerCount = number( segment , "size" );
+                                break;
+                            default:
+                                // ignored
+                        }
+                    }
+                    break;
+                default:
+                    // ignored
+            }
+        }
+        if ( flashSize == -1 ) {
+            throw new IllegalArgumentException("Device "+name+" has no 'prog' address space");
+        }
+        if ( sramStart == -1 ) {
+            throw new IllegalArgumentException("Device "+name+" has no RAM memory segment");
+        }
+        if ( ioStart == -1 ) {
+            throw new IllegalArgumentException("Device "+name+" has no I/O memory segment");
+        }
+
+        // interrupt vector table
+        int irqVectorCount = 0;
+        for ( Element irq : children( child( device , "interrupts" ) , "interrupt" ) ) {
+            irqVectorCount = Math.max( irqVectorCount , number( irq , "index" )+1 );
+        }
+
+        // register group instances , key is the register group name in <modules> 
+        final Map<String,List<GroupInstance>> instances = new HashMap<>();
+        final Element peripherals = optionalChild( device , "peripherals" );
+        if ( peripherals != null ) 
+        {
+            for ( Element module : children( peripherals , "module" ) ) 
+            {
+                for ( Element instance : children( module , "instance" ) ) 
+                {
+                    for ( Element group : children( instance , "register-group" ) ) 
+                    {
+                        if ( group.hasAttribute("offset") ) 
+                        {
+                            final String groupName = attribute( group , "name" );
+                            final String nameInModule = group.hasAttribute("name-in-module") ? group.getAttribute("name-in-module") : groupName;
+                            instances.computeIfAbsent( nameInModule , k -> new ArrayList<>() ).add( new GroupInstance( groupName , nameInModule , number( group , "offset" ) ) );
+                        }
+                    }
+                }
+            }
+        }
+
+        // I/O registers
+        final Map<String,Integer> registers = new LinkedHashMap<>();
+        final Element modules = optionalChild( root , "modules" );
+        if ( modules != null ) 
+        {
+            for ( Element module : children( modules , "module" ) ) 
+            {
+                for ( Element group : children( module , "register-group" ) ) 
+                {
+                    final String groupName = attribute( group , "name" );
+                    // register groups without instances use absolute addresses
+                    final List<GroupInstance> groupInstances = instances.getOrDefault( groupName , List.of( new GroupInstance( groupName , groupName , 0 ) ) );
+                    for ( GroupInstance instance : groupInstances ) 
+                    {
+                        for ( Element register : children( group , "register" ) ) {
+                            registers.put( instance.registerName( attribute( register , "name" ) ) , instance.offset + number( register , "offset" ) );
+                        }
+                    }
+                }
+            }
+        }
+
+        // instruction subset
+        final List<String> unsupported = new ArrayList<>();
+        final Element propertyGroups = optionalChild( device , "property-groups" );
+        if ( propertyGroups != null ) 
+        {
+            for ( Element group : children( propertyGroups , "property-group" ) ) 
+            {
+                if ( PROPERTY_GROUP.equals( group.getAttribute("name") ) ) 
+                {
+                    for ( Element property : children( group , "property" ) ) 
+                    {
+                        if ( PROPERTY_UNSUPPORTED_INSTRUCTIONS.equals( property.getAttribute("name") ) ) 
+                        {
+                            for ( String mnemonic : property.getAttribute("value").split(",") ) 
+                            {
+                                if ( StringUtils.isNotBlank( mnemonic ) ) {
+                                    unsupported.add( mnemonic.trim().toLowerCase() );
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return new DeviceDescriptor( name , core , flashSize , sramStart , sramSize , eepromSize , 
+                ioStart , ioSize , registerCount , irqVectorCount , registers , unsupported );
+    }
+
+    private static final class GroupInstance 
+    {
+        public final String name;
+        public final String nameInModule;
+        public final int offset;
+
+        public GroupInstance(String name, String nameInModule, int offset) 
+        {
+            this.name = name;
+            this.nameInModule = nameInModule;
+            this.offset = offset;
+        }
+
+        /**
+         * Returns the name of a register in this instance, registers of peripherals 
+         * that exist more than once (like I/O ports) are prefixed with the instance name.
+         */
+        public String registerName(String register) {
+            return name.equals( nameInModule ) ? register : name+"_"+register;
+        }
+    }
+
+    private static Element child(Element parent,String tagName) 
+    {
+        final Element result = optionalChild( parent , tagName );
+        if ( result == null ) {
+            throw new IllegalArgumentException("<"+parent.getTagName()+"> lacks child element <"+tagName+">");
+        }
+        return result;
+    }
+
+    private static Element optionalChild(Element parent,String tagName) 
+    {
+        final List<Element> result = children( parent , tagName );
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    private static List<Element> children(Element parent,String tagName) 
+    {
+        final List<Element> result = new ArrayList<>();
+        for ( Node child = parent.getFirstChild() ; child != null ; child = child.getNextSibling() ) 
+        {
+            if ( child.getNodeType() == Node.ELEMENT_NODE && tagName.equals( child.getNodeName() ) ) {
+                result.add( (Element) child );
+            }
+        }
+        return result;
+    }
+
+    private static String attribute(Element element,String name) 
+    {
+        final String value = element.getAttribute( name );
+        if ( StringUtils.isBlank( value ) ) {
+            throw new IllegalArgumentException("<"+element.getTagName()+"> lacks attribute '"+name+"'");
+        }
+        return value.trim();
+    }
+
+    private static int number(Element element,String name) 
+    {
+        final String value = attribute( element , name );
+        try {
+            return Integer.decode( value );
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Attribute '"+name+"' of <"+element.getTagName()+"> is no valid number: '"+value+"'");
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.arch;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.lang3.Validate;
+
+import de.codesourcery.javr.assembler.Segment;
+
+/**
+ * Immutable description of a specific AVR part (memory map, I/O registers, interrupt vectors 
+ * and the supported subset of the instruction set).
+ *
+ * <p>Instances are usually created by parsing a part description file, see {@link AtdfParser}.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see DeviceRegistry
+ */
+public final class DeviceDescriptor 
+{
+    /**
+     * Instructions that only exist on XMEGA cores.
+     */
+    private static final Set<String> XMEGA_ONLY = Set.of( "des" , "lac" , "las" , "lat" , "xch" );
+
+    public enum Core 
+    {
+        /**
+         * Classic tinyAVR/megaAVR core.
+         */
+        AVR8,
+        /**
+         * XMEGA core, I/O space starts at address 0 and the register file is not memory-mapped.
+         */
+        AVR8_XMEGA;
+    }
+
+    private final String name;
+    private final Core core;
+    private final int flashSize;
+    private final int sramStart;
+    private final int sramSize;
+    private final int eepromSize;
+    private final int ioStart;
+    private final int ioSize;
+    private final int registerCount;
+    private final int irqVectorCount;
+    private final Map<String,Integer> ioRegisters;
+    private final Map<String,Integer> ioRegisterSymbols;
+    private final Set<String> unsupportedInstructions;
+
+    DeviceDescriptor(String name,
+            Core core,
+            int flashSize,
+            int sramStart,
+            int sramSize,
+            int eepromSize,
+            int ioStart,
+            int ioSize,
+            int registerCount,
+            int irqVectorCount,
+            Map<String,Integer> ioRegisters,
+            Collection<String> unsupportedInstructions) 
+    {
+        Validate.notBlank(name, "name must not be NULL or blank");
+        Validate.notNull(core, "core must not be NULL");
+        Validate.notNull(ioRegisters, "ioRegisters must not be NULL");
+        Validate.notNull(unsupportedInstructions, "unsupportedInstructions must not be NULL");
+        Validate.isTrue( flashSize > 0 , "Flash size must be > 0 , was: "+flashSize);
+        Validate.isTrue( sramStart >= 0 && sramSize >= 0 , "Invalid SRAM location: "+sramStart+" ("+sramSize+" bytes)");
+        Validate.isTrue( eepromSize >= 0 , "EEPROM size must be >= 0 , was: "+eepromSize);
+        Validate.isTrue( ioStart >= 0 && ioSize > 0 , "Invalid I/O space location: "+ioStart+" ("+ioSize+" bytes)");
+        Validate.isTrue( registerCount == 16 || registerCount == 32 , "Register count must be 16 or 32, was: "+registerCount);
+        Validate.isTrue( irqVectorCount > 0 , "IRQ vector count must be > 0 , was: "+irqVectorCount);
+
+        this.name = name;
+        this.core = core;
+        this.flashSize = flashSize;
+        this.sramStart = sramStart;
+        this.sramSize = sramSize;
+        this.eepromSize = eepromSize;
+        this.ioStart = ioStart;
+        this.ioSize = ioSize;
+        this.registerCount = registerCount;
+        this.irqVectorCount = irqVectorCount;
+        this.ioRegisters = Collections.unmodifiableMap( new LinkedHashMap<>( ioRegisters ) );
+
+        final Map<String,Integer> symbols = new LinkedHashMap<>();
+        ioRegisters.forEach( (register,address) -> 
+        {
+            // IN/OUT can only reach the first 64 bytes of the I/O space
+            final boolean inIOSpace = address >= ioStart && address < ioStart + 64;
+            symbols.put( register , inIOSpace ? address - ioStart : address );
+        });
+        this.ioRegisterSymbols = Collections.unmodifiableMap( symbols );
+
+        final Set<String> unsupported = new TreeSet<>();
+        unsupportedInstructions.forEach( s -> unsupported.add( s.toLowerCase() ) );
+        if ( core != Core.AVR8_XMEGA ) {
+            unsupported.addAll( XMEGA_ONLY );
+        }
+        if ( flashSize <= 8*1024 ) { // RJMP/RCALL reach the whole flash
+            unsupported.addAll( Arrays.asList( "jmp" , "call" ) );
+        }
+        if ( flashSize <= 64*1024 ) { // no RAMPZ 
+            unsupported.add( "elpm" );
+        }
+        if ( flashSize <= 128*1024 ) { // no EIND 
+            unsupported.addAll( Arrays.asList( "eicall" , "eijmp" ) );
+        }
+        this.unsupportedInstructions = Collections.unmodifiableSet( unsupported );
+    }
+
+    /**
+     * Returns the part name as used by the manufacturer (for example 'ATmega328P').
+     * 
+     * @return
+     */
+    public String getName() {
+        return name;
+    }
+
+    public Core getCore() {
+        return core;
+    }
+
+    /**
+     * Returns the size of a memory segment in bytes.
+     * 
+     * @param seg
+     * @return
+     */
+    public int getSegmentSize(Segment seg) 
+    {
+        Validate.notNull(seg, "segment must not be NULL");
+        return switch( seg )
+        {
+            case EEPROM -> eepromSize;
+            case FLASH -> flashSize;
+            case SRAM -> sramSize;
+        };
+    }
+
+    /**
+     * Returns the data-space address of the first byte of internal SRAM.
+     * 
+     * @return
+     */
+    public int getSRAMStartAddress() {
+        return sramStart;
+    }
+
+    /**
+     * Returns the data-space address of the first byte of the (memory-mapped) I/O space.
+     * 
+     * @return
+     */
+    public int getIOStartAddress() {
+        return ioStart;
+    }
+
+    /**
+     * Returns the size of the memory-mapped I/O space (including extended I/O) in bytes.
+     * 
+     * @return
+     */
+    public int getIOSize() {
+        return ioSize;
+    }
+
+    public int getGeneralPurposeRegisterCount() {
+        return registerCount;
+    }
+
+    public int getIRQVectorCount() {
+        return irqVectorCount;
+    }
+
+    /**
+     * Returns the I/O registers of this part.
+     * 
+     * @return unmodifiable map, key is the register name, value is the register's data-space address
+     */
+    public Map<String,Integer> getIORegisters() {
+        return ioRegisters;
+    }
+
+    /**
+     * Returns the values the I/O registers of this part have in assembly source.
+     * 
+     * <p>Like in the manufacturer's definition files, registers that can be accessed with IN/OUT 
+     * map to their I/O address while all other registers map to their data-space address.</p>
+     * 
+     * @return unmodifiable map, key is the register name
+     */
+    public Map<String,Integer> getIORegisterSymbols() {
+        return ioRegisterSymbols;
+    }
+
+    /**
+     * Returns the (lower-case) mnemonics this part does not support.
+     * 
+     * <p>Besides the instructions explicitly listed in the part description, this
+     * includes instructions that cannot exist due to the part's core and flash size 
+     * (JMP/CALL on parts with &lt;= 8K flash, ELPM on parts with &lt;= 64K flash,
+     * EIJMP/EICALL on parts with &lt;= 128K flash and XMEGA-only instructions on other cores).</p>
+     * 
+     * @return
+     */
+    public Set<String> getUnsupportedInstructions() {
+        return unsupportedInstructions;
+    }
+
+    @Override
+    public String toString() {
+        return name+" ("+core+", "+flashSize+" bytes flash, "+sramSize+" bytes SRAM @ 0x"+Integer.toHexString( sramStart )+", "+eepromSize+" bytes EEPROM)";
+    }
+}
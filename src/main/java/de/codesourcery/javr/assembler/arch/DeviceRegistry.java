@@ -0,0 +1,219 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.arch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.Validate;
+
+import de.codesourcery.javr.assembler.arch.impl.DeviceArchitecture;
+
+/**
+ * Registry of all AVR parts that are described by part description files.
+ *
+ * <p>The bundled descriptions live on the classpath below <code>/devices</code> and are listed
+ * in {@link #INDEX_RESOURCE}, one file name per line (the file name without extension is the part name).
+ * Descriptions are only parsed when a part is first requested. Like {@link Architecture#getImplementation()}, 
+ * the architecture for each part is created only once and shared JVM-wide.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class DeviceRegistry 
+{
+    public static final String INDEX_RESOURCE = "/devices/index.txt";
+
+    private static final DeviceRegistry INSTANCE = new DeviceRegistry();
+
+    // key is lower-case part name, value is the file name of the part description
+    private volatile Map<String,String> bundled;
+
+    // key is lower-case part name
+    private final Map<String,DeviceDescriptor> descriptors = new ConcurrentHashMap<>();
+    private final Map<String,IArchitecture> architectures = new ConcurrentHashMap<>();
+
+    private DeviceRegistry() {
+    }
+
+    public static DeviceRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    private static String key(String deviceName) 
+    {
+        Validate.notBlank(deviceName, "deviceName must not be NULL or blank");
+        return deviceName.trim().toLowerCase();
+    }
+
+    private Map<String,String> getBundled() 
+    {
+        Map<String,String> result = bundled;
+        if ( result == null ) 
+        {
+            synchronized( this ) 
+            {
+                result = bundled;
+                if ( result == null ) {
+                    result = readIndex();
+                    bundled = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Map<String,String> readIndex() 
+    {
+        final Map<String,String> result = new TreeMap<>();
+        final InputStream in = DeviceRegistry.class.getResourceAsStream( INDEX_RESOURCE );
+        if ( in == null ) {
+            return Collections.emptyMap();
+        }
+        try ( BufferedReader reader = new BufferedReader( new InputStreamReader( in , StandardCharsets.UTF_8 ) ) ) 
+        {
+            String line;
+            while ( ( line = reader.readLine() ) != null ) 
+            {
+                line = line.trim();
+                if ( ! line.isEmpty() && ! line.startsWith("#") ) 
+                {
+                    result.put( key( deviceName( line ) ) , line );
+                }
+            }
+        } 
+        catch (IOException e) {
+            throw new RuntimeException("Failed to read device index "+INDEX_RESOURCE,e);
+        }
+        return Collections.unmodifiableMap( result );
+    }
+
+    /**
+     * Returns the names of all known parts.
+     * 
+     * @return part names, sorted alphabetically
+     */
+    public Set<String> getDeviceNames() 
+    {
+        final Set<String> result = new TreeSet<>( String.CASE_INSENSITIVE_ORDER );
+        getBundled().keySet().forEach( key -> result.add( getDescriptorName( key ) ) );
+        descriptors.values().forEach( desc -> result.add( desc.getName() ) );
+        return result;
+    }
+
+    private String getDescriptorName(String key) 
+    {
+        final DeviceDescriptor loaded = descriptors.get( key );
+        if ( loaded != null ) {
+            return loaded.getName();
+        }
+        // part name as spelled in the index
+        return deviceName( getBundled().get( key ) );
+    }
+
+    private static String deviceName(String fileName) 
+    {
+        final int idx = fileName.lastIndexOf('.');
+        return idx > 0 ? fileName.substring( 0 , idx ) : fileName;
+    }
+
+    public boolean isKnownDevice(String deviceName) 
+    {
+        final String key = key( deviceName );
+        return descriptors.containsKey( key ) || getBundled().containsKey( key );
+    }
+
+    /**
+     * Returns the description of a part.
+     * 
+     * @param deviceName part name, case-insensitive
+     * @return
+     * @throws IllegalArgumentException if the part is unknown
+     */
+    public DeviceDescriptor getDescriptor(String deviceName) 
+    {
+        return descriptors.computeIfAbsent( key( deviceName ) , this::loadBundled );
+    }
+
+    private DeviceDescriptor loadBundled(String key) 
+    {
+        final String fileName = getBundled().get( key );
+        if ( fileName == null ) {
+            throw new IllegalArgumentException("Unknown device: '"+key+"'");
+        }
+        final String resource = "/devices/"+fileName;
+        try ( InputStream in = DeviceRegistry.class.getResourceAsStream( resource ) ) 
+        {
+            if ( in == null ) {
+                throw new RuntimeException("Device description "+resource+" is missing from the classpath");
+            }
+            final DeviceDescriptor result = AtdfParser.parse( in );
+            if ( ! key.equals( key( result.getName() ) ) ) {
+                throw new RuntimeException("Device description "+resource+" describes "+result.getName()+" , expected "+key);
+            }
+            return result;
+        } 
+        catch (IOException e) {
+            throw new RuntimeException("Failed to load device description "+resource,e);
+        }
+    }
+
+    /**
+     * Returns the (shared, immutable) architecture for a part.
+     * 
+     * @param deviceName part name, case-insensitive
+     * @return
+     * @throws IllegalArgumentException if the part is unknown
+     */
+    public IArchitecture getArchitecture(String deviceName) 
+    {
+        final String key = key( deviceName );
+        IArchitecture result = architectures.get( key );
+        if ( result == null ) 
+        {
+            // not using computeIfAbsent() here as building the instruction tables takes a while 
+            // and would block unrelated lookups on the same hash bin
+            final IArchitecture arch = new DeviceArchitecture( getDescriptor( key ) );
+            result = architectures.putIfAbsent( key , arch );
+            if ( result == null ) {
+                result = arch;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Registers a part that is not bundled with the assembler, replacing any existing part with the same name.
+     * 
+     * @param descriptor
+     * @see AtdfParser#parse(InputStream)
+     */
+    public void register(DeviceDescriptor descriptor) 
+    {
+        Validate.notNull(descriptor, "descriptor must not be NULL");
+        final String key = key( descriptor.getName() );
+        descriptors.put( key , descriptor );
+        architectures.remove( key );
+    }
+}
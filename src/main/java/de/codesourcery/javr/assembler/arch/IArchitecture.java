@@ -15,6 +15,9 @@
  */
 package de.codesourcery.javr.assembler.arch;
 
+import java.util.Collections;
+import java.util.Map;
+
 import de.codesourcery.javr.assembler.ICompilationContext;
 import de.codesourcery.javr.assembler.Segment;
 import de.codesourcery.javr.assembler.parser.ast.ASTNode;
@@ -77,6 +80,48 @@ public interface IArchitecture
         public boolean resolveRelativeAddresses=true;
     }
     
+    /**
+     * Properties of a decoded instruction, as needed when comparing binaries.
+     *
+     * @author tobias.gierke@code-sourcery.de
+     * @see IArchitecture#getInstructionInfo(byte[], int, int)
+     */
+    public static final class InstructionInfo 
+    {
+        /**
+         * Returned for 16-bit words that do not decode to any instruction.
+         */
+        public static final InstructionInfo UNKNOWN = new InstructionInfo(".db",2,0);
+        
+        public final String mnemonic;
+        public final int lengthInBytes;
+        
+        /**
+         * Whether the instruction has an absolute address or a relative
+         * jump/branch offset as operand, these change whenever code or data moves.
+         */
+        public final boolean hasAddressOperand;
+        
+        /**
+         * Bits of the instruction's raw bytes that hold address operands, 
+         * with the first byte in the lowest 8 bits.
+         */
+        public final int addressOperandMask;
+
+        public InstructionInfo(String mnemonic, int lengthInBytes, int addressOperandMask) 
+        {
+            this.mnemonic = mnemonic;
+            this.lengthInBytes = lengthInBytes;
+            this.addressOperandMask = addressOperandMask;
+            this.hasAddressOperand = addressOperandMask != 0;
+        }
+        
+        @Override
+        public String toString() {
+            return mnemonic+" ("+lengthInBytes+" bytes)";
+        }
+    }
+    
     /**
      * Returns the type of this architecture.
      * 
@@ -92,6 +137,30 @@ public interface IArchitecture
      */
     public boolean hasType(Architecture t);
     
+    /**
+     * Returns the name of the part this architecture generates code for.
+     * 
+     * <p>Architectures that are loaded from part descriptions ({@link DeviceRegistry}) share 
+     * their {@link #getType() type} with other parts using the same instruction set, 
+     * so this name should be used wherever parts need to be told apart.</p>
+     * 
+     * @return
+     */
+    public default String getDeviceName() {
+        return getType().getIdentifier();
+    }
+    
+    /**
+     * Returns the I/O registers of the part this architecture generates code for.
+     * 
+     * <p>Source code may refer to these registers by name without defining them.</p>
+     * 
+     * @return register values by name, see {@link DeviceDescriptor#getIORegisterSymbols()}
+     */
+    public default Map<String,Integer> getIORegisterSymbols() {
+        return Collections.emptyMap();
+    }
+    
     /**
      * Returns the size of a given memory segment size in bytes.
      * 
@@ -144,12 +213,25 @@ public interface IArchitecture
      */
     public boolean validate(InstructionNode node,ICompilationContext context);
     
+    /**
+     * Checks only the number of operands of an instruction, without evaluating them.
+     * 
+     * <p>Used while assigning addresses, operand values get checked when the instruction is compiled.</p>
+     * 
+     * @param node
+     * @param context
+     * @return
+     * @see #validate(InstructionNode, ICompilationContext)
+     */
+    public boolean validateOperandCount(InstructionNode node,ICompilationContext context);
+    
     /**
      * Get/estimate instruction length.
      * 
      * <p>If the AST contains all required information this method will return the actual instruction length. If
      * the AST does not contain all information required to select the shortest possible encoding, this method will return the length
      * of the worst-case (=longest encoding).</p>
+     * <p>Instructions whose encodings all have the same length are sized without looking at their operands.</p>
      * 
      * @param node
      * @param context
@@ -181,4 +263,14 @@ public interface IArchitecture
      * @return
      */
     public String disassemble(byte[] data,int len,DisassemblerSettings settings);
+    
+    /**
+     * Decodes the instruction at a given offset without disassembling it.
+     * 
+     * @param data
+     * @param offset offset of the instruction's first byte, must be less than <code>len</code>
+     * @param len number of valid bytes in <code>data</code>
+     * @return instruction info, {@link InstructionInfo#UNKNOWN} if the data is no valid instruction
+     */
+    public InstructionInfo getInstructionInfo(byte[] data,int offset,int len);
 }
\ No newline at end of file
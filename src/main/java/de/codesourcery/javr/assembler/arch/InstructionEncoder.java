@@ -86,6 +86,11 @@ public class InstructionEncoder
     
     // bitmask where all placeholder characters are '0' bits and all other bits are set according to the fixed '0'/'1' values in the input pattern
     private final int binaryPattern;
+    
+    // bitmasks containing '1' bits where the input pattern contained a placeholder for the source/destination operand
+    private final int srcMask;
+    private final int dstMask;
+    
     private final Encoding srcEncoding;
     private final Encoding dstEncoding;
     
@@ -108,6 +113,24 @@ public class InstructionEncoder
         return pattern;
     }
     
+    /**
+     * Returns the bits of an encoded instruction that hold the source operand.
+     * 
+     * @return bitmask, MSB-first like the pattern
+     */
+    public int getSrcMask() {
+        return srcMask;
+    }
+    
+    /**
+     * Returns the bits of an encoded instruction that hold the destination operand.
+     * 
+     * @return bitmask, MSB-first like the pattern
+     */
+    public int getDstMask() {
+        return dstMask;
+    }
+    
     public InstructionEncoder srcTransform(Transform t) 
     {
         
@@ -192,6 +215,8 @@ public class InstructionEncoder
         int dstBitCount=0;
         int binaryPattern =0;
         int andMask = 0;
+        int srcMask = 0;
+        int dstMask = 0;
         int mask = 1;
         int opcodeBitCount = 0;
         for ( int i = pattern.length()-1 ; i >= 0 ; i-- ) 
@@ -211,10 +236,12 @@ public class InstructionEncoder
             else if ( hasMoreThanOneArgument && c == SRC_PATTERN) 
             {
                 srcBitCount++;
+                srcMask |= mask;
             } 
             else if (c == dstPattern) 
             {
                 dstBitCount++;
+                dstMask |= mask;
             } else {
                 throw new RuntimeException("Invalid character '"+pattern.charAt(i)+"' in pattern: "+pattern);
             }
@@ -226,6 +253,8 @@ public class InstructionEncoder
         }
         
         this.andMask = andMask;
+        this.srcMask = srcMask;
+        this.dstMask = dstMask;
         this.opcodeBitCount = opcodeBitCount;
         this.binaryPattern = binaryPattern;
         this.pattern = pattern;
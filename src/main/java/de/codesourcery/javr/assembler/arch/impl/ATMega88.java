@@ -15,6 +15,7 @@
  */
 package de.codesourcery.javr.assembler.arch.impl;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.apache.commons.lang3.Validate;
@@ -34,6 +35,21 @@ import de.codesourcery.javr.assembler.parser.ast.RegisterNode;
  */
 public class ATMega88 extends AbstractArchitecture 
 {
+    public ATMega88() 
+    {
+    }
+    
+    /**
+     * Creates an instance that does not support some of the instructions.
+     * 
+     * @param unsupportedMnemonics
+     * @see AbstractArchitecture#AbstractArchitecture(Collection)
+     */
+    protected ATMega88(Collection<String> unsupportedMnemonics) 
+    {
+        super( unsupportedMnemonics );
+    }
+    
     protected void initInstructions()
     {
         final InstructionEncoding adc = insn("adc",   "0001 11rd dddd rrrr" , ArgumentType.SINGLE_REGISTER , ArgumentType.SINGLE_REGISTER ); 
@@ -15,11 +15,13 @@
  */
 package de.codesourcery.javr.assembler.arch.impl;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.apache.commons.lang3.Validate;
 
 import de.codesourcery.javr.assembler.Segment;
+import de.codesourcery.javr.assembler.arch.AbstractArchitecture;
 import de.codesourcery.javr.assembler.arch.Architecture;
 import de.codesourcery.javr.assembler.arch.InstructionEncoder;
 import de.codesourcery.javr.assembler.parser.ast.InstructionNode;
@@ -27,6 +29,21 @@ import de.codesourcery.javr.assembler.parser.ast.RegisterNode;
 
 public class ATXmega extends ATMega88
 {
+    public ATXmega() 
+    {
+    }
+    
+    /**
+     * Creates an instance that does not support some of the instructions.
+     * 
+     * @param unsupportedMnemonics
+     * @see AbstractArchitecture#AbstractArchitecture(Collection)
+     */
+    protected ATXmega(Collection<String> unsupportedMnemonics) 
+    {
+        super( unsupportedMnemonics );
+    }
+    
     @Override
     protected void initInstructions()
     {
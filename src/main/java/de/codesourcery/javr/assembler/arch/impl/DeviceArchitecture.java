@@ -0,0 +1,111 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.arch.impl;
+
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+
+import de.codesourcery.javr.assembler.Segment;
+import de.codesourcery.javr.assembler.arch.Architecture;
+import de.codesourcery.javr.assembler.arch.DeviceDescriptor;
+import de.codesourcery.javr.assembler.arch.DeviceDescriptor.Core;
+
+/**
+ * Architecture for a specific part, backed by a {@link DeviceDescriptor}.
+ *
+ * <p>Starts out with the full (XMEGA) instruction set and removes all instructions 
+ * the part does not support, memory layout and vector table size are taken from the 
+ * part description.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see de.codesourcery.javr.assembler.arch.DeviceRegistry
+ */
+public class DeviceArchitecture extends ATXmega 
+{
+    private final DeviceDescriptor descriptor;
+
+    public DeviceArchitecture(DeviceDescriptor descriptor) 
+    {
+        super( descriptor.getUnsupportedInstructions() );
+        this.descriptor = descriptor;
+    }
+
+    public DeviceDescriptor getDescriptor() {
+        return descriptor;
+    }
+
+    @Override
+    public Architecture getType() {
+        return descriptor.getCore() == Core.AVR8_XMEGA ? Architecture.XMEGA : Architecture.ATMEGA88;
+    }
+
+    @Override
+    public String getDeviceName() {
+        return descriptor.getName();
+    }
+
+    @Override
+    public Map<String,Integer> getIORegisterSymbols() {
+        return descriptor.getIORegisterSymbols();
+    }
+
+    @Override
+    public int getSegmentSize(Segment seg) 
+    {
+        Validate.notNull(seg, "segment must not be NULL");
+        return descriptor.getSegmentSize( seg );
+    }
+
+    @Override
+    public int getSRAMStartAddress() {
+        return descriptor.getSRAMStartAddress();
+    }
+
+    @Override
+    protected boolean isValidSRAMAdress(int byteAddress) 
+    {
+        // LDS/STS operate on the whole data space
+        return byteAddress >= 0 && byteAddress < descriptor.getSRAMStartAddress() + descriptor.getSegmentSize( Segment.SRAM );
+    }
+
+    @Override
+    protected boolean isValidRegisterNumber(int number) {
+        return number >= 0 && number < descriptor.getGeneralPurposeRegisterCount();
+    }
+
+    @Override
+    protected boolean isValidIOSpaceAdress(int byteAddress) 
+    {
+        final int start = descriptor.getIOStartAddress();
+        return byteAddress >= start && byteAddress < start + descriptor.getIOSize();
+    }
+
+    @Override
+    protected int getGeneralPurposeRegisterCount() {
+        return descriptor.getGeneralPurposeRegisterCount();
+    }
+
+    @Override
+    public int getIRQVectorCount() {
+        return descriptor.getIRQVectorCount();
+    }
+
+    @Override
+    public String toString() {
+        return descriptor.getName();
+    }
+}
@@ -0,0 +1,624 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.log4j.Logger;
+
+import de.codesourcery.javr.assembler.ArtifactWriter;
+import de.codesourcery.javr.assembler.CompilationUnit;
+import de.codesourcery.javr.assembler.ICompilationContext.ICompilerSettings;
+import de.codesourcery.javr.assembler.Segment;
+import de.codesourcery.javr.assembler.arch.IArchitecture;
+import de.codesourcery.javr.assembler.metrics.CacheStatistics;
+import de.codesourcery.javr.assembler.parser.Parser.CompilationMessage;
+import de.codesourcery.javr.assembler.parser.Parser.Severity;
+import de.codesourcery.javr.assembler.parser.TextRegion;
+import de.codesourcery.javr.assembler.parser.ast.PreprocessorNode;
+import de.codesourcery.javr.assembler.parser.ast.PreprocessorNode.Preprocessor;
+import de.codesourcery.javr.assembler.util.FileResource;
+import de.codesourcery.javr.assembler.util.HashingAlgorithm;
+import de.codesourcery.javr.assembler.util.Resource;
+import de.codesourcery.javr.ui.config.ProjectConfiguration.OutputSpec;
+
+/**
+ * Content-addressed cache for build artifacts.
+ *
+ * <p>Entries are stored in a local directory, grouped by a <i>root key</i> that is derived from
+ * the compilation root's location relative to the project's base directory, its content hash,
+ * the compiler settings, the target architecture and the requested output formats.
+ * Since the set of included files is only known after the source has been parsed,
+ * each entry records the content hashes of all files that took part in the compilation and
+ * is only considered a hit if all of them are still unchanged.</p>
+ *
+ * <p>Files inside the base directory are recorded by their relative path so that
+ * entries can be shared between copies of a project at different locations.</p>
+ *
+ * <p>The total size of the cache directory is kept below a configurable limit by evicting
+ * the least-recently used entries.</p>
+ *
+ * <p>Only compilations where all inputs (including files pulled in via <code>#incbin</code>)
+ * are {@link FileResource}s can be cached.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class BuildCache
+{
+    private static final Logger LOG = Logger.getLogger(BuildCache.class);
+
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * Version of the assembler's code generation, part of every {@link #rootKey(Resource, File, ICompilerSettings, IArchitecture, Map) root key}.
+     * 
+     * <p>Must be incremented whenever a change to the assembler alters the output or messages
+     * generated for the same input, so that builds cached by older versions are not reused.</p>
+     */
+    public static final int CODE_GENERATION_VERSION = 1;
+
+    private static final String ENTRY_SUFFIX = ".entry";
+
+    public static final long DEFAULT_MAX_SIZE = 100*1024*1024;
+
+    private final File directory;
+    private final long maxSizeInBytes;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * A file that took part in a compilation.
+     *
+     * @author tobias.gierke@code-sourcery.de
+     */
+    public static final class Input
+    {
+        public final File file;
+        public final String contentHash;
+
+        public Input(File file, String contentHash)
+        {
+            Validate.notNull(file, "file must not be NULL");
+            Validate.notBlank(contentHash, "contentHash must not be NULL or blank");
+            this.file = file;
+            this.contentHash = contentHash;
+        }
+
+        public boolean isUpToDate() throws IOException
+        {
+            return contentHash.equals( new FileResource( file , Resource.ENCODING_UTF ).contentHash() );
+        }
+    }
+
+    /**
+     * A compiler message that got recorded along with the artifacts.
+     *
+     * @author tobias.gierke@code-sourcery.de
+     */
+    public static final class Message
+    {
+        public final Severity severity;
+        public final String text;
+        public final TextRegion region;
+        /**
+         * Source file the message refers to, <code>null</code> for messages
+         * that belong to the compilation root.
+         */
+        public final File file;
+
+        public Message(Severity severity, String text, TextRegion region, File file)
+        {
+            Validate.notNull(severity, "severity must not be NULL");
+            this.severity = severity;
+            this.text = text == null ? "" : text;
+            this.region = region;
+            this.file = file == null ? null : file.getAbsoluteFile();
+        }
+
+        /**
+         * Creates a cached message from a compiler message.
+         *
+         * @param msg
+         * @return
+         */
+        public static Message of(CompilationMessage msg)
+        {
+            final Resource resource = msg.unit == null ? null : msg.unit.getResource();
+            final File file = resource instanceof FileResource ? ((FileResource) resource).getFile() : null;
+            return new Message( msg.severity , msg.message , msg.region , file );
+        }
+
+        public CompilationMessage toCompilationMessage(CompilationUnit unit)
+        {
+            return new CompilationMessage( unit , severity , text , region );
+        }
+    }
+
+    /**
+     * A cache entry.
+     *
+     * @author tobias.gierke@code-sourcery.de
+     */
+    public static final class Entry
+    {
+        public final List<Input> inputs;
+        public final List<Message> messages;
+        private final Map<Segment,byte[]> artifacts;
+
+        public Entry(List<Input> inputs,List<Message> messages,Map<Segment,byte[]> artifacts)
+        {
+            Validate.notNull(inputs, "inputs must not be NULL");
+            Validate.notNull(messages, "messages must not be NULL");
+            Validate.notNull(artifacts, "artifacts must not be NULL");
+            this.inputs = Collections.unmodifiableList( new ArrayList<>( inputs ) );
+            this.messages = Collections.unmodifiableList( new ArrayList<>( messages ) );
+            this.artifacts = artifacts.isEmpty() ? new EnumMap<>( Segment.class ) : new EnumMap<>( artifacts );
+        }
+
+        /**
+         * Returns the artifact that got generated for a given segment.
+         *
+         * @param segment
+         * @return artifact or <code>null</code> if the compilation produced no output for this segment
+         */
+        public byte[] getArtifact(Segment segment) {
+            return artifacts.get( segment );
+        }
+
+        /**
+         * Writes all artifacts of this entry to their respective output files.
+         *
+         * @param outputSpecs
+         * @throws IOException
+         */
+        public void restore(Map<Segment,OutputSpec> outputSpecs) throws IOException
+        {
+            for ( Map.Entry<Segment,byte[]> artifact : artifacts.entrySet() )
+            {
+                final OutputSpec spec = outputSpecs.get( artifact.getKey() );
+                if ( spec != null )
+                {
+                    ArtifactWriter.writeIfChanged( spec.resource , artifact.getValue() );
+                }
+            }
+        }
+
+        /**
+         * Adds the cached messages to the compilation units they originated from.
+         *
+         * <p>Since the cached compilation did not parse anything, units for included files
+         * do not exist yet and are created and added as dependencies of the root as needed.</p>
+         *
+         * @param root compilation root
+         * @throws IOException
+         */
+        public void restoreMessages(CompilationUnit root) throws IOException
+        {
+            final Map<File,CompilationUnit> units = new HashMap<>();
+            if ( root.getResource() instanceof FileResource ) {
+                units.put( ((FileResource) root.getResource()).getFile().getAbsoluteFile() , root );
+            }
+            for ( Message msg : messages )
+            {
+                CompilationUnit unit = msg.file == null ? root : units.get( msg.file );
+                if ( unit == null )
+                {
+                    unit = new CompilationUnit( new FileResource( msg.file , Resource.ENCODING_UTF ) );
+                    root.addDependency( unit );
+                    units.put( msg.file , unit );
+                }
+                unit.addMessage( msg.toCompilationMessage( unit ) );
+            }
+        }
+    }
+
+    public BuildCache(File directory)
+    {
+        this(directory,DEFAULT_MAX_SIZE);
+    }
+
+    public BuildCache(File directory,long maxSizeInBytes)
+    {
+        Validate.notNull(directory, "directory must not be NULL");
+        Validate.isTrue( maxSizeInBytes > 0 , "max. size must be > 0");
+        this.directory = directory;
+        this.maxSizeInBytes = maxSizeInBytes;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Computes the root key for a compilation.
+     *
+     * @param root compilation root
+     * @param baseDir the project's base directory
+     * @param settings
+     * @param arch
+     * @param outputSpecs
+     * @return root key or <code>null</code> if the compilation root is not cacheable
+     */
+    public static String rootKey(Resource root,File baseDir,ICompilerSettings settings,IArchitecture arch,Map<Segment,OutputSpec> outputSpecs)
+    {
+        Validate.notNull(root, "root must not be NULL");
+        Validate.notNull(baseDir, "baseDir must not be NULL");
+        Validate.notNull(settings, "settings must not be NULL");
+        Validate.notNull(arch, "arch must not be NULL");
+        Validate.notNull(outputSpecs, "outputSpecs must not be NULL");
+
+        if ( ! (root instanceof FileResource ) ) {
+            return null;
+        }
+        final StringBuilder key = new StringBuilder();
+        key.append( FORMAT_VERSION ).append('|');
+        key.append( CODE_GENERATION_VERSION ).append('|');
+        key.append( toPath( ((FileResource) root).getFile() , baseDir ) ).append('|');
+        key.append( root.contentHash() ).append('|');
+        key.append( root.getEncoding() ).append('|');
+        key.append( settings.getMaxErrors() ).append('|');
+        key.append( settings.isFailOnAddressOutOfRange() ).append('|');
+        key.append( settings.isWarnIfInOutCanBeUsed() ).append('|');
+        key.append( arch.getDeviceName() );
+        for ( Map.Entry<Segment,OutputSpec> entry : new TreeMap<>( outputSpecs ).entrySet() ) {
+            key.append('|').append( entry.getKey() ).append('=').append( entry.getValue().format );
+        }
+        return hash( key.toString() );
+    }
+
+    /**
+     * Returns the path of a file relative to a base directory.
+     *
+     * @param file
+     * @param baseDir
+     * @return relative path or the absolute path if the file is not located below the base directory
+     */
+    static String toPath(File file,File baseDir)
+    {
+        final Path path = file.toPath().toAbsolutePath().normalize();
+        final Path base = baseDir.toPath().toAbsolutePath().normalize();
+        return path.startsWith( base ) ? base.relativize( path ).toString() : path.toString();
+    }
+
+    private static File fromPath(String path,File baseDir)
+    {
+        final File file = new File( path );
+        return file.isAbsolute() ? file : new File( baseDir.getAbsoluteFile() , path );
+    }
+
+    private static String hash(String s)
+    {
+        final byte[] data = s.getBytes( StandardCharsets.UTF_8 );
+        return new HashingAlgorithm().update( data , 0 , data.length ).finish();
+    }
+
+    /**
+     * Gathers the inputs of a compilation.
+     *
+     * @param root compilation root
+     * @return inputs or <code>null</code> if at least one input was not a {@link FileResource}
+     */
+    public static List<Input> gatherInputs(CompilationUnit root)
+    {
+        final Map<File,Input> result = new TreeMap<>();
+        final List<CompilationUnit> stack = new ArrayList<>();
+        final List<Resource> binaryIncludes = new ArrayList<>();
+        stack.add( root );
+        while ( ! stack.isEmpty() )
+        {
+            final CompilationUnit unit = stack.remove( stack.size() -1 );
+            final Resource resource = unit.getResource();
+            if ( ! ( resource instanceof FileResource ) ) {
+                return null;
+            }
+            final File file = ((FileResource) resource).getFile().getAbsoluteFile();
+            if ( ! result.containsKey( file ) )
+            {
+                result.put( file , new Input( file , resource.contentHash() ) );
+                stack.addAll( unit.getDependencies() );
+                binaryIncludes.addAll( getBinaryIncludes( unit ) );
+            }
+        }
+        for ( Resource resource : binaryIncludes )
+        {
+            if ( ! ( resource instanceof FileResource ) ) {
+                return null;
+            }
+            final File file = ((FileResource) resource).getFile().getAbsoluteFile();
+            result.putIfAbsent( file , new Input( file , resource.contentHash() ) );
+        }
+        return new ArrayList<>( result.values() );
+    }
+
+    private static List<Resource> getBinaryIncludes(CompilationUnit unit)
+    {
+        final List<Resource> result = new ArrayList<>();
+        unit.getAST().visitBreadthFirst( (node,ctx) ->
+        {
+            if ( node instanceof PreprocessorNode && ((PreprocessorNode) node).hasType( Preprocessor.INCLUDE_BINARY ) )
+            {
+                final Resource file = ((PreprocessorNode) node).getFile();
+                if ( file != null ) {
+                    result.add( file );
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Looks for a cache entry whose inputs are all up-to-date.
+     *
+     * @param rootKey
+     * @param baseDir the project's base directory
+     * @return
+     * @see #rootKey(Resource, File, ICompilerSettings, IArchitecture, Map)
+     */
+    public Optional<Entry> lookup(String rootKey,File baseDir)
+    {
+        Validate.notBlank(rootKey, "rootKey must not be NULL or blank");
+        Validate.notNull(baseDir, "baseDir must not be NULL");
+
+        final Optional<Entry> result = findEntry( rootKey , baseDir );
+        if ( result.isPresent() ) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return result;
+    }
+
+    /**
+     * Returns hit/miss counts of {@link #lookup(String, File)} calls on this instance.
+     *
+     * @return
+     */
+    public CacheStatistics getStatistics() {
+        return new CacheStatistics( hits , misses );
+    }
+
+    private Optional<Entry> findEntry(String rootKey,File baseDir)
+    {
+        final File[] candidates = new File( directory , rootKey ).listFiles( f -> f.isFile() && f.getName().endsWith( ENTRY_SUFFIX ) );
+        if ( candidates == null ) {
+            return Optional.empty();
+        }
+        // most recently used entries are most likely to match
+        Arrays.sort( candidates , Comparator.comparingLong( File::lastModified ).reversed() );
+        for ( File candidate : candidates )
+        {
+            try
+            {
+                final Entry entry = read( candidate , baseDir );
+                if ( entry != null )
+                {
+                    if ( ! candidate.setLastModified( System.currentTimeMillis() ) ) {
+                        LOG.warn("lookup(): Failed to update timestamp of "+candidate.getAbsolutePath());
+                    }
+                    return Optional.of( entry );
+                }
+            }
+            catch(IOException e)
+            {
+                LOG.warn("lookup(): Discarding unreadable cache entry "+candidate.getAbsolutePath(),e);
+                candidate.delete();
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Reads a cache entry.
+     *
+     * @param file
+     * @param baseDir directory relative paths are resolved against
+     * @return entry or <code>null</code> if at least one of the entry's inputs is not up-to-date
+     * @throws IOException
+     */
+    private static Entry read(File file,File baseDir) throws IOException
+    {
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) )
+        {
+            if ( in.readInt() != FORMAT_VERSION ) {
+                throw new IOException("Unsupported format version");
+            }
+            final int inputCount = in.readInt();
+            final List<Input> inputs = new ArrayList<>( inputCount );
+            for ( int i = 0 ; i < inputCount ; i++ )
+            {
+                final Input input = new Input( fromPath( in.readUTF() , baseDir ) , in.readUTF() );
+                if ( ! input.isUpToDate() ) {
+                    return null;
+                }
+                inputs.add( input );
+            }
+
+            final Severity[] severities = Severity.values();
+            final int messageCount = in.readInt();
+            final List<Message> messages = new ArrayList<>( messageCount );
+            for ( int i = 0 ; i < messageCount ; i++ )
+            {
+                final Severity severity = severities[ in.readUnsignedByte() ];
+                final String text = in.readUTF();
+                final TextRegion region;
+                if ( in.readBoolean() ) {
+                    region = new TextRegion( in.readInt() , in.readInt() , in.readInt() , in.readInt() );
+                } else {
+                    region = null;
+                }
+                final File source = in.readBoolean() ? fromPath( in.readUTF() , baseDir ) : null;
+                messages.add( new Message( severity , text , region , source ) );
+            }
+
+            final Segment[] segments = Segment.values();
+            final int artifactCount = in.readInt();
+            final Map<Segment,byte[]> artifacts = new EnumMap<>( Segment.class );
+            for ( int i = 0 ; i < artifactCount ; i++ )
+            {
+                final Segment segment = segments[ in.readUnsignedByte() ];
+                final byte[] data = new byte[ in.readInt() ];
+                in.readFully( data );
+                artifacts.put( segment , data );
+            }
+            return new Entry( inputs , messages , artifacts );
+        }
+    }
+
+    /**
+     * Stores a cache entry.
+     *
+     * @param rootKey
+     * @param baseDir the project's base directory
+     * @param entry
+     * @throws IOException
+     * @see #rootKey(Resource, File, ICompilerSettings, IArchitecture, Map)
+     */
+    public void store(String rootKey,File baseDir,Entry entry) throws IOException
+    {
+        Validate.notBlank(rootKey, "rootKey must not be NULL or blank");
+        Validate.notNull(baseDir, "baseDir must not be NULL");
+        Validate.notNull(entry, "entry must not be NULL");
+
+        final StringBuilder key = new StringBuilder( rootKey );
+        entry.inputs.forEach( input -> key.append('|').append( toPath( input.file , baseDir ) ).append('=').append( input.contentHash ) );
+
+        final File parent = new File( directory , rootKey );
+        if ( ! parent.exists() && ! parent.mkdirs() && ! parent.isDirectory() ) {
+            throw new IOException("Failed to create directory "+parent.getAbsolutePath());
+        }
+        final File target = new File( parent , hash( key.toString() )+ENTRY_SUFFIX );
+
+        // write to temporary file first so that concurrent builds never see partially written entries
+        final File tmp = File.createTempFile( "entry", ".tmp" , parent );
+        try
+        {
+            try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) ) )
+            {
+                out.writeInt( FORMAT_VERSION );
+                out.writeInt( entry.inputs.size() );
+                for ( Input input : entry.inputs )
+                {
+                    out.writeUTF( toPath( input.file , baseDir ) );
+                    out.writeUTF( input.contentHash );
+                }
+                out.writeInt( entry.messages.size() );
+                for ( Message msg : entry.messages )
+                {
+                    out.writeByte( msg.severity.ordinal() );
+                    out.writeUTF( msg.text );
+                    out.writeBoolean( msg.region != null );
+                    if ( msg.region != null )
+                    {
+                        out.writeInt( msg.region.start() );
+                        out.writeInt( msg.region.length() );
+                        out.writeInt( msg.region.line() );
+                        out.writeInt( msg.region.column() );
+                    }
+                    out.writeBoolean( msg.file != null );
+                    if ( msg.file != null ) {
+                        out.writeUTF( toPath( msg.file , baseDir ) );
+                    }
+                }
+                out.writeInt( entry.artifacts.size() );
+                for ( Map.Entry<Segment,byte[]> artifact : entry.artifacts.entrySet() )
+                {
+                    out.writeByte( artifact.getKey().ordinal() );
+                    out.writeInt( artifact.getValue().length );
+                    out.write( artifact.getValue() );
+                }
+            }
+            try {
+                Files.move( tmp.toPath() , target.toPath() , StandardCopyOption.ATOMIC_MOVE , StandardCopyOption.REPLACE_EXISTING );
+            } catch(AtomicMoveNotSupportedException e) {
+                Files.move( tmp.toPath() , target.toPath() , StandardCopyOption.REPLACE_EXISTING );
+            }
+        }
+        finally
+        {
+            tmp.delete();
+        }
+        evict();
+    }
+
+    /**
+     * Deletes least-recently used entries until the cache size
+     * is below the configured limit.
+     */
+    public void evict()
+    {
+        final List<File> entries = new ArrayList<>();
+        final File[] dirs = directory.listFiles( File::isDirectory );
+        if ( dirs == null ) {
+            return;
+        }
+        long totalSize = 0;
+        for ( File dir : dirs )
+        {
+            final File[] files = dir.listFiles( f -> f.isFile() && f.getName().endsWith( ENTRY_SUFFIX ) );
+            if ( files != null )
+            {
+                for ( File file : files )
+                {
+                    entries.add( file );
+                    totalSize += file.length();
+                }
+            }
+        }
+        if ( totalSize <= maxSizeInBytes ) {
+            return;
+        }
+        entries.sort( Comparator.comparingLong( File::lastModified ) );
+        for ( int i = 0 ; i < entries.size() && totalSize > maxSizeInBytes ; i++ )
+        {
+            final File file = entries.get(i);
+            final long len = file.length();
+            if ( file.delete() )
+            {
+                LOG.debug("evict(): Evicted "+file.getAbsolutePath());
+                totalSize -= len;
+                final File parent = file.getParentFile();
+                final String[] remaining = parent.list();
+                if ( remaining != null && remaining.length == 0 ) {
+                    parent.delete();
+                }
+            }
+        }
+    }
+}
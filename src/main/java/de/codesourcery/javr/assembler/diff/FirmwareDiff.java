@@ -0,0 +1,786 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.diff;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.Validate;
+
+import de.codesourcery.javr.assembler.arch.Architecture;
+import de.codesourcery.javr.assembler.arch.IArchitecture;
+
+/**
+ * Compares two firmware images instruction by instruction.
+ * 
+ * <p>Both images get decoded into instruction streams that are then aligned with 
+ * a linear-time heuristic: after stripping the common prefix and suffix, runs of {@link #ANCHOR_LENGTH}
+ * instructions that occur exactly once in both images are used as anchors and extended in
+ * both directions. The gaps between anchors are aligned recursively. Address operands are 
+ * ignored while aligning so that code that just moved still matches.</p>
+ * 
+ * <p>If both images carry symbols (ELF executables), the start addresses of functions present in 
+ * both images are used as the initial anchors instead, so that repetitive code which yields no unique
+ * anchors still gets aligned function by function. Changes are then also reported per function.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class FirmwareDiff 
+{
+    private static final int ANCHOR_LENGTH = 4;
+
+    private static final int MAX_RECURSION_DEPTH = 8;
+
+    private static final int EXIT_IDENTICAL = 0;
+    private static final int EXIT_DIFFERENT = 1;
+    private static final int EXIT_ERROR = 2;
+
+    public enum Status 
+    {
+        UNCHANGED,
+        /**
+         * Identical code at a different address.
+         */
+        MOVED,
+        /**
+         * Same instructions but some address operands (jump/call targets, memory locations) changed.
+         */
+        ADDRESSES_CHANGED,
+        CHANGED,
+        ADDED,
+        REMOVED
+    }
+
+    /**
+     * Change to a function.
+     * 
+     * @author tobias.gierke@code-sourcery.de
+     */
+    public static final class FunctionDiff 
+    {
+        public final String name;
+        public final Status status;
+        // -1 if the function does not exist in the old image
+        public final int oldAddress;
+        public final int oldSize;
+        // -1 if the function does not exist in the new image
+        public final int newAddress;
+        public final int newSize;
+
+        public FunctionDiff(String name, Status status, int oldAddress, int oldSize, int newAddress, int newSize) 
+        {
+            this.name = name;
+            this.status = status;
+            this.oldAddress = oldAddress;
+            this.oldSize = oldSize;
+            this.newAddress = newAddress;
+            this.newSize = newSize;
+        }
+
+        public int getSizeDelta() {
+            return newSize - oldSize;
+        }
+
+        @Override
+        public String toString() 
+        {
+            final String oldAdr = oldAddress == -1 ? "-" : hex( oldAddress );
+            final String newAdr = newAddress == -1 ? "-" : hex( newAddress );
+            return String.format("%-17s %-30s %8s -> %-8s %6d -> %-6d bytes (%s)", status , name , oldAdr , newAdr , oldSize , newSize , signed( getSizeDelta() ) );
+        }
+    }
+
+    /**
+     * Address range that got replaced with different code.
+     * 
+     * @author tobias.gierke@code-sourcery.de
+     */
+    public static final class ChangedRegion 
+    {
+        public final int oldAddress;
+        public final int oldSize;
+        public final int newAddress;
+        public final int newSize;
+
+        public ChangedRegion(int oldAddress, int oldSize, int newAddress, int newSize) 
+        {
+            this.oldAddress = oldAddress;
+            this.oldSize = oldSize;
+            this.newAddress = newAddress;
+            this.newSize = newSize;
+        }
+
+        @Override
+        public String toString() {
+            return range( oldAddress , oldSize )+" ("+oldSize+" bytes) -> "+range( newAddress , newSize )+" ("+newSize+" bytes)";
+        }
+    }
+
+    /**
+     * Code that matches but lives at a different address.
+     * 
+     * @author tobias.gierke@code-sourcery.de
+     */
+    public static final class MovedRegion 
+    {
+        public final int oldAddress;
+        public final int newAddress;
+        public final int size;
+
+        public MovedRegion(int oldAddress, int newAddress, int size) 
+        {
+            this.oldAddress = oldAddress;
+            this.newAddress = newAddress;
+            this.size = size;
+        }
+
+        public int getDelta() {
+            return newAddress - oldAddress;
+        }
+
+        @Override
+        public String toString() {
+            return range( oldAddress , size )+" -> "+range( newAddress , size )+" ("+signed( getDelta() )+", "+size+" bytes)";
+        }
+    }
+
+    public final FirmwareImage oldImage;
+    public final FirmwareImage newImage;
+
+    private final InstructionStream oldCode;
+    private final InstructionStream newCode;
+
+    // index of the matching instruction in the other stream, -1 if there is none
+    private final int[] oldToNew;
+    private final int[] newToOld;
+
+    private final List<FunctionDiff> functions = new ArrayList<>();
+    private final List<ChangedRegion> changedRegions = new ArrayList<>();
+    private final List<MovedRegion> movedRegions = new ArrayList<>();
+    private int changedAddressOperands;
+
+    private FirmwareDiff(IArchitecture arch,FirmwareImage oldImage,FirmwareImage newImage) 
+    {
+        this.oldImage = oldImage;
+        this.newImage = newImage;
+        this.oldCode = InstructionStream.decode( arch , oldImage.getData() );
+        this.newCode = InstructionStream.decode( arch , newImage.getData() );
+        this.oldToNew = new int[ oldCode.size() ];
+        this.newToOld = new int[ newCode.size() ];
+        Arrays.fill( oldToNew , -1 );
+        Arrays.fill( newToOld , -1 );
+    }
+
+    /**
+     * Compares two images.
+     * 
+     * @param arch architecture used to decode the images
+     * @param oldImage
+     * @param newImage
+     * @return
+     */
+    public static FirmwareDiff compare(IArchitecture arch,FirmwareImage oldImage,FirmwareImage newImage) 
+    {
+        Validate.notNull(arch, "arch must not be NULL");
+        Validate.notNull(oldImage, "oldImage must not be NULL");
+        Validate.notNull(newImage, "newImage must not be NULL");
+
+        final FirmwareDiff result = new FirmwareDiff( arch , oldImage , newImage );
+        if ( oldImage.hasSymbols() && newImage.hasSymbols() ) 
+        {
+            final Map<String,int[]> oldFunctions = functionExtents( oldImage );
+            final Map<String,int[]> newFunctions = functionExtents( newImage );
+            result.alignFunctions( oldFunctions , newFunctions );
+            result.gatherRegions();
+            result.compareFunctions( oldFunctions , newFunctions );
+        } 
+        else 
+        {
+            result.align( 0 , result.oldCode.size() , 0 , result.newCode.size() , 0 );
+            result.gatherRegions();
+        }
+        return result;
+    }
+
+    private void match(int oldIdx,int newIdx) 
+    {
+        oldToNew[oldIdx] = newIdx;
+        newToOld[newIdx] = oldIdx;
+    }
+
+    private boolean sameKey(int oldIdx,int newIdx) {
+        return oldCode.key( oldIdx ) == newCode.key( newIdx );
+    }
+
+    private void align(int oldStart,int oldEnd,int newStart,int newEnd,int depth) 
+    {
+        while ( oldStart < oldEnd && newStart < newEnd && sameKey( oldStart , newStart ) ) {
+            match( oldStart++ , newStart++ );
+        }
+        while ( oldStart < oldEnd && newStart < newEnd && sameKey( oldEnd-1 , newEnd-1 ) ) {
+            match( --oldEnd , --newEnd );
+        }
+        if ( oldStart == oldEnd || newStart == newEnd || depth == MAX_RECURSION_DEPTH ) {
+            return;
+        }
+
+        // find anchors, ordered by their index in the new stream
+        final Map<Long,Integer> oldAnchors = uniqueAnchors( oldCode , oldStart , oldEnd );
+        final Map<Long,Integer> newAnchors = uniqueAnchors( newCode , newStart , newEnd );
+        final int maxAnchors = Math.max( 0 , newEnd - newStart - ANCHOR_LENGTH + 1 );
+        final int[] anchorOld = new int[ maxAnchors ];
+        final int[] anchorNew = new int[ maxAnchors ];
+        int anchorCount = 0;
+        for ( int j = newStart ; j + ANCHOR_LENGTH <= newEnd ; j++ ) 
+        {
+            final Long anchor = anchor( newCode , j );
+            final Integer i = oldAnchors.get( anchor );
+            if ( i != null && i >= 0 && newAnchors.get( anchor ) == j ) 
+            {
+                anchorOld[ anchorCount ] = i;
+                anchorNew[ anchorCount++ ] = j;
+            }
+        }
+        if ( anchorCount > 0 ) {
+            alignAroundAnchors( oldStart , oldEnd , newStart , newEnd , anchorOld , anchorNew , anchorCount , depth );
+        }
+    }
+
+    /**
+     * Aligns both instruction streams using the start addresses of functions that
+     * exist in both images as anchors.
+     * 
+     * @param oldFunctions
+     * @param newFunctions
+     */
+    private void alignFunctions(Map<String,int[]> oldFunctions,Map<String,int[]> newFunctions) 
+    {
+        final List<int[]> seeds = new ArrayList<>();
+        for ( Map.Entry<String,int[]> entry : oldFunctions.entrySet() ) 
+        {
+            final int[] newRange = newFunctions.get( entry.getKey() );
+            if ( newRange != null ) 
+            {
+                final int i = oldCode.indexOf( entry.getValue()[0] );
+                final int j = newCode.indexOf( newRange[0] );
+                if ( i < oldCode.size() && j < newCode.size() ) {
+                    seeds.add( new int[] { i , j } );
+                }
+            }
+        }
+        seeds.sort( Comparator.comparingInt( (int[] seed) -> seed[1] ).thenComparingInt( seed -> seed[0] ) );
+
+        final int[] anchorOld = new int[ seeds.size() ];
+        final int[] anchorNew = new int[ seeds.size() ];
+        for ( int k = 0 ; k < seeds.size() ; k++ ) 
+        {
+            anchorOld[k] = seeds.get(k)[0];
+            anchorNew[k] = seeds.get(k)[1];
+        }
+        alignAroundAnchors( 0 , oldCode.size() , 0 , newCode.size() , anchorOld , anchorNew , seeds.size() , 0 );
+    }
+
+    /**
+     * Extends anchors to runs of matching instructions and recursively aligns the gaps between them.
+     * 
+     * @param anchorOld instruction indices of anchors in the old stream
+     * @param anchorNew instruction indices of anchors in the new stream, ascending
+     * @param anchorCount number of anchors
+     */
+    private void alignAroundAnchors(int oldStart,int oldEnd,int newStart,int newEnd,int[] anchorOld,int[] anchorNew,int anchorCount,int depth) 
+    {
+        // keep only anchors that are in order in both streams
+        final int[] sequence = longestIncreasingSubsequence( anchorOld , anchorCount );
+
+        int lastOld = oldStart;
+        int lastNew = newStart;
+        for ( int k : sequence ) 
+        {
+            final int i = anchorOld[k];
+            final int j = anchorNew[k];
+            if ( i < lastOld || j < lastNew ) {
+                continue;
+            }
+            int runOldStart = i;
+            int runNewStart = j;
+            while ( runOldStart > lastOld && runNewStart > lastNew && sameKey( runOldStart-1 , runNewStart-1 ) ) {
+                runOldStart--;
+                runNewStart--;
+            }
+            int runOldEnd = i;
+            int runNewEnd = j;
+            while ( runOldEnd < oldEnd && runNewEnd < newEnd && sameKey( runOldEnd , runNewEnd ) ) {
+                runOldEnd++;
+                runNewEnd++;
+            }
+            if ( runOldEnd == i ) { // hash collision or functions starting with different instructions
+                continue;
+            }
+            align( lastOld , runOldStart , lastNew , runNewStart , depth+1 );
+            for ( int o = runOldStart , n = runNewStart ; o < runOldEnd ; o++ , n++ ) {
+                match( o , n );
+            }
+            lastOld = runOldEnd;
+            lastNew = runNewEnd;
+        }
+        align( lastOld , oldEnd , lastNew , newEnd , depth+1 );
+    }
+
+    private static long anchor(InstructionStream stream,int index) 
+    {
+        long hash = 0;
+        for ( int k = 0 ; k < ANCHOR_LENGTH ; k++ ) 
+        {
+            hash = hash * 0x9E3779B97F4A7C15L + stream.key( index + k );
+            hash ^= hash >>> 29;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns anchors within a range of instructions.
+     * 
+     * @return map of anchor hash to instruction index, anchors that occur more than once map to -1
+     */
+    private static Map<Long,Integer> uniqueAnchors(InstructionStream stream,int start,int end) 
+    {
+        final Map<Long,Integer> result = new HashMap<>();
+        for ( int i = start ; i + ANCHOR_LENGTH <= end ; i++ ) {
+            result.merge( anchor( stream , i ) , i , (a,b) -> -1 );
+        }
+        return result;
+    }
+
+    /**
+     * Patience-sorting LIS.
+     * 
+     * @return indices into <code>values</code>, in ascending order
+     */
+    private static int[] longestIncreasingSubsequence(int[] values,int count) 
+    {
+        final int[] tails = new int[ count ];
+        final int[] predecessors = new int[ count ];
+        int length = 0;
+        for ( int i = 0 ; i < count ; i++ ) 
+        {
+            int lo = 0;
+            int hi = length;
+            while ( lo < hi ) 
+            {
+                final int mid = (lo+hi) >>> 1;
+                if ( values[ tails[mid] ] < values[i] ) {
+                    lo = mid+1;
+                } else {
+                    hi = mid;
+                }
+            }
+            predecessors[i] = lo > 0 ? tails[lo-1] : -1;
+            tails[lo] = i;
+            if ( lo == length ) {
+                length++;
+            }
+        }
+        final int[] result = new int[ length ];
+        for ( int i = length-1 , k = length > 0 ? tails[length-1] : -1 ; i >= 0 ; i-- , k = predecessors[k] ) {
+            result[i] = k;
+        }
+        return result;
+    }
+
+    private int size(InstructionStream stream,int start,int end) {
+        return stream.offset( end ) - stream.offset( start );
+    }
+
+    private void gatherRegions() 
+    {
+        // code shifted by the same distance
+        int runStart = -1;
+        for ( int i = 0 ; i <= oldCode.size() ; i++ ) 
+        {
+            final boolean continuesRun = i < oldCode.size() && runStart != -1 && oldToNew[i] == oldToNew[i-1]+1 && 
+                                         delta( i ) == delta( runStart );
+            if ( continuesRun ) {
+                continue;
+            }
+            if ( runStart != -1 && delta( runStart ) != 0 ) {
+                movedRegions.add( new MovedRegion( oldCode.offset( runStart ) , newCode.offset( oldToNew[runStart] ) , size( oldCode , runStart , i ) ) );
+            }
+            runStart = i < oldCode.size() && oldToNew[i] != -1 ? i : -1;
+        }
+        for ( int i = 0 ; i < oldCode.size() ; i++ ) 
+        {
+            if ( oldToNew[i] != -1 && oldCode.value( i ) != newCode.value( oldToNew[i] ) ) {
+                changedAddressOperands++;
+            }
+        }
+
+        // unmatched ranges, 'hunks' holds { oldStart, oldEnd, newStart, newEnd }
+        final List<int[]> hunks = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while ( i < oldCode.size() || j < newCode.size() ) 
+        {
+            if ( i < oldCode.size() && j < newCode.size() && oldToNew[i] == j ) 
+            {
+                i++;
+                j++;
+                continue;
+            }
+            final int oldStart = i;
+            final int newStart = j;
+            while ( i < oldCode.size() && oldToNew[i] == -1 ) {
+                i++;
+            }
+            while ( j < newCode.size() && newToOld[j] == -1 ) {
+                j++;
+            }
+            if ( i == oldStart && j == newStart ) {
+                throw new IllegalStateException("Alignment is not monotonic at old #"+i+" / new #"+j);
+            }
+            hunks.add( new int[] { oldStart , i , newStart , j } );
+        }
+
+        // look for removed code that re-appears as a whole somewhere else 
+        final Map<Long,List<int[]>> removed = new HashMap<>();
+        for ( int[] hunk : hunks ) 
+        {
+            if ( hunk[1] > hunk[0] ) {
+                removed.computeIfAbsent( sequenceHash( oldCode , hunk[0] , hunk[1] ) , k -> new ArrayList<>() ).add( hunk );
+            }
+        }
+        for ( int[] hunk : hunks ) 
+        {
+            if ( hunk[3] == hunk[2] ) {
+                continue;
+            }
+            final List<int[]> candidates = removed.getOrDefault( sequenceHash( newCode , hunk[2] , hunk[3] ) , Collections.emptyList() );
+            for ( int[] candidate : candidates ) 
+            {
+                if ( candidate != hunk && candidate[1] > candidate[0] && sameSequence( candidate[0] , candidate[1] , hunk[2] , hunk[3] ) ) 
+                {
+                    for ( int o = candidate[0] , n = hunk[2] ; o < candidate[1] ; o++ , n++ ) {
+                        match( o , n );
+                    }
+                    movedRegions.add( new MovedRegion( oldCode.offset( candidate[0] ) , newCode.offset( hunk[2] ) , size( oldCode , candidate[0] , candidate[1] ) ) );
+                    // mark both sides as consumed
+                    candidate[1] = candidate[0];
+                    hunk[3] = hunk[2];
+                    break;
+                }
+            }
+        }
+        movedRegions.sort( Comparator.comparingInt( r -> r.oldAddress ) );
+
+        for ( int[] hunk : hunks ) 
+        {
+            if ( hunk[1] > hunk[0] || hunk[3] > hunk[2] ) 
+            {
+                changedRegions.add( new ChangedRegion( oldCode.offset( hunk[0] ) , size( oldCode , hunk[0] , hunk[1] ) , 
+                                                       newCode.offset( hunk[2] ) , size( newCode , hunk[2] , hunk[3] ) ) );
+            }
+        }
+    }
+
+    private int delta(int oldIdx) {
+        return newCode.offset( oldToNew[oldIdx] ) - oldCode.offset( oldIdx );
+    }
+
+    private static long sequenceHash(InstructionStream stream,int start,int end) 
+    {
+        long hash = end - start;
+        for ( int i = start ; i < end ; i++ ) 
+        {
+            hash = hash * 0x9E3779B97F4A7C15L + stream.key( i );
+            hash ^= hash >>> 29;
+        }
+        return hash;
+    }
+
+    private boolean sameSequence(int oldStart,int oldEnd,int newStart,int newEnd) 
+    {
+        if ( oldEnd - oldStart != newEnd - newStart ) {
+            return false;
+        }
+        for ( int o = oldStart , n = newStart ; o < oldEnd ; o++ , n++ ) 
+        {
+            if ( ! sameKey( o , n ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the address ranges of all functions in an image.
+     *  
+     * @return map of function name to { start address, end address (exclusive) }
+     */
+    private static Map<String,int[]> functionExtents(FirmwareImage image) 
+    {
+        final List<FirmwareImage.Symbol> symbols = new ArrayList<>( image.getSymbols() );
+        symbols.sort( Comparator.comparingInt( (FirmwareImage.Symbol s) -> s.address ).thenComparing( s -> s.name ) );
+
+        final Map<String,int[]> result = new LinkedHashMap<>();
+        for ( int k = 0 ; k < symbols.size() ; k++ ) 
+        {
+            final FirmwareImage.Symbol symbol = symbols.get(k);
+            if ( k > 0 && symbols.get(k-1).address == symbol.address ) { // alias
+                continue;
+            }
+            int end = image.size();
+            for ( int next = k+1 ; next < symbols.size() ; next++ ) 
+            {
+                if ( symbols.get(next).address != symbol.address ) 
+                {
+                    end = symbols.get(next).address;
+                    break;
+                }
+            }
+            if ( symbol.size > 0 ) {
+                end = Math.min( end , symbol.address + symbol.size );
+            }
+            result.putIfAbsent( symbol.name , new int[] { symbol.address , Math.max( symbol.address , end ) } );
+        }
+        return result;
+    }
+
+    private void compareFunctions(Map<String,int[]> oldFunctions,Map<String,int[]> newFunctions) 
+    {
+        for ( Map.Entry<String,int[]> entry : oldFunctions.entrySet() ) 
+        {
+            final int[] oldRange = entry.getValue();
+            final int[] newRange = newFunctions.get( entry.getKey() );
+            final int oldSize = oldRange[1] - oldRange[0];
+            if ( newRange == null ) {
+                functions.add( new FunctionDiff( entry.getKey() , Status.REMOVED , oldRange[0] , oldSize , -1 , 0 ) );
+                continue;
+            }
+            final Status status = compare( oldRange , newRange );
+            functions.add( new FunctionDiff( entry.getKey() , status , oldRange[0] , oldSize , newRange[0] , newRange[1] - newRange[0] ) );
+        }
+        for ( Map.Entry<String,int[]> entry : newFunctions.entrySet() ) 
+        {
+            if ( ! oldFunctions.containsKey( entry.getKey() ) ) {
+                final int[] newRange = entry.getValue();
+                functions.add( new FunctionDiff( entry.getKey() , Status.ADDED , -1 , 0 , newRange[0] , newRange[1] - newRange[0] ) );
+            }
+        }
+        functions.sort( Comparator.comparingInt( (FunctionDiff f) -> f.newAddress == -1 ? f.oldAddress : f.newAddress ).thenComparing( f -> f.name ) );
+    }
+
+    private Status compare(int[] oldRange,int[] newRange) 
+    {
+        final int oldStart = oldCode.indexOf( oldRange[0] );
+        final int oldEnd = oldCode.indexOf( oldRange[1] );
+        final int newStart = newCode.indexOf( newRange[0] );
+        final int newEnd = newCode.indexOf( newRange[1] );
+        if ( oldRange[1] - oldRange[0] != newRange[1] - newRange[0] || oldEnd - oldStart != newEnd - newStart ) {
+            return Status.CHANGED;
+        }
+        boolean sameValues = true;
+        for ( int o = oldStart , n = newStart ; o < oldEnd ; o++ , n++ ) 
+        {
+            if ( oldToNew[o] != n ) {
+                return Status.CHANGED;
+            }
+            sameValues &= oldCode.value( o ) == newCode.value( n );
+        }
+        if ( ! sameValues ) {
+            return Status.ADDRESSES_CHANGED;
+        }
+        return oldRange[0] == newRange[0] ? Status.UNCHANGED : Status.MOVED;
+    }
+
+    /**
+     * Returns whether both images have identical flash contents.
+     * 
+     * @return
+     */
+    public boolean isIdentical() {
+        return Arrays.equals( oldImage.getData() , newImage.getData() );
+    }
+
+    /**
+     * Returns per-function changes, empty unless both images have symbols.
+     * 
+     * @return
+     */
+    public List<FunctionDiff> getFunctions() {
+        return Collections.unmodifiableList( functions );
+    }
+
+    public List<ChangedRegion> getChangedRegions() {
+        return Collections.unmodifiableList( changedRegions );
+    }
+
+    public List<MovedRegion> getMovedRegions() {
+        return Collections.unmodifiableList( movedRegions );
+    }
+
+    /**
+     * Returns the number of matching instructions that only differ in their address operands.
+     * 
+     * @return
+     */
+    public int getChangedAddressOperandCount() {
+        return changedAddressOperands;
+    }
+
+    /**
+     * Prints a human-readable report.
+     * 
+     * @param out
+     * @param verbose whether to also list unchanged functions
+     */
+    public void printReport(PrintStream out,boolean verbose) 
+    {
+        Validate.notNull(out, "out must not be NULL");
+
+        out.println("Old: "+describe( oldImage , oldCode ) );
+        out.println("New: "+describe( newImage , newCode ) );
+        out.println("Size: "+oldImage.size()+" -> "+newImage.size()+" bytes ("+signed( newImage.size() - oldImage.size() )+")");
+        if ( isIdentical() ) 
+        {
+            out.println("\nImages are identical.");
+            return;
+        }
+        out.println("Instructions with changed address operands: "+changedAddressOperands);
+
+        if ( ! functions.isEmpty() ) 
+        {
+            final Map<Status,Long> counts = functions.stream().collect( Collectors.groupingBy( f -> f.status , Collectors.counting() ) );
+            out.println("\nFunctions: "+Arrays.stream( Status.values() ).map( s -> counts.getOrDefault( s , 0L )+" "+s.name().toLowerCase().replace('_',' ') ).collect( Collectors.joining(", ") ) );
+            functions.stream().filter( f -> verbose || f.status != Status.UNCHANGED ).forEach( f -> out.println("  "+f ) );
+        }
+        if ( ! changedRegions.isEmpty() ) 
+        {
+            out.println("\nChanged regions:");
+            changedRegions.forEach( r -> out.println("  "+r ) );
+        }
+        if ( ! movedRegions.isEmpty() ) 
+        {
+            out.println("\nMoved code:");
+            movedRegions.forEach( r -> out.println("  "+r ) );
+        }
+    }
+
+    private static String describe(FirmwareImage image,InstructionStream code) {
+        return image.name+" ("+image.format+", "+image.size()+" bytes, "+code.size()+" instructions, "+image.getSymbols().size()+" symbols)";
+    }
+
+    private static String hex(int address) {
+        return "0x"+String.format("%04x", address );
+    }
+
+    private static String range(int address,int size) {
+        return size == 0 ? hex( address ) : hex( address )+"-"+hex( address + size );
+    }
+
+    private static String signed(int value) {
+        return value > 0 ? "+"+value : Integer.toString( value );
+    }
+
+    private static void printHelp() 
+    {
+        System.out.println("USAGE: diff [-h|--help] [-v|--verbose] [-a|--arch <architecture>] <old image> <new image>\n");
+        System.out.println("Compares two firmware images (raw binary, Intel HEX or ELF executable) and reports changed functions, size deltas and moved code.");
+        System.out.println("Exits with 0 if both images are identical, 1 if they differ and 2 on errors.\n");
+        System.out.println("Supported architectures: "+Arrays.stream( Architecture.values() ).map( Architecture::getIdentifier ).collect( Collectors.joining(", ") ) );
+    }
+
+    public static void main(String[] arguments) 
+    {
+        System.exit( run( arguments ) );
+    }
+
+    public static int run(String[] arguments) 
+    {
+        final List<String> args = Arrays.stream( arguments ).map( String::trim ).collect( Collectors.toList() );
+        if ( args.isEmpty() || args.contains("-h") || args.contains("--help") ) 
+        {
+            printHelp();
+            return args.isEmpty() ? EXIT_ERROR : EXIT_IDENTICAL;
+        }
+
+        Architecture arch = Architecture.ATMEGA88;
+        boolean verbose = false;
+        final List<File> inputFiles = new ArrayList<>();
+        for ( int i = 0 ; i < args.size() ; i++ ) 
+        {
+            final String arg = args.get(i);
+            final String nextArg = i+1 < args.size() ? args.get(i+1) : null;
+            switch( arg ) 
+            {
+                case "-v": case "--verbose":
+                    verbose = true;
+                    break;
+                case "-a": case "--arch":
+                    if ( nextArg == null ) {
+                        return error( arg+" option needs an argument");
+                    }
+                    arch = Arrays.stream( Architecture.values() ).filter( a -> a.getIdentifier().equalsIgnoreCase( nextArg ) ).findFirst().orElse( null );
+                    if ( arch == null ) {
+                        return error( "Unknown architecture '"+nextArg+"'");
+                    }
+                    i++;
+                    break;
+                default:
+                    if ( arg.startsWith("-") ) {
+                        return error("Unknown command-line option: '"+arg+"'");
+                    }
+                    inputFiles.add( new File( arg ) );
+            }
+        }
+        if ( inputFiles.size() != 2 ) {
+            return error("Expected exactly two images but got "+inputFiles.size());
+        }
+
+        final FirmwareImage oldImage;
+        final FirmwareImage newImage;
+        try {
+            oldImage = FirmwareImage.load( inputFiles.get(0) );
+            newImage = FirmwareImage.load( inputFiles.get(1) );
+        } 
+        catch (IOException e) 
+        {
+            return error( e.getMessage() );
+        }
+
+        final long start = System.nanoTime();
+        final FirmwareDiff diff = compare( arch.getImplementation() , oldImage , newImage );
+        diff.printReport( System.out , verbose );
+        if ( verbose ) {
+            System.out.println("\nCompared in "+( System.nanoTime() - start ) / 1_000_000+" ms");
+        }
+        return diff.isIdentical() ? EXIT_IDENTICAL : EXIT_DIFFERENT;
+    }
+
+    private static int error(String msg) 
+    {
+        System.err.println("ERROR: "+msg);
+        return EXIT_ERROR;
+    }
+}
@@ -0,0 +1,286 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.diff;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.Validate;
+
+import de.codesourcery.javr.assembler.elf.SectionTableEntry.Flag;
+import de.codesourcery.javr.assembler.elf.SectionTableEntry.SectionType;
+import de.codesourcery.javr.assembler.util.IntelHex;
+
+/**
+ * Flash memory contents of a firmware image, optionally with the function symbols
+ * that were found in the image.
+ * 
+ * <p>Images can be loaded from raw binaries, Intel HEX files and ELF executables, the format
+ * is auto-detected. Only ELF files carry symbols.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class FirmwareImage 
+{
+    // ELF addresses at or above this offset refer to SRAM/EEPROM, not flash memory
+    private static final int ELF_SRAM_OFFSET = 0x800000;
+
+    private static final int ELF_TYPE_EXECUTABLE = 2;
+    private static final int PT_LOAD = 1;
+    private static final int STT_NOTYPE = 0;
+    private static final int STT_FUNC = 2;
+    private static final int SHN_LORESERVE = 0xff00;
+
+    public enum Format 
+    {
+        RAW,
+        INTEL_HEX,
+        ELF
+    }
+
+    public final String name;
+    public final Format format;
+
+    private final byte[] data;
+    private final List<Symbol> symbols;
+
+    /**
+     * A code symbol.
+     * 
+     * @author tobias.gierke@code-sourcery.de
+     */
+    public static final class Symbol 
+    {
+        public final String name;
+        public final int address;
+        public final int size;
+
+        public Symbol(String name, int address, int size) 
+        {
+            Validate.notBlank(name, "name must not be NULL or blank");
+            this.name = name;
+            this.address = address;
+            this.size = size;
+        }
+
+        @Override
+        public String toString() {
+            return name+" @ 0x"+Integer.toHexString( address );
+        }
+    }
+
+    public FirmwareImage(String name,Format format,byte[] data,List<Symbol> symbols) 
+    {
+        Validate.notBlank(name, "name must not be NULL or blank");
+        Validate.notNull(format, "format must not be NULL");
+        Validate.notNull(data, "data must not be NULL");
+        Validate.notNull(symbols, "symbols must not be NULL");
+        this.name = name;
+        this.format = format;
+        this.data = data;
+        this.symbols = Collections.unmodifiableList( new ArrayList<>( symbols ) );
+    }
+
+    /**
+     * Returns the flash memory contents, starting at address 0.
+     * 
+     * @return
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int size() {
+        return data.length;
+    }
+
+    public List<Symbol> getSymbols() {
+        return symbols;
+    }
+
+    public boolean hasSymbols() {
+        return ! symbols.isEmpty();
+    }
+
+    public static FirmwareImage load(File file) throws IOException 
+    {
+        Validate.notNull(file, "file must not be NULL");
+        return load( file.getPath() , Files.readAllBytes( file.toPath() ) );
+    }
+
+    /**
+     * Loads an image, detecting the file format from the data.
+     * 
+     * @param name name used when reporting errors
+     * @param data file contents
+     * @return
+     * @throws IOException if the data is malformed
+     */
+    public static FirmwareImage load(String name,byte[] data) throws IOException 
+    {
+        Validate.notNull(data, "data must not be NULL");
+        switch( detectFormat( data ) ) 
+        {
+            case ELF:
+                try {
+                    return parseElf( name , ByteBuffer.wrap( data ).order( ByteOrder.LITTLE_ENDIAN ) );
+                } catch(BufferUnderflowException | IndexOutOfBoundsException e) {
+                    throw new IOException( name+": Truncated or malformed ELF file");
+                }
+            case INTEL_HEX:
+                try 
+                {
+                    final IntelHex.Image image = IntelHex.decode( new ByteArrayInputStream( data ) );
+                    return new FirmwareImage( name , Format.INTEL_HEX , image.toByteArray( 0 , image.getEndAddress() , (byte) 0xff ) , Collections.emptyList() );
+                } catch(IOException e) {
+                    throw new IOException( name+": "+e.getMessage() , e );
+                }
+            default:
+                return new FirmwareImage( name , Format.RAW , data , Collections.emptyList() );
+        }
+    }
+
+    static Format detectFormat(byte[] data) 
+    {
+        if ( data.length >= 4 && data[0] == 0x7f && data[1] == 'E' && data[2] == 'L' && data[3] == 'F' ) {
+            return Format.ELF;
+        }
+        if ( data.length == 0 || data[0] != ':' ) {
+            return Format.RAW;
+        }
+        for ( byte b : data ) 
+        {
+            final boolean valid = ( b >= '0' && b <= '9' ) || ( b >= 'a' && b <= 'f' ) || ( b >= 'A' && b <= 'F' ) || b == ':' || b == '\r' || b == '\n';
+            if ( ! valid ) {
+                return Format.RAW;
+            }
+        }
+        return Format.INTEL_HEX;
+    }
+
+    private static FirmwareImage parseElf(String name,ByteBuffer buffer) throws IOException 
+    {
+        if ( buffer.get(4) != 1 || buffer.get(5) != 1 ) {
+            throw new IOException( name+": Only 32-bit little-endian ELF files are supported");
+        }
+        if ( buffer.getShort(16) != ELF_TYPE_EXECUTABLE ) {
+            throw new IOException( name+": Not an ELF executable, object files need to be linked first");
+        }
+
+        final int programTableOffset = buffer.getInt(28);
+        final int sectionTableOffset = buffer.getInt(32);
+        final int programEntrySize = buffer.getShort(42) & 0xffff;
+        final int programEntryCount = buffer.getShort(44) & 0xffff;
+        final int sectionEntrySize = buffer.getShort(46) & 0xffff;
+        final int sectionCount = buffer.getShort(48) & 0xffff;
+
+        final int SH_TYPE = 4, SH_FLAGS = 8, SH_ADDR = 12, SH_OFFSET = 16, SH_SIZE = 20, SH_LINK = 24;
+
+        // flash contents, preferably taken from the loadable segments as these include the
+        // initialization data of .data sections
+        byte[] flash = new byte[0];
+        for ( int i = 0 ; i < programEntryCount ; i++ ) 
+        {
+            final int ptr = programTableOffset + i * programEntrySize;
+            final int physicalAddress = buffer.getInt( ptr + 12 );
+            final int sizeInFile = buffer.getInt( ptr + 16 );
+            if ( buffer.getInt( ptr ) == PT_LOAD && sizeInFile > 0 && physicalAddress >= 0 && physicalAddress < ELF_SRAM_OFFSET ) {
+                flash = copy( buffer , buffer.getInt( ptr + 4 ) , sizeInFile , physicalAddress , flash );
+            }
+        }
+        if ( programEntryCount == 0 ) 
+        {
+            for ( int i = 0 ; i < sectionCount ; i++ ) 
+            {
+                final int ptr = sectionTableOffset + i * sectionEntrySize;
+                final int address = buffer.getInt( ptr + SH_ADDR );
+                if ( buffer.getInt( ptr + SH_TYPE ) == SectionType.SHT_PROGBITS.value && 
+                     ( buffer.getInt( ptr + SH_FLAGS ) & Flag.SHF_ALLOC.value ) != 0 && address >= 0 && address < ELF_SRAM_OFFSET ) 
+                {
+                    flash = copy( buffer , buffer.getInt( ptr + SH_OFFSET ) , buffer.getInt( ptr + SH_SIZE ) , address , flash );
+                }
+            }
+        }
+
+        // symbols that are defined in sections holding code
+        final List<Symbol> symbols = new ArrayList<>();
+        for ( int i = 0 ; i < sectionCount ; i++ ) 
+        {
+            final int ptr = sectionTableOffset + i * sectionEntrySize;
+            if ( buffer.getInt( ptr + SH_TYPE ) != SectionType.SHT_SYMTAB.value ) {
+                continue;
+            }
+            final int strTabOffset = buffer.getInt( sectionTableOffset + buffer.getInt( ptr + SH_LINK ) * sectionEntrySize + SH_OFFSET );
+            final int count = buffer.getInt( ptr + SH_SIZE ) / 16;
+            for ( int j = 1 ; j < count ; j++ ) 
+            {
+                final int symPtr = buffer.getInt( ptr + SH_OFFSET ) + j * 16;
+                final int value = buffer.getInt( symPtr + 4 );
+                final int size = buffer.getInt( symPtr + 8 );
+                final int type = buffer.get( symPtr + 12 ) & 0x0f;
+                final int sectionIdx = buffer.getShort( symPtr + 14 ) & 0xffff;
+                if ( ( type != STT_FUNC && type != STT_NOTYPE ) || sectionIdx == 0 || sectionIdx >= SHN_LORESERVE || sectionIdx >= sectionCount ) {
+                    continue;
+                }
+                final int sectionFlags = buffer.getInt( sectionTableOffset + sectionIdx * sectionEntrySize + SH_FLAGS );
+                if ( ( sectionFlags & Flag.SHF_EXECINSTR.value ) == 0 || value < 0 || value >= ELF_SRAM_OFFSET ) {
+                    continue;
+                }
+                final String symbolName = string( buffer , strTabOffset , buffer.getInt( symPtr ) );
+                if ( ! symbolName.isEmpty() ) {
+                    symbols.add( new Symbol( symbolName , value , size ) );
+                }
+            }
+        }
+        return new FirmwareImage( name , Format.ELF , flash , symbols );
+    }
+
+    private static byte[] copy(ByteBuffer buffer,int offset,int len,int address,byte[] flash) 
+    {
+        byte[] result = flash;
+        if ( address + len > result.length ) 
+        {
+            final int oldLen = result.length;
+            result = Arrays.copyOf( result , address + len );
+            Arrays.fill( result , oldLen , result.length , (byte) 0xff );
+        }
+        buffer.get( offset , result , address , len );
+        return result;
+    }
+
+    private static String string(ByteBuffer buffer,int tableOffset,int index) 
+    {
+        final StringBuilder result = new StringBuilder();
+        for ( int ptr = tableOffset + index ; buffer.get( ptr ) != 0 ; ptr++ ) {
+            result.append( (char) ( buffer.get( ptr ) & 0xff ) );
+        }
+        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        return name+" ("+format+", "+data.length+" bytes)";
+    }
+}
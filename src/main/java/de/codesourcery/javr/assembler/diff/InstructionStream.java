@@ -0,0 +1,142 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.diff;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang3.Validate;
+
+import de.codesourcery.javr.assembler.arch.IArchitecture;
+import de.codesourcery.javr.assembler.arch.IArchitecture.InstructionInfo;
+
+/**
+ * Firmware image decoded into a sequence of instructions.
+ * 
+ * <p>Each instruction gets a comparison key that ignores address operands, so that
+ * code that just got shifted around (and thus has different jump/call targets) still
+ * compares equal.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+final class InstructionStream 
+{
+    // set on keys of instructions whose address operands were masked out
+    private static final long ADDRESS_KEY_FLAG = 1L << 40;
+
+    private final byte[] data;
+    private final int[] offsets;
+    private final long[] keys;
+    private final long[] values;
+    private final int count;
+
+    private InstructionStream(byte[] data,int[] offsets,long[] keys,long[] values,int count) 
+    {
+        this.data = data;
+        this.offsets = offsets;
+        this.keys = keys;
+        this.values = values;
+        this.count = count;
+    }
+
+    /**
+     * Decodes instructions linearly, starting at address 0.
+     * 
+     * <p>Data that is no valid instruction is treated as a 16-bit word.</p>
+     * 
+     * @param arch
+     * @param data
+     * @return
+     */
+    public static InstructionStream decode(IArchitecture arch,byte[] data) 
+    {
+        Validate.notNull(arch, "arch must not be NULL");
+        Validate.notNull(data, "data must not be NULL");
+
+        final int maxCount = ( data.length + 1 ) / 2;
+        final int[] offsets = new int[ maxCount ];
+        final long[] keys = new long[ maxCount ];
+        final long[] values = new long[ maxCount ];
+
+        int count = 0;
+        int ptr = 0;
+        while ( ptr < data.length ) 
+        {
+            final InstructionInfo info = arch.getInstructionInfo( data , ptr , data.length );
+            final int len = Math.min( info.lengthInBytes , data.length - ptr );
+            long value = (long) len << 32;
+            for ( int i = 0 ; i < len ; i++ ) {
+                value |= ( data[ptr+i] & 0xffL ) << (i*8);
+            }
+            offsets[count] = ptr;
+            values[count] = value;
+            // only the address bits are masked, other operands (like registers) still need to compare equal 
+            keys[count] = info.hasAddressOperand ? ADDRESS_KEY_FLAG | ( value & ~( info.addressOperandMask & 0xffffffffL ) ) : value;
+            count++;
+            ptr += len;
+        }
+        return new InstructionStream( data , offsets , keys , values , count );
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns the byte offset of an instruction.
+     * 
+     * @param index instruction index, {@link #size()} yields the size of the image
+     * @return
+     */
+    public int offset(int index) {
+        return index < count ? offsets[index] : data.length;
+    }
+
+    /**
+     * Returns the index of the instruction that covers a given offset.
+     * 
+     * @param offset
+     * @return instruction index, {@link #size()} if the offset is beyond the end of the image
+     */
+    public int indexOf(int offset) 
+    {
+        if ( offset >= data.length ) {
+            return count;
+        }
+        final int idx = Arrays.binarySearch( offsets , 0 , count , offset );
+        // offset points into the middle of a 32-bit instruction
+        return idx >= 0 ? idx : -idx - 2;
+    }
+
+    /**
+     * Returns the comparison key of an instruction, address operands are ignored.
+     * 
+     * @param index
+     * @return
+     */
+    public long key(int index) {
+        return keys[index];
+    }
+
+    /**
+     * Returns the instruction's raw bytes (little-endian) and length.
+     * 
+     * @param index
+     * @return
+     */
+    public long value(int index) {
+        return values[index];
+    }
+}
@@ -34,8 +34,8 @@ import de.codesourcery.javr.assembler.IObjectCodeWriter;
 import de.codesourcery.javr.assembler.ObjectCodeWriter;
 import de.codesourcery.javr.assembler.ResourceFactory;
 import de.codesourcery.javr.assembler.Segment;
+import de.codesourcery.javr.assembler.arch.Architecture;
 import de.codesourcery.javr.assembler.arch.IArchitecture;
-import de.codesourcery.javr.assembler.arch.impl.ATMega328p;
 import de.codesourcery.javr.assembler.elf.ElfWriter.Endianess;
 import de.codesourcery.javr.assembler.elf.ProgramTableEntry.SegmentFlag;
 import de.codesourcery.javr.assembler.elf.ProgramTableEntry.SegmentType;
@@ -143,7 +143,7 @@ public class ElfFile
         final CompilationUnit root = new CompilationUnit( res );
         
         final Project project = new Project( root );
-        project.setArchitecture( new ATMega328p() );
+        project.setArchitecture( Architecture.ATMEGA328P.getImplementation() );
         
         /*
          * TODO: Hacky... Project class assumes that sources are in local filesystem so Project#setConfiguration(IProjectConfiguration)
@@ -17,7 +17,10 @@ package de.codesourcery.javr.assembler.elf;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.stream.Collectors;
 
@@ -48,6 +51,12 @@ public class ElfSymbolTable
     
     private final List<ElfSymbol> symbols = new ArrayList<>();
     
+    // index of each entry in the 'symbols' list
+    private final Map<ElfSymbol,Integer> indexByElfSymbol = new IdentityHashMap<>();
+    
+    // index of each non-section entry in the 'symbols' list, keyed by symbol name
+    private final Map<Identifier,Integer> indexBySymbolName = new HashMap<>();
+    
     private final ElfFile file;
     
     public ElfSymbol textSectionSymbol;
@@ -197,7 +206,7 @@ public class ElfSymbolTable
     {
         Validate.notNull(file, "file must not be NULL");
         this.file = file;
-        this.symbols.add( new ElfSymbol() ); // always add the index 0 entry
+        add( new ElfSymbol() ); // always add the index 0 entry
     }
 
     public void addSymbols(SymbolTable table) 
@@ -228,7 +237,7 @@ public class ElfSymbolTable
         textSectionSymbol.nameIdx = 0;
         textSectionSymbol.sectionHeaderIndex = file.getTableIndex( file.textSegmentEntry );
         textSectionSymbol.symbolType = SymbolType.STT_SECTION;
-        this.symbols.add( textSectionSymbol );            
+        add( textSectionSymbol );            
 
         // add .data entry
         if ( file.dataSegmentEntry != null ) 
@@ -238,16 +247,26 @@ public class ElfSymbolTable
             dataSectionSymbol.nameIdx = 0;
             dataSectionSymbol.sectionHeaderIndex = file.getTableIndex( file.dataSegmentEntry );
             dataSectionSymbol.symbolType = SymbolType.STT_SECTION;
-            this.symbols.add( dataSectionSymbol );
+            add( dataSectionSymbol );
         }
         
         // add global symbols
         globalSymbols.forEach( s ->
         {
-            this.symbols.add( new ElfSymbol( s ) );
+            add( new ElfSymbol( s ) );
         });
     }
     
+    private void add(ElfSymbol symbol) 
+    {
+        final int idx = symbols.size();
+        symbols.add( symbol );
+        indexByElfSymbol.put( symbol , idx );
+        if ( symbol.symbol != null && symbol.symbolType != SymbolType.STT_SECTION ) {
+            indexBySymbolName.putIfAbsent( symbol.symbol.name() , idx );
+        }
+    }
+    
     public int getLastLocalSymbolIndex() 
     {
         int index = 0;
@@ -316,32 +335,20 @@ public class ElfSymbolTable
         
         Validate.notNull(expected, "expected must not be NULL");
         
-        for ( int idx = 1 , len = symbols.size() ; idx < len ; idx++)
-        {
-            final ElfSymbol elfSymbol = symbols.get(idx);
-            if ( elfSymbol.symbolType == SymbolType.STT_SECTION ) {
-                continue;
-            }
-            final Symbol actual = elfSymbol.symbol;
-            if ( actual == null ) {
-                throw new RuntimeException("Internal error,ELF symbol at index "+idx+" has no symbol assigned ? Offender: "+elfSymbol);
-            }
-            if ( actual.name().equals( expected.name() ) ) {
-                return idx;
-            }
+        final Integer idx = indexBySymbolName.get( expected.name() );
+        if ( idx == null ) {
+            throw new NoSuchElementException("This symbol table does not contain symbol "+expected);
         }
-        throw new NoSuchElementException("This symbol table does not contain symbol "+expected);
+        return idx;
     }
 
     public int indexOf(ElfSymbol expected) 
     {
         Validate.notNull(expected, "expected must not be NULL");
-        for ( int i = 0, len = symbols.size() ; i < len ; i++ ) 
-        {
-            if ( symbols.get(i) == expected ) {
-                return i;
-            }
+        final Integer idx = indexByElfSymbol.get( expected );
+        if ( idx == null ) {
+            throw new NoSuchElementException("This symbol table does not contain symbol "+expected);
         }
-        throw new NoSuchElementException("This symbol table does not contain symbol "+expected);
+        return idx;
     }
-}
\ No newline at end of file
+}
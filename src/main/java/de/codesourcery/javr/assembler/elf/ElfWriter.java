@@ -155,11 +155,20 @@ public class ElfWriter
     
     public void writeBytes(byte[] data ,int offset , int len)
     {
-        for ( int i = 0 ; i < len ; i++ ) 
+        ensureCapacity( currentOffset + len );
+        System.arraycopy( data , offset , this.data , currentOffset , len );
+        currentOffset += len;
+    }    
+    
+    private void ensureCapacity(int minCapacity) 
+    {
+        if ( minCapacity > data.length ) 
         {
-            writeByte( data[offset+i] & 0xff );
+            final byte[] tmp = new byte[ Math.max( minCapacity , data.length + data.length/2 ) ];
+            System.arraycopy( data , 0 , tmp , 0 , data.length );
+            data = tmp;
         }
-    }    
+    }
     
     public void deferredWriteByte(String markerName) 
     {
@@ -206,9 +215,7 @@ public class ElfWriter
     {
         if ( currentOffset == data.length ) 
         {
-            final byte[] tmp = new byte[ data.length + data.length/2 ];
-            System.arraycopy( data , 0 , tmp , 0 , data.length );
-            data = tmp;
+            ensureCapacity( currentOffset + 1 );
         }
 //        System.out.println("writeByte( "+value+")");
         data[currentOffset++] = (byte) value;
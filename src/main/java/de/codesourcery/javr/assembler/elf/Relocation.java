@@ -133,6 +133,23 @@ public class Relocation
             this.typeFlags = 0;
         }
         
+        /**
+         * Look up a relocation kind by its ELF <code>r_info</code> type value.
+         * 
+         * @param elfId
+         * @return relocation kind or <code>null</code> if the type is unknown
+         */
+        public static Kind fromElfId(int elfId) 
+        {
+            for ( Kind k : values() ) 
+            {
+                if ( k.elfId == elfId ) {
+                    return k;
+                }
+            }
+            return null;
+        }
+        
         public static Kind get8BitLDIRelocation(int expressionTypeBitMask) 
         {
             switch( expressionTypeBitMask ) 
@@ -15,50 +15,109 @@
  */
 package de.codesourcery.javr.assembler.elf;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
+/**
+ * ELF string table.
+ * 
+ * Strings are appended to a byte buffer as they are added, identical strings are 
+ * stored only once and a string that is a suffix of a previously added string
+ * re-uses the tail of that string (so adding "foo" after "barfoo" costs nothing).
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
 public class StringTable {
 
-    private final List<String> strings = new ArrayList<>();
+    private byte[] data = new byte[256];
+    private int size;
+    
+    // maps strings to their byte offset in this table
+    private final Map<String,Integer> offsets = new HashMap<>();
+    
+    // maps the reversed strings actually stored in the buffer to their byte offset,
+    // a string that is a suffix of a stored string sorts right before any 
+    // reversed string it is a prefix of
+    private final TreeMap<String,Integer> storedByReversedString = new TreeMap<>();
     
     public StringTable() {
-        strings.add(""); // every string table needs to hold at least the NULL string.
+        add(""); // every string table needs to hold at least the NULL string.
     }
     
+    /**
+     * Adds a string to this table.
+     * 
+     * @param s
+     * @return byte offset of the string within this table
+     */
     public int add(String s) 
     {
-        int sizeInBytes = 0;
-        for ( String existing : strings) 
+        final Integer existing = offsets.get( s );
+        if ( existing != null ) {
+            return existing;
+        }
+        
+        final int len = s.length();
+        final String reversed = new StringBuilder( s ).reverse().toString();
+        final Map.Entry<String,Integer> candidate = storedByReversedString.ceilingEntry( reversed );
+        if ( candidate != null && candidate.getKey().startsWith( reversed ) ) 
         {
-            sizeInBytes += (1+existing.length());
+            // re-use tail of a longer string
+            final int offset = candidate.getValue() + candidate.getKey().length() - len;
+            offsets.put( s , offset );
+            return offset;
         }
-        strings.add(s);
-        return sizeInBytes;
+        
+        final int offset = size;
+        ensureCapacity( size + len + 1 );
+        for ( int i = 0 ; i < len ; i++ ) {
+            data[size++] = (byte) s.charAt(i);
+        }
+        data[size++] = 0; // terminate string
+        
+        offsets.put( s , offset );
+        storedByReversedString.put( reversed , offset );
+        return offset;
     }
     
-    public void write( ElfWriter writer) 
+    private void ensureCapacity(int minCapacity) 
     {
-        for ( String s : strings ) 
+        if ( minCapacity > data.length ) 
         {
-            for ( char c : s.toCharArray() ) 
-            {
-                writer.writeByte( c );
-            }
-            writer.writeByte(0); // terminate string
+            final byte[] tmp = new byte[ Math.max( minCapacity , data.length*2 ) ];
+            System.arraycopy( data , 0 , tmp , 0 , size );
+            data = tmp;
         }
     }
     
+    /**
+     * Returns the size of this table in bytes.
+     * 
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+    
+    public void write( ElfWriter writer) 
+    {
+        writer.writeBytes( data , 0 , size );
+    }
+    
     public String getStringAtByteOffset(int offset) 
     {
-        int sizeInBytes = 0;
-        for ( String existing : strings) 
-        {
-            if ( offset == sizeInBytes ) {
-                return existing;
-            }
-            sizeInBytes += (1+existing.length());
-        }        
-        throw new RuntimeException("Invalid byte offset "+offset);
+        if ( offset < 0 || offset >= size ) {
+            throw new RuntimeException("Invalid byte offset "+offset);
+        }
+        int end = offset;
+        while ( data[end] != 0 ) {
+            end++;
+        }
+        final char[] chars = new char[ end - offset ];
+        for ( int i = 0 ; i < chars.length ; i++ ) {
+            chars[i] = (char) ( data[offset+i] & 0xff );
+        }
+        return new String( chars );
     }
 }
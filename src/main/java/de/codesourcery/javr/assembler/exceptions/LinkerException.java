@@ -0,0 +1,51 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.exceptions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when linking object files failed.
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class LinkerException extends RuntimeException 
+{
+    private final List<String> errors;
+    
+    public LinkerException(String msg) 
+    {
+        super(msg);
+        this.errors = Collections.singletonList( msg );
+    }
+    
+    public LinkerException(List<String> errors) 
+    {
+        super( errors.size() == 1 ? errors.get(0) : errors.size()+" errors, first: "+errors.get(0) );
+        this.errors = Collections.unmodifiableList( new ArrayList<>( errors ) );
+    }
+    
+    /**
+     * Returns all error messages that caused linking to fail.
+     * 
+     * @return
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+}
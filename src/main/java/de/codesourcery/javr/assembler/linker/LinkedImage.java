@@ -0,0 +1,347 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.linker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.Validate;
+
+import de.codesourcery.javr.assembler.Segment;
+import de.codesourcery.javr.assembler.arch.IArchitecture;
+import de.codesourcery.javr.assembler.elf.ElfFile;
+import de.codesourcery.javr.assembler.elf.ElfSymbolTable;
+import de.codesourcery.javr.assembler.elf.ElfWriter;
+import de.codesourcery.javr.assembler.elf.ElfWriter.Endianess;
+import de.codesourcery.javr.assembler.elf.ProgramTableEntry;
+import de.codesourcery.javr.assembler.elf.ProgramTableEntry.SegmentFlag;
+import de.codesourcery.javr.assembler.elf.ProgramTableEntry.SegmentType;
+import de.codesourcery.javr.assembler.elf.SectionTableEntry;
+import de.codesourcery.javr.assembler.elf.SectionTableEntry.SectionType;
+import de.codesourcery.javr.assembler.elf.SectionTableEntry.SpecialSection;
+import de.codesourcery.javr.assembler.elf.StringTable;
+import de.codesourcery.javr.assembler.util.IntelHex;
+
+/**
+ * Result of linking object files with the {@link Linker}.
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class LinkedImage 
+{
+    /**
+     * Offset AVR toolchains add to SRAM addresses in ELF files to tell them apart from FLASH addresses.
+     */
+    public static final int ELF_SRAM_OFFSET = 0x800000;
+    
+    private static final int ELF_MACHINE_AVR = 0x53;
+    private static final int ELF_TYPE_EXECUTABLE = 2;
+    private static final int ELF_FLAGS_AVR5 = 0x05;
+    private static final int ELF_HEADER_SIZE = 52;
+    
+    public final IArchitecture architecture;
+    
+    /**
+     * FLASH image, <code>.text</code> followed by the initial contents of <code>.data</code>.
+     */
+    private final byte[] flash;
+    
+    public final int textSize;
+    public final int dataAddress;
+    public final int dataSize;
+    public final int dataLoadAddress;
+    public final int bssAddress;
+    public final int bssSize;
+    
+    private final List<LinkedSymbol> symbols;
+    
+    /**
+     * A global symbol with its final address.
+     */
+    public static final class LinkedSymbol 
+    {
+        public final String name;
+        public final int address;
+        public final int size;
+        
+        /**
+         * Segment or <code>null</code> for absolute symbols.
+         */
+        public final Segment segment;
+        
+        /**
+         * ELF symbol type (STT_xxx).
+         */
+        public final int type;
+        public final boolean weak;
+        
+        /**
+         * Name of the object file that defined this symbol.
+         */
+        public final String objectFile;
+        
+        public LinkedSymbol(String name, int address, int size, Segment segment, int type, boolean weak, String objectFile) 
+        {
+            this.name = name;
+            this.address = address;
+            this.size = size;
+            this.segment = segment;
+            this.type = type;
+            this.weak = weak;
+            this.objectFile = objectFile;
+        }
+        
+        @Override
+        public String toString() {
+            return name+" = 0x"+Integer.toHexString( address )+" ("+( segment == null ? "ABS" : segment.toString() )+", "+objectFile+")";
+        }
+    }
+    
+    LinkedImage(IArchitecture architecture, byte[] flash, int textSize, int dataAddress, int dataSize, int dataLoadAddress, int bssAddress, int bssSize, List<LinkedSymbol> symbols) 
+    {
+        Validate.notNull(architecture, "architecture must not be NULL");
+        Validate.notNull(flash, "flash must not be NULL");
+        Validate.notNull(symbols, "symbols must not be NULL");
+        this.architecture = architecture;
+        this.flash = flash;
+        this.textSize = textSize;
+        this.dataAddress = dataAddress;
+        this.dataSize = dataSize;
+        this.dataLoadAddress = dataLoadAddress;
+        this.bssAddress = bssAddress;
+        this.bssSize = bssSize;
+        this.symbols = Collections.unmodifiableList( symbols );
+    }
+    
+    /**
+     * Returns the FLASH image (program code followed by initial values for <code>.data</code>).
+     * 
+     * @return
+     */
+    public byte[] getFlashImage() {
+        return flash.clone();
+    }
+    
+    /**
+     * Returns all global symbols, sorted ascending by address.
+     * 
+     * @return
+     */
+    public List<LinkedSymbol> getSymbols() {
+        return symbols;
+    }
+    
+    public LinkedSymbol getSymbol(String name) 
+    {
+        return symbols.stream().filter( s -> s.name.equals( name ) ).findFirst().orElse( null );
+    }
+    
+    public void writeRaw(OutputStream out) throws IOException 
+    {
+        out.write( flash );
+    }
+    
+    public int writeIntelHex(OutputStream out) throws IOException 
+    {
+        return new IntelHex().encode( flash , 0 , flash.length , 0 , out );
+    }
+    
+    /**
+     * Writes an ELF executable.
+     * 
+     * @param out
+     * @return number of bytes written
+     * @throws IOException
+     */
+    public int writeElf(OutputStream out) throws IOException 
+    {
+        final ElfWriter writer = new ElfWriter( null );
+        final StringTable sectionNames = new StringTable();
+        final StringTable symbolNames = new StringTable();
+        
+        final boolean hasData = dataSize > 0;
+        final boolean hasBss = bssSize > 0;
+        
+        // section indices
+        int sectionCount = 0;
+        sectionCount++; // NULL section
+        final int textIdx = sectionCount++;
+        final int dataIdx = hasData ? sectionCount++ : -1;
+        final int bssIdx = hasBss ? sectionCount++ : -1;
+        final int shstrtabIdx = sectionCount++;
+        sectionCount++; // .symtab
+        final int strtabIdx = sectionCount++;
+        final int programHeaderCount = hasData || hasBss ? 2 : 1;
+        
+        /*
+         * ELF header
+         */
+        writer.writeByte( 0x7f );
+        writer.writeByte( 'E' );
+        writer.writeByte( 'L' );
+        writer.writeByte( 'F' );
+        writer.writeByte( 0x01 ); // ELF32
+        writer.writeByte( 0x01 ); // little-endian
+        writer.writeByte( 0x01 ); // ELF v1
+        writer.pad( 9 );
+        writer.writeHalf( ELF_TYPE_EXECUTABLE , Endianess.LITTLE ); // e_type
+        writer.writeHalf( ELF_MACHINE_AVR , Endianess.LITTLE ); // e_machine
+        writer.writeWord( 0x01 , Endianess.LITTLE ); // e_version
+        writer.writeWord( 0 , Endianess.LITTLE ); // e_entry
+        writer.writeWord( ELF_HEADER_SIZE , Endianess.LITTLE ); // e_phoff , program headers immediately follow the ELF header
+        writer.deferredWriteWord( "section_table" , Endianess.LITTLE ); // e_shoff
+        writer.writeWord( ELF_FLAGS_AVR5 , Endianess.LITTLE ); // e_flags
+        writer.writeHalf( ELF_HEADER_SIZE , Endianess.LITTLE ); // e_ehsize
+        writer.writeHalf( ProgramTableEntry.SIZE_IN_BYTES , Endianess.LITTLE ); // e_phentsize
+        writer.writeHalf( programHeaderCount , Endianess.LITTLE ); // e_phnum
+        writer.writeHalf( SectionTableEntry.SIZE_IN_BYTES , Endianess.LITTLE ); // e_shentsize
+        writer.writeHalf( sectionCount , Endianess.LITTLE ); // e_shnum
+        writer.writeHalf( shstrtabIdx , Endianess.LITTLE ); // e_shstrndx
+        
+        /*
+         * Program headers
+         */
+        writeProgramHeader( writer , "text_start" , 0 , 0 , textSize , textSize , SegmentFlag.PF_R.value | SegmentFlag.PF_X.value );
+        if ( hasData || hasBss ) 
+        {
+            final int vaddr = ELF_SRAM_OFFSET + ( hasData ? dataAddress : bssAddress );
+            final int memSize = ( bssAddress + bssSize ) - ( hasData ? dataAddress : bssAddress );
+            writeProgramHeader( writer , "data_start" , vaddr , dataLoadAddress , dataSize , memSize , SegmentFlag.PF_R.value | SegmentFlag.PF_W.value );
+        }
+        
+        /*
+         * Section contents
+         */
+        writer.align( 2 );
+        writer.createMarker( "text_start" );
+        writer.writeBytes( flash , 0 , textSize );
+        
+        writer.align( 2 );
+        writer.createMarker( "data_start" );
+        writer.writeBytes( flash , dataLoadAddress , dataSize );
+        
+        // symbol table
+        writer.align( 4 );
+        writer.createMarker( "symtab_start" );
+        // index 0 is always the NULL symbol
+        writeSymbol( writer , 0 , 0 , 0 , 0 , 0 );
+        for ( LinkedSymbol symbol : symbols ) 
+        {
+            final int value;
+            final int sectionIdx;
+            if ( symbol.segment == null ) {
+                value = symbol.address;
+                sectionIdx = ElfFile.SHN_ABS;
+            } 
+            else if ( symbol.segment == Segment.FLASH ) 
+            {
+                value = symbol.address;
+                sectionIdx = textIdx;
+            } else {
+                value = ELF_SRAM_OFFSET + symbol.address;
+                sectionIdx = hasBss && symbol.address >= bssAddress ? bssIdx : dataIdx;
+            }
+            final int binding = symbol.weak ? 2 : 1; // STB_WEAK : STB_GLOBAL
+            writeSymbol( writer , symbolNames.add( symbol.name ) , value , symbol.size , binding << 4 | ( symbol.type & 0x0f ) , sectionIdx );
+        }
+        final int symtabSize = writer.currentOffset() - writer.getMarker( "symtab_start" ).offset;
+        
+        writer.createMarker( "strtab_start" );
+        symbolNames.write( writer );
+        
+        final int textName = sectionNames.add( SpecialSection.TEXT.name );
+        final int dataName = sectionNames.add( SpecialSection.DATA.name );
+        final int bssName = sectionNames.add( SpecialSection.BSS.name );
+        final int shstrtabName = sectionNames.add( SpecialSection.SHSTRTAB.name );
+        final int symtabName = sectionNames.add( SpecialSection.SYMTAB.name );
+        final int strtabName = sectionNames.add( SpecialSection.STRTAB.name );
+        
+        writer.createMarker( "shstrtab_start" );
+        sectionNames.write( writer );
+        
+        /*
+         * Section headers
+         */
+        writer.align( 4 );
+        writer.createMarker( "section_table" );
+        writeSectionHeader( writer , 0 , SectionType.SHT_NULL.value , 0 , 0 , 0 , 0 , 0 , 0 , 0 , 0 );
+        writeSectionHeader( writer , textName , SpecialSection.TEXT.type.value , flags( SpecialSection.TEXT ) , 0 , 
+                writer.getMarker( "text_start" ).offset , textSize , 0 , 0 , 2 , 0 );
+        if ( hasData ) {
+            writeSectionHeader( writer , dataName , SpecialSection.DATA.type.value , flags( SpecialSection.DATA ) , ELF_SRAM_OFFSET + dataAddress , 
+                    writer.getMarker( "data_start" ).offset , dataSize , 0 , 0 , 1 , 0 );
+        }
+        if ( hasBss ) {
+            writeSectionHeader( writer , bssName , SpecialSection.BSS.type.value , flags( SpecialSection.BSS ) , ELF_SRAM_OFFSET + bssAddress , 
+                    writer.getMarker( "data_start" ).offset + dataSize , bssSize , 0 , 0 , 1 , 0 );
+        }
+        writeSectionHeader( writer , shstrtabName , SectionType.SHT_STRTAB.value , 0 , 0 , 
+                writer.getMarker( "shstrtab_start" ).offset , sectionNames.size() , 0 , 0 , 1 , 0 );
+        // sh_info of the symbol table is index of first non-local symbol, sh_link is index of the string table
+        writeSectionHeader( writer , symtabName , SectionType.SHT_SYMTAB.value , 0 , 0 , 
+                writer.getMarker( "symtab_start" ).offset , symtabSize , strtabIdx , 1 , 4 , ElfSymbolTable.SYMBOL_TABLE_ENTRY_SIZE );
+        writeSectionHeader( writer , strtabName , SectionType.SHT_STRTAB.value , 0 , 0 , 
+                writer.getMarker( "strtab_start" ).offset , symbolNames.size() , 0 , 0 , 1 , 0 );
+        
+        writer.execDeferredWrites();
+        
+        final byte[] fileData = writer.getBytes();
+        out.write( fileData );
+        return fileData.length;
+    }
+    
+    private static int flags(SpecialSection section) {
+        return section.flags.stream().mapToInt( f -> f.value ).sum();
+    }
+    
+    private static void writeProgramHeader(ElfWriter writer,String dataMarker,int vaddr,int paddr,int fileSize,int memSize,int flags) 
+    {
+        writer.writeWord( SegmentType.PT_LOAD.value , Endianess.LITTLE ); // p_type
+        writer.deferredWriteWord( dataMarker , Endianess.LITTLE ); // p_offset
+        writer.writeWord( vaddr , Endianess.LITTLE ); // p_vaddr
+        writer.writeWord( paddr , Endianess.LITTLE ); // p_paddr
+        writer.writeWord( fileSize , Endianess.LITTLE ); // p_filesz
+        writer.writeWord( memSize , Endianess.LITTLE ); // p_memsz
+        writer.writeWord( flags , Endianess.LITTLE ); // p_flags
+        writer.writeWord( 2 , Endianess.LITTLE ); // p_align
+    }
+    
+    private static void writeSymbol(ElfWriter writer,int nameIdx,int value,int size,int info,int sectionIdx) 
+    {
+        writer.writeWord( nameIdx , Endianess.LITTLE ); // st_name
+        writer.writeWord( value , Endianess.LITTLE ); // st_value
+        writer.writeWord( size , Endianess.LITTLE ); // st_size
+        writer.writeByte( info ); // st_info
+        writer.writeByte( 0 ); // st_other
+        writer.writeHalf( sectionIdx , Endianess.LITTLE ); // st_shndx
+    }
+    
+    private static void writeSectionHeader(ElfWriter writer,int name,int type,int flags,int addr,int offset,int size,int link,int info,int align,int entrySize) 
+    {
+        writer.writeWord( name , Endianess.LITTLE );
+        writer.writeWord( type , Endianess.LITTLE );
+        writer.writeWord( flags , Endianess.LITTLE );
+        writer.writeWord( addr , Endianess.LITTLE );
+        writer.writeWord( offset , Endianess.LITTLE );
+        writer.writeWord( size , Endianess.LITTLE );
+        writer.writeWord( link , Endianess.LITTLE );
+        writer.writeWord( info , Endianess.LITTLE );
+        writer.writeWord( align , Endianess.LITTLE );
+        writer.writeWord( entrySize , Endianess.LITTLE );
+    }
+}
@@ -0,0 +1,714 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.linker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.Validate;
+
+import de.codesourcery.javr.assembler.Segment;
+import de.codesourcery.javr.assembler.arch.Architecture;
+import de.codesourcery.javr.assembler.arch.IArchitecture;
+import de.codesourcery.javr.assembler.elf.Relocation;
+import de.codesourcery.javr.assembler.exceptions.LinkerException;
+import de.codesourcery.javr.assembler.linker.LinkedImage.LinkedSymbol;
+import de.codesourcery.javr.assembler.linker.ObjectFile.RelocationEntry;
+import de.codesourcery.javr.assembler.linker.ObjectFile.Section;
+import de.codesourcery.javr.assembler.linker.ObjectFile.SymbolEntry;
+import de.codesourcery.javr.assembler.linker.ShardedSymbolTable.Definition;
+
+/**
+ * Links relocatable AVR ELF object files (see {@link ObjectFile}) into an executable image.
+ * 
+ * <p>Sections are laid out in the order the object files were passed in 
+ * (so the object file holding the interrupt vector table needs to come first):</p>
+ * <ol>
+ *   <li>all allocated read-only sections (.text etc.) go to FLASH, starting at address 0</li>
+ *   <li>all allocated writable sections (.data) go to SRAM, starting at {@link IArchitecture#getSRAMStartAddress()}. 
+ *   Their initial contents are appended to the FLASH image</li>
+ *   <li>all allocated sections that occupy no space in the file (.bss) and COMMON symbols follow in SRAM</li>
+ * </ol>
+ * <p>Global symbols of all inputs are registered concurrently in a {@link ShardedSymbolTable}, 
+ * relocations are applied to each input in parallel as well since every input section 
+ * ends up in its own, disjoint region of the output image.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class Linker 
+{
+    private final IArchitecture architecture;
+    
+    private boolean verbose;
+    
+    /**
+     * An object file along with the address each of its sections got assigned.
+     */
+    private static final class Input 
+    {
+        public final ObjectFile file;
+        public final int index;
+        
+        public final int[] sectionAddress;
+        public final Segment[] sectionSegment;
+        
+        public Input(ObjectFile file,int index) 
+        {
+            this.file = file;
+            this.index = index;
+            final int count = file.getSections().size();
+            this.sectionAddress = new int[ count ];
+            this.sectionSegment = new Segment[ count ];
+        }
+        
+        public boolean isPlaced(int sectionIdx) {
+            return sectionIdx > 0 && sectionIdx < sectionSegment.length && sectionSegment[ sectionIdx ] != null;
+        }
+    }
+    
+    /**
+     * Thrown while applying a single relocation, gets turned 
+     * into an error message by the caller.
+     */
+    private static final class RelocationException extends RuntimeException 
+    {
+        public RelocationException(String message) {
+            super(message);
+        }
+    }
+    
+    public Linker(IArchitecture architecture) 
+    {
+        Validate.notNull(architecture, "architecture must not be NULL");
+        this.architecture = architecture;
+    }
+    
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Link object files.
+     * 
+     * @param objectFiles object files to link, in link order
+     * @return linked image
+     * @throws LinkerException if linking failed
+     */
+    public LinkedImage link(List<ObjectFile> objectFiles) throws LinkerException 
+    {
+        Validate.notNull(objectFiles, "objectFiles must not be NULL");
+        if ( objectFiles.isEmpty() ) {
+            throw new LinkerException("No object files to link");
+        }
+        
+        final List<Input> inputs = new ArrayList<>();
+        for ( int i = 0 ; i < objectFiles.size() ; i++ ) {
+            inputs.add( new Input( objectFiles.get(i) , i ) );
+        }
+        
+        /*
+         * Resolve global symbols.
+         */
+        final ShardedSymbolTable globals = new ShardedSymbolTable( 4 * Runtime.getRuntime().availableProcessors() );
+        inputs.parallelStream().forEach( input -> 
+        {
+            for ( SymbolEntry symbol : input.file.getSymbols() ) 
+            {
+                if ( ! symbol.isLocal() && ! symbol.isUndefined() && ! symbol.isSectionSymbol() && ! symbol.isFileSymbol() ) {
+                    globals.define( new Definition( input.file , input.index , symbol ) );
+                }
+            }
+        });
+        
+        final List<String> errors = new ArrayList<>( globals.getErrors() );
+        errors.addAll( inputs.parallelStream().flatMap( input -> 
+        {
+            final List<String> undefined = new ArrayList<>();
+            for ( SymbolEntry symbol : input.file.getSymbols() ) 
+            {
+                if ( symbol.index > 0 && symbol.isUndefined() && ! symbol.isLocal() && ! symbol.isWeak() && globals.get( symbol.name ) == null ) {
+                    undefined.add( input.file+": Undefined reference to '"+symbol.name+"'" );
+                }
+            }
+            return undefined.stream();
+        }).sorted().collect( Collectors.toList() ) );
+        
+        if ( ! errors.isEmpty() ) {
+            throw new LinkerException( errors );
+        }
+        
+        /*
+         * Assign addresses.
+         */
+        int flashPtr = 0;
+        for ( Input input : inputs ) 
+        {
+            for ( Section section : input.file.getSections() ) 
+            {
+                if ( section.isAllocated() && ! section.isWritable() && ! section.isNoBits() ) 
+                {
+                    flashPtr = align( flashPtr , Math.max( 2 , section.alignment ) );
+                    input.sectionAddress[ section.index ] = flashPtr;
+                    input.sectionSegment[ section.index ] = Segment.FLASH;
+                    flashPtr += section.size;
+                }
+            }
+        }
+        final int textSize = flashPtr;
+        
+        final int sramStart = architecture.getSRAMStartAddress();
+        int sramPtr = sramStart;
+        for ( Input input : inputs ) 
+        {
+            for ( Section section : input.file.getSections() ) 
+            {
+                if ( section.isAllocated() && section.isWritable() && ! section.isNoBits() ) 
+                {
+                    sramPtr = align( sramPtr , section.alignment );
+                    input.sectionAddress[ section.index ] = sramPtr;
+                    input.sectionSegment[ section.index ] = Segment.SRAM;
+                    sramPtr += section.size;
+                }
+            }
+        }
+        final int dataSize = sramPtr - sramStart;
+        
+        final int bssStart = sramPtr;
+        for ( Input input : inputs ) 
+        {
+            for ( Section section : input.file.getSections() ) 
+            {
+                if ( section.isAllocated() && section.isNoBits() ) 
+                {
+                    sramPtr = align( sramPtr , section.alignment );
+                    input.sectionAddress[ section.index ] = sramPtr;
+                    input.sectionSegment[ section.index ] = Segment.SRAM;
+                    sramPtr += section.size;
+                }
+            }
+        }
+        
+        // allocate COMMON symbols , sorted by name so the result does not depend on thread scheduling
+        final List<Definition> commons = new ArrayList<>();
+        globals.visitDefinitions( def -> 
+        {
+            if ( def.symbol.isCommon() ) {
+                commons.add( def );
+            }
+        });
+        commons.sort( (a,b) -> a.symbol.name.compareTo( b.symbol.name ) );
+        final Map<String,Integer> commonAddresses = new HashMap<>();
+        for ( Definition def : commons ) 
+        {
+            sramPtr = align( sramPtr , def.symbol.value ); // st_value holds the alignment for COMMON symbols
+            commonAddresses.put( def.symbol.name , sramPtr );
+            sramPtr += def.symbol.size;
+        }
+        final int bssSize = sramPtr - bssStart;
+        
+        final int dataLoadAddress = align( textSize , 2 );
+        final int flashSize = dataLoadAddress + dataSize;
+        if ( flashSize > architecture.getSegmentSize( Segment.FLASH ) ) {
+            errors.add( "FLASH overflow: Image needs "+flashSize+" bytes but "+architecture+" only has "+architecture.getSegmentSize( Segment.FLASH ) );
+        }
+        if ( dataSize + bssSize > architecture.getSegmentSize( Segment.SRAM ) ) {
+            errors.add( "SRAM overflow: Image needs "+(dataSize + bssSize)+" bytes but "+architecture+" only has "+architecture.getSegmentSize( Segment.SRAM ) );
+        }
+        if ( ! errors.isEmpty() ) {
+            throw new LinkerException( errors );
+        }
+        
+        if ( verbose ) {
+            System.out.println("Linking "+inputs.size()+" object files: "+textSize+" bytes .text, "+dataSize+" bytes .data, "+bssSize+" bytes .bss");
+        }
+        
+        /*
+         * Copy section contents and apply relocations.
+         */
+        final byte[] flash = new byte[ flashSize ];
+        final SymbolResolver resolver = new SymbolResolver( inputs , globals , commonAddresses );
+        final int deviceFlashSize = architecture.getSegmentSize( Segment.FLASH );
+        
+        errors.addAll( inputs.parallelStream().flatMap( input -> 
+        {
+            final List<String> relocErrors = new ArrayList<>();
+            for ( Section section : input.file.getSections() ) 
+            {
+                if ( ! input.isPlaced( section.index ) || section.data == null ) {
+                    continue;
+                }
+                final int address = input.sectionAddress[ section.index ];
+                final int imageOffset = input.sectionSegment[ section.index ] == Segment.FLASH ? address : dataLoadAddress + ( address - sramStart );
+                System.arraycopy( section.data , 0 , flash , imageOffset , section.size );
+                
+                for ( RelocationEntry reloc : section.relocations ) 
+                {
+                    try 
+                    {
+                        if ( reloc.kind == null ) {
+                            throw new RelocationException("Unsupported relocation type "+reloc.type);
+                        }
+                        if ( reloc.offset < 0 || reloc.offset >= section.size ) {
+                            throw new RelocationException("Relocation offset out of range");
+                        }
+                        final long value = resolver.addressOf( input , input.file.getSymbol( reloc.symbolIndex ) ) + (long) reloc.addend;
+                        applyRelocation( reloc.kind , flash , imageOffset + reloc.offset , value , address + reloc.offset , deviceFlashSize );
+                    } 
+                    catch(RelocationException e) 
+                    {
+                        relocErrors.add( input.file+": "+section.name+"+0x"+Integer.toHexString( reloc.offset )+": "+e.getMessage()+" ("+reloc+")" );
+                    }
+                }
+            }
+            return relocErrors.stream();
+        }).sorted().collect( Collectors.toList() ) );
+        
+        if ( ! errors.isEmpty() ) {
+            throw new LinkerException( errors );
+        }
+        
+        /*
+         * Gather symbols for the output file.
+         */
+        final List<LinkedSymbol> symbols = new ArrayList<>();
+        globals.visitDefinitions( def -> 
+        {
+            final Input input = inputs.get( def.fileIndex );
+            final Segment segment;
+            if ( def.symbol.isCommon() ) {
+                segment = Segment.SRAM;
+            } else if ( def.symbol.isAbsolute() ) {
+                segment = null;
+            } else {
+                segment = input.sectionSegment[ def.symbol.sectionIndex ];
+            }
+            symbols.add( new LinkedSymbol( def.symbol.name , resolver.addressOf( input , def.symbol ) , def.symbol.size , segment , def.symbol.type , def.symbol.isWeak() , def.file.name ) );
+        });
+        symbols.sort( (a,b) -> 
+        {
+            final int cmp = Integer.compare( a.address , b.address );
+            return cmp != 0 ? cmp : a.name.compareTo( b.name );
+        });
+        
+        return new LinkedImage( architecture , flash , textSize , sramStart , dataSize , dataLoadAddress , bssStart , bssSize , symbols );
+    }
+    
+    /**
+     * Calculates symbol addresses after section layout is done.
+     */
+    private static final class SymbolResolver 
+    {
+        private final List<Input> inputs;
+        private final ShardedSymbolTable globals;
+        private final Map<String,Integer> commonAddresses;
+        
+        public SymbolResolver(List<Input> inputs,ShardedSymbolTable globals,Map<String,Integer> commonAddresses) 
+        {
+            this.inputs = inputs;
+            this.globals = globals;
+            this.commonAddresses = commonAddresses;
+        }
+        
+        public int addressOf(Input input,SymbolEntry symbol) 
+        {
+            if ( ! symbol.isLocal() && ! symbol.isSectionSymbol() ) 
+            {
+                // might've been overridden by a definition in another file
+                final Definition def = globals.get( symbol.name );
+                if ( def == null ) 
+                {
+                    if ( symbol.isWeak() ) {
+                        return 0; // undefined weak references resolve to zero
+                    }
+                    throw new RelocationException("Undefined symbol '"+symbol.name+"'");
+                }
+                return localAddressOf( inputs.get( def.fileIndex ) , def.symbol );
+            }
+            return localAddressOf( input , symbol );
+        }
+        
+        private int localAddressOf(Input input,SymbolEntry symbol) 
+        {
+            if ( symbol.isAbsolute() ) {
+                return symbol.value;
+            }
+            if ( symbol.isCommon() ) {
+                return commonAddresses.get( symbol.name );
+            }
+            if ( ! input.isPlaced( symbol.sectionIndex ) ) {
+                throw new RelocationException("Symbol "+symbol+" is not in an allocated section");
+            }
+            return input.sectionAddress[ symbol.sectionIndex ] + symbol.value;
+        }
+    }
+    
+    private static int align(int value,int alignment) 
+    {
+        if ( alignment <= 1 ) {
+            return value;
+        }
+        final int remainder = value % alignment;
+        return remainder == 0 ? value : value + ( alignment - remainder );
+    }
+    
+    private static int readWord(byte[] data,int offset) {
+        return ( data[offset] & 0xff ) | ( data[offset+1] & 0xff ) << 8;
+    }
+    
+    private static void writeWord(byte[] data,int offset,int value) 
+    {
+        data[offset] = (byte) value;
+        data[offset+1] = (byte) ( value >> 8 );
+    }
+    
+    private static void checkRange(long value,long min,long max) 
+    {
+        if ( value < min || value > max ) {
+            throw new RelocationException("Value "+value+" out of range ["+min+","+max+"]");
+        }
+    }
+    
+    private static void checkEven(long value) 
+    {
+        if ( ( value & 1 ) != 0 ) {
+            throw new RelocationException("Odd address "+value+" cannot be used as word address");
+        }
+    }
+    
+    /**
+     * Patch a relocated value into the output image.
+     * 
+     * @param kind relocation type
+     * @param data output image
+     * @param offset offset in output image
+     * @param value symbol value plus addend 
+     * @param location (target) address of the location being patched, used for PC-relative relocations
+     * @param deviceFlashSize size of the target device's FLASH memory in bytes
+     */
+    static void applyRelocation(Relocation.Kind kind,byte[] data,int offset,long value,int location,int deviceFlashSize) 
+    {
+        switch( kind ) 
+        {
+            case R_AVR_NONE:
+            case R_AVR_DIFF8:
+            case R_AVR_DIFF16:
+            case R_AVR_DIFF32:
+                // only relevant for linker relaxation, which we don't do
+                return;
+            case R_AVR_32:
+                writeWord( data , offset , (int) value );
+                writeWord( data , offset + 2 , (int) ( value >> 16 ) );
+                return;
+            case R_AVR_16:
+                checkRange( value , -32768 , 65535 );
+                writeWord( data , offset , (int) value );
+                return;
+            case R_AVR_16_PM:
+                checkEven( value );
+                checkRange( value >> 1 , 0 , 65535 );
+                writeWord( data , offset , (int) ( value >> 1 ) );
+                return;
+            case R_AVR_8:
+                checkRange( value , -128 , 255 );
+                data[offset] = (byte) value;
+                return;
+            case R_AVR_8_LO8:
+                data[offset] = (byte) value;
+                return;
+            case R_AVR_8_HI8:
+                data[offset] = (byte) ( value >> 8 );
+                return;
+            case R_AVR_8_HLO8:
+                data[offset] = (byte) ( value >> 16 );
+                return;
+            case R_AVR_7_PCREL:
+            {
+                final long delta = value - ( location + 2 );
+                checkEven( delta );
+                checkRange( delta >> 1 , -64 , 63 );
+                final int insn = readWord( data , offset );
+                writeWord( data , offset , ( insn & 0xfc07 ) | (int) ( ( ( delta >> 1 ) << 3 ) & 0x3f8 ) );
+                return;
+            }
+            case R_AVR_13_PCREL:
+            {
+                final long delta = value - ( location + 2 );
+                checkEven( delta );
+                long words = delta >> 1;
+                if ( ( words < -2048 || words > 2047 ) && deviceFlashSize <= 8192 ) 
+                {
+                    // devices with <= 8K flash wrap around at the end of the address space
+                    final int flashWords = deviceFlashSize / 2;
+                    final long wrapped = words < 0 ? words + flashWords : words - flashWords;
+                    if ( wrapped >= -2048 && wrapped <= 2047 ) {
+                        words = wrapped;
+                    }
+                }
+                checkRange( words , -2048 , 2047 );
+                final int insn = readWord( data , offset );
+                writeWord( data , offset , ( insn & 0xf000 ) | (int) ( words & 0xfff ) );
+                return;
+            }
+            case R_AVR_CALL:
+            {
+                checkEven( value );
+                final long words = value >> 1;
+                checkRange( words , 0 , 0x3fffff );
+                final int insn = readWord( data , offset ) & ~0x01f1;
+                writeWord( data , offset , insn | (int) ( ( ( words >> 16 ) & 1 ) | ( ( ( words >> 17 ) & 0x1f ) << 4 ) ) );
+                writeWord( data , offset + 2 , (int) words );
+                return;
+            }
+            case R_AVR_LDI:
+                checkRange( value , -128 , 255 );
+                writeLDI( data , offset , value );
+                return;
+            case R_AVR_LO8_LDI:
+                writeLDI( data , offset , value );
+                return;
+            case R_AVR_HI8_LDI:
+                writeLDI( data , offset , value >> 8 );
+                return;
+            case R_AVR_HH8_LDI:
+                writeLDI( data , offset , value >> 16 );
+                return;
+            case R_AVR_MS8_LDI:
+                writeLDI( data , offset , value >> 24 );
+                return;
+            case R_AVR_LO8_LDI_NEG:
+                writeLDI( data , offset , -value );
+                return;
+            case R_AVR_HI8_LDI_NEG:
+                writeLDI( data , offset , -value >> 8 );
+                return;
+            case R_AVR_HH8_LDI_NEG:
+                writeLDI( data , offset , -value >> 16 );
+                return;
+            case R_AVR_MS8_LDI_NEG:
+                writeLDI( data , offset , -value >> 24 );
+                return;
+            case R_AVR_LO8_LDI_PM:
+            case R_AVR_LO8_LDI_GS:
+                checkEven( value );
+                writeLDI( data , offset , value >> 1 );
+                return;
+            case R_AVR_HI8_LDI_PM:
+            case R_AVR_HI8_LDI_GS:
+                checkEven( value );
+                writeLDI( data , offset , value >> 9 );
+                return;
+            case R_AVR_HH8_LDI_PM:
+                checkEven( value );
+                writeLDI( data , offset , value >> 17 );
+                return;
+            case R_AVR_LO8_LDI_PM_NEG:
+                checkEven( value );
+                writeLDI( data , offset , -value >> 1 );
+                return;
+            case R_AVR_HI8_LDI_PM_NEG:
+                checkEven( value );
+                writeLDI( data , offset , -value >> 9 );
+                return;
+            case R_AVR_HH8_LDI_PM_NEG:
+                checkEven( value );
+                writeLDI( data , offset , -value >> 17 );
+                return;
+            case R_AVR_6:
+            {
+                // ldd/std displacement
+                checkRange( value , 0 , 63 );
+                final int q = (int) value;
+                final int insn = readWord( data , offset ) & 0xd3f8;
+                writeWord( data , offset , insn | ( q & 7 ) | ( ( q & 0x18 ) << 7 ) | ( ( q & 0x20 ) << 8 ) );
+                return;
+            }
+            case R_AVR_6_ADIW:
+            {
+                checkRange( value , 0 , 63 );
+                final int k = (int) value;
+                final int insn = readWord( data , offset ) & 0xff30;
+                writeWord( data , offset , insn | ( k & 0x0f ) | ( ( k & 0x30 ) << 2 ) );
+                return;
+            }
+            case R_AVR_PORT6:
+            {
+                checkRange( value , 0 , 63 );
+                final int port = (int) value;
+                final int insn = readWord( data , offset ) & 0xf9f0;
+                writeWord( data , offset , insn | ( ( port & 0x30 ) << 5 ) | ( port & 0x0f ) );
+                return;
+            }
+            case R_AVR_PORT5:
+            {
+                checkRange( value , 0 , 31 );
+                final int port = (int) value;
+                final int insn = readWord( data , offset ) & 0xff07;
+                writeWord( data , offset , insn | ( ( port & 0x1f ) << 3 ) );
+                return;
+            }
+            case R_AVR_LDS_STS_16:
+            {
+                // 16-bit LDS/STS on reduced-core tinyAVRs
+                checkRange( value & 0xffff , 0x40 , 0xbf );
+                final int adr = (int) value & 0x7f;
+                final int insn = readWord( data , offset ) & ~0x070f;
+                writeWord( data , offset , insn | ( adr & 0x0f ) | ( ( adr & 0x30 ) << 5 ) | ( ( adr & 0x40 ) << 2 ) );
+                return;
+            }
+            default:
+                throw new RelocationException("Unsupported relocation type "+kind);
+        }
+    }
+    
+    private static void writeLDI(byte[] data,int offset,long value) 
+    {
+        final int k = (int) value & 0xff;
+        final int insn = readWord( data , offset ) & 0xf0f0;
+        writeWord( data , offset , insn | ( k & 0x0f ) | ( ( k & 0xf0 ) << 4 ) );
+    }
+    
+    private static void printHelp() 
+    {
+        System.out.println("USAGE: [-h|--help] [-v|--verbose] [-a|--arch <architecture>] [-f <elf|intel|raw>] -o <output file> <object file> [<object file>...]\n");
+        System.out.println("Links relocatable ELF object files into an executable.\n");
+        System.out.println("Supported architectures: "+Arrays.stream( Architecture.values() ).map( Architecture::getIdentifier ).collect( Collectors.joining(", ") ) );
+    }
+    
+    public static void main(String[] arguments) 
+    {
+        System.exit( run( arguments ) );
+    }
+    
+    private static int run(String[] arguments) 
+    {
+        final List<String> args = Arrays.stream( arguments ).map( String::trim ).collect( Collectors.toList() );
+        if ( args.isEmpty() || args.contains("-h") || args.contains("--help") ) 
+        {
+            printHelp();
+            return args.isEmpty() ? 1 : 0;
+        }
+        
+        Architecture arch = Architecture.ATMEGA88;
+        String format = "elf";
+        File outputFile = null;
+        boolean verbose = false;
+        final List<File> inputFiles = new ArrayList<>();
+        
+        for ( int i = 0 ; i < args.size() ; i++ ) 
+        {
+            final String arg = args.get(i);
+            final String nextArg = i+1 < args.size() ? args.get(i+1) : null;
+            switch( arg ) 
+            {
+                case "-v": case "--verbose":
+                    verbose = true;
+                    break;
+                case "-a": case "--arch":
+                    if ( nextArg == null ) {
+                        return error( arg+" option needs an argument");
+                    }
+                    arch = Arrays.stream( Architecture.values() ).filter( a -> a.getIdentifier().equalsIgnoreCase( nextArg ) ).findFirst().orElse( null );
+                    if ( arch == null ) {
+                        return error( "Unknown architecture '"+nextArg+"'");
+                    }
+                    i++;
+                    break;
+                case "-f":
+                    if ( nextArg == null ) {
+                        return error("-f option needs an argument");
+                    }
+                    format = nextArg;
+                    if ( ! Arrays.asList( "elf" , "intel" , "raw" ).contains( format ) ) {
+                        return error( "Unknown output format '"+format+"'");
+                    }
+                    i++;
+                    break;
+                case "-o":
+                    if ( nextArg == null ) {
+                        return error("-o option needs an argument");
+                    }
+                    outputFile = new File( nextArg );
+                    i++;
+                    break;
+                default:
+                    if ( arg.startsWith("-") ) {
+                        return error("Unknown command-line option: '"+arg+"'");
+                    }
+                    inputFiles.add( new File( arg ) );
+            }
+        }
+        
+        if ( outputFile == null ) {
+            return error("No output file given");
+        }
+        if ( inputFiles.isEmpty() ) {
+            return error("No input files given");
+        }
+        
+        try 
+        {
+            final List<ObjectFile> objects = inputFiles.parallelStream().map( file -> 
+            {
+                try {
+                    return ObjectFile.read( file );
+                } catch (IOException e) {
+                    throw new LinkerException( e.getMessage() );
+                }
+            }).collect( Collectors.toList() );
+            
+            final Linker linker = new Linker( arch.getImplementation() );
+            linker.setVerbose( verbose );
+            final LinkedImage image = linker.link( objects );
+            
+            try ( OutputStream out = new FileOutputStream( outputFile ) ) 
+            {
+                switch( format ) 
+                {
+                    case "intel": image.writeIntelHex( out ); break;
+                    case "raw":   image.writeRaw( out ); break;
+                    default:      image.writeElf( out );
+                }
+            }
+            if ( verbose ) {
+                System.out.println("Wrote "+outputFile);
+            }
+            return 0;
+        } 
+        catch(LinkerException e) 
+        {
+            e.getErrors().forEach( msg -> System.err.println("ERROR: "+msg ) );
+            return 1;
+        } 
+        catch (IOException e) 
+        {
+            return error( "Failed to write "+outputFile+": "+e.getMessage() );
+        }
+    }
+    
+    private static int error(String msg) 
+    {
+        System.err.println("ERROR: "+msg);
+        return 1;
+    }
+}
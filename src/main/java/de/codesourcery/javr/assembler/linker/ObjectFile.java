@@ -0,0 +1,413 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.linker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.Validate;
+
+import de.codesourcery.javr.assembler.elf.ElfFile;
+import de.codesourcery.javr.assembler.elf.ElfSymbolTable;
+import de.codesourcery.javr.assembler.elf.Relocation;
+import de.codesourcery.javr.assembler.elf.SectionTableEntry;
+import de.codesourcery.javr.assembler.elf.SectionTableEntry.Flag;
+import de.codesourcery.javr.assembler.elf.SectionTableEntry.SectionType;
+
+/**
+ * A relocatable AVR ELF object file (as written by javr with output format
+ * <code>ELF_RELOCATABLE</code> or by <code>avr-as</code>).
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class ObjectFile 
+{
+    private static final int ELF_TYPE_RELOCATABLE = 1;
+    private static final int ELF_MACHINE_AVR = 0x53;
+    
+    private static final int STB_LOCAL = 0;
+    private static final int STB_GLOBAL = 1;
+    private static final int STB_WEAK = 2;
+    
+    private static final int STT_SECTION = 3;
+    private static final int STT_FILE = 4;
+    
+    public final String name;
+    
+    private final List<Section> sections = new ArrayList<>();
+    private final List<SymbolEntry> symbols = new ArrayList<>();
+    
+    /**
+     * A section from the object file.
+     */
+    public static final class Section 
+    {
+        public final int index;
+        public final String name;
+        public final int type;
+        public final int flags;
+        public final int size;
+        public final int alignment;
+        
+        /**
+         * Section contents, <code>null</code> for sections
+         * that occupy no space in the file (.bss).
+         */
+        public final byte[] data;
+        
+        /**
+         * Relocations to apply to this section.
+         */
+        public final List<RelocationEntry> relocations = new ArrayList<>();
+        
+        public Section(int index,String name,int type,int flags,int size,int alignment,byte[] data) 
+        {
+            this.index = index;
+            this.name = name;
+            this.type = type;
+            this.flags = flags;
+            this.size = size;
+            this.alignment = alignment <= 1 ? 1 : alignment;
+            this.data = data;
+        }
+        
+        public boolean hasFlag(Flag flag) {
+            return ( flags & flag.value ) != 0;
+        }
+        
+        public boolean hasType(SectionType t) {
+            return type == t.value;
+        }
+        
+        /**
+         * Returns whether this section occupies memory on the target.
+         * 
+         * @return
+         */
+        public boolean isAllocated() {
+            return hasFlag( Flag.SHF_ALLOC );
+        }
+        
+        public boolean isWritable() {
+            return hasFlag( Flag.SHF_WRITE );
+        }
+        
+        public boolean isNoBits() {
+            return hasType( SectionType.SHT_NOBITS );
+        }
+        
+        @Override
+        public String toString() {
+            return name+" [ "+size+" bytes ]";
+        }
+    }
+    
+    /**
+     * An entry from the object file's symbol table.
+     */
+    public static final class SymbolEntry 
+    {
+        public final int index;
+        public final String name;
+        public final int value;
+        public final int size;
+        public final int binding;
+        public final int type;
+        public final int sectionIndex;
+
+        public SymbolEntry(int index, String name, int value, int size, int binding, int type, int sectionIndex) 
+        {
+            this.index = index;
+            this.name = name;
+            this.value = value;
+            this.size = size;
+            this.binding = binding;
+            this.type = type;
+            this.sectionIndex = sectionIndex;
+        }
+        
+        public boolean isLocal() {
+            return binding == STB_LOCAL;
+        }
+        
+        public boolean isGlobal() {
+            return binding == STB_GLOBAL;
+        }
+        
+        public boolean isWeak() {
+            return binding == STB_WEAK;
+        }
+        
+        public boolean isUndefined() {
+            return sectionIndex == ElfFile.SHN_UNDEF;
+        }
+        
+        public boolean isAbsolute() {
+            return sectionIndex == ElfFile.SHN_ABS;
+        }
+        
+        public boolean isCommon() {
+            return sectionIndex == ElfFile.SHN_COMMON;
+        }
+        
+        public boolean isSectionSymbol() {
+            return type == STT_SECTION;
+        }
+        
+        public boolean isFileSymbol() {
+            return type == STT_FILE;
+        }
+        
+        @Override
+        public String toString() {
+            return "'"+name+"' (value "+value+", section "+sectionIndex+")";
+        }
+    }
+    
+    /**
+     * A relocation entry from a <code>SHT_RELA</code> section.
+     */
+    public static final class RelocationEntry 
+    {
+        public final int offset;
+        public final int symbolIndex;
+        public final int type;
+        public final int addend;
+        
+        /**
+         * Relocation kind or <code>NULL</code> if {@link #type} is not known to us.
+         */
+        public final Relocation.Kind kind;
+
+        public RelocationEntry(int offset, int symbolIndex, int type, int addend) 
+        {
+            this.offset = offset;
+            this.symbolIndex = symbolIndex;
+            this.type = type;
+            this.addend = addend;
+            this.kind = Relocation.Kind.fromElfId( type );
+        }
+        
+        @Override
+        public String toString() {
+            return ( kind == null ? "type "+type : kind.toString() )+" @ "+offset+", symbol #"+symbolIndex+", addend "+addend;
+        }
+    }
+    
+    private ObjectFile(String name) 
+    {
+        Validate.notBlank(name, "name must not be NULL or blank");
+        this.name = name;
+    }
+    
+    public static ObjectFile read(File file) throws IOException 
+    {
+        Validate.notNull(file, "file must not be NULL");
+        final byte[] data;
+        try {
+            data = Files.readAllBytes( file.toPath() );
+        } 
+        catch(NoSuchFileException e) {
+            throw new IOException( file.getPath()+": No such file" , e );
+        }
+        return read( file.getPath() , data );
+    }
+    
+    /**
+     * Parse a relocatable ELF file.
+     * 
+     * @param name name used when reporting errors
+     * @param data file contents
+     * @return
+     * @throws IOException if the data is no relocatable AVR ELF file or is malformed
+     */
+    public static ObjectFile read(String name, byte[] data) throws IOException 
+    {
+        Validate.notNull(data, "data must not be NULL");
+        final ObjectFile result = new ObjectFile( name );
+        try {
+            result.parse( ByteBuffer.wrap( data ).order( ByteOrder.LITTLE_ENDIAN ) );
+        } 
+        catch(BufferUnderflowException | IndexOutOfBoundsException e) 
+        {
+            throw new IOException( name+": Truncated or malformed ELF file");
+        }
+        return result;
+    }
+    
+    private void checkRange(ByteBuffer buffer,String what,long offset,long size) throws IOException 
+    {
+        if ( offset < 0 || size < 0 || offset + size > buffer.limit() ) {
+            throw new IOException( name+": "+what+" (offset "+offset+", "+size+" bytes) lies outside of the file");
+        }
+    }
+    
+    private void parse(ByteBuffer buffer) throws IOException 
+    {
+        if ( buffer.get(0) != 0x7f || buffer.get(1) != 'E' || buffer.get(2) != 'L' || buffer.get(3) != 'F' ) {
+            throw new IOException( name+": Not an ELF file");
+        }
+        if ( buffer.get(4) != 1 || buffer.get(5) != 1 ) {
+            throw new IOException( name+": Only 32-bit little-endian ELF files are supported");
+        }
+        if ( buffer.getShort(16) != ELF_TYPE_RELOCATABLE ) {
+            throw new IOException( name+": Not a relocatable ELF file");
+        }
+        if ( buffer.getShort(18) != ELF_MACHINE_AVR ) {
+            throw new IOException( name+": Not an AVR ELF file");
+        }
+        
+        final int sectionTableOffset = buffer.getInt(32);
+        final int sectionEntrySize = buffer.getShort(46) & 0xffff;
+        final int sectionCount = buffer.getShort(48) & 0xffff;
+        final int sectionNamesIdx = buffer.getShort(50) & 0xffff;
+        
+        if ( sectionEntrySize < SectionTableEntry.SIZE_IN_BYTES ) {
+            throw new IOException( name+": Unsupported section header entry size "+sectionEntrySize);
+        }
+        checkRange( buffer , "Section header table" , sectionTableOffset , (long) sectionCount * sectionEntrySize );
+        if ( sectionNamesIdx >= sectionCount ) {
+            throw new IOException( name+": Invalid section name table index "+sectionNamesIdx);
+        }
+
+        // read raw section headers
+        final int[][] headers = new int[ sectionCount ][];
+        for ( int i = 0 ; i < sectionCount ; i++ ) 
+        {
+            final int ptr = sectionTableOffset + i * sectionEntrySize;
+            final int[] hdr = new int[10];
+            for ( int j = 0 ; j < 10 ; j++ ) {
+                hdr[j] = buffer.getInt( ptr + j*4 );
+            }
+            headers[i] = hdr;
+        }
+        
+        final int SH_NAME = 0, SH_TYPE = 1, SH_FLAGS = 2, SH_OFFSET = 4, SH_SIZE = 5, SH_LINK = 6, SH_INFO = 7, SH_ADDRALIGN = 8;
+        
+        for ( int i = 0 ; i < sectionCount ; i++ ) 
+        {
+            final int[] hdr = headers[i];
+            final String sectionName = sectionNamesIdx == 0 ? "" : string( buffer , headers[sectionNamesIdx][SH_OFFSET] , hdr[SH_NAME] );
+            if ( hdr[SH_SIZE] < 0 ) {
+                throw new IOException( name+": Section "+sectionName+" has invalid size "+hdr[SH_SIZE]);
+            }
+            final byte[] contents;
+            if ( hdr[SH_TYPE] == SectionType.SHT_NOBITS.value || hdr[SH_TYPE] == SectionType.SHT_NULL.value ) {
+                contents = null;
+            } else {
+                checkRange( buffer , "Section "+sectionName , hdr[SH_OFFSET] , hdr[SH_SIZE] );
+                contents = new byte[ hdr[SH_SIZE] ];
+                buffer.get( hdr[SH_OFFSET] , contents );
+            }
+            sections.add( new Section( i , sectionName , hdr[SH_TYPE] , hdr[SH_FLAGS] , hdr[SH_SIZE] , hdr[SH_ADDRALIGN] , contents ) );
+        }
+        
+        // read symbol table 
+        for ( int i = 0 ; i < sectionCount ; i++ ) 
+        {
+            final int[] hdr = headers[i];
+            if ( hdr[SH_TYPE] != SectionType.SHT_SYMTAB.value ) {
+                continue;
+            }
+            if ( ! symbols.isEmpty() ) {
+                throw new IOException( name+": File contains more than one symbol table");
+            }
+            if ( hdr[SH_LINK] <= 0 || hdr[SH_LINK] >= sectionCount ) {
+                throw new IOException( name+": Symbol table refers to invalid string table #"+hdr[SH_LINK]);
+            }
+            final int strTabOffset = headers[ hdr[SH_LINK] ][SH_OFFSET];
+            final int count = hdr[SH_SIZE] / ElfSymbolTable.SYMBOL_TABLE_ENTRY_SIZE;
+            for ( int j = 0 ; j < count ; j++ ) 
+            {
+                final int ptr = hdr[SH_OFFSET] + j * ElfSymbolTable.SYMBOL_TABLE_ENTRY_SIZE;
+                final int nameIdx = buffer.getInt( ptr );
+                final int value = buffer.getInt( ptr + 4 );
+                final int size = buffer.getInt( ptr + 8 );
+                final int info = buffer.get( ptr + 12 ) & 0xff;
+                final int sectionIdx = buffer.getShort( ptr + 14 ) & 0xffff;
+                symbols.add( new SymbolEntry( j , string( buffer , strTabOffset , nameIdx ) , value , size , info >> 4 , info & 0x0f , sectionIdx ) );
+            }
+        }
+        
+        // read relocations
+        for ( int i = 0 ; i < sectionCount ; i++ ) 
+        {
+            final int[] hdr = headers[i];
+            if ( hdr[SH_TYPE] == SectionType.SHT_REL.value ) {
+                throw new IOException( name+": SHT_REL relocation sections are not supported, only SHT_RELA");
+            }
+            if ( hdr[SH_TYPE] != SectionType.SHT_RELA.value ) {
+                continue;
+            }
+            final int target = hdr[SH_INFO];
+            if ( target <= 0 || target >= sectionCount ) {
+                throw new IOException( name+": Relocation section "+sections.get(i).name+" refers to invalid section #"+target);
+            }
+            final Section targetSection = sections.get( target );
+            final int count = hdr[SH_SIZE] / ElfFile.RELOCATION_SECTION_ENTRY_SIZE;
+            for ( int j = 0 ; j < count ; j++ ) 
+            {
+                final int ptr = hdr[SH_OFFSET] + j * ElfFile.RELOCATION_SECTION_ENTRY_SIZE;
+                final int offset = buffer.getInt( ptr );
+                final int info = buffer.getInt( ptr + 4 );
+                final int addend = buffer.getInt( ptr + 8 );
+                final int symbolIdx = info >>> 8;
+                if ( symbolIdx >= symbols.size() ) {
+                    throw new IOException( name+": Relocation in "+targetSection.name+" refers to invalid symbol #"+symbolIdx);
+                }
+                targetSection.relocations.add( new RelocationEntry( offset , symbolIdx , info & 0xff , addend ) );
+            }
+        }
+    }
+    
+    private static String string(ByteBuffer buffer,int tableOffset,int index) 
+    {
+        final StringBuilder result = new StringBuilder();
+        for ( int ptr = tableOffset + index ; buffer.get( ptr ) != 0 ; ptr++ ) {
+            result.append( (char) ( buffer.get( ptr ) & 0xff ) );
+        }
+        return result.toString();
+    }
+    
+    public List<Section> getSections() {
+        return Collections.unmodifiableList( sections );
+    }
+    
+    public Section getSection(int index) {
+        return sections.get( index );
+    }
+    
+    public List<SymbolEntry> getSymbols() {
+        return Collections.unmodifiableList( symbols );
+    }
+    
+    public SymbolEntry getSymbol(int index) {
+        return symbols.get( index );
+    }
+    
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.linker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang3.Validate;
+
+import de.codesourcery.javr.assembler.linker.ObjectFile.SymbolEntry;
+
+/**
+ * Thread-safe table of global symbol definitions used by the {@link Linker}.
+ * 
+ * <p>The table is split into a power-of-two number of shards that
+ * are locked independently, so that multiple threads can register the
+ * symbols of different object files at the same time without contending 
+ * for a single lock.</p>
+ * 
+ * <p>When the same symbol name is defined more than once, the definition to keep
+ * is chosen independent of insertion order: strong (global) definitions win over
+ * weak ones which win over COMMON ones. Among weak definitions the one from the
+ * object file that comes first on the command line wins, among COMMON definitions 
+ * the largest one. Two strong definitions are reported as an error.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class ShardedSymbolTable 
+{
+    private final Shard[] shards;
+    private final int shardMask;
+    
+    /**
+     * A symbol definition.
+     */
+    public static final class Definition 
+    {
+        public final ObjectFile file;
+        
+        /**
+         * Position of {@link #file} in the list of linker inputs.
+         */
+        public final int fileIndex;
+        public final SymbolEntry symbol;
+        
+        public Definition(ObjectFile file, int fileIndex, SymbolEntry symbol) 
+        {
+            this.file = file;
+            this.fileIndex = fileIndex;
+            this.symbol = symbol;
+        }
+        
+        private int strength() 
+        {
+            if ( symbol.isCommon() ) {
+                return 0;
+            }
+            return symbol.isWeak() ? 1 : 2;
+        }
+        
+        /**
+         * Returns whether this definition should replace an existing one with the same name.
+         *  
+         * @param existing
+         * @return
+         */
+        boolean takesPrecedenceOver(Definition existing) 
+        {
+            final int s1 = strength();
+            final int s2 = existing.strength();
+            if ( s1 != s2 ) {
+                return s1 > s2;
+            }
+            if ( symbol.isCommon() && symbol.size != existing.symbol.size ) {
+                return symbol.size > existing.symbol.size;
+            }
+            return fileIndex < existing.fileIndex;
+        }
+        
+        @Override
+        public String toString() {
+            return symbol.name+" in "+file;
+        }
+    }
+    
+    private static final class Shard 
+    {
+        public final Map<String,Definition> definitions = new HashMap<>();
+        
+        // all strong definitions of symbols that were defined more than once
+        public final Map<String,List<Definition>> duplicates = new HashMap<>();
+    }
+    
+    public ShardedSymbolTable(int minShardCount) 
+    {
+        Validate.isTrue( minShardCount > 0 , "shard count must be > 0");
+        int count = 1;
+        while ( count < minShardCount ) {
+            count <<= 1;
+        }
+        shards = new Shard[count];
+        for ( int i = 0 ; i < count ; i++ ) {
+            shards[i] = new Shard();
+        }
+        shardMask = count-1;
+    }
+    
+    private Shard shard(String name) 
+    {
+        final int h = name.hashCode();
+        return shards[ ( h ^ (h >>> 16 ) ) & shardMask ];
+    }
+    
+    /**
+     * Register a symbol definition.
+     * 
+     * @param definition
+     */
+    public void define(Definition definition) 
+    {
+        Validate.notNull(definition, "definition must not be NULL");
+        final String name = definition.symbol.name;
+        final Shard shard = shard( name );
+        synchronized( shard ) 
+        {
+            final Definition existing = shard.definitions.get( name );
+            if ( existing == null ) {
+                shard.definitions.put( name , definition );
+                return;
+            }
+            if ( isStrong( existing ) && isStrong( definition ) ) 
+            {
+                final List<Definition> list = shard.duplicates.computeIfAbsent( name , key -> new ArrayList<>() );
+                if ( list.isEmpty() ) {
+                    list.add( existing );
+                }
+                list.add( definition );
+            }
+            if ( definition.takesPrecedenceOver( existing ) ) {
+                shard.definitions.put( name , definition );
+            }
+        }
+    }
+    
+    private static boolean isStrong(Definition def) {
+        return ! def.symbol.isWeak() && ! def.symbol.isCommon();
+    }
+    
+    /**
+     * Look up a symbol definition by name.
+     * 
+     * @param name
+     * @return definition or <code>null</code>
+     */
+    public Definition get(String name) 
+    {
+        final Shard shard = shard( name );
+        synchronized( shard ) {
+            return shard.definitions.get( name );
+        }
+    }
+    
+    /**
+     * Visit all definitions.
+     * 
+     * Must not be called while other threads are still adding definitions.
+     * 
+     * @param visitor
+     */
+    public void visitDefinitions(Consumer<Definition> visitor) 
+    {
+        for ( Shard shard : shards ) 
+        {
+            synchronized( shard ) {
+                shard.definitions.values().forEach( visitor );
+            }
+        }
+    }
+    
+    /**
+     * Returns errors about duplicate symbol definitions, sorted alphabetically.
+     * 
+     * Must not be called while other threads are still adding definitions.
+     * 
+     * @return
+     */
+    public List<String> getErrors() 
+    {
+        final List<String> result = new ArrayList<>();
+        for ( Shard shard : shards ) 
+        {
+            synchronized( shard ) 
+            {
+                for ( List<Definition> list : shard.duplicates.values() ) 
+                {
+                    list.sort( (a,b) -> Integer.compare( a.fileIndex , b.fileIndex ) );
+                    final Definition first = list.get(0);
+                    for ( Definition dup : list.subList( 1 , list.size() ) ) {
+                        result.add( "Duplicate symbol '"+first.symbol.name+"' defined in "+dup.file+" (first defined in "+first.file+")" );
+                    }
+                }
+            }
+        }
+        result.sort( String::compareTo );
+        return result;
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.metrics;
+
+/**
+ * Hit/miss counts of a cache.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class CacheStatistics
+{
+    public final long hits;
+    public final long misses;
+    /**
+     * Ratio of hits to total lookups, 0 if there were no lookups.
+     */
+    public final double hitRate;
+
+    public CacheStatistics(long hits, long misses)
+    {
+        this.hits = hits;
+        this.misses = misses;
+        this.hitRate = (hits+misses) == 0 ? 0 : hits / (double) (hits+misses);
+    }
+
+    /**
+     * Returns the lookups that happened since an earlier snapshot.
+     *
+     * @param earlier
+     * @return
+     */
+    public CacheStatistics minus(CacheStatistics earlier) {
+        return new CacheStatistics( hits - earlier.hits , misses - earlier.misses );
+    }
+
+    @Override
+    public String toString() {
+        return hits+" hits, "+misses+" misses ("+Math.round( hitRate*100 )+" %)";
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Metrics of a single compilation run.
+ *
+ * <p>Fields are public so that instances can be serialized as-is
+ * with {@link de.codesourcery.javr.ui.ObjectMapperFactory}.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class CompileMetrics
+{
+    /**
+     * Name of the compilation root.
+     */
+    public final String compilationUnit;
+    public final boolean successful;
+    public final long totalNanos;
+    /**
+     * Bytes allocated by the compiling thread, -1 if the JVM does not support measuring this.
+     */
+    public final long allocatedBytes;
+    /**
+     * Total number of tokens read from all source files.
+     */
+    public final long tokenCount;
+    /**
+     * Number of nodes in the AST of the compilation root (including expanded #include files).
+     */
+    public final long astNodeCount;
+    /**
+     * Number of symbols in all symbol tables.
+     */
+    public final long symbolCount;
+    public final List<PhaseMetrics> phases;
+    public final List<UnitMetrics> units;
+    /**
+     * Cache statistics by cache name.
+     */
+    public final Map<String,CacheStatistics> caches;
+
+    public CompileMetrics(String compilationUnit,
+            boolean successful,
+            long totalNanos,
+            long allocatedBytes,
+            long astNodeCount,
+            long symbolCount,
+            List<PhaseMetrics> phases,
+            List<UnitMetrics> units,
+            Map<String,CacheStatistics> caches)
+    {
+        Validate.notNull(compilationUnit, "compilationUnit must not be NULL");
+        Validate.notNull(phases, "phases must not be NULL");
+        Validate.notNull(units, "units must not be NULL");
+        Validate.notNull(caches, "caches must not be NULL");
+        this.compilationUnit = compilationUnit;
+        this.successful = successful;
+        this.totalNanos = totalNanos;
+        this.allocatedBytes = allocatedBytes;
+        this.tokenCount = units.stream().mapToLong( u -> u.tokenCount ).sum();
+        this.astNodeCount = astNodeCount;
+        this.symbolCount = symbolCount;
+        this.phases = Collections.unmodifiableList( new ArrayList<>( phases ) );
+        this.units = Collections.unmodifiableList( new ArrayList<>( units ) );
+        this.caches = Collections.unmodifiableMap( new TreeMap<>( caches ) );
+    }
+
+    /**
+     * Returns a copy of this instance with additional cache statistics.
+     *
+     * @param cacheName
+     * @param statistics
+     * @return
+     */
+    public CompileMetrics withCacheStatistics(String cacheName,CacheStatistics statistics)
+    {
+        Validate.notBlank(cacheName, "cacheName must not be NULL or blank");
+        Validate.notNull(statistics, "statistics must not be NULL");
+        final Map<String,CacheStatistics> newCaches = new TreeMap<>( caches );
+        newCaches.put( cacheName , statistics );
+        return new CompileMetrics( compilationUnit , successful , totalNanos , allocatedBytes , astNodeCount , symbolCount , phases , units , newCaches );
+    }
+
+    /**
+     * Returns a single-line summary of the time spent in each phase.
+     *
+     * @return summary like <code>parse: 1.234 ms, ..., total: 5.678 ms</code>
+     */
+    public String toPhaseSummary()
+    {
+        final StringBuilder result = new StringBuilder();
+        for ( PhaseMetrics phase : phases ) {
+            result.append( phase.phase ).append(": ").append( MetricsCollector.toMillis( phase.getTotalNanos() ) ).append(" ms, ");
+        }
+        return result.append("total: ").append( MetricsCollector.toMillis( totalNanos ) ).append(" ms").toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder result = new StringBuilder();
+        for ( PhaseMetrics phase : phases ) {
+            result.append( phase ).append("\n");
+        }
+        result.append("Total         : ").append( MetricsCollector.toMillis( totalNanos ) ).append(" ms");
+        result.append(", ").append( tokenCount ).append(" tokens");
+        result.append(", ").append( astNodeCount ).append(" AST nodes");
+        result.append(", ").append( symbolCount ).append(" symbols");
+        caches.forEach( (name,stats) -> result.append("\nCache ").append( name ).append(": ").append( stats ) );
+        return result.toString();
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.metrics;
+
+/**
+ * Receives performance metrics while a compilation is running.
+ *
+ * <p>Listeners are invoked on the compiling thread and should return quickly.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see de.codesourcery.javr.assembler.Assembler#addMetricsListener(ICompileMetricsListener)
+ */
+public interface ICompileMetricsListener
+{
+    /**
+     * Invoked each time a source file (including any files it #include's) has been parsed.
+     *
+     * @param metrics
+     */
+    public default void unitParsed(UnitMetrics metrics) {}
+
+    /**
+     * Invoked after each compiler phase.
+     *
+     * @param metrics
+     */
+    public default void phaseFinished(PhaseMetrics metrics) {}
+
+    /**
+     * Invoked when compilation finished (successfully or not).
+     *
+     * @param metrics
+     */
+    public default void compilationFinished(CompileMetrics metrics) {}
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Publishes compilation metrics as Java Flight Recorder events.
+ *
+ * <p>Events are only recorded while a flight recording is active (either started
+ * via <code>-XX:StartFlightRecording</code> or programmatically).</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class JfrMetricsListener implements ICompileMetricsListener
+{
+    @Name("de.codesourcery.javr.UnitParsed")
+    @Label("Source File Parsed")
+    @Category({"javr","Assembler"})
+    @StackTrace(false)
+    public static final class UnitParsedEvent extends Event
+    {
+        @Label("Resource")
+        public String resource;
+
+        @Label("Include Depth")
+        public int includeDepth;
+
+        @Label("Total Time")
+        @Description("Time spent parsing the file, including all files it includes")
+        @Timespan(Timespan.NANOSECONDS)
+        public long totalTime;
+
+        @Label("Self Time")
+        @Description("Time spent parsing the file, excluding all files it includes")
+        @Timespan(Timespan.NANOSECONDS)
+        public long selfTime;
+
+        @Label("Tokens")
+        public long tokenCount;
+    }
+
+    @Name("de.codesourcery.javr.PhaseFinished")
+    @Label("Compiler Phase Finished")
+    @Category({"javr","Assembler"})
+    @StackTrace(false)
+    public static final class PhaseFinishedEvent extends Event
+    {
+        @Label("Phase")
+        public String phase;
+
+        @Label("Preparation Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long preparationTime;
+
+        @Label("Run Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long runTime;
+
+        @Label("Postprocessing Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long postprocessingTime;
+
+        @Label("Allocated")
+        @DataAmount
+        public long allocatedBytes;
+
+        @Label("Successful")
+        public boolean successful;
+    }
+
+    @Name("de.codesourcery.javr.CompilationFinished")
+    @Label("Compilation Finished")
+    @Category({"javr","Assembler"})
+    @StackTrace(false)
+    public static final class CompilationFinishedEvent extends Event
+    {
+        @Label("Compilation Unit")
+        public String compilationUnit;
+
+        @Label("Successful")
+        public boolean successful;
+
+        @Label("Total Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long totalTime;
+
+        @Label("Allocated")
+        @DataAmount
+        public long allocatedBytes;
+
+        @Label("Tokens")
+        public long tokenCount;
+
+        @Label("AST Nodes")
+        public long astNodeCount;
+
+        @Label("Symbols")
+        public long symbolCount;
+
+        @Label("File Hash Cache Hit Rate")
+        public double fileHashCacheHitRate;
+    }
+
+    @Override
+    public void unitParsed(UnitMetrics metrics)
+    {
+        final UnitParsedEvent event = new UnitParsedEvent();
+        if ( event.isEnabled() )
+        {
+            event.resource = metrics.resource;
+            event.includeDepth = metrics.includeDepth;
+            event.totalTime = metrics.totalNanos;
+            event.selfTime = metrics.selfNanos;
+            event.tokenCount = metrics.tokenCount;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void phaseFinished(PhaseMetrics metrics)
+    {
+        final PhaseFinishedEvent event = new PhaseFinishedEvent();
+        if ( event.isEnabled() )
+        {
+            event.phase = metrics.phase;
+            event.preparationTime = metrics.preparationNanos;
+            event.runTime = metrics.runNanos;
+            event.postprocessingTime = metrics.postprocessingNanos;
+            event.allocatedBytes = metrics.allocatedBytes;
+            event.successful = metrics.successful;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void compilationFinished(CompileMetrics metrics)
+    {
+        final CompilationFinishedEvent event = new CompilationFinishedEvent();
+        if ( event.isEnabled() )
+        {
+            event.compilationUnit = metrics.compilationUnit;
+            event.successful = metrics.successful;
+            event.totalTime = metrics.totalNanos;
+            event.allocatedBytes = metrics.allocatedBytes;
+            event.tokenCount = metrics.tokenCount;
+            event.astNodeCount = metrics.astNodeCount;
+            event.symbolCount = metrics.symbolCount;
+            final CacheStatistics fileHashes = metrics.caches.get( MetricsCollector.CACHE_FILE_HASHES );
+            event.fileHashCacheHitRate = fileHashes == null ? 0 : fileHashes.hitRate;
+            event.commit();
+        }
+    }
+}
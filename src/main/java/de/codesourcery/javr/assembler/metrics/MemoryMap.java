@@ -0,0 +1,412 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.Validate;
+
+import de.codesourcery.javr.assembler.Address;
+import de.codesourcery.javr.assembler.Buffer;
+import de.codesourcery.javr.assembler.CompilationUnit;
+import de.codesourcery.javr.assembler.IObjectCodeWriter;
+import de.codesourcery.javr.assembler.Segment;
+import de.codesourcery.javr.assembler.arch.IArchitecture;
+import de.codesourcery.javr.assembler.symbols.Symbol;
+import de.codesourcery.javr.assembler.symbols.SymbolTable;
+import de.codesourcery.javr.ui.ObjectMapperFactory;
+
+/**
+ * Linker-map style report of the memory used by a compilation.
+ *
+ * <p>The size of a label is the {@link Symbol#getObjectSize() object size} if one is known, otherwise
+ * the distance to the next label in the same segment (or to the end of the generated data).
+ * Local labels are accounted to their enclosing global label, labels that share an address with another
+ * label have size zero so that every byte is counted at most once.</p>
+ *
+ * <p>Fields are public so that instances can be serialized as-is
+ * with {@link de.codesourcery.javr.ui.ObjectMapperFactory}.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class MemoryMap
+{
+    /**
+     * Number of entries in {@link #largestSymbols}.
+     */
+    public static final int LARGEST_SYMBOLS_COUNT = 20;
+
+    /**
+     * Name of the compilation root.
+     */
+    public final String compilationUnit;
+    public final List<SegmentUsage> segments;
+    /**
+     * All labels, sorted ascending by segment and address.
+     */
+    public final List<SymbolUsage> symbols;
+    /**
+     * The compilation root and all files it #include'd, in include order.
+     */
+    public final List<UnitUsage> units;
+    /**
+     * Labels with the largest sizes, sorted descending by size.
+     */
+    public final List<SymbolUsage> largestSymbols;
+
+    /**
+     * Memory used in a single segment.
+     *
+     * @author tobias.gierke@code-sourcery.de
+     */
+    public static final class SegmentUsage
+    {
+        public final Segment segment;
+        public final int startAddress;
+        public final int usedBytes;
+        /**
+         * Size of this segment on the target architecture.
+         */
+        public final int capacity;
+        /**
+         * Bytes not covered by any label.
+         */
+        public final int unattributedBytes;
+
+        public SegmentUsage(Segment segment, int startAddress, int usedBytes, int capacity, int unattributedBytes)
+        {
+            Validate.notNull(segment, "segment must not be NULL");
+            this.segment = segment;
+            this.startAddress = startAddress;
+            this.usedBytes = usedBytes;
+            this.capacity = capacity;
+            this.unattributedBytes = unattributedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return segment+": "+usedBytes+" of "+capacity+" bytes used";
+        }
+    }
+
+    /**
+     * Memory used by a single label.
+     *
+     * @author tobias.gierke@code-sourcery.de
+     */
+    public static final class SymbolUsage
+    {
+        public final String name;
+        public final Segment segment;
+        public final int address;
+        public final int size;
+        public final Symbol.ObjectType objectType;
+        /**
+         * Name of the resource the label got defined in.
+         */
+        public final String unit;
+
+        public SymbolUsage(String name, Segment segment, int address, int size, Symbol.ObjectType objectType, String unit)
+        {
+            Validate.notNull(name, "name must not be NULL");
+            Validate.notNull(segment, "segment must not be NULL");
+            Validate.notNull(objectType, "objectType must not be NULL");
+            Validate.notNull(unit, "unit must not be NULL");
+            this.name = name;
+            this.segment = segment;
+            this.address = address;
+            this.size = size;
+            this.objectType = objectType;
+            this.unit = unit;
+        }
+
+        @Override
+        public String toString() {
+            return name+" @ "+segment+" "+hex( address )+", "+size+" bytes";
+        }
+    }
+
+    /**
+     * Memory used by the labels of a single source file.
+     *
+     * @author tobias.gierke@code-sourcery.de
+     */
+    public static final class UnitUsage
+    {
+        /**
+         * Name of the resource.
+         */
+        public final String resource;
+        /**
+         * Nesting level of #include directives, 0 for the compilation root.
+         */
+        public final int includeDepth;
+        /**
+         * Bytes by segment, excluding all files this file #include'd.
+         */
+        public final Map<Segment,Integer> selfBytes;
+        /**
+         * Bytes by segment, including all files this file #include'd.
+         */
+        public final Map<Segment,Integer> totalBytes;
+
+        public UnitUsage(String resource, int includeDepth, Map<Segment,Integer> selfBytes, Map<Segment,Integer> totalBytes)
+        {
+            Validate.notNull(resource, "resource must not be NULL");
+            Validate.notNull(selfBytes, "selfBytes must not be NULL");
+            Validate.notNull(totalBytes, "totalBytes must not be NULL");
+            this.resource = resource;
+            this.includeDepth = includeDepth;
+            this.selfBytes = copy( selfBytes );
+            this.totalBytes = copy( totalBytes );
+        }
+
+        private static Map<Segment,Integer> copy(Map<Segment,Integer> map)
+        {
+            final Map<Segment,Integer> result = new EnumMap<>( Segment.class );
+            result.putAll( map );
+            return Collections.unmodifiableMap( result );
+        }
+
+        @Override
+        public String toString() {
+            return resource+": "+selfBytes+" self, "+totalBytes+" total";
+        }
+    }
+
+    public MemoryMap(String compilationUnit, List<SegmentUsage> segments, List<SymbolUsage> symbols, List<UnitUsage> units, List<SymbolUsage> largestSymbols)
+    {
+        Validate.notNull(compilationUnit, "compilationUnit must not be NULL");
+        Validate.notNull(segments, "segments must not be NULL");
+        Validate.notNull(symbols, "symbols must not be NULL");
+        Validate.notNull(units, "units must not be NULL");
+        Validate.notNull(largestSymbols, "largestSymbols must not be NULL");
+        this.compilationUnit = compilationUnit;
+        this.segments = Collections.unmodifiableList( new ArrayList<>( segments ) );
+        this.symbols = Collections.unmodifiableList( new ArrayList<>( symbols ) );
+        this.units = Collections.unmodifiableList( new ArrayList<>( units ) );
+        this.largestSymbols = Collections.unmodifiableList( new ArrayList<>( largestSymbols ) );
+    }
+
+    /**
+     * Creates the memory map of a successful compilation.
+     *
+     * @param root compilation root
+     * @param symbolTable global symbol table
+     * @param writer object code writer holding the generated data
+     * @param arch
+     * @return
+     */
+    public static MemoryMap create(CompilationUnit root,SymbolTable symbolTable,IObjectCodeWriter writer,IArchitecture arch)
+    {
+        Validate.notNull(root, "root must not be NULL");
+        Validate.notNull(symbolTable, "symbolTable must not be NULL");
+        Validate.notNull(writer, "writer must not be NULL");
+        Validate.notNull(arch, "arch must not be NULL");
+
+        final Map<Segment,List<Symbol>> labelsBySegment = new EnumMap<>( Segment.class );
+        for ( Symbol symbol : symbolTable.getAllSymbolsUnsorted() )
+        {
+            if ( symbol.hasType( Symbol.Type.ADDRESS_LABEL ) && symbol.getValue() instanceof Address && symbol.getSegment() != null && ! symbol.isLocalLabel() ) {
+                labelsBySegment.computeIfAbsent( symbol.getSegment() , s -> new ArrayList<>() ).add( symbol );
+            }
+        }
+
+        final List<SegmentUsage> segments = new ArrayList<>();
+        final List<SymbolUsage> symbols = new ArrayList<>();
+        final Map<String,Map<Segment,Integer>> bytesByUnit = new HashMap<>();
+        for ( Segment segment : Segment.values() )
+        {
+            final Buffer buffer = writer.getBuffer( segment );
+            final int start = buffer.getStartAddress() == null ? 0 : buffer.getStartAddress().getByteAddress();
+            final int end = buffer.getCurrentByteAddress();
+            final List<Symbol> labels = labelsBySegment.getOrDefault( segment , Collections.emptyList() );
+            if ( buffer.isEmpty() && labels.isEmpty() ) {
+                continue;
+            }
+
+            // labels at the same address: the one with a known object size (or else the first by name) gets the bytes
+            labels.sort( Comparator.comparingInt( MemoryMap::address )
+                    .thenComparing( Comparator.comparingInt( Symbol::getObjectSize ).reversed() )
+                    .thenComparing( s -> s.name().value ) );
+
+            int attributed = 0;
+            for ( int i = 0 , len = labels.size() ; i < len ; i++ )
+            {
+                final Symbol label = labels.get(i);
+                final int address = address( label );
+                int size = 0;
+                if ( i == 0 || address( labels.get( i-1 ) ) != address )
+                {
+                    int next = end;
+                    for ( int j = i+1 ; j < len ; j++ )
+                    {
+                        if ( address( labels.get(j) ) != address ) {
+                            next = address( labels.get(j) );
+                            break;
+                        }
+                    }
+                    size = label.getObjectSize() > 0 ? label.getObjectSize() : Math.max( 0 , next - address );
+                }
+                final String unit = unitName( label.getCompilationUnit() );
+                final Symbol.ObjectType type = label.getObjectType() == null ? Symbol.ObjectType.UNDEFINED : label.getObjectType();
+                symbols.add( new SymbolUsage( label.name().value , segment , address , size , type , unit ) );
+                bytesByUnit.computeIfAbsent( unit , u -> new EnumMap<>( Segment.class ) ).merge( segment , size , Integer::sum );
+                attributed += size;
+            }
+            final int used = buffer.size();
+            segments.add( new SegmentUsage( segment , start , used , arch.getSegmentSize( segment ) , Math.max( 0 , used - attributed ) ) );
+        }
+
+        final List<UnitUsage> units = new ArrayList<>();
+        final Map<String,Integer> depths = new LinkedHashMap<>();
+        final Map<String,Map<Segment,Integer>> totals = new HashMap<>();
+        gatherUnits( root , 0 , depths , totals , bytesByUnit );
+        for ( String unit : bytesByUnit.keySet() )
+        {
+            // labels from resources that are not part of the include hierarchy
+            if ( ! depths.containsKey( unit ) )
+            {
+                depths.put( unit , 0 );
+                totals.put( unit , bytesByUnit.get( unit ) );
+            }
+        }
+        depths.forEach( (unit,depth) -> units.add( new UnitUsage( unit , depth , bytesByUnit.getOrDefault( unit , Collections.emptyMap() ) , totals.get( unit ) ) ) );
+
+        final List<SymbolUsage> largestSymbols = symbols.stream()
+                .filter( s -> s.size > 0 )
+                .sorted( Comparator.comparingInt( (SymbolUsage s) -> s.size ).reversed().thenComparing( s -> s.name ) )
+                .limit( LARGEST_SYMBOLS_COUNT )
+                .collect( Collectors.toList() );
+
+        return new MemoryMap( unitName( root ) , segments , symbols , units , largestSymbols );
+    }
+
+    private static Map<Segment,Integer> gatherUnits(CompilationUnit unit,int depth,Map<String,Integer> depths,Map<String,Map<Segment,Integer>> totals,Map<String,Map<Segment,Integer>> bytesByUnit)
+    {
+        final String name = unitName( unit );
+        final Map<Segment,Integer> total = new EnumMap<>( Segment.class );
+        if ( depths.containsKey( name ) ) {
+            // files that get #include'd more than once are only accounted once
+            return total;
+        }
+        depths.put( name , depth );
+        total.putAll( bytesByUnit.getOrDefault( name , Collections.emptyMap() ) );
+        for ( CompilationUnit child : unit.getDependencies() ) {
+            gatherUnits( child , depth+1 , depths , totals , bytesByUnit ).forEach( (segment,bytes) -> total.merge( segment , bytes , Integer::sum ) );
+        }
+        totals.put( name , total );
+        return total;
+    }
+
+    private static int address(Symbol symbol) {
+        return ((Address) symbol.getValue()).getByteAddress();
+    }
+
+    private static String unitName(CompilationUnit unit) {
+        return unit == null ? "<unknown>" : unit.getResource().toString();
+    }
+
+    private static String hex(int address) {
+        return String.format( "0x%04x" , address );
+    }
+
+    /**
+     * Writes this map as JSON.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeJson(OutputStream out) throws IOException
+    {
+        Validate.notNull(out, "out must not be NULL");
+        ObjectMapperFactory.getObjectMapper().writerWithDefaultPrettyPrinter().writeValue( out , this );
+    }
+
+    /**
+     * Writes this map as human-readable text.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeText(OutputStream out) throws IOException
+    {
+        Validate.notNull(out, "out must not be NULL");
+        final PrintWriter writer = new PrintWriter( new OutputStreamWriter( out , StandardCharsets.UTF_8 ) );
+        writer.print( toString() );
+        writer.flush();
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder result = new StringBuilder();
+        result.append("Memory map of ").append( compilationUnit ).append("\n\n");
+
+        result.append( String.format( Locale.ROOT , "%-8s %-8s %8s %8s %8s %13s\n" , "Segment" , "Start" , "Used" , "Size" , "Used %" , "Unattributed" ) );
+        for ( SegmentUsage s : segments )
+        {
+            final float percentage = s.capacity == 0 ? 0 : 100.0f*(s.usedBytes/(float) s.capacity);
+            result.append( String.format( Locale.ROOT , "%-8s %-8s %8d %8d %8.2f %13d\n" , s.segment , hex( s.startAddress ) , s.usedBytes , s.capacity , percentage , s.unattributedBytes ) );
+        }
+
+        result.append("\nSymbols\n\n");
+        result.append( String.format( Locale.ROOT , "%-8s %-8s %8s %-9s %-30s %s\n" , "Segment" , "Address" , "Size" , "Type" , "Name" , "File" ) );
+        for ( SymbolUsage s : symbols ) {
+            appendSymbol( s , result );
+        }
+
+        result.append("\nFiles\n\n");
+        result.append( String.format( Locale.ROOT , "%-8s %10s %10s  %s\n" , "Segment" , "Self" , "Total" , "File" ) );
+        for ( UnitUsage unit : units )
+        {
+            for ( Map.Entry<Segment,Integer> entry : unit.totalBytes.entrySet() )
+            {
+                final int self = unit.selfBytes.getOrDefault( entry.getKey() , 0 );
+                result.append( String.format( Locale.ROOT , "%-8s %10d %10d  " , entry.getKey() , self , entry.getValue() ) );
+                for ( int i = 0 ; i < unit.includeDepth ; i++ ) {
+                    result.append("  ");
+                }
+                result.append( unit.resource ).append("\n");
+            }
+        }
+
+        result.append("\nLargest symbols\n\n");
+        result.append( String.format( Locale.ROOT , "%-8s %-8s %8s %-9s %-30s %s\n" , "Segment" , "Address" , "Size" , "Type" , "Name" , "File" ) );
+        for ( SymbolUsage s : largestSymbols ) {
+            appendSymbol( s , result );
+        }
+        return result.toString();
+    }
+
+    private static void appendSymbol(SymbolUsage s,StringBuilder result) {
+        result.append( String.format( Locale.ROOT , "%-8s %-8s %8d %-9s %-30s %s\n" , s.segment , hex( s.address ) , s.size , s.objectType , s.name , s.unit ) );
+    }
+}
@@ -0,0 +1,252 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.log4j.Logger;
+
+import de.codesourcery.javr.assembler.CompilationUnit;
+import de.codesourcery.javr.assembler.symbols.SymbolTable;
+import de.codesourcery.javr.assembler.util.FileHashCache;
+
+/**
+ * Gathers metrics while a compilation is running and forwards them to {@link ICompileMetricsListener}s.
+ *
+ * <p>Instances are not thread-safe and must only be used by the compiling thread.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class MetricsCollector
+{
+    private static final Logger LOG = Logger.getLogger(MetricsCollector.class);
+
+    public static final String CACHE_FILE_HASHES = "fileHashes";
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN;
+
+    static
+    {
+        com.sun.management.ThreadMXBean bean = null;
+        try
+        {
+            if ( ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean )
+            {
+                bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+                if ( ! bean.isThreadAllocatedMemorySupported() || ! bean.isThreadAllocatedMemoryEnabled() ) {
+                    bean = null;
+                }
+            }
+        }
+        catch(Exception | LinkageError e) {
+            LOG.warn("Measuring allocated memory is not supported by this JVM: "+e.getMessage());
+        }
+        THREAD_MX_BEAN = bean;
+    }
+
+    private final List<ICompileMetricsListener> listeners;
+
+    private final List<PhaseMetrics> phases = new ArrayList<>();
+    private final List<UnitMetrics> units = new ArrayList<>();
+
+    private final Deque<UnitTimer> parseStack = new ArrayDeque<>();
+    private UnitTimer currentUnit;
+
+    private long startNanos;
+    private long startAllocatedBytes;
+    private CacheStatistics startFileHashes;
+
+    private static final class UnitTimer
+    {
+        public final String resource;
+        public final long startNanos = System.nanoTime();
+        public long childNanos;
+        public long tokens;
+
+        public UnitTimer(String resource) {
+            this.resource = resource;
+        }
+    }
+
+    /**
+     * Creates a collector that does not notify any listeners.
+     */
+    public MetricsCollector()
+    {
+        this( new ArrayList<>() );
+    }
+
+    public MetricsCollector(List<ICompileMetricsListener> listeners)
+    {
+        Validate.notNull(listeners, "listeners must not be NULL");
+        this.listeners = new ArrayList<>( listeners );
+        start();
+    }
+
+    private void start()
+    {
+        startNanos = System.nanoTime();
+        startAllocatedBytes = currentThreadAllocatedBytes();
+        startFileHashes = FileHashCache.getInstance().getStatistics();
+    }
+
+    /**
+     * Returns the total number of bytes allocated by the current thread.
+     *
+     * @return number of bytes or -1 if the JVM does not support measuring this
+     */
+    public static long currentThreadAllocatedBytes() {
+        return THREAD_MX_BEAN == null ? -1 : THREAD_MX_BEAN.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Returns the difference between an earlier {@link #currentThreadAllocatedBytes()} result and the current value.
+     *
+     * @param start
+     * @return
+     */
+    public static long allocatedBytesSince(long start)
+    {
+        if ( start < 0 ) {
+            return -1;
+        }
+        return currentThreadAllocatedBytes() - start;
+    }
+
+    /**
+     * Invoked when the parser starts reading a source file.
+     *
+     * @param resource
+     */
+    public void unitStarted(String resource)
+    {
+        Validate.notNull(resource, "resource must not be NULL");
+        if ( currentUnit != null ) {
+            parseStack.push( currentUnit );
+        }
+        currentUnit = new UnitTimer( resource );
+    }
+
+    /**
+     * Invoked for each token read from the current source file.
+     */
+    public void tokenRead()
+    {
+        if ( currentUnit != null ) {
+            currentUnit.tokens++;
+        }
+    }
+
+    /**
+     * Invoked when the parser reached the end of the current source file.
+     */
+    public void unitFinished()
+    {
+        if ( currentUnit == null ) {
+            return;
+        }
+        final long totalNanos = System.nanoTime() - currentUnit.startNanos;
+        final UnitMetrics metrics = new UnitMetrics( currentUnit.resource , parseStack.size() , totalNanos , totalNanos - currentUnit.childNanos , currentUnit.tokens );
+        currentUnit = parseStack.poll();
+        if ( currentUnit != null ) {
+            currentUnit.childNanos += totalNanos;
+        }
+        units.add( metrics );
+        for ( ICompileMetricsListener l : listeners ) {
+            l.unitParsed( metrics );
+        }
+    }
+
+    public void phaseFinished(PhaseMetrics metrics)
+    {
+        Validate.notNull(metrics, "metrics must not be NULL");
+        phases.add( metrics );
+        for ( ICompileMetricsListener l : listeners ) {
+            l.phaseFinished( metrics );
+        }
+    }
+
+    /**
+     * Invoked when compilation is finished.
+     *
+     * @param root the compilation root
+     * @param successful
+     * @return metrics of this compilation run
+     */
+    public CompileMetrics compilationFinished(CompilationUnit root,boolean successful)
+    {
+        Validate.notNull(root, "root must not be NULL");
+
+        final long totalNanos = System.nanoTime() - startNanos;
+        final long allocatedBytes = allocatedBytesSince( startAllocatedBytes );
+
+        final Map<String,CacheStatistics> caches = new HashMap<>();
+        caches.put( CACHE_FILE_HASHES , FileHashCache.getInstance().getStatistics().minus( startFileHashes ) );
+
+        final CompileMetrics result = new CompileMetrics( root.getResource().toString() , successful , totalNanos , allocatedBytes ,
+                countASTNodes( root ) , countSymbols( root ) , phases , units , caches );
+        for ( ICompileMetricsListener l : listeners ) {
+            l.compilationFinished( result );
+        }
+        return result;
+    }
+
+    private static long countASTNodes(CompilationUnit root)
+    {
+        if ( root.getAST() == null ) {
+            return 0;
+        }
+        final long[] count = {0};
+        root.getAST().visitBreadthFirst( (node,ctx) -> count[0]++ );
+        return count[0];
+    }
+
+    private static long countSymbols(CompilationUnit root)
+    {
+        final IdentityHashMap<Object,Boolean> seen = new IdentityHashMap<>();
+        final Deque<CompilationUnit> toVisit = new ArrayDeque<>();
+        toVisit.push( root );
+        long count = 0;
+        while ( ! toVisit.isEmpty() )
+        {
+            final CompilationUnit unit = toVisit.pop();
+            if ( seen.put( unit , Boolean.TRUE ) != null ) {
+                continue;
+            }
+            for ( SymbolTable table = unit.getSymbolTable() ; table != null ; table = table.getParent() )
+            {
+                if ( seen.put( table , Boolean.TRUE ) == null ) {
+                    count += table.size();
+                }
+            }
+            unit.getDependencies().forEach( toVisit::push );
+        }
+        return count;
+    }
+
+    static String toMillis(long nanos) {
+        return String.format( Locale.ROOT , "%.3f" , nanos / 1_000_000d );
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.metrics;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Metrics of a single compiler phase.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class PhaseMetrics
+{
+    public final String phase;
+    /**
+     * Time spent in {@link de.codesourcery.javr.assembler.phases.Phase#beforeRun(de.codesourcery.javr.assembler.ICompilationContext)}.
+     */
+    public final long preparationNanos;
+    /**
+     * Time spent in {@link de.codesourcery.javr.assembler.phases.Phase#run(de.codesourcery.javr.assembler.ICompilationContext)}.
+     */
+    public final long runNanos;
+    /**
+     * Time spent in {@link de.codesourcery.javr.assembler.phases.Phase#afterSuccessfulRun(de.codesourcery.javr.assembler.ICompilationContext)}.
+     */
+    public final long postprocessingNanos;
+    /**
+     * Bytes allocated by the compiling thread during this phase, -1 if the JVM does not support measuring this.
+     */
+    public final long allocatedBytes;
+    public final boolean successful;
+
+    public PhaseMetrics(String phase, long preparationNanos, long runNanos, long postprocessingNanos, long allocatedBytes, boolean successful)
+    {
+        Validate.notNull(phase, "phase must not be NULL");
+        this.phase = phase;
+        this.preparationNanos = preparationNanos;
+        this.runNanos = runNanos;
+        this.postprocessingNanos = postprocessingNanos;
+        this.allocatedBytes = allocatedBytes;
+        this.successful = successful;
+    }
+
+    public long getTotalNanos() {
+        return preparationNanos + runNanos + postprocessingNanos;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "**** Phase "+phase+" ****\n"+
+               "Preparation   : "+MetricsCollector.toMillis( preparationNanos )+" ms\n"+
+               "Runtime       : "+MetricsCollector.toMillis( runNanos )+" ms\n"+
+               "Postprocessing: "+MetricsCollector.toMillis( postprocessingNanos )+" ms"+
+               ( allocatedBytes >= 0 ? "\nAllocated     : "+allocatedBytes+" bytes" : "" );
+    }
+}
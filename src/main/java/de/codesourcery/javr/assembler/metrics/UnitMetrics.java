@@ -0,0 +1,62 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.metrics;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Parse metrics of a single source file.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class UnitMetrics
+{
+    /**
+     * Name of the parsed resource.
+     */
+    public final String resource;
+    /**
+     * Nesting level of #include directives, 0 for the compilation root.
+     */
+    public final int includeDepth;
+    /**
+     * Time spent parsing this file, including all files it #include'd.
+     */
+    public final long totalNanos;
+    /**
+     * Time spent parsing this file, excluding all files it #include'd.
+     */
+    public final long selfNanos;
+    /**
+     * Number of tokens read from this file.
+     */
+    public final long tokenCount;
+
+    public UnitMetrics(String resource, int includeDepth, long totalNanos, long selfNanos, long tokenCount)
+    {
+        Validate.notNull(resource, "resource must not be NULL");
+        this.resource = resource;
+        this.includeDepth = includeDepth;
+        this.totalNanos = totalNanos;
+        this.selfNanos = selfNanos;
+        this.tokenCount = tokenCount;
+    }
+
+    @Override
+    public String toString() {
+        return resource+": "+tokenCount+" tokens, "+MetricsCollector.toMillis( totalNanos )+" ms total, "+MetricsCollector.toMillis( selfNanos )+" ms self";
+    }
+}
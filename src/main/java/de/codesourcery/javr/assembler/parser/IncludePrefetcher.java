@@ -0,0 +1,236 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.parser;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.log4j.Logger;
+
+import de.codesourcery.javr.assembler.ResourceFactory;
+import de.codesourcery.javr.assembler.util.Resource;
+
+/**
+ * Discovers the files included by a compilation unit and lexes them concurrently, ahead of the
+ * {@link PreprocessingLexer} reaching the corresponding <code>#include</code> directives.
+ *
+ * <p>The include graph is discovered with a cheap line-based scan of the compilation root, included files
+ * are scanned for further <code>#include</code> directives right after they have been lexed. Only lexing
+ * happens concurrently, preprocessing and parsing still process all files sequentially in source order
+ * since macro definitions and conditional compilation in one file may affect every file included after it.
+ * Files that are included but never reached (for example because of <code>#ifdef</code>) are lexed needlessly.</p>
+ *
+ * <p>Failures (unresolvable paths, I/O errors) are never reported by this class, the corresponding
+ * files are simply not prefetched and the preprocessor will report the error when it tries to
+ * process the file itself.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class IncludePrefetcher 
+{
+    private static final Logger LOG = Logger.getLogger(IncludePrefetcher.class);
+
+    private static final Pattern INCLUDE_DIRECTIVE = Pattern.compile("^\\s*#\\s*include\\s+\"([^\"]+)\"",Pattern.CASE_INSENSITIVE);
+
+    private final ResourceFactory resourceFactory;
+    private final ForkJoinPool pool;
+
+    // guarded by 'units'
+    private final List<PrefetchedUnit> units = new ArrayList<>();
+
+    private volatile ForkJoinTask<?> discovery;
+
+    private static final class PrefetchedUnit 
+    {
+        public final Resource resource;
+        public final ForkJoinTask<List<Token>> tokens;
+
+        public PrefetchedUnit(Resource resource, ForkJoinTask<List<Token>> tokens) 
+        {
+            this.resource = resource;
+            this.tokens = tokens;
+        }
+    }
+
+    public IncludePrefetcher(ResourceFactory resourceFactory,ForkJoinPool pool) 
+    {
+        Validate.notNull(resourceFactory, "resourceFactory must not be NULL");
+        Validate.notNull(pool, "pool must not be NULL");
+        this.resourceFactory = resourceFactory;
+        this.pool = pool;
+    }
+
+    /**
+     * Starts prefetching all files (transitively) included by a compilation root.
+     * 
+     * @param root
+     */
+    public void start(Resource root) 
+    {
+        Validate.notNull(root, "root must not be NULL");
+        if ( discovery != null ) {
+            throw new IllegalStateException("start() must only be called once");
+        }
+        discovery = pool.submit( () -> scanRoot( root ) );
+    }
+
+    private void scanRoot(Resource root) 
+    {
+        final Resource content = resourceFactory.getContent( root );
+        try ( BufferedReader reader = new BufferedReader( new InputStreamReader( content.createInputStream() , content.getEncoding() ) ) ) 
+        {
+            String line;
+            while ( ( line = reader.readLine() ) != null ) 
+            {
+                if ( line.indexOf('#') != -1 ) 
+                {
+                    final Matcher m = INCLUDE_DIRECTIVE.matcher( line );
+                    if ( m.find() ) {
+                        prefetch( root , m.group(1) );
+                    }
+                }
+            }
+        } 
+        catch(Exception e) {
+            LOG.debug("scanRoot(): Failed to scan "+root+" for includes: "+e.getMessage());
+        }
+    }
+
+    private void prefetch(Resource parent,String path) 
+    {
+        final Resource resource;
+        try {
+            resource = resourceFactory.resolveResource( parent , path );
+        } 
+        catch(Exception e) 
+        {
+            LOG.debug("prefetch(): Failed to resolve '"+path+"' relative to "+parent+": "+e.getMessage());
+            return;
+        }
+
+        final ForkJoinTask<List<Token>> task = ForkJoinTask.adapt( () -> lex( resource ) );
+        synchronized( units ) 
+        {
+            if ( find( resource ) != null ) { // already prefetched or circular include
+                return;
+            }
+            units.add( new PrefetchedUnit( resource , task ) );
+        }
+        pool.execute( task );
+    }
+
+    private List<Token> lex(Resource resource) 
+    {
+        final Lexer lexer = new LexerImpl( new Scanner( resourceFactory.getContent( resource ) ) );
+        lexer.setIgnoreWhitespace( false );
+        final List<Token> result = new ArrayList<>();
+        Token tok;
+        do {
+            tok = lexer.next();
+            result.add( tok );
+        } while ( ! tok.isEOF() );
+
+        scanIncludes( resource , result );
+        return result;
+    }
+
+    private void scanIncludes(Resource resource,List<Token> tokens) 
+    {
+        for ( int i = 0 , len = tokens.size() ; i < len ; i++ ) 
+        {
+            if ( tokens.get(i).is( TokenType.HASH ) ) 
+            {
+                int j = skipWhitespace( tokens , i+1 );
+                if ( ! "include".equalsIgnoreCase( tokens.get(j).value ) ) {
+                    continue;
+                }
+                j = skipWhitespace( tokens , j+1 );
+                if ( ! tokens.get(j).is( TokenType.DOUBLE_QUOTE ) ) {
+                    continue;
+                }
+                final StringBuilder path = new StringBuilder();
+                for ( j++ ; ! tokens.get(j).isEOLorEOF() ; j++ ) 
+                {
+                    if ( tokens.get(j).is( TokenType.DOUBLE_QUOTE ) ) 
+                    {
+                        prefetch( resource , path.toString() );
+                        break;
+                    }
+                    path.append( tokens.get(j).value );
+                }
+                i = j;
+            }
+        }
+    }
+
+    private static int skipWhitespace(List<Token> tokens,int index) 
+    {
+        while ( tokens.get(index).isWhitespace() ) {
+            index++;
+        }
+        return index;
+    }
+
+    private PrefetchedUnit find(Resource resource) 
+    {
+        for ( PrefetchedUnit unit : units ) 
+        {
+            if ( unit.resource.pointsToSameData( resource ) ) {
+                return unit;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a lexer for an included file, waiting for lexing to finish if necessary.
+     * 
+     * @param resource
+     * @return lexer or <code>NULL</code> if the file has not been prefetched or prefetching failed
+     */
+    public Lexer createLexer(Resource resource) 
+    {
+        Validate.notNull(resource, "resource must not be NULL");
+        final ForkJoinTask<?> discovery = this.discovery;
+        if ( discovery == null ) {
+            return null;
+        }
+        discovery.join(); // scanRoot() never fails
+
+        final PrefetchedUnit unit;
+        synchronized( units ) {
+            unit = find( resource );
+        }
+        if ( unit == null ) {
+            return null;
+        }
+        try {
+            return new TokenListLexer( unit.tokens.join() );
+        } 
+        catch(RuntimeException e) 
+        {
+            LOG.debug("createLexer(): Prefetching "+resource+" failed: "+e.getMessage());
+            return null;
+        }
+    }
+}
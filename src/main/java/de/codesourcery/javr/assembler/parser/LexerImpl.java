@@ -229,7 +229,9 @@ outer:
     }
 
     private void addToken(Token t) {
-        System.out.println("---> adding "+t);
+        if ( DEBUG ) {
+            System.out.println("---> adding "+t);
+        }
         this.tokens.add(t);
     }
     
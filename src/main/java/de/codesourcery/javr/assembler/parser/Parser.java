@@ -296,6 +296,7 @@ public class Parser
         skipNewlines();
         
         final StatementNode result = new StatementNode();
+        result.setCompilationUnit( context.currentCompilationUnit() );
 
         final ASTNode preproc = parsePreprocessor();
         if ( preproc != null ) 
@@ -16,13 +16,17 @@
 package de.codesourcery.javr.assembler.parser;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -31,6 +35,7 @@ import org.apache.commons.lang3.Validate;
 import de.codesourcery.javr.assembler.CompilationUnit;
 import de.codesourcery.javr.assembler.ICompilationContext;
 import de.codesourcery.javr.assembler.exceptions.ParseException;
+import de.codesourcery.javr.assembler.metrics.MetricsCollector;
 import de.codesourcery.javr.assembler.parser.Parser.CompilationMessage;
 import de.codesourcery.javr.assembler.parser.Parser.Severity;
 import de.codesourcery.javr.assembler.parser.ast.IValueNode;
@@ -77,11 +82,25 @@ public class PreprocessingLexer implements Lexer
 
     private final ICompilationContext compilationContext;
 
+    private final MetricsCollector metrics;
+
+    // lexes #include files concurrently, NULL if the compilation root is unknown
+    private final IncludePrefetcher includePrefetcher;
+
     // offset to the actual scanner position that is adjusted 
     // by the delta ( initial string len - expanded string len )
     // each time some expression/identifier gets macro-expanded 
     private int expansionOffset = 0;
 
+    // caches used by expand(), discarded whenever a macro gets defined or the current symbol table changes
+    private SymbolTable cachedSymbolTable;
+    // macro symbols by name, NULL values denote names that do not refer to a macro
+    private final Map<String,Symbol> macroLookupCache = new HashMap<>();
+    // fully expanded bodies of parameterless macros
+    private final Map<String,List<Token>> expansionCache = new HashMap<>();
+    // parameterless macros whose expansion depends on tokens following the invocation
+    private final Set<String> uncacheableMacros = new HashSet<>();
+
     // used to remember the EOF offset from the initial lexer ;
     // since lexers get popped from the stack whenever they reach EOF
     // and are thus inaccessible afterwards, the offset needs to be stored somewhere
@@ -93,6 +112,10 @@ public class PreprocessingLexer implements Lexer
     /**
      * Holds a macro definition (parameter names and macro body).
      *
+     * <p>The body is pre-compiled into a template where each token that refers
+     * to a parameter is replaced by the parameter's index so that
+     * expanding the macro does not need to look up parameter names.</p>
+     *
      * @author tobias.gierke@code-sourcery.de
      */
     private static final class MacroDefinition 
@@ -100,6 +123,9 @@ public class PreprocessingLexer implements Lexer
         public final List<Token> parameterNames;
         public final List<Token> tokens;
 
+        // index of the parameter each body token refers to or -1 if the token is no parameter reference
+        private final int[] parameterSlots;
+
         public MacroDefinition(List<Token> parameterNames,List<Token> tokens) 
         {
             final Set<String> names = new HashSet<>();
@@ -112,6 +138,12 @@ public class PreprocessingLexer implements Lexer
             }
             this.parameterNames = parameterNames;
             this.tokens = tokens;
+            this.parameterSlots = new int[ tokens.size() ];
+            for ( int i = 0 , len = tokens.size() ; i < len ; i++ ) 
+            {
+                final Token bodyToken = tokens.get(i);
+                parameterSlots[i] = names.contains( bodyToken.value ) && bodyToken.isValidIdentifier() ? getIndexForParameterName( bodyToken.value ) : -1;
+            }
         }
 
         public int parameterCount() {
@@ -131,6 +163,38 @@ public class PreprocessingLexer implements Lexer
             }
             return -1;
         }
+
+        /**
+         * Instantiates the macro body with the given arguments.
+         *
+         * @param arguments macro arguments, one list of tokens per parameter
+         * @param offset offset of the first token, following tokens get consecutive offsets 
+         * @return
+         */
+        public List<Token> instantiate(List<List<Token>> arguments,int offset) 
+        {
+            final List<Token> result = new ArrayList<>( tokens.size() );
+            for ( int i = 0 , len = tokens.size() ; i < len ; i++ ) 
+            {
+                final int slot = parameterSlots[i];
+                if ( slot == -1 ) 
+                {
+                    final Token expr = tokens.get(i).copyWithOffset( offset );
+                    offset += expr.value.length();
+                    result.add( expr );
+                } 
+                else 
+                {
+                    for ( Token arg : arguments.get( slot ) ) 
+                    {
+                        final Token expr = arg.copyWithOffset( offset );
+                        offset += expr.value.length();
+                        result.add( expr );
+                    }
+                }
+            }
+            return result;
+        }
         
         @Override
         public String toString() { // use for debugging only !
@@ -155,6 +219,15 @@ public class PreprocessingLexer implements Lexer
         Validate.notNull(delegate, "delegate must not be NULL");
         Validate.notNull(context, "context must not be NULL");
         this.compilationContext = context;
+        this.metrics = context.getMetricsCollector();
+        final CompilationUnit root = context.currentCompilationUnit();
+        if ( root != null && context.getResourceFactory() != null ) 
+        {
+            this.includePrefetcher = new IncludePrefetcher( context.getResourceFactory() , ForkJoinPool.commonPool() );
+            this.includePrefetcher.start( root.getResource() );
+        } else {
+            this.includePrefetcher = null;
+        }
         pushLexer( delegate );
     }	
 
@@ -163,6 +236,8 @@ public class PreprocessingLexer implements Lexer
         l.setIgnoreWhitespace( false );		
         lexerStack.push(l);
         currentLexer = l;
+        final CompilationUnit unit = compilationContext.currentCompilationUnit();
+        metrics.unitStarted( unit == null ? "<unknown>" : unit.getResource().toString() );
     }
 
     private Lexer popLexer() 
@@ -171,6 +246,7 @@ public class PreprocessingLexer implements Lexer
         result.setIgnoreWhitespace( true );
         currentLexer = lexerStack.isEmpty() ? null : lexerStack.peek();
         compilationContext.popCompilationUnit();  
+        metrics.unitFinished();
         return result;
     }
 
@@ -188,6 +264,7 @@ public class PreprocessingLexer implements Lexer
 
     private Token consume() 
     {
+        metrics.tokenRead();
         return adjustOffset( lexer().next() );
     }
     
@@ -398,8 +475,8 @@ public class PreprocessingLexer implements Lexer
                     boolean success = false;
                     try 
                     {
-                        final Lexer delegate = new LexerImpl( new Scanner( res ) );
-                        pushLexer( delegate );
+                        final Lexer prefetched = includePrefetcher == null ? null : includePrefetcher.createLexer( res );
+                        pushLexer( prefetched != null ? prefetched : new LexerImpl( new Scanner( compilationContext.getResourceFactory().getContent( res ) ) ) );
                         success = true;
                     }
                     finally 
@@ -423,9 +500,9 @@ public class PreprocessingLexer implements Lexer
                     expandTokens();
                     skipWhitespace();	
 
-                    final List<Token> msg = new ArrayList<>();
-                    processTokensUntilEndOfLine(msg::add);
-                    expand( msg , new HashSet<>() );
+                    final List<Token> unexpanded = new ArrayList<>();
+                    processTokensUntilEndOfLine(unexpanded::add);
+                    final List<Token> msg = expand( unexpanded );
                     final StringBuilder buffer = new StringBuilder();
                     msg.stream().map( t -> t.value ).forEach( buffer::append );
                     final Severity severity;
@@ -599,6 +676,7 @@ public class PreprocessingLexer implements Lexer
                     symbol.setValue( new MacroDefinition( argumentNames , macroBody ) );
                     symbol.setTextRegion( macroName.region() );
                     symbols().defineSymbol( symbol , compilationContext.currentSegment() );
+                    discardMacroCaches();
                 }
                 skipToNextLine();
                 continue;
@@ -631,149 +709,298 @@ public class PreprocessingLexer implements Lexer
 
     private void expandTokens() 
     {
-        expand( unexpandedTokens, new HashSet<>() );
-        tokens.addAll( unexpandedTokens );
+        tokens.addAll( expand( unexpandedTokens ) );
         unexpandedTokens.clear();
     }
 
-    private void expand(List<Token> tokens,Set<String> alreadyExpandedMacros) 
+    /**
+     * Macro-expands a list of tokens.
+     *  
+     * @param input
+     * @return expanded tokens, the input list itself if no macros got expanded
+     */
+    private List<Token> expand(List<Token> input) 
     {
-        if ( compilationContext.currentCompilationUnit() == null ) {
-            return;
+        if ( compilationContext.currentCompilationUnit() == null || input.isEmpty() ) {
+            return input;
+        }
+        final List<Token> output = new ArrayList<>( input.size() );
+        if ( ! new MacroExpander( input , null , false ).expand( output ) ) {
+            return input;
+        }
+        expansionOffset += length( output ) - length( input );
+        return output;
+    }
+
+    private static int length(List<Token> tokens) 
+    {
+        int result = 0;
+        for ( int i = 0 , len = tokens.size() ; i < len ; i++ ) {
+            result += tokens.get(i).value.length();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the macro a token refers to.
+     * 
+     * @param token
+     * @return macro symbol or <code>null</code> if the token does not refer to a macro
+     */
+    private Symbol getMacro(Token token) 
+    {
+        if ( token.type != TokenType.TEXT ) {
+            return null;
+        }
+        final SymbolTable table = symbols();
+        if ( table != cachedSymbolTable ) 
+        {
+            discardMacroCaches();
+            cachedSymbolTable = table;
+        }
+        Symbol result = macroLookupCache.get( token.value );
+        if ( result == null && ! macroLookupCache.containsKey( token.value ) ) 
+        {
+            if ( token.isValidIdentifier() ) 
+            {
+                final Optional<Symbol> optSymbol = table.maybeGet( new Identifier( token.value ) );
+                if ( optSymbol.isPresent() && optSymbol.get().hasType( Type.PREPROCESSOR_MACRO ) && optSymbol.get().getValue() instanceof MacroDefinition ) {
+                    result = optSymbol.get();
+                }
+            }
+            macroLookupCache.put( token.value , result );
+        }
+        return result;
+    }
+
+    private void discardMacroCaches() 
+    {
+        macroLookupCache.clear();
+        expansionCache.clear();
+        uncacheableMacros.clear();
+    }
+
+    /**
+     * Thrown by an isolated {@link MacroExpander} when a macro invocation needs
+     * tokens beyond the end of its input.
+     */
+    private static final class NeedsMoreInputException extends RuntimeException 
+    {
+        public NeedsMoreInputException() {
+            super(null,null,false,false);
+        }
+    }
+
+    /**
+     * Holds tokens that still need to be scanned for macro invocations.
+     * 
+     * @author tobias.gierke@code-sourcery.de
+     */
+    private static final class Frame 
+    {
+        public final List<Token> tokens;
+        // name of the macro this frame holds the expansion of, NULL for the input
+        public final String macroName;
+        public int ptr;
+
+        public Frame(List<Token> tokens, String macroName)
+        {
+            this.tokens = tokens;
+            this.macroName = macroName;
+        }
+    }
+
+    /**
+     * Expands macros in a single pass over the input.
+     * 
+     * <p>Expanding a macro pushes the instantiated macro body on a stack of frames, which is then 
+     * re-scanned together with any tokens following the invocation. A macro is not expanded 
+     * again while tokens from its own expansion are being scanned, preventing infinite recursion.</p>
+     * 
+     * <p>Fully expanded bodies of parameterless macros invoked from the input are cached
+     * until the next macro gets defined.</p> 
+     * 
+     * @author tobias.gierke@code-sourcery.de
+     */
+    private final class MacroExpander 
+    {
+        private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+        private final Set<String> hidden = new HashSet<>();
+        private final boolean isolated;
+        private Token lastToken;
+
+        /**
+         * 
+         * @param input
+         * @param macroName name of the macro <code>input</code> is the expansion of, <code>null</code> if none
+         * @param isolated whether to fail with a {@link NeedsMoreInputException} when a macro invocation 
+         * is not fully contained in the input
+         */
+        public MacroExpander(List<Token> input,String macroName,boolean isolated) 
+        {
+            this.isolated = isolated;
+            push( input , macroName );
+        }
+
+        private void push(List<Token> tokens,String macroName) 
+        {
+            frames.push( new Frame( tokens , macroName ) );
+            if ( macroName != null ) {
+                hidden.add( macroName );
+            }
+        }
+
+        private Token next() 
+        {
+            while ( ! frames.isEmpty() ) 
+            {
+                final Frame frame = frames.peek();
+                if ( frame.ptr < frame.tokens.size() ) {
+                    lastToken = frame.tokens.get( frame.ptr++ );
+                    return lastToken;
+                }
+                frames.pop();
+                if ( frame.macroName != null ) {
+                    hidden.remove( frame.macroName );
+                }
+            }
+            return null;
         }
-        final Set<String> expanded = new HashSet<>();
-        boolean anyIdentifiersExpanded = false;
 
-        int totalOffset = 0;
-        for (int tokenIdx = 0 ; tokenIdx < tokens.size() ; tokenIdx++) 
+        private Token outOfInput() 
         {
-            final Token macroName = tokens.get(tokenIdx);
-            if ( macroName.isValidIdentifier() ) // check whether the identifier refers to a macro definition
+            if ( isolated ) {
+                throw new NeedsMoreInputException();
+            }
+            return null;
+        }
+
+        /**
+         * 
+         * @param output
+         * @return <code>true</code> if any macros got expanded
+         */
+        public boolean expand(List<Token> output) 
+        {
+            boolean anyIdentifiersExpanded = false;
+            Token macroName;
+            while ( ( macroName = next() ) != null ) 
             {
-                final Optional<Symbol> optSymbol = symbols().maybeGet( new Identifier( macroName.value ) );
-                if ( ! optSymbol.isPresent() || alreadyExpandedMacros.contains( macroName.value ) || ! optSymbol.get().hasType( Type.PREPROCESSOR_MACRO ) ) // prevent infinite expansion
+                final Symbol symbol = getMacro( macroName );
+                if ( symbol == null || hidden.contains( macroName.value ) ) 
                 {
+                    output.add( macroName );
                     continue;
                 }
-                
-                expanded.add( macroName.value );
                 anyIdentifiersExpanded = true;
-
-                final Symbol symbol = optSymbol.get();
                 symbol.markAsReferenced();
-                final MacroDefinition macroDef = (MacroDefinition) symbol.getValue();		
+                final MacroDefinition macroDef = (MacroDefinition) symbol.getValue();
 
-                // check whether first non-whitespace token is opening parenthesis (=start of argument list) 
-                boolean hasParameters=false;
-                int openingParensIdx = tokenIdx+1;
-                if ( macroDef.takesParameters() ) 
+                final List<List<Token>> macroParameters = macroDef.takesParameters() ? parseArguments( macroName ) : Collections.emptyList();
+                if( macroParameters.size() != macroDef.parameterCount() ) 
                 {
-                    for ( final int len = tokens.size() ; openingParensIdx < len ; openingParensIdx++) 
-                    {
-                        if ( tokens.get(openingParensIdx).isNoWhitespace() ) {
-                            hasParameters = tokens.get(openingParensIdx).is( TokenType.PARENS_OPEN );
-                            break;
-                        }
-                    }
+                    throw new ParseException("Expected "+macroDef.parameterCount()+" macro arguments but got "+macroParameters.size(),macroName);
                 }
 
-                // parse argument list (if any)
-                final List<List<Token>> macroParameters;
-                int lastArgIdx = hasParameters ? openingParensIdx+1 : tokenIdx;
-                if ( hasParameters ) 
+                if ( ! macroDef.takesParameters() && hidden.isEmpty() && ! isolated ) 
                 {
-                    macroParameters = new ArrayList<>();
-                    List<Token> currentArg = new ArrayList<>();
-                    boolean commaExpected = false;
-                    for ( final int len = tokens.size() ; lastArgIdx < len ; lastArgIdx++ ) 
+                    final List<Token> cached = getCachedExpansion( macroName.value , macroDef );
+                    if ( cached != null ) 
                     {
-                        final Token arg = tokens.get(lastArgIdx);
-                        if ( arg.isWhitespace() ) {
-                            continue;
-                        }
-                        if ( arg.is( TokenType.PARENS_CLOSE ) ) {
-                            break;
-                        }
-                        if ( arg.is( TokenType.COMMA ) ) 
+                        for ( int i = 0 , len = cached.size() ; i < len ; i++ ) 
                         {
-                            if ( ! commaExpected ) {
-                                throw new ParseException("Stray comma" , arg );
-                            }
-                            macroParameters.add( currentArg );
-                            currentArg = new ArrayList<>();
-                            commaExpected = false;
-                            continue;
+                            final Token tok = cached.get(i);
+                            output.add( tok.copyWithOffset( macroName.offset + tok.offset ) );
                         }
-                        currentArg.add( arg );
-                        commaExpected = true;
-                    }
-
-                    if ( ! currentArg.isEmpty() ) {
-                        macroParameters.add( currentArg );
-                    }
-                    if ( lastArgIdx >= tokens.size() || tokens.get(lastArgIdx).isNot( TokenType.PARENS_CLOSE ) ) 
-                    {
-                        throw new ParseException("Unterminated macro argument list", tokens.get(lastArgIdx-1) );
+                        continue;
                     }
-                } else {
-                    macroParameters = Collections.emptyList();
                 }
+                push( macroDef.instantiate( macroParameters , macroName.offset ) , macroName.value );
+            }
+            return anyIdentifiersExpanded;
+        }
 
-                if( macroParameters.size() != macroDef.parameterCount() ) 
-                {
-                    throw new ParseException("Expected "+macroDef.parameterCount()+" macro arguments but got "+macroParameters.size(),macroName);
-                }				
+        private List<List<Token>> parseArguments(Token macroName) 
+        {
+            // check whether first non-whitespace token is opening parenthesis (=start of argument list)
+            Token tok;
+            do {
+                tok = next();
+            } while ( tok != null && tok.isWhitespace() );
 
-                final List<Token> macroBody = macroDef.tokens;
+            if ( tok == null ) 
+            {
+                outOfInput();
+                return Collections.emptyList();
+            }
+            if ( tok.isNot( TokenType.PARENS_OPEN ) ) {
+                return Collections.emptyList();
+            }
 
-                final int expandedLength;
-                int replacedTokensLen = 0;
-                if ( macroBody.isEmpty() ) // expand #define IDENTIFIER
+            final List<List<Token>> macroParameters = new ArrayList<>();
+            List<Token> currentArg = new ArrayList<>();
+            boolean commaExpected = false;
+            while ( true ) 
+            {
+                final Token previous = lastToken;
+                final Token arg = next();
+                if ( arg == null ) 
                 {
-                    expandedLength= 1; // just replace the identifier with '1'
-                    replacedTokensLen = macroName.value.length();
-                    tokens.set( tokenIdx , new Token( TokenType.DIGITS , "1" , macroName.offset , macroName.line , macroName.column ) );
-                } 
-                else 
+                    outOfInput();
+                    throw new ParseException("Unterminated macro argument list", previous );
+                }
+                if ( arg.isWhitespace() ) {
+                    continue;
+                }
+                if ( arg.is( TokenType.PARENS_CLOSE ) ) {
+                    break;
+                }
+                if ( arg.is( TokenType.COMMA ) ) 
                 {
-                    // expand #define IDENTIFIER(a,b,...) EXPRESSION
-                    for ( int count = lastArgIdx ; count >= tokenIdx ; count-- ) {
-                        replacedTokensLen += tokens.remove( tokenIdx ).value.length();
+                    if ( ! commaExpected ) {
+                        throw new ParseException("Stray comma" , arg );
                     }
-                    int offset = macroName.offset;
-                    int ptr = tokenIdx;
-                    for ( int j = 0 ; j < macroBody.size() ; j++ ) 
-                    {
-                        final Token bodyToken = macroBody.get(j );
-                        // check whether a token from the macro body needs to replaced with a parameter from the invocation
-                        final int paramIdx = bodyToken.isValidIdentifier() ? macroDef.getIndexForParameterName( bodyToken.value ) : -1;
-                        final List<Token> paramValues = paramIdx == -1 ? Collections.singletonList( bodyToken ) : macroParameters.get(paramIdx );
-                        for (int i = paramValues.size()-1 ; i >= 0 ; i--) { // iterate in reverse order , tokens.add(ptr,expr) will reverse the order again
-                            Token paramValue = paramValues.get(i);
-                            final Token expr = paramValue.copyWithOffset( offset );
-                            offset += expr.value.length();
-                            tokens.add( ptr , expr );
-                            ptr += 1;
-                        }
-                        tokenIdx += paramValues.size();
-                    }
-                    expandedLength = offset-macroName.offset;
-                }
-                // calculate delta between size of expanded identifier and expansion
-                final int delta = expandedLength - replacedTokensLen;
-                // adjust any tokens remaining in our queue
-                for (int j = tokenIdx ; j < tokens.size() ; j++ ) {
-                    // tokens.get(j).offset += delta;
+                    macroParameters.add( currentArg );
+                    currentArg = new ArrayList<>();
+                    commaExpected = false;
+                    continue;
                 }
-                totalOffset += delta;
+                currentArg.add( arg );
+                commaExpected = true;
+            }
+            if ( ! currentArg.isEmpty() ) {
+                macroParameters.add( currentArg );
             }
+            return macroParameters;
         }
-        expansionOffset += totalOffset;
-        alreadyExpandedMacros.addAll( expanded );
-        if ( anyIdentifiersExpanded ) // recursively try to expand more
+    }
+
+    /**
+     * Returns the fully expanded body of a parameterless macro.
+     * 
+     * @param macroName
+     * @param macroDef
+     * @return expanded tokens with offsets relative to the start of the invocation or <code>null</code> 
+     * if the expansion depends on tokens following the invocation 
+     */
+    private List<Token> getCachedExpansion(String macroName,MacroDefinition macroDef) 
+    {
+        List<Token> result = expansionCache.get( macroName );
+        if ( result == null && ! uncacheableMacros.contains( macroName ) ) 
         {
-            expand( tokens , alreadyExpandedMacros );
+            final List<Token> expanded = new ArrayList<>();
+            try 
+            {
+                new MacroExpander( macroDef.instantiate( Collections.emptyList() , 0 ) , macroName , true ).expand( expanded );
+                result = expanded;
+                expansionCache.put( macroName , result );
+            } 
+            catch(NeedsMoreInputException e) 
+            {
+                uncacheableMacros.add( macroName );
+            }
         }
+        return result;
     }
 
     private void processTokensUntilEndOfLine(Consumer<Token> consumer) 
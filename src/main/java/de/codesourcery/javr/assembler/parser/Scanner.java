@@ -23,6 +23,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * Reads single characters from a {@link Resource}.
@@ -42,6 +45,10 @@ import java.io.Reader;
  * track of the region inside the buffer that may be jumped around in using
  * {@link #setOffset(int)} with no special support required by the <code>InputStream</code>
  * this scanner operates on.</p>
+ * 
+ * <p>Unless a buffer size is given, the whole resource is read and decoded 
+ * upfront instead. The ring buffer then holds the complete input, so
+ * {@link #setOffset(int)} may jump to any offset.</p>
  *
  * <p>
  * <b>IMPORTANT: By default this scanner will skip over carriage return characters (see {@link #isSkipCarriageReturn()}}.</b>
@@ -97,18 +104,29 @@ public class Scanner
     private int offset;
     
     /**
-     * Creates a scanner with a default buffer size of 1024 characters
-     * and a backtracking window of 512 bytes.
+     * Creates a scanner that reads and decodes the whole resource at once.
      * 
-     * Given that more than 1024 bytes have been consumed from this scanner,
-     * it's always valid to backtrack at most <code>bufferSize+512</code> bytes from the largest 
-     * valid read offset in the buffer (or less if one already moved the read pointer to an earlier offset).
+     * Backtracking to any offset is possible.
      * 
      * @param res
      */
     public Scanner(Resource res) 
     {
-        this(res,1024);
+        Validate.notNull(res, "res must not be NULL");
+        final byte[] data;
+        try ( InputStream in = res.createInputStream() ) {
+            data = in.readAllBytes();
+        } catch(IOException e) {
+            throw new ParseException("Failed to read input stream",0,e);
+        }
+        final char[] chars = decode( data , Charset.forName( res.getEncoding() ) , skipCarriageReturn );
+        this.input = null;
+        this.eofReached = true;
+        this.buffer = chars.length > 0 ? chars : new char[1];
+        this.bufferSize = buffer.length;
+        this.fetchSize = 0;
+        this.bytesAvailable = chars.length;
+        this.maxOffset = chars.length;
     }
     
     /**
@@ -139,6 +157,55 @@ public class Scanner
         }
     }
     
+    private static boolean isAsciiCompatible(Charset charset) {
+        return charset.equals( StandardCharsets.UTF_8 ) || charset.equals( StandardCharsets.US_ASCII ) || charset.equals( StandardCharsets.ISO_8859_1 );
+    }
+
+    /**
+     * Decodes characters in one pass, taking a fast path when the input
+     * is plain ASCII.
+     * 
+     * @param data
+     * @param charset
+     * @param skipCarriageReturn
+     * @return
+     */
+    static char[] decode(byte[] data,Charset charset,boolean skipCarriageReturn) 
+    {
+        if ( isAsciiCompatible( charset ) ) 
+        {
+            final char[] result = new char[ data.length ];
+            int len = 0;
+            for ( int i = 0 ; i < data.length ; i++ ) 
+            {
+                final byte b = data[i];
+                if ( b < 0 ) { // non-ASCII character
+                    return removeCarriageReturns( new String( data , charset ).toCharArray() , skipCarriageReturn );
+                }
+                if ( b != '\r' || ! skipCarriageReturn ) {
+                    result[len++] = (char) b;
+                }
+            }
+            return len == result.length ? result : Arrays.copyOf( result , len );
+        }
+        return removeCarriageReturns( new String( data , charset ).toCharArray() , skipCarriageReturn );
+    }
+
+    private static char[] removeCarriageReturns(char[] data,boolean skipCarriageReturn) 
+    {
+        if ( ! skipCarriageReturn ) {
+            return data;
+        }
+        int len = 0;
+        for ( int i = 0 ; i < data.length ; i++ ) 
+        {
+            if ( data[i] != '\r' ) {
+                data[len++] = data[i];
+            }
+        }
+        return len == data.length ? data : Arrays.copyOf( data , len );
+    }
+
     private void fillBuffer() 
     {
         if ( eofReached ) 
@@ -317,7 +384,9 @@ public class Scanner
         }
         final char result = buffer[readPtr];
         offset++;
-        readPtr = ( readPtr +1 ) % bufferSize;
+        if ( ++readPtr == bufferSize ) {
+            readPtr = 0;
+        }
         bytesAvailable--;
         return result;
     }
@@ -361,22 +430,7 @@ public class Scanner
             throw new IllegalStateException("Cannot go to offset "+offset+", buffer contents either lost or not available yet");
         }        
         final int delta = offset - this.offset;
-        int newPtr = readPtr;
-        for ( int toSkip = Math.abs( delta ); toSkip > 0 ; toSkip-- ) 
-        {
-            if ( delta < 0 )
-            {
-                newPtr--;
-                if ( newPtr < 0 ) {
-                    newPtr += bufferSize;
-                }
-            } 
-            else 
-            {
-                newPtr = (newPtr+1) % bufferSize;
-            }
-        }
-        readPtr = newPtr;
+        readPtr = Math.floorMod( readPtr + delta , bufferSize );
         bytesAvailable -= delta;
         this.offset=offset;
     }
@@ -386,6 +440,14 @@ public class Scanner
         return skipCarriageReturn;
     }
 
+    /**
+     * Sets whether to skip carriage returns.
+     * 
+     * <p>Only affects data that has not been read from the resource yet,
+     * so has no effect on scanners that read the whole resource upfront.</p>
+     * 
+     * @param skipCarriageReturn
+     */
     public void setSkipCarriageReturn(boolean skipCarriageReturn)
     {
         this.skipCarriageReturn = skipCarriageReturn;
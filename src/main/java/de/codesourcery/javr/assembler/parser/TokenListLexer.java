@@ -0,0 +1,122 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.parser;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Lexer that returns tokens from a list that was produced up-front by another lexer.
+ *
+ * <p>The token list needs to contain all tokens including whitespace (as returned by a lexer with
+ * {@link #setIgnoreWhitespace(boolean) ignoreWhitespace} set to <code>false</code>) and must end with an 
+ * EOF token. Tokens are returned exactly like the original lexer would have returned them with whitespace
+ * enabled, note that {@link LexerImpl} reports different token columns when it skips whitespace itself.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class TokenListLexer implements Lexer 
+{
+    private final List<Token> tokens;
+    private final Token eof;
+    private final Deque<Token> pushedBack = new ArrayDeque<>();
+
+    private int index;
+    private boolean ignoreWhitespace = true;
+
+    public TokenListLexer(List<Token> tokens) 
+    {
+        Validate.notNull(tokens, "tokens must not be NULL");
+        if ( tokens.isEmpty() || ! tokens.get( tokens.size()-1 ).isEOF() ) {
+            throw new IllegalArgumentException("Token list needs to end with an EOF token");
+        }
+        this.tokens = tokens;
+        this.eof = tokens.get( tokens.size()-1 );
+    }
+
+    private void skipWhitespace() 
+    {
+        if ( ignoreWhitespace ) 
+        {
+            while ( tokens.get( index ).isWhitespace() ) {
+                index++;
+            }
+        }
+    }
+
+    @Override
+    public boolean eof() {
+        return peek().isEOF();
+    }
+
+    @Override
+    public Token next() 
+    {
+        if ( ! pushedBack.isEmpty() ) {
+            return pushedBack.pop();
+        }
+        skipWhitespace();
+        final Token result = tokens.get( index );
+        if ( result != eof ) {
+            index++;
+        }
+        return result;
+    }
+
+    @Override
+    public Token peek() 
+    {
+        if ( ! pushedBack.isEmpty() ) {
+            return pushedBack.peek();
+        }
+        skipWhitespace();
+        return tokens.get( index );
+    }
+
+    @Override
+    public boolean peek(TokenType t) {
+        return peek().is( t );
+    }
+
+    @Override
+    public void setIgnoreWhitespace(boolean ignoreWhitespace) 
+    {
+        if ( ignoreWhitespace ) {
+            pushedBack.removeIf( Token::isWhitespace );
+        }
+        this.ignoreWhitespace = ignoreWhitespace;
+    }
+
+    @Override
+    public boolean isIgnoreWhitespace() {
+        return ignoreWhitespace;
+    }
+
+    @Override
+    public void pushBack(Token tok) 
+    {
+        Validate.notNull(tok, "token must not be NULL");
+        pushedBack.push( tok );
+    }
+
+    @Override
+    public String toString() {
+        return peek().toString();
+    }
+}
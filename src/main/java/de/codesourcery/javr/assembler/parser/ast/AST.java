@@ -15,11 +15,14 @@
  */
 package de.codesourcery.javr.assembler.parser.ast;
 
+import java.util.List;
+
 import org.apache.commons.lang3.Validate;
 import org.apache.log4j.Logger;
 
 import de.codesourcery.javr.assembler.CompilationUnit;
 import de.codesourcery.javr.assembler.ICompilationContext;
+import de.codesourcery.javr.assembler.parser.TextRegion;
 
 public class AST extends AbstractASTNode implements Resolvable
 {
@@ -28,6 +31,9 @@ public class AST extends AbstractASTNode implements Resolvable
     
     private CompilationUnit compilationUnit;
     
+    // lazily built index for offset-based lookups, discarded when the AST changes
+    private ASTIndex index;
+    
     @Override
     protected AST createCopy() {
         return new AST();
@@ -44,6 +50,41 @@ public class AST extends AbstractASTNode implements Resolvable
     	return compilationUnit;
     }
 
+    @Override
+    protected void subtreeChanged() 
+    {
+        index = null;
+        super.subtreeChanged();
+    }
+    
+    private ASTIndex getIndex() 
+    {
+        ASTIndex result = index;
+        if ( result == null ) {
+            result = index = new ASTIndex( this );
+        }
+        return result;
+    }
+    
+    @Override
+    public ASTNode getNodeAtOffset(int offset) 
+    {
+        return getIndex().getNodeAtOffset( offset );
+    }
+    
+    /**
+     * Returns all nodes whose text region intersects a given region.
+     * 
+     * A region of length zero is treated like a region of length one.
+     * 
+     * @param region
+     * @return nodes in depth-first pre-order
+     */
+    public List<ASTNode> getNodesIntersecting(TextRegion region) 
+    {
+        return getIndex().getNodesIntersecting( region );
+    }
+    
 	@Override
 	public boolean resolve(ICompilationContext context) 
 	{
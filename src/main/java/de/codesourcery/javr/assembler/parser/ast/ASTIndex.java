@@ -0,0 +1,195 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.parser.ast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.Validate;
+
+import de.codesourcery.javr.assembler.parser.TextRegion;
+
+/**
+ * Index over the direct children of a node, sorted by the start offsets of
+ * their merged text regions.
+ * 
+ * Finding the children that cover a given offset is a binary search instead
+ * of a linear scan. Children may have overlapping text regions (statements 
+ * from different #include'd files share the same offset space), so in addition to the
+ * start offsets the index keeps the max. end offset of all children sorted 
+ * before a given position. This bounds how far the search needs to go back.
+ * 
+ * Instances are immutable snapshots and need to be rebuilt whenever the
+ * indexed node or any of its descendants change.
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+final class ASTIndex 
+{
+    private static final int[] EMPTY = new int[0];
+
+    private final ASTNode node;
+    
+    // child indices, sorted ascending by the start offset of the child's merged text region
+    private final int[] childIndices;
+    // start offsets, parallel to childIndices
+    private final int[] starts;
+    // end offsets, parallel to childIndices
+    private final int[] ends;
+    // maxEnds[i] = max( ends[0...i] )
+    private final int[] maxEnds;
+    
+    public ASTIndex(ASTNode node) 
+    {
+        Validate.notNull(node, "node must not be NULL");
+        this.node = node;
+        
+        final List<ASTNode> children = node.children();
+        final List<Integer> withRegion = new ArrayList<>( children.size() );
+        final int[] allStarts = new int[ children.size() ];
+        final int[] allEnds = new int[ children.size() ];
+        for ( int i = 0 , len = children.size() ; i < len ; i++ ) 
+        {
+            final TextRegion region = children.get(i).getMergedTextRegion();
+            if ( region != null ) 
+            {
+                allStarts[i] = region.start();
+                allEnds[i] = region.end();
+                withRegion.add( i );
+            }
+        }
+        // stable sort, children with equal start offsets keep their relative order
+        withRegion.sort( (a,b) -> Integer.compare( allStarts[a] , allStarts[b] ) );
+        
+        final int count = withRegion.size();
+        childIndices = count == 0 ? EMPTY : new int[ count ];
+        starts = count == 0 ? EMPTY : new int[ count ];
+        ends = count == 0 ? EMPTY : new int[ count ];
+        maxEnds = count == 0 ? EMPTY : new int[ count ];
+        int maxEnd = Integer.MIN_VALUE;
+        for ( int i = 0 ; i < count ; i++ ) 
+        {
+            final int childIdx = withRegion.get(i);
+            childIndices[i] = childIdx;
+            starts[i] = allStarts[ childIdx ];
+            ends[i] = allEnds[ childIdx ];
+            maxEnd = Math.max( maxEnd , ends[i] );
+            maxEnds[i] = maxEnd;
+        }
+    }
+    
+    /**
+     * Returns the indices of all children whose merged text region intersects
+     * the interval <code>[start,end)</code>, in ascending order.
+     * 
+     * @param start
+     * @param end
+     * @return
+     */
+    private int[] findChildren(int start,int end) 
+    {
+        // last position with starts[pos] < end
+        int low = 0;
+        int high = starts.length - 1;
+        while ( low <= high ) 
+        {
+            final int mid = (low + high) >>> 1;
+            if ( starts[mid] < end ) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int[] result = EMPTY;
+        int count = 0;
+        for ( int pos = high ; pos >= 0 && maxEnds[pos] > start ; pos-- ) 
+        {
+            if ( ends[pos] > start ) 
+            {
+                if ( count == result.length ) {
+                    result = Arrays.copyOf( result , Math.max( 4 , count * 2 ) );
+                }
+                result[count++] = childIndices[pos];
+            }
+        }
+        result = Arrays.copyOf( result , count );
+        Arrays.sort( result );
+        return result;
+    }
+    
+    /**
+     * Returns the node with the smallest text region that contains a given offset.
+     * 
+     * @param offset
+     * @return
+     * @see ASTNode#getNodeAtOffset(int)
+     */
+    public ASTNode getNodeAtOffset(int offset) 
+    {
+        for ( int childIdx : findChildren( offset , offset + 1 ) ) 
+        {
+            final ASTNode result = node.child( childIdx ).getNodeAtOffset( offset );
+            if ( result != null ) {
+                return result;
+            }
+        }
+        final TextRegion region = node.getTextRegion();
+        if ( region != null && region.contains( offset ) ) {
+            return node;
+        }
+        return null;
+    }
+    
+    /**
+     * Returns all nodes below the indexed node whose text regions intersect a given region.
+     * 
+     * @param region
+     * @return nodes in depth-first pre-order
+     */
+    public List<ASTNode> getNodesIntersecting(TextRegion region) 
+    {
+        Validate.notNull(region, "region must not be NULL");
+        final int start = region.start();
+        final int end = Math.max( region.end() , start + 1 );
+        
+        final int[] children = findChildren( start , end );
+        if ( children.length == 0 ) {
+            return Collections.emptyList();
+        }
+        final List<ASTNode> result = new ArrayList<>();
+        for ( int childIdx : children ) {
+            collectIntersecting( node.child( childIdx ) , start , end , result );
+        }
+        return result;
+    }
+    
+    private static void collectIntersecting(ASTNode current,int start,int end,List<ASTNode> result) 
+    {
+        final TextRegion merged = current.getMergedTextRegion();
+        if ( merged == null || merged.start() >= end || merged.end() <= start ) {
+            return;
+        }
+        final TextRegion region = current.getTextRegion();
+        if ( region != null && region.start() < end && region.end() > start ) {
+            result.add( current );
+        }
+        for ( int i = 0 , len = current.childCount() ; i < len ; i++ ) {
+            collectIntersecting( current.child( i ) , start , end , result );
+        }
+    }
+}
@@ -72,9 +72,12 @@ public abstract class AbstractASTNode implements ASTNode
         }
         final boolean regionChanged = ! Objects.equals( this.mergedRegion , region );
         mergedRegion = region;
-        if ( regionChanged && hasParent() ) 
+        if ( regionChanged ) 
         {
-            parent.recalculateMergedRegion();
+            if ( hasParent() ) {
+                parent.recalculateMergedRegion();
+            }
+            subtreeChanged();
         }
         return mergedRegion;
     }
@@ -90,7 +93,7 @@ public abstract class AbstractASTNode implements ASTNode
     }
     
     @Override
-    public final ASTNode getNodeAtOffset(int offset) 
+    public ASTNode getNodeAtOffset(int offset) 
     {
         final TextRegion m = getMergedTextRegion();
         if ( m == null || ! m.contains( offset ) )
@@ -150,6 +153,7 @@ public abstract class AbstractASTNode implements ASTNode
         newNode.setParent( this );
         child.setParent( null );
         recalculateMergedRegion();
+        subtreeChanged();
     }
     
     @Override
@@ -437,6 +441,20 @@ public abstract class AbstractASTNode implements ASTNode
         this.children.add( index , child );
         child.setParent( this );
         childAdded( child );
+        subtreeChanged();
+    }
+    
+    /**
+     * Invoked whenever children of this node or any of its descendants got added/replaced
+     * or a text region changed.
+     * 
+     * The default implementation notifies the parent node.
+     */
+    protected void subtreeChanged() 
+    {
+        if ( parent instanceof AbstractASTNode ) {
+            ((AbstractASTNode) parent).subtreeChanged();
+        }
     }
     
     private void childAdded(ASTNode child) 
@@ -458,6 +476,7 @@ public abstract class AbstractASTNode implements ASTNode
         this.children.add( child );
         child.setParent( this );
         childAdded( child );
+        subtreeChanged();
     }
     
     @Override
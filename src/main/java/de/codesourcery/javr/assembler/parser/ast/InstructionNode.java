@@ -21,6 +21,7 @@ import org.apache.commons.lang3.Validate;
 
 import de.codesourcery.javr.assembler.ICompilationContext;
 import de.codesourcery.javr.assembler.Instruction;
+import de.codesourcery.javr.assembler.arch.AbstractArchitecture.InstructionBinding;
 import de.codesourcery.javr.assembler.parser.TextRegion;
 import de.codesourcery.javr.assembler.symbols.Symbol;
 
@@ -29,6 +30,10 @@ public class InstructionNode extends NodeWithMemoryLocation implements Resolvabl
     public Instruction instruction;
     private int sizeInBytes;
 
+    // cached result of resolving the mnemonic, only valid as long as 'instruction' does not change 
+    private InstructionBinding binding;
+    private Instruction boundInstruction;
+
     public InstructionNode(Instruction insn,TextRegion region) 
     {
         super(region);
@@ -49,6 +54,22 @@ public class InstructionNode extends NodeWithMemoryLocation implements Resolvabl
                 a.getCompilationUnit().hasSameResourceAs( b.getCompilationUnit() );             
     }    
 
+    /**
+     * Returns the cached encoding binding of this instruction.
+     * 
+     * @return binding or <code>null</code> if the instruction has not been bound yet or {@link #instruction} changed since 
+     */
+    public InstructionBinding getBinding() {
+        return boundInstruction == instruction ? binding : null;
+    }
+
+    public void setBinding(InstructionBinding binding) 
+    {
+        Validate.notNull(binding, "binding must not be NULL");
+        this.binding = binding;
+        this.boundInstruction = instruction;
+    }
+
     public ASTNode src() {
         return child(1);
     }
@@ -67,6 +88,15 @@ public class InstructionNode extends NodeWithMemoryLocation implements Resolvabl
         return true;
     }
 
+    /**
+     * Returns whether {@link #resolve(ICompilationContext)} managed to determine this instruction's size.
+     * 
+     * @return
+     */
+    public boolean isSizeResolved() {
+        return sizeInBytes > 0;
+    }
+
     @Override
     public int getSizeInBytes() throws IllegalStateException 
     {
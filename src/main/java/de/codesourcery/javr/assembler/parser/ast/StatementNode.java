@@ -19,10 +19,24 @@ import java.util.ArrayList;
 import java.util.List;
 
 import de.codesourcery.javr.assembler.Address;
+import de.codesourcery.javr.assembler.CompilationUnit;
 import de.codesourcery.javr.assembler.ICompilationContext;
 
 public class StatementNode extends AbstractASTNode implements Resolvable {
 
+    // unit this statement was parsed from, differs from the AST's unit for #include'd statements 
+    private CompilationUnit compilationUnit;
+    
+    public void setCompilationUnit(CompilationUnit compilationUnit) {
+        this.compilationUnit = compilationUnit;
+    }
+    
+    @Override
+    public CompilationUnit getCompilationUnit() 
+    {
+        return compilationUnit != null ? compilationUnit : super.getCompilationUnit();
+    }
+    
     private LabelNode getLabelNode() 
     {
         for ( ASTNode child : children() ) {
@@ -35,7 +49,9 @@ public class StatementNode extends AbstractASTNode implements Resolvable {
     
     @Override
     protected StatementNode createCopy() {
-        return new StatementNode();
+        final StatementNode result = new StatementNode();
+        result.compilationUnit = this.compilationUnit;
+        return result;
     }    
     
     private static boolean continueLabelSearch(StatementNode node) 
@@ -15,6 +15,8 @@
  */
 package de.codesourcery.javr.assembler.phases;
 
+import java.util.Map;
+
 import de.codesourcery.javr.assembler.ICompilationContext;
 import de.codesourcery.javr.assembler.parser.Identifier;
 import de.codesourcery.javr.assembler.parser.Parser.CompilationMessage;
@@ -35,6 +37,23 @@ public class GatherSymbolsPhase extends AbstractPhase
     @Override
     public void run(ICompilationContext context) 
     {
+        // I/O registers of the target part that the source refers to without defining them
+        final Map<String,Integer> ioRegisters = context.getArchitecture().getIORegisterSymbols();
+        if ( ! ioRegisters.isEmpty() ) 
+        {
+            context.globalSymbolTable().visitSymbols( (symbol) -> 
+            {
+                if ( symbol.isUndefined() ) 
+                {
+                    final Integer value = ioRegisters.get( symbol.name().value );
+                    if ( value != null ) {
+                        symbol.setValue( value , Type.EQU );
+                    }
+                }
+                return Boolean.TRUE;
+            });
+        }
+        
         // sanity check that local variable names do not clash with any globals
         context.globalSymbolTable().visitSymbols( (symbol) -> 
         {
@@ -112,12 +112,18 @@ public class GenerateCodePhase extends AbstractPhase
             {            
                 if ( isInResolvePhase ) 
                 {
-                    context.getArchitecture().validate( (InstructionNode) node , context );
-                    final int bytes = context.getArchitecture().getInstructionLengthInBytes( (InstructionNode) node , context , true );
-                    if ( LOG.isDebugEnabled() ) {
-                        LOG.debug("generateCode(): Allocating "+bytes+" at "+context.currentAddress()+" segment for "+node);
+                    // the instruction got sized when it was resolved, operand values are only 
+                    // checked when actually generating code
+                    final InstructionNode insn = (InstructionNode) node;
+                    context.getArchitecture().validateOperandCount( insn , context );
+                    if ( insn.isSizeResolved() ) 
+                    {
+                        final int bytes = insn.getSizeInBytes();
+                        if ( LOG.isDebugEnabled() ) {
+                            LOG.debug("generateCode(): Allocating "+bytes+" at "+context.currentAddress()+" segment for "+node);
+                        }
+                        context.allocateBytes( bytes );
                     }
-                    context.allocateBytes( bytes );
                 }
                 else 
                 {
@@ -21,11 +21,13 @@ import org.apache.commons.lang3.Validate;
 
 import de.codesourcery.javr.assembler.CompilationUnit;
 import de.codesourcery.javr.assembler.ICompilationContext;
+import de.codesourcery.javr.assembler.ResourceFactory;
 import de.codesourcery.javr.assembler.parser.Lexer;
 import de.codesourcery.javr.assembler.parser.LexerImpl;
 import de.codesourcery.javr.assembler.parser.Parser;
 import de.codesourcery.javr.assembler.parser.PreprocessingLexer;
 import de.codesourcery.javr.assembler.parser.Scanner;
+import de.codesourcery.javr.assembler.util.Resource;
 import de.codesourcery.javr.ui.config.IConfig;
 import de.codesourcery.javr.ui.config.IConfigProvider;
 
@@ -64,7 +66,7 @@ public class ParseSourcePhase implements Phase
     public static void parse(ICompilationContext context,CompilationUnit unit,IConfigProvider provider) 
     {
         Validate.notNull(unit, "compilation unit must not be NULL");
-        final Scanner scanner = new Scanner( unit.getResource() );
+        final Scanner scanner = new Scanner( getContent( context , unit ) );
         
         final IConfig config = provider.getConfig();
         final Lexer lexer = new PreprocessingLexer( config.createLexer( scanner ) , context );
@@ -73,9 +75,15 @@ public class ParseSourcePhase implements Phase
         parser.parse( context , unit , lexer ); // assigns AST to unit as well!
     }
     
+    private static Resource getContent(ICompilationContext context,CompilationUnit unit) 
+    {
+        final ResourceFactory factory = context.getResourceFactory();
+        return factory == null ? unit.getResource() : factory.getContent( unit.getResource() );
+    }
+    
     public static void parseWithoutIncludes(ICompilationContext context,CompilationUnit unit,IConfigProvider provider) 
     {
-        final Scanner scanner = new Scanner( unit.getResource() );
+        final Scanner scanner = new Scanner( getContent( context , unit ) );
         
         final IConfig config = provider.getConfig();
         final Lexer lexer = new LexerImpl( scanner );
@@ -15,6 +15,10 @@
  */
 package de.codesourcery.javr.assembler.phases;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import de.codesourcery.javr.assembler.CompilationUnit;
@@ -22,6 +26,7 @@ import de.codesourcery.javr.assembler.parser.Parser;
 import org.apache.log4j.Logger;
 
 import de.codesourcery.javr.assembler.ICompilationContext;
+import de.codesourcery.javr.assembler.Segment;
 import de.codesourcery.javr.assembler.parser.Identifier;
 import de.codesourcery.javr.assembler.parser.ast.AST;
 import de.codesourcery.javr.assembler.parser.ast.ASTNode;
@@ -33,6 +38,7 @@ import de.codesourcery.javr.assembler.parser.ast.IdentifierNode;
 import de.codesourcery.javr.assembler.parser.ast.LabelNode;
 import de.codesourcery.javr.assembler.parser.ast.Resolvable;
 import de.codesourcery.javr.assembler.parser.ast.StatementNode;
+import de.codesourcery.javr.assembler.symbols.CrossReferenceIndex;
 import de.codesourcery.javr.assembler.symbols.Symbol;
 import de.codesourcery.javr.assembler.symbols.Symbol.Type;
 
@@ -43,7 +49,6 @@ import de.codesourcery.javr.assembler.symbols.Symbol.Type;
  */
 public class PrepareGenerateCodePhase extends GenerateCodePhase
 {
-    @SuppressWarnings("unused")
     private static final Logger LOG = Logger.getLogger(PrepareGenerateCodePhase.class);
     
     public PrepareGenerateCodePhase() 
@@ -74,6 +79,8 @@ public class PrepareGenerateCodePhase extends GenerateCodePhase
             };
         };
         
+        // assign addresses in a single sweep, instructions are sized while resolving them
+        final Map<Segment,Integer> segmentEnds = new EnumMap<>( Segment.class );
         for ( ASTNode child : ast.children() ) 
         {
             final StatementNode stmt = (StatementNode) child;
@@ -86,6 +93,10 @@ public class PrepareGenerateCodePhase extends GenerateCodePhase
                 }
             }
             stmt.children().forEach( c -> generateCode( context , c, fakeCtx ) ); 
+            segmentEnds.merge( context.currentSegment() , context.currentAddress().getByteAddress() , Math::max );
+        }
+        if ( LOG.isDebugEnabled() ) {
+            LOG.debug("run(): Segment end addresses of "+context.currentCompilationUnit().getResource()+" : "+segmentEnds);
         }
         
         if ( context.hasReachedMaxErrors() ) {
@@ -194,6 +205,8 @@ public class PrepareGenerateCodePhase extends GenerateCodePhase
         };
         ast.visitBreadthFirst( unresolvedSymbolsVisitor );
 
+        updateCrossReferences( context , ast );
+
         // generate warnings for unused symbols
         final CompilationUnit currentUnit = context.currentCompilationUnit();
         context.globalSymbolTable().visitSymbols( (symbol) ->
@@ -208,4 +221,52 @@ public class PrepareGenerateCodePhase extends GenerateCodePhase
             return true;
         });
     }
-}
\ No newline at end of file
+    
+    /**
+     * Records all identifiers of a compilation unit and the units it includes
+     * that refer to a symbol from the symbol table. 
+     */
+    private static void updateCrossReferences(ICompilationContext context,AST ast) 
+    {
+        final List<CompilationUnit> units = new ArrayList<>();
+        collectUnits( context.currentCompilationUnit() , units );
+        
+        final CrossReferenceIndex.Updater updater = context.getCrossReferenceIndex().update( units );
+        final IASTVisitor visitor = (node,ictx) -> 
+        {
+            if ( node instanceof IdentifierNode && node.getTextRegion() != null )
+            {
+                final CompilationUnit unit = node.getCompilationUnit();
+                final Symbol symbol = resolveSymbol( context , (IdentifierNode) node );
+                if ( symbol != null && units.contains( unit ) ) {
+                    updater.addReference( unit , symbol.name() , node.getTextRegion() );
+                }
+            }
+        };
+        ast.visitBreadthFirst( visitor );
+        updater.commit();
+    }
+    
+    /**
+     * Returns the symbol an identifier refers to.
+     * 
+     * @return symbol or <code>null</code> if the identifier does not refer to a defined symbol (like macro parameters)
+     */
+    private static Symbol resolveSymbol(ICompilationContext context,IdentifierNode node) 
+    {
+        Symbol symbol = node.getSymbol();
+        if ( symbol == null ) {
+            symbol = context.currentSymbolTable().maybeGet( node.name ).orElse( null );
+        }
+        return symbol == null || symbol.hasType( Type.UNDEFINED ) ? null : symbol;
+    }
+    
+    private static void collectUnits(CompilationUnit unit,List<CompilationUnit> result) 
+    {
+        if ( result.stream().noneMatch( u -> u == unit ) ) 
+        {
+            result.add( unit );
+            unit.getDependencies().forEach( dep -> collectUnits( dep , result ) );
+        }
+    }
+}
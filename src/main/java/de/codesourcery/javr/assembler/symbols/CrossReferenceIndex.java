@@ -0,0 +1,344 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.symbols;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+
+import de.codesourcery.javr.assembler.CompilationUnit;
+import de.codesourcery.javr.assembler.parser.Identifier;
+import de.codesourcery.javr.assembler.parser.TextRegion;
+
+/**
+ * Project-wide index of all places where symbols are referenced.
+ *
+ * <p>The index is populated by the compiler while resolving identifiers and gets updated
+ * per compilation unit: Recompiling a unit replaces all references that were
+ * recorded for it before, references from other units are kept.</p>
+ *
+ * <p>Symbol names are interned to integer IDs and the references of each unit are stored as
+ * one primitive <code>int</code> array sorted by symbol ID so that looking up the
+ * usages of a symbol is a binary search per unit.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class CrossReferenceIndex
+{
+    // layout of a reference record
+    private static final int SYMBOL = 0;
+    private static final int START = 1;
+    private static final int LENGTH = 2;
+    private static final int LINE = 3;
+    private static final int COLUMN = 4;
+    private static final int RECORD_SIZE = 5;
+
+    private final Map<Identifier,Integer> symbolIds = new HashMap<>();
+    private final List<Identifier> symbolNames = new ArrayList<>();
+
+    private final List<UnitReferences> units = new ArrayList<>();
+
+    /**
+     * A reference to a symbol.
+     *
+     * @author tobias.gierke@code-sourcery.de
+     */
+    public static final class Reference
+    {
+        public final CompilationUnit unit;
+        public final Identifier symbol;
+        public final TextRegion region;
+
+        public Reference(CompilationUnit unit,Identifier symbol,TextRegion region)
+        {
+            Validate.notNull(unit, "unit must not be NULL");
+            Validate.notNull(symbol, "symbol must not be NULL");
+            Validate.notNull(region, "region must not be NULL");
+            this.unit = unit;
+            this.symbol = symbol;
+            this.region = region;
+        }
+
+        @Override
+        public String toString() {
+            return symbol+" @ "+unit.getResource()+" "+region;
+        }
+    }
+
+    private static final class UnitReferences
+    {
+        public CompilationUnit unit;
+        public int[] records = new int[0]; // sorted ascending by symbol ID
+
+        public UnitReferences(CompilationUnit unit) {
+            this.unit = unit;
+        }
+
+        public int recordCount() {
+            return records.length / RECORD_SIZE;
+        }
+
+        public int firstRecord(int symbolId)
+        {
+            int low = 0;
+            int high = recordCount();
+            while ( low < high )
+            {
+                final int mid = (low + high) >>> 1;
+                if ( records[ mid * RECORD_SIZE + SYMBOL ] < symbolId ) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Collects references for a set of compilation units.
+     *
+     * Nothing becomes visible in the index until {@link #commit()} is called.
+     *
+     * @author tobias.gierke@code-sourcery.de
+     * @see CrossReferenceIndex#update(Collection)
+     */
+    public final class Updater
+    {
+        private final Map<CompilationUnit,RecordBuffer> buffers = new LinkedHashMap<>();
+
+        private Updater(Collection<CompilationUnit> units)
+        {
+            units.forEach( u -> buffers.put( u , new RecordBuffer() ) );
+        }
+
+        /**
+         * Records a reference.
+         *
+         * @param unit compilation unit the reference is located in, must be one of the units
+         * passed to {@link CrossReferenceIndex#update(Collection)}.
+         * @param symbol name of the referenced symbol
+         * @param region location of the reference
+         */
+        public void addReference(CompilationUnit unit,Identifier symbol,TextRegion region)
+        {
+            Validate.notNull(unit, "unit must not be NULL");
+            Validate.notNull(symbol, "symbol must not be NULL");
+            Validate.notNull(region, "region must not be NULL");
+            final RecordBuffer buffer = buffers.get( unit );
+            if ( buffer == null ) {
+                throw new IllegalArgumentException("Unit is not part of this update: "+unit);
+            }
+            buffer.add( internSymbol( symbol ) , region );
+        }
+
+        /**
+         * Replaces the references of all units that are part of this update.
+         */
+        public void commit()
+        {
+            synchronized( CrossReferenceIndex.this )
+            {
+                buffers.forEach( (unit,buffer) -> getOrCreate( unit ).records = buffer.toSortedRecords() );
+            }
+        }
+    }
+
+    private static final class RecordBuffer
+    {
+        private int[] data = new int[ 16 * RECORD_SIZE ];
+        private int size;
+
+        public void add(int symbolId,TextRegion region)
+        {
+            if ( size + RECORD_SIZE > data.length ) {
+                data = Arrays.copyOf( data , data.length * 2 );
+            }
+            data[ size + SYMBOL ] = symbolId;
+            data[ size + START ] = region.start();
+            data[ size + LENGTH ] = region.length();
+            data[ size + LINE ] = region.line();
+            data[ size + COLUMN ] = region.column();
+            size += RECORD_SIZE;
+        }
+
+        public int[] toSortedRecords()
+        {
+            // sort by (symbol ID, insertion order)
+            final int count = size / RECORD_SIZE;
+            final long[] keys = new long[ count ];
+            for ( int i = 0 ; i < count ; i++ ) {
+                keys[i] = (long) data[ i * RECORD_SIZE + SYMBOL ] << 32 | i;
+            }
+            Arrays.sort( keys );
+            final int[] result = new int[ size ];
+            for ( int i = 0 ; i < count ; i++ ) {
+                System.arraycopy( data , (int) keys[i] * RECORD_SIZE , result , i * RECORD_SIZE , RECORD_SIZE );
+            }
+            return result;
+        }
+    }
+
+    private synchronized int internSymbol(Identifier symbol)
+    {
+        Integer id = symbolIds.get( symbol );
+        if ( id == null )
+        {
+            id = symbolNames.size();
+            symbolIds.put( symbol , id );
+            symbolNames.add( symbol );
+        }
+        return id;
+    }
+
+    private UnitReferences find(CompilationUnit unit)
+    {
+        for ( UnitReferences refs : units )
+        {
+            if ( refs.unit == unit || refs.unit.hasSameResourceAs( unit ) ) {
+                return refs;
+            }
+        }
+        return null;
+    }
+
+    private UnitReferences getOrCreate(CompilationUnit unit)
+    {
+        UnitReferences result = find( unit );
+        if ( result == null ) {
+            result = new UnitReferences( unit );
+            units.add( result );
+        } else {
+            // units get re-created for every compilation, keep the latest one
+            result.unit = unit;
+        }
+        return result;
+    }
+
+    /**
+     * Starts replacing the references of some compilation units.
+     *
+     * @param units units whose references should be replaced
+     * @return
+     */
+    public Updater update(Collection<CompilationUnit> units)
+    {
+        Validate.notNull(units, "units must not be NULL");
+        return new Updater( units );
+    }
+
+    /**
+     * Returns all references to a given symbol.
+     *
+     * @param symbol
+     * @return references, ordered by compilation unit and in the order they were recorded
+     */
+    public synchronized List<Reference> getReferences(Identifier symbol)
+    {
+        Validate.notNull(symbol, "symbol must not be NULL");
+        final List<Reference> result = new ArrayList<>();
+        final Integer id = symbolIds.get( symbol );
+        if ( id != null )
+        {
+            for ( UnitReferences refs : units )
+            {
+                final int[] r = refs.records;
+                for ( int i = refs.firstRecord( id ) * RECORD_SIZE ; i < r.length && r[ i + SYMBOL ] == id ; i += RECORD_SIZE )
+                {
+                    final TextRegion region = new TextRegion( r[ i + START ] , r[ i + LENGTH ] , r[ i + LINE ] , r[ i + COLUMN ] );
+                    result.add( new Reference( refs.unit , symbol , region ) );
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns all references that are located in a given compilation unit.
+     *
+     * @param unit
+     * @return
+     */
+    public synchronized List<Reference> getReferences(CompilationUnit unit)
+    {
+        Validate.notNull(unit, "unit must not be NULL");
+        final List<Reference> result = new ArrayList<>();
+        final UnitReferences refs = find( unit );
+        if ( refs != null )
+        {
+            final int[] r = refs.records;
+            for ( int i = 0 ; i < r.length ; i += RECORD_SIZE )
+            {
+                final TextRegion region = new TextRegion( r[ i + START ] , r[ i + LENGTH ] , r[ i + LINE ] , r[ i + COLUMN ] );
+                result.add( new Reference( refs.unit , symbolNames.get( r[ i + SYMBOL ] ) , region ) );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of references to a given symbol.
+     *
+     * @param symbol
+     * @return
+     */
+    public synchronized int getReferenceCount(Identifier symbol)
+    {
+        Validate.notNull(symbol, "symbol must not be NULL");
+        final Integer id = symbolIds.get( symbol );
+        int count = 0;
+        if ( id != null )
+        {
+            for ( UnitReferences refs : units )
+            {
+                final int[] r = refs.records;
+                for ( int i = refs.firstRecord( id ) * RECORD_SIZE ; i < r.length && r[ i + SYMBOL ] == id ; i += RECORD_SIZE ) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    public boolean isReferenced(Identifier symbol) {
+        return getReferenceCount( symbol ) > 0;
+    }
+
+    /**
+     * Discards all references recorded for a given compilation unit.
+     *
+     * @param unit
+     */
+    public synchronized void remove(CompilationUnit unit)
+    {
+        Validate.notNull(unit, "unit must not be NULL");
+        units.remove( find( unit ) );
+    }
+
+    public synchronized void clear()
+    {
+        // symbol IDs are kept as they might still be used by an ongoing update
+        units.clear();
+    }
+}
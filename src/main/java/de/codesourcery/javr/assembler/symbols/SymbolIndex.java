@@ -0,0 +1,365 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.symbols;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Immutable, searchable snapshot of a set of symbols.
+ *
+ * <p>Symbols are kept sorted by their lower-cased name so that prefix lookups
+ * are a binary search. Substring lookups use a trigram index whose posting lists
+ * get intersected before the (few) remaining candidates are checked, so that
+ * searching does not need to look at every symbol name.</p>
+ *
+ * <p>{@link #search(String, int, boolean)} additionally ranks
+ * results and optionally matches camel-hump / underscore abbreviations
+ * (<code>"iv"</code> matches <code>"INT_VECTORS"</code> and <code>"initVars"</code>)
+ * and arbitrary subsequences of the name.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see SymbolTable#getSearchIndex()
+ */
+public final class SymbolIndex
+{
+    public static final SymbolIndex EMPTY = new SymbolIndex( Collections.emptyList() );
+
+    private static final int NGRAM_LEN = 3;
+
+    private static final int[] NO_POSTINGS = new int[0];
+
+    // scores used by search()
+    private static final int SCORE_EXACT = 4000;
+    private static final int SCORE_PREFIX = 3000;
+    private static final int SCORE_HUMPS = 2000;
+    private static final int SCORE_SUBSTRING = 1000;
+    private static final int SCORE_SUBSEQUENCE = 0;
+
+    private final Symbol[] symbols;
+    private final String[] names; // lower-case, sorted ascending
+    private final Map<Long,int[]> ngrams;
+
+    public SymbolIndex(Collection<Symbol> symbols)
+    {
+        Validate.notNull(symbols, "symbols must not be NULL");
+
+        final Symbol[] sorted = symbols.toArray( new Symbol[ symbols.size() ] );
+        final String[] lower = new String[ sorted.length ];
+        for ( int i = 0 ; i < sorted.length ; i++ ) {
+            lower[i] = sorted[i].name().value.toLowerCase();
+        }
+        final Integer[] order = new Integer[ sorted.length ];
+        for ( int i = 0 ; i < order.length ; i++ ) {
+            order[i] = i;
+        }
+        Arrays.sort( order , Comparator.comparing( (Integer i) -> lower[i] ).thenComparing( i -> sorted[i].name().value ) );
+
+        this.symbols = new Symbol[ sorted.length ];
+        this.names = new String[ sorted.length ];
+        for ( int i = 0 ; i < order.length ; i++ )
+        {
+            this.symbols[i] = sorted[ order[i] ];
+            this.names[i] = lower[ order[i] ];
+        }
+        this.ngrams = buildNGrams( this.names );
+    }
+
+    private static Map<Long,int[]> buildNGrams(String[] names)
+    {
+        final Map<Long,int[]> postings = new HashMap<>();
+        final Map<Long,Integer> sizes = new HashMap<>();
+        for ( int i = 0 ; i < names.length ; i++ )
+        {
+            final String name = names[i];
+            for ( int j = 0 ; j + NGRAM_LEN <= name.length() ; j++ )
+            {
+                final Long key = ngram( name , j );
+                int[] list = postings.get( key );
+                final int size = sizes.getOrDefault( key , 0 );
+                if ( size > 0 && list[ size - 1 ] == i ) {
+                    continue; // n-gram occurs more than once in this name
+                }
+                if ( list == null ) {
+                    list = new int[4];
+                } else if ( size == list.length ) {
+                    list = Arrays.copyOf( list , size * 2 );
+                }
+                list[size] = i;
+                postings.put( key , list );
+                sizes.put( key , size + 1 );
+            }
+        }
+        postings.replaceAll( (key,list) -> Arrays.copyOf( list , sizes.get( key ) ) );
+        return postings;
+    }
+
+    private static Long ngram(String s,int offset)
+    {
+        return Long.valueOf( (long) s.charAt(offset) << 32 | (long) s.charAt(offset+1) << 16 | s.charAt(offset+2) );
+    }
+
+    public int size() {
+        return symbols.length;
+    }
+
+    public boolean isEmpty() {
+        return symbols.length == 0;
+    }
+
+    /**
+     * Returns all symbols, sorted ascending by name (ignoring case).
+     *
+     * @return
+     */
+    public List<Symbol> getAll() {
+        return Collections.unmodifiableList( Arrays.asList( symbols ) );
+    }
+
+    /**
+     * Returns all symbols whose name starts with a given prefix (ignoring case).
+     *
+     * @param prefix
+     * @return matching symbols, sorted ascending by name
+     */
+    public List<Symbol> findByPrefix(String prefix)
+    {
+        Validate.notNull(prefix, "prefix must not be NULL");
+        final String lower = prefix.toLowerCase();
+        final List<Symbol> result = new ArrayList<>();
+        for ( int i = lowerBound( lower ) ; i < names.length && names[i].startsWith( lower ) ; i++ ) {
+            result.add( symbols[i] );
+        }
+        return result;
+    }
+
+    private int lowerBound(String key)
+    {
+        int low = 0;
+        int high = names.length;
+        while ( low < high )
+        {
+            final int mid = (low + high) >>> 1;
+            if ( names[mid].compareTo( key ) < 0 ) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns all symbols whose name contains a given string (ignoring case).
+     *
+     * @param term
+     * @return matching symbols, sorted ascending by name
+     */
+    public List<Symbol> findContaining(String term)
+    {
+        Validate.notNull(term, "term must not be NULL");
+        final List<Symbol> result = new ArrayList<>();
+        for ( int i : indicesContaining( term.toLowerCase() ) ) {
+            result.add( symbols[i] );
+        }
+        return result;
+    }
+
+    private int[] indicesContaining(String lower)
+    {
+        final int[] candidates;
+        if ( lower.length() < NGRAM_LEN )
+        {
+            candidates = new int[ names.length ];
+            Arrays.setAll( candidates , i -> i );
+        } else {
+            candidates = candidates( lower ).clone(); // filtered in-place below
+        }
+        int len = 0;
+        for ( int candidate : candidates )
+        {
+            if ( names[candidate].contains( lower ) ) {
+                candidates[len++] = candidate;
+            }
+        }
+        return Arrays.copyOf( candidates , len );
+    }
+
+    /**
+     * Returns the indices of all names that contain every trigram of a term.
+     */
+    private int[] candidates(String lower)
+    {
+        int[] result = null;
+        for ( int j = 0 ; j + NGRAM_LEN <= lower.length() ; j++ )
+        {
+            final int[] list = ngrams.getOrDefault( ngram( lower , j ) , NO_POSTINGS );
+            result = result == null ? list : intersect( result , list );
+            if ( result.length == 0 ) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private static int[] intersect(int[] a,int[] b)
+    {
+        final int[] result = new int[ Math.min( a.length , b.length ) ];
+        int len = 0;
+        for ( int i = 0 , j = 0 ; i < a.length && j < b.length ; )
+        {
+            if ( a[i] < b[j] ) {
+                i++;
+            } else if ( a[i] > b[j] ) {
+                j++;
+            } else {
+                result[len++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return len == result.length ? result : Arrays.copyOf( result , len );
+    }
+
+    /**
+     * Searches symbols by name, best matches first.
+     *
+     * <p>Exact matches rank before prefix matches, prefix matches before
+     * camel-hump matches and those before plain substring matches. Subsequence matches
+     * (all characters of the query appear in order) rank last and are only
+     * considered when <code>fuzzy</code> is set.</p>
+     *
+     * @param query search string, case is ignored
+     * @param maxResults maximum number of results to return
+     * @param fuzzy whether to also consider camel-hump and subsequence matches
+     * @return
+     */
+    public List<Symbol> search(String query,int maxResults,boolean fuzzy)
+    {
+        Validate.notNull(query, "query must not be NULL");
+        Validate.isTrue( maxResults >= 0 , "maxResults must be >= 0");
+
+        final String lower = query.toLowerCase();
+        if ( lower.isEmpty() )
+        {
+            return getAll().subList( 0 , Math.min( maxResults , symbols.length ) );
+        }
+
+        final List<Match> matches = new ArrayList<>();
+        if ( fuzzy )
+        {
+            for ( int i = 0 ; i < names.length ; i++ )
+            {
+                final int score = score( i , lower , true );
+                if ( score >= 0 ) {
+                    matches.add( new Match( i , score ) );
+                }
+            }
+        }
+        else
+        {
+            // non-fuzzy matches are always substrings
+            for ( int i : indicesContaining( lower ) ) {
+                matches.add( new Match( i , score( i , lower , false ) ) );
+            }
+        }
+        matches.sort( (a,b) -> a.score != b.score ? Integer.compare( b.score , a.score ) : Integer.compare( a.index , b.index ) );
+
+        final List<Symbol> result = new ArrayList<>( Math.min( maxResults , matches.size() ) );
+        for ( int i = 0 , len = Math.min( maxResults , matches.size() ) ; i < len ; i++ ) {
+            result.add( symbols[ matches.get(i).index ] );
+        }
+        return result;
+    }
+
+    private int score(int index,String lowerQuery,boolean fuzzy)
+    {
+        final String name = names[index];
+        if ( name.equals( lowerQuery ) ) {
+            return SCORE_EXACT;
+        }
+        if ( name.startsWith( lowerQuery ) ) {
+            return SCORE_PREFIX - name.length();
+        }
+        if ( fuzzy && matchesHumps( symbols[index].name().value , lowerQuery ) ) {
+            return SCORE_HUMPS - name.length();
+        }
+        final int pos = name.indexOf( lowerQuery );
+        if ( pos >= 0 ) {
+            return SCORE_SUBSTRING - pos;
+        }
+        if ( fuzzy && isSubsequence( lowerQuery , name ) ) {
+            return SCORE_SUBSEQUENCE;
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether the query matches the starts of consecutive words in a name,
+     * word boundaries being lower-to-upper case transitions and any
+     * non-alphanumeric character.
+     */
+    protected static boolean matchesHumps(String name,String lowerQuery)
+    {
+        final StringBuilder humps = new StringBuilder();
+        boolean wordStart = true;
+        for ( int i = 0 , len = name.length() ; i < len ; i++ )
+        {
+            final char c = name.charAt(i);
+            if ( ! Character.isLetterOrDigit( c ) ) {
+                wordStart = true;
+                continue;
+            }
+            if ( wordStart || ( Character.isUpperCase( c ) && i > 0 && Character.isLowerCase( name.charAt(i-1) ) ) ) {
+                humps.append( Character.toLowerCase( c ) );
+            }
+            wordStart = false;
+        }
+        return humps.length() > 1 && humps.indexOf( lowerQuery ) == 0;
+    }
+
+    private static boolean isSubsequence(String lowerQuery,String name)
+    {
+        int j = 0;
+        for ( int i = 0 , len = name.length() ; i < len && j < lowerQuery.length() ; i++ )
+        {
+            if ( name.charAt(i) == lowerQuery.charAt(j) ) {
+                j++;
+            }
+        }
+        return j == lowerQuery.length();
+    }
+
+    private static final class Match
+    {
+        public final int index;
+        public final int score;
+
+        public Match(int index,int score)
+        {
+            this.index = index;
+            this.score = score;
+        }
+    }
+}
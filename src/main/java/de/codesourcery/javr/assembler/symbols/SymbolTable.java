@@ -17,13 +17,16 @@ package de.codesourcery.javr.assembler.symbols;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -42,6 +45,12 @@ import de.codesourcery.javr.assembler.symbols.Symbol.Type;
  *
  * <p>Any symbols added to a child symbol table are recursively added to all parents as well.</p>
  * 
+ * <p>Symbol tables are thread-safe. Lookups are lock-free, modifications are serialized per
+ * hierarchy (all tables sharing the same {@link #getTopLevelTable() top-level table}) so that
+ * changes spanning several tables of a chain appear atomic to {@link #getSnapshot() snapshots}.
+ * Readers that need a consistent view while another thread (re-)populates the table
+ * should use {@link #getSnapshot()} or {@link #getPublishedSnapshot()}.</p>
+ * 
  * @author tobias.gierke@code-sourcery.de
  */
 public class SymbolTable 
@@ -50,12 +59,27 @@ public class SymbolTable
     
     public static final String GLOBAL = "<global>";
     
+    // source of modification stamps, shared by all tables so that stamps are unique and only ever increase 
+    private static final AtomicLong MOD_STAMPS = new AtomicLong();
+    
     private final String name;
-    private SymbolTable parent;
+    private volatile SymbolTable parent;
+    
+    private final CopyOnWriteArrayList<SymbolTable> children = new CopyOnWriteArrayList<>();
+    
+    private final Map<Identifier,Symbol> symbols = new ConcurrentHashMap<>();
+    
+    // only the lock of the top-level table is ever used, see writeLock()
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
     
-    private final List<SymbolTable> children = new ArrayList<>();
+    // stamp of the last change to this table, only written while holding the write lock
+    private volatile long modStamp;
     
-    private final Map<Identifier,Symbol> symbols = new HashMap<>();
+    // flattened view of this table and the value of getVersion() it was built for
+    private volatile SymbolTableSnapshot snapshot;
+    
+    // snapshot explicitly made available to readers by publishSnapshot()
+    private volatile SymbolTableSnapshot published;
     
     public SymbolTable(String name) {
         Validate.notBlank(name, "name must not be NULL or blank");
@@ -99,8 +123,24 @@ public class SymbolTable
     	return result;
     }
     
-    public void clear() {
-    	this.symbols.clear();
+    private Lock writeLock() {
+        return getTopLevelTable().lock.writeLock();
+    }
+    
+    private Lock readLock() {
+        return getTopLevelTable().lock.readLock();
+    }
+    
+    public void clear() 
+    {
+        final Lock l = writeLock();
+        l.lock();
+        try {
+            this.symbols.clear();
+            modified();
+        } finally {
+            l.unlock();
+        }
     }
     
     public Symbol get(Identifier name,Symbol.Type type) 
@@ -128,28 +168,103 @@ public class SymbolTable
 
     public List<Symbol> getAllSymbolsUnsorted() 
     {
-        final List<Symbol> result = new ArrayList<>();
-        result.addAll( symbols.values() );
-        if ( parent != null ) 
+        return new ArrayList<>( getSnapshot().getAllSymbolsUnsorted() );
+    }    
+    
+    public List<Symbol> getAllSymbolsSorted() 
+    {
+        return new ArrayList<>( getSnapshot().getAllSymbolsSorted() );
+    }
+    
+    /**
+     * Returns a search index over {@link #getAllSymbolsUnsorted() all symbols} visible
+     * through this table.
+     *
+     * <p>The index is cached and only rebuilt when this table or one
+     * of its parents changed since the last call.</p>
+     *
+     * @return
+     */
+    public SymbolIndex getSearchIndex() 
+    {
+        return getSnapshot().getSearchIndex();
+    }
+    
+    /**
+     * Returns an immutable view of all symbols visible through this table.
+     *
+     * <p>The snapshot is cached and only rebuilt when this table or one
+     * of its parents changed since the last call. Snapshots of child tables
+     * are built on top of their parent's (cached) snapshot.</p>
+     *
+     * @return
+     */
+    public SymbolTableSnapshot getSnapshot() 
+    {
+        SymbolTableSnapshot result = snapshot;
+        if ( result != null && result.getVersion() == getVersion() ) {
+            return result;
+        }
+        final Lock l = readLock();
+        l.lock();
+        try 
         {
-            final List<Symbol> parentSymbols = parent.getAllSymbolsUnsorted();
-            for ( Symbol p : parentSymbols ) 
+            // writers are blocked, so version and contents cannot change while building the snapshot
+            final long version = getVersion();
+            result = snapshot;
+            if ( result == null || result.getVersion() != version ) 
             {
-            	if ( ! symbols.keySet().contains( p.name() ) ) {
-            		result.add( p );
-            	}
+                final SymbolTableSnapshot parentSnapshot = parent == null ? null : parent.getSnapshot();
+                result = SymbolTableSnapshot.create( name , version , parentSnapshot , symbols );
+                snapshot = result;
             }
+            return result;
+        } 
+        finally {
+            l.unlock();
         }
-        return result;
-    }    
+    }
     
-    public List<Symbol> getAllSymbolsSorted() 
+    /**
+     * Takes a snapshot of this table and makes it available through {@link #getPublishedSnapshot()}.
+     *
+     * <p>Used to hand a complete set of symbols to readers (like the IDE's
+     * outline or autocompletion) that should not observe a table while it is being
+     * cleared and re-populated.</p>
+     *
+     * @return the published snapshot
+     */
+    public SymbolTableSnapshot publishSnapshot() 
     {
-        final List<Symbol> result = getAllSymbolsUnsorted();
-        Collections.sort( result , (a,b) -> a.name().value.compareTo( b.name().value ) );
+        final SymbolTableSnapshot result = getSnapshot();
+        published = result;
         return result;
     }
     
+    /**
+     * Returns the snapshot most recently published by {@link #publishSnapshot()}.
+     *
+     * @return published snapshot or the {@link #getSnapshot() current snapshot} if none was published yet
+     */
+    public SymbolTableSnapshot getPublishedSnapshot() 
+    {
+        final SymbolTableSnapshot result = published;
+        return result != null ? result : getSnapshot();
+    }
+    
+    private void modified() {
+        modStamp = MOD_STAMPS.incrementAndGet();
+    }
+    
+    private long getVersion() 
+    {
+        // every change (including setParent()) takes a new stamp that is greater than
+        // all stamps handed out before, so the latest stamp in the chain changes
+        // whenever any table in the chain changes
+        final SymbolTable p = parent;
+        return p == null ? modStamp : Math.max( modStamp , p.getVersion() ); 
+    }
+    
     public Optional<Symbol> maybeGet(Identifier name) 
     {
         return Optional.ofNullable( internalGet( name ) );
@@ -174,6 +289,7 @@ public class SymbolTable
         return result;
     }
     
+    // caller must hold the write lock
     private void internalDeclareSymbol(Symbol s) 
     {
         Validate.notNull(s, "symbol must not be NULL");
@@ -194,20 +310,40 @@ public class SymbolTable
             LOG.trace("putSymbol( "+this.name+" ):  "+s+"@"+Integer.toHexString( s.hashCode() ) );
         }        
         this.symbols.put( s.name() , s );
+        modified();
     }
     
     public void declareSymbol(Identifier name,CompilationUnit unit) 
     {
         Validate.notNull(name, "name must not be NULL");
         Validate.notNull(unit, "compilation unit must not be NULL");
-        Symbol existing = internalGet(name);
-        if ( existing == null ) 
+        if ( internalGet(name) != null ) {
+            return;
+        }
+        final Lock l = writeLock();
+        l.lock();
+        try 
         {
-            internalDeclareSymbol( new Symbol(name,Type.UNDEFINED,unit,null ) );
+            if ( internalGet(name) == null ) {
+                internalDeclareSymbol( new Symbol(name,Type.UNDEFINED,unit,null ) );
+            }
+        } finally {
+            l.unlock();
         }
     }
     
     public boolean removeIf(Predicate<Symbol> predicate) 
+    {
+        final Lock l = writeLock();
+        l.lock();
+        try {
+            return internalRemoveIf( predicate );
+        } finally {
+            l.unlock();
+        }
+    }
+    
+    private boolean internalRemoveIf(Predicate<Symbol> predicate) 
     {
         boolean result = false;
         for (Iterator<Symbol> it = this.symbols.values().iterator(); it.hasNext();) 
@@ -215,11 +351,12 @@ public class SymbolTable
             final Symbol entry = it.next();
             if ( predicate.test( entry ) ) {
                 it.remove();
+                modified();
                 result = true;
             }
         }
         if ( parent != null ) {
-            result |= parent.removeIf( predicate );
+            result |= parent.internalRemoveIf( predicate );
         }
         return result;
     }
@@ -243,6 +380,17 @@ public class SymbolTable
         if ( ! symbol.hasType(Type.PREPROCESSOR_MACRO ) ) {
             Validate.notNull(symbol.getNode(), "symbol must not have a NULL node");
         }
+        final Lock l = writeLock();
+        l.lock();
+        try {
+            internalDefineSymbol( symbol , segment );
+        } finally {
+            l.unlock();
+        }
+    }
+    
+    private void internalDefineSymbol(Symbol symbol,Segment segment) throws DuplicateSymbolException
+    {
         Symbol existing = internalGet( symbol.name() );
         if ( existing != null && ! existing.hasType( Type.UNDEFINED ) ) {
             throw new DuplicateSymbolException( symbol , existing );
@@ -251,7 +399,7 @@ public class SymbolTable
             symbol.setSegment( segment );
         }
         if ( parent != null ) {
-            parent.defineSymbol( symbol , segment );
+            parent.internalDefineSymbol( symbol , segment );
         }
         putSymbol(symbol);
     }
@@ -265,11 +413,9 @@ public class SymbolTable
 	public void setParent(SymbolTable symbolTable) {
 		Validate.notNull(symbolTable, "symbolTable must not be NULL");
 		
-		this.parent = symbolTable;
-		this.parent.children.add( this );
-		
         IdentityHashMap<SymbolTable,Integer> chain = new IdentityHashMap<>();
-        SymbolTable current = this;
+        chain.put( this , Integer.valueOf(0) );
+        SymbolTable current = symbolTable;
         while ( current != null ) {
         	if ( chain.containsKey( current ) ) {
         		throw new IllegalArgumentException("Symbol table parents form a cycle");
@@ -277,7 +423,21 @@ public class SymbolTable
         	chain.put( current , Integer.valueOf(0) );
         	current = current.getParent();
         }
-
+        
+        final Lock l = symbolTable.writeLock();
+        l.lock();
+        try 
+        {
+            final SymbolTable oldParent = this.parent;
+            if ( oldParent != null && oldParent != symbolTable ) {
+                oldParent.children.remove( this );
+            }
+            this.parent = symbolTable;
+            symbolTable.children.addIfAbsent( this );
+            modified();
+        } finally {
+            l.unlock();
+        }
 	}
 	
 	/**
@@ -298,8 +458,21 @@ public class SymbolTable
 	 */
 	public void removeSymbol(Symbol s) 
 	{
-	    this.symbols.remove( s.name() );
-	    children.forEach( child -> child.removeSymbol( s ) );
+        final Lock l = writeLock();
+        l.lock();
+        try {
+            internalRemoveSymbol( s );
+        } finally {
+            l.unlock();
+        }
+	}
+	
+	private void internalRemoveSymbol(Symbol s) 
+	{
+	    if ( this.symbols.remove( s.name() ) != null ) {
+	        modified();
+	    }
+	    children.forEach( child -> child.internalRemoveSymbol( s ) );
 	}
 	
     /**
@@ -309,6 +482,17 @@ public class SymbolTable
      * @param s
      */
     public void removeDeclared(Identifier s) 
+    {
+        final Lock l = writeLock();
+        l.lock();
+        try {
+            internalRemoveDeclared( s );
+        } finally {
+            l.unlock();
+        }
+    }
+    
+    private void internalRemoveDeclared(Identifier s) 
     {
         Symbol symbol = this.symbols.get( s );
         if ( symbol != null ) 
@@ -316,9 +500,10 @@ public class SymbolTable
             if ( symbol.hasType( Type.UNDEFINED ) ) 
             {
                 this.symbols.remove( s );
+                modified();
             }
         }
-        children.forEach( child -> child.removeDeclared( s ) );        
+        children.forEach( child -> child.internalRemoveDeclared( s ) );        
     }	
 	
 	/**
@@ -0,0 +1,178 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.symbols;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.commons.lang3.Validate;
+
+import de.codesourcery.javr.assembler.exceptions.UnknownSymbolException;
+import de.codesourcery.javr.assembler.parser.Identifier;
+
+/**
+ * Immutable, flattened view of all symbols visible through a {@link SymbolTable}
+ * (the table's own symbols plus all symbols of its parents that are not shadowed).
+ *
+ * <p>Snapshots may be freely shared between threads. Note that only the
+ * name-to-symbol mapping is frozen, the {@link Symbol} instances themselves
+ * are still the ones owned by the symbol table.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see SymbolTable#getSnapshot()
+ */
+public final class SymbolTableSnapshot
+{
+    public static final SymbolTableSnapshot EMPTY = new SymbolTableSnapshot( SymbolTable.GLOBAL , -1 , Collections.emptyMap() );
+
+    private final String name;
+    private final long version;
+    private final Map<Identifier,Symbol> symbols;
+    private final List<Symbol> unsorted;
+
+    // derived views, computed on first access
+    private volatile List<Symbol> sorted;
+    private volatile SymbolIndex searchIndex;
+
+    SymbolTableSnapshot(String name,long version,Map<Identifier,Symbol> symbols)
+    {
+        Validate.notNull(name, "name must not be NULL");
+        Validate.notNull(symbols, "symbols must not be NULL");
+        this.name = name;
+        this.version = version;
+        this.symbols = symbols;
+        this.unsorted = Collections.unmodifiableList( new ArrayList<>( symbols.values() ) );
+    }
+
+    /**
+     * Creates a snapshot of a table's own symbols on top of its parent's snapshot.
+     *
+     * @param name
+     * @param version
+     * @param parent parent snapshot or <code>null</code>
+     * @param own symbols of the table itself, these shadow parent symbols with the same name
+     * @return
+     */
+    static SymbolTableSnapshot create(String name,long version,SymbolTableSnapshot parent,Map<Identifier,Symbol> own)
+    {
+        final Map<Identifier,Symbol> result;
+        if ( parent == null || parent.symbols.isEmpty() ) {
+            result = new HashMap<>( own );
+        } 
+        else 
+        {
+            result = new HashMap<>( parent.symbols );
+            result.putAll( own );
+        }
+        return new SymbolTableSnapshot( name , version , Collections.unmodifiableMap( result ) );
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the version of the symbol table this snapshot was taken from.
+     *
+     * <p>Versions only ever increase, a snapshot with a higher version
+     * reflects a later state of the same table.</p>
+     *
+     * @return
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return symbols.size();
+    }
+
+    public boolean isEmpty() {
+        return symbols.isEmpty();
+    }
+
+    public Symbol get(Identifier name)
+    {
+        final Symbol result = symbols.get( name );
+        if ( result == null ) {
+            throw new UnknownSymbolException( name );
+        }
+        return result;
+    }
+
+    public Optional<Symbol> maybeGet(Identifier name)
+    {
+        Validate.notNull(name, "name must not be NULL");
+        return Optional.ofNullable( symbols.get( name ) );
+    }
+
+    public boolean isDeclared(Identifier name)
+    {
+        Validate.notNull(name, "name must not be NULL");
+        return symbols.containsKey( name );
+    }
+
+    public boolean isDefined(Identifier name)
+    {
+        Validate.notNull(name, "name must not be NULL");
+        final Symbol existing = symbols.get( name );
+        return existing != null && existing.isDefined();
+    }
+
+    /**
+     * Returns all symbols in no particular order.
+     *
+     * @return unmodifiable list
+     */
+    public List<Symbol> getAllSymbolsUnsorted() {
+        return unsorted;
+    }
+
+    /**
+     * Returns all symbols sorted ascending by name.
+     *
+     * @return unmodifiable list
+     */
+    public List<Symbol> getAllSymbolsSorted()
+    {
+        List<Symbol> result = sorted;
+        if ( result == null )
+        {
+            final List<Symbol> tmp = new ArrayList<>( unsorted );
+            tmp.sort( (a,b) -> a.name().value.compareTo( b.name().value ) );
+            result = sorted = Collections.unmodifiableList( tmp );
+        }
+        return result;
+    }
+
+    public SymbolIndex getSearchIndex()
+    {
+        SymbolIndex result = searchIndex;
+        if ( result == null ) {
+            result = searchIndex = new SymbolIndex( unsorted );
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return name+" [version "+version+", "+symbols.size()+" symbols]";
+    }
+}
@@ -0,0 +1,275 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+
+import de.codesourcery.javr.assembler.metrics.CacheStatistics;
+
+/**
+ * Caches content hashes of files, keyed by (path, last modification time, size).
+ *
+ * <p>Files are only (re-)read when their modification time or size changed. Hashes
+ * can also be computed as a side-effect of reading a file through {@link #createInputStream(File)},
+ * so that files read by the assembler anyway never need to be read a second time just
+ * for hashing.</p>
+ *
+ * <p>Like git, this cache does not trust a hash if the file was modified
+ * within {@link #RACY_INTERVAL_MILLIS} of the time it got hashed, since a subsequent
+ * modification might not change the file's timestamp.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class FileHashCache
+{
+    private static final FileHashCache INSTANCE = new FileHashCache();
+
+    protected static final long RACY_INTERVAL_MILLIS = 2000;
+
+    private static final int BUFFER_SIZE = 16*1024;
+
+    private final Map<File,Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static final class Entry
+    {
+        public final long lastModified;
+        public final long size;
+        public final HashingAlgorithm.Type type;
+        public final String hash;
+
+        public Entry(long lastModified, long size, HashingAlgorithm.Type type, String hash)
+        {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.type = type;
+            this.hash = hash;
+        }
+
+        public boolean matches(long lastModified,long size) {
+            return this.lastModified == lastModified && this.size == size && this.type == HashingAlgorithm.getDefaultType();
+        }
+    }
+
+    public static FileHashCache getInstance() {
+        return INSTANCE;
+    }
+
+    private static File key(File file) {
+        return file.getAbsoluteFile();
+    }
+
+    /**
+     * Returns the content hash of a file.
+     *
+     * @param file
+     * @return content hash, files that do not exist yield the hash of no data
+     * @throws IOException
+     */
+    public String getHash(File file) throws IOException
+    {
+        Validate.notNull(file, "file must not be NULL");
+
+        final File key = key( file );
+        final BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes( key.toPath() , BasicFileAttributes.class );
+        }
+        catch(NoSuchFileException e)
+        {
+            entries.remove( key );
+            return new HashingAlgorithm().finish();
+        }
+
+        final long lastModified = attrs.lastModifiedTime().toMillis();
+        final long size = attrs.size();
+        final Entry existing = entries.get( key );
+        if ( existing != null && existing.matches( lastModified , size ) ) {
+            hits.incrementAndGet();
+            return existing.hash;
+        }
+        misses.incrementAndGet();
+
+        final HashingAlgorithm digest = new HashingAlgorithm();
+        final byte[] buffer = new byte[ (int) Math.min( BUFFER_SIZE , Math.max( 1 , size ) ) ];
+        try ( InputStream in = new FileInputStream( key ) )
+        {
+            int read;
+            while ( ( read = in.read( buffer ) ) != -1 ) {
+                digest.update( buffer , 0 , read );
+            }
+        }
+        final String hash = digest.finish();
+        remember( key , lastModified , size , digest.getType() , hash );
+        return hash;
+    }
+
+    /**
+     * Opens a file for reading and computes its content hash as a side-effect
+     * if the file is read until EOF.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public InputStream createInputStream(File file) throws IOException
+    {
+        Validate.notNull(file, "file must not be NULL");
+
+        final File key = key( file );
+        final BasicFileAttributes attrs = Files.readAttributes( key.toPath() , BasicFileAttributes.class );
+        final long lastModified = attrs.lastModifiedTime().toMillis();
+        final long size = attrs.size();
+
+        final Entry existing = entries.get( key );
+        final InputStream in = new FileInputStream( key );
+        if ( existing != null && existing.matches( lastModified , size ) ) {
+            hits.incrementAndGet();
+            return in;
+        }
+        misses.incrementAndGet();
+        return new HashingInputStream( in ) {
+
+            @Override
+            protected void eofReached(HashingAlgorithm digest, long bytesRead)
+            {
+                if ( bytesRead == size ) {
+                    remember( key , lastModified , size , digest.getType() , digest.finish() );
+                }
+            }
+        };
+    }
+
+    private void remember(File key,long lastModified,long size,HashingAlgorithm.Type type,String hash)
+    {
+        if ( System.currentTimeMillis() - lastModified > RACY_INTERVAL_MILLIS ) {
+            entries.put( key , new Entry( lastModified , size , type , hash ) );
+        } else {
+            entries.remove( key );
+        }
+    }
+
+    /**
+     * Discards any cached hash for a given file.
+     *
+     * @param file
+     */
+    public void invalidate(File file)
+    {
+        Validate.notNull(file, "file must not be NULL");
+        entries.remove( key( file ) );
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of lookups that were answered from this cache
+     * since the JVM started.
+     *
+     * @return
+     */
+    public CacheStatistics getStatistics() {
+        return new CacheStatistics( hits.get() , misses.get() );
+    }
+
+    /**
+     * Input stream that hashes all data read through it.
+     *
+     * @author tobias.gierke@code-sourcery.de
+     */
+    protected static abstract class HashingInputStream extends FilterInputStream
+    {
+        private final HashingAlgorithm digest = new HashingAlgorithm();
+        private final byte[] singleByte = new byte[1];
+        private long bytesRead;
+        private boolean eof;
+
+        protected HashingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final int result = super.read();
+            if ( result == -1 ) {
+                eof();
+            }
+            else
+            {
+                singleByte[0] = (byte) result;
+                digest.update( singleByte , 0 , 1 );
+                bytesRead++;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            final int result = super.read(b, off, len);
+            if ( result == -1 ) {
+                eof();
+            }
+            else if ( result > 0 )
+            {
+                digest.update( b , off , result );
+                bytesRead += result;
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            // skipped data cannot be hashed
+            eof = true;
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void eof()
+        {
+            if ( ! eof )
+            {
+                eof = true;
+                eofReached( digest , bytesRead );
+            }
+        }
+
+        protected abstract void eofReached(HashingAlgorithm digest,long bytesRead);
+    }
+}
@@ -16,8 +16,6 @@
 package de.codesourcery.javr.assembler.util;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -28,7 +26,6 @@ import org.apache.commons.lang3.Validate;
 public class FileResource implements Resource 
 {
     private final File file;
-    private String contentHash;
     private final String encoding;
     
     public FileResource(String s,String encoding) throws IOException {
@@ -45,7 +42,6 @@ public class FileResource implements Resource
         }
         this.file = file;
         this.encoding = encoding;
-        updateContentHash();
     }
     
     public static String nameFor(File file) {
@@ -68,27 +64,9 @@ public class FileResource implements Resource
         return other == this || ( other instanceof FileResource && ((FileResource) other).file.equals( this.file ) );
     }
     
-    private void updateContentHash() throws FileNotFoundException, IOException 
-    {
-        final HashingAlgorithm digest = new HashingAlgorithm();
-        if ( ! file.exists() ) 
-        {
-            this.contentHash = digest.finish();
-            return;
-        }
-        final byte[] buffer = new byte[1024];
-        try ( InputStream in = new FileInputStream(file ) ) {
-            int read = 0;
-            while ( ( read = in.read( buffer ) ) != -1 ) {
-                digest.update( buffer , 0 , read );
-            }
-        }
-        this.contentHash = digest.finish();
-    }
-
     @Override
     public InputStream createInputStream() throws IOException {
-        return new FileInputStream(file);
+        return FileHashCache.getInstance().createInputStream( file );
     }
 
     @Override
@@ -99,7 +77,7 @@ public class FileResource implements Resource
             @Override
             public void close() throws IOException {
                 super.close();
-                updateContentHash();
+                FileHashCache.getInstance().invalidate( file );
             }
         };
     }
@@ -116,8 +94,14 @@ public class FileResource implements Resource
     }
 
     @Override
-    public String contentHash() {
-        return contentHash;
+    public String contentHash() 
+    {
+        try {
+            return FileHashCache.getInstance().getHash( file );
+        } 
+        catch (IOException e) {
+            throw new RuntimeException("Failed to read "+file.getAbsolutePath(),e);
+        }
     }
 
     @Override
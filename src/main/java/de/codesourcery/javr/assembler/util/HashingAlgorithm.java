@@ -17,43 +17,279 @@ package de.codesourcery.javr.assembler.util;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
 
-public class HashingAlgorithm 
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Incremental hash function used to detect content changes.
+ *
+ * <p>Hashes are only used to tell whether content changed, so by default
+ * a fast non-cryptographic function ({@link Type#XXHASH64}) is used.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class HashingAlgorithm
 {
     private static final char[] HEX_CHARS = new char[] { '0','1','2','3','4','5','6','7','8','9','a','b','c','d','e','f' };
-    
-    private final MessageDigest md;
-    
-    public HashingAlgorithm() 
+
+    private static volatile Type defaultType = Type.XXHASH64;
+
+    public enum Type
+    {
+        MD5,
+        CRC32C,
+        XXHASH64
+    }
+
+    private interface Impl
     {
-        try {
-            md = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+        void update(byte[] data,int offset,int len);
+
+        byte[] digest();
+    }
+
+    private final Type type;
+    private final Impl impl;
+
+    public HashingAlgorithm()
+    {
+        this( defaultType );
+    }
+
+    public HashingAlgorithm(Type type)
+    {
+        Validate.notNull(type, "type must not be NULL");
+        this.type = type;
+        switch( type )
+        {
+            case MD5:      impl = new MD5(); break;
+            case CRC32C:   impl = new CRC(); break;
+            case XXHASH64: impl = new XXHash64(); break;
+            default:
+                throw new RuntimeException("Unhandled hashing algorithm: "+type);
         }
     }
-    
-    public HashingAlgorithm update(byte[] data,int offset,int len) 
+
+    /**
+     * Sets the algorithm used by {@link #HashingAlgorithm()}.
+     *
+     * @param type
+     */
+    public static void setDefaultType(Type type)
+    {
+        Validate.notNull(type, "type must not be NULL");
+        defaultType = type;
+    }
+
+    public static Type getDefaultType() {
+        return defaultType;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public HashingAlgorithm update(byte[] data,int offset,int len)
     {
-        md.update( data , 0 , len );
+        impl.update( data , offset , len );
         return this;
     }
-    
+
     public String finish() {
-        byte[] hash = md.digest();
-        return toHexString( hash );
+        return toHexString( impl.digest() );
     }
-    
-    private static String toHexString(byte[] value) 
+
+    private static String toHexString(byte[] value)
     {
-        final StringBuilder result = new StringBuilder();
-        for ( int i = 0 ; i < value.length ; i++ ) 
+        final char[] result = new char[ value.length*2 ];
+        for ( int i = 0 , j = 0 ; i < value.length ; i++ )
         {
             final int v = value[i];
-            final char hi = HEX_CHARS[ (v & 0b11110000) >> 4 ];
-            final char lo = HEX_CHARS[  v & 0b00001111 ];
-            result.append( hi ).append( lo );
+            result[j++] = HEX_CHARS[ (v & 0b11110000) >> 4 ];
+            result[j++] = HEX_CHARS[  v & 0b00001111 ];
+        }
+        return new String( result );
+    }
+
+    private static final class MD5 implements Impl
+    {
+        private final MessageDigest md;
+
+        public MD5()
+        {
+            try {
+                md = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void update(byte[] data, int offset, int len) {
+            md.update( data , offset , len );
+        }
+
+        @Override
+        public byte[] digest() {
+            return md.digest();
+        }
+    }
+
+    private static final class CRC implements Impl
+    {
+        private final CRC32C crc = new CRC32C();
+
+        @Override
+        public void update(byte[] data, int offset, int len) {
+            crc.update( data , offset , len );
+        }
+
+        @Override
+        public byte[] digest()
+        {
+            final long value = crc.getValue();
+            return new byte[] { (byte) (value >>> 24) , (byte) (value >>> 16) , (byte) (value >>> 8) , (byte) value };
+        }
+    }
+
+    /**
+     * Streaming implementation of xxHash64 (seed 0).
+     */
+    private static final class XXHash64 implements Impl
+    {
+        private static final long PRIME1 = 0x9E3779B185EBCA87L;
+        private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+        private static final long PRIME3 = 0x165667B19E3779F9L;
+        private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+        private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+        private long v1 = PRIME1 + PRIME2;
+        private long v2 = PRIME2;
+        private long v3 = 0;
+        private long v4 = -PRIME1;
+
+        private final byte[] buffer = new byte[32];
+        private int bufferLen;
+        private long totalLen;
+
+        @Override
+        public void update(byte[] data, int offset, int len)
+        {
+            totalLen += len;
+            int ptr = offset;
+            final int end = offset+len;
+
+            if ( bufferLen > 0 )
+            {
+                final int toCopy = Math.min( 32 - bufferLen , len );
+                System.arraycopy( data , ptr , buffer , bufferLen , toCopy );
+                bufferLen += toCopy;
+                ptr += toCopy;
+                if ( bufferLen < 32 ) {
+                    return;
+                }
+                processStripe( buffer , 0 );
+                bufferLen = 0;
+            }
+
+            for ( ; ptr + 32 <= end ; ptr += 32 ) {
+                processStripe( data , ptr );
+            }
+
+            if ( ptr < end )
+            {
+                bufferLen = end - ptr;
+                System.arraycopy( data , ptr , buffer , 0 , bufferLen );
+            }
+        }
+
+        private void processStripe(byte[] data,int offset)
+        {
+            v1 = round( v1 , readLong( data , offset ) );
+            v2 = round( v2 , readLong( data , offset+8 ) );
+            v3 = round( v3 , readLong( data , offset+16 ) );
+            v4 = round( v4 , readLong( data , offset+24 ) );
+        }
+
+        private static long round(long acc,long input)
+        {
+            acc += input * PRIME2;
+            acc = Long.rotateLeft( acc , 31 );
+            return acc * PRIME1;
+        }
+
+        private static long mergeRound(long acc,long value)
+        {
+            acc ^= round( 0 , value );
+            return acc * PRIME1 + PRIME4;
+        }
+
+        private static long readLong(byte[] data,int offset)
+        {
+            return ( data[offset] & 0xffL )           |
+                   ( data[offset+1] & 0xffL ) <<  8   |
+                   ( data[offset+2] & 0xffL ) << 16   |
+                   ( data[offset+3] & 0xffL ) << 24   |
+                   ( data[offset+4] & 0xffL ) << 32   |
+                   ( data[offset+5] & 0xffL ) << 40   |
+                   ( data[offset+6] & 0xffL ) << 48   |
+                   ( data[offset+7] & 0xffL ) << 56;
+        }
+
+        private static long readInt(byte[] data,int offset)
+        {
+            return ( data[offset] & 0xffL )           |
+                   ( data[offset+1] & 0xffL ) <<  8   |
+                   ( data[offset+2] & 0xffL ) << 16   |
+                   ( data[offset+3] & 0xffL ) << 24;
+        }
+
+        @Override
+        public byte[] digest()
+        {
+            long h;
+            if ( totalLen >= 32 )
+            {
+                h = Long.rotateLeft( v1 , 1 ) + Long.rotateLeft( v2 , 7 ) + Long.rotateLeft( v3 , 12 ) + Long.rotateLeft( v4 , 18 );
+                h = mergeRound( h , v1 );
+                h = mergeRound( h , v2 );
+                h = mergeRound( h , v3 );
+                h = mergeRound( h , v4 );
+            } else {
+                h = PRIME5;
+            }
+            h += totalLen;
+
+            int ptr = 0;
+            for ( ; ptr + 8 <= bufferLen ; ptr += 8 )
+            {
+                h ^= round( 0 , readLong( buffer , ptr ) );
+                h = Long.rotateLeft( h , 27 ) * PRIME1 + PRIME4;
+            }
+            if ( ptr + 4 <= bufferLen )
+            {
+                h ^= readInt( buffer , ptr ) * PRIME1;
+                h = Long.rotateLeft( h , 23 ) * PRIME2 + PRIME3;
+                ptr += 4;
+            }
+            for ( ; ptr < bufferLen ; ptr++ )
+            {
+                h ^= ( buffer[ptr] & 0xffL ) * PRIME5;
+                h = Long.rotateLeft( h , 11 ) * PRIME1;
+            }
+
+            h ^= h >>> 33;
+            h *= PRIME2;
+            h ^= h >>> 29;
+            h *= PRIME3;
+            h ^= h >>> 32;
+
+            final byte[] result = new byte[8];
+            for ( int i = 7 ; i >= 0 ; i-- , h >>>= 8 ) {
+                result[i] = (byte) h;
+            }
+            return result;
         }
-        return result.toString();
     }
 }
@@ -90,6 +90,26 @@ public class InMemoryResource implements Resource
                 }
                 return data[ptr++] & 0xff;
             }
+
+            @Override
+            public int read(byte[] b, int off, int count) throws IOException 
+            {
+                if ( count == 0 ) {
+                    return 0;
+                }
+                if ( ptr >= len ) {
+                    return -1;
+                }
+                final int toCopy = Math.min( count , len - ptr );
+                System.arraycopy( data , ptr , b , off , toCopy );
+                ptr += toCopy;
+                return toCopy;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return Math.max( 0 , len - ptr );
+            }
         };
     }
 
@@ -142,17 +162,30 @@ public class InMemoryResource implements Resource
             @Override
             public void write(int b) throws IOException 
             {
-                if ( len >= data.length ) 
-                {
-                    byte[] newData = new byte[ data.length*2 ];
-                    System.arraycopy( data , 0 , newData , 0 , data.length );
-                    data = newData;
-                }
+                ensureCapacity( len+1 );
                 data[ len++ ] = (byte) b;
             }
+
+            @Override
+            public void write(byte[] b, int off, int count) throws IOException 
+            {
+                ensureCapacity( len+count );
+                System.arraycopy( b , off , data , len , count );
+                len += count;
+            }
         };
     }
 
+    private void ensureCapacity(int minLength) 
+    {
+        if ( minLength > data.length ) 
+        {
+            byte[] newData = new byte[ Math.max( minLength , data.length*2 ) ];
+            System.arraycopy( data , 0 , newData , 0 , len );
+            data = newData;
+        }
+    }
+
     @Override
     public boolean exists() {
         return true;
@@ -0,0 +1,595 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.Validate;
+
+import de.codesourcery.javr.assembler.Buffer;
+
+/**
+ * Intel HEX encoder and decoder.
+ *
+ * <p>The encoder emits data records (type 00) with {@link #DEFAULT_BYTES_PER_RECORD} bytes each,
+ * extended linear address records (type 04) whenever the upper 16 address bits change, and a final
+ * EOF record (type 01). Lines are terminated with CR LF like the ones written by avr-objcopy.</p>
+ *
+ * <p>The decoder understands record types 00, 01, 02 and 04. Start address records (03 and 05)
+ * have no meaning for AVR images and are ignored.</p>
+ *
+ * <p>Both directions work in a streaming fashion on fixed-size byte buffers, characters are
+ * translated through lookup tables.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class IntelHex 
+{
+    public static final int DEFAULT_BYTES_PER_RECORD = 16;
+
+    private static final int RECORD_DATA = 0x00;
+    private static final int RECORD_EOF = 0x01;
+    private static final int RECORD_EXTENDED_SEGMENT_ADDRESS = 0x02;
+    private static final int RECORD_START_SEGMENT_ADDRESS = 0x03;
+    private static final int RECORD_EXTENDED_LINEAR_ADDRESS = 0x04;
+    private static final int RECORD_START_LINEAR_ADDRESS = 0x05;
+
+    private static final int IO_BUFFER_SIZE = 8*1024;
+
+    // longest possible record: ':' + 2 len + 4 address + 2 type + 2*255 data + 2 checksum + CR LF
+    private static final int MAX_RECORD_CHARS = 1+2+4+2+2*255+2+2;
+
+    // ASCII upper-case hex digits of every byte value, two chars per value
+    private static final byte[] HEX_DIGITS = new byte[ 256*2 ];
+
+    // value of each ASCII hex digit, -1 for invalid characters
+    private static final byte[] HEX_VALUES = new byte[256];
+
+    static 
+    {
+        final byte[] chars = "0123456789ABCDEF".getBytes();
+        for ( int i = 0 ; i < 256 ; i++ ) 
+        {
+            HEX_DIGITS[ i*2 ] = chars[ i >>> 4 ];
+            HEX_DIGITS[ i*2+1 ] = chars[ i & 0x0f ];
+        }
+        Arrays.fill( HEX_VALUES , (byte) -1 );
+        for ( int i = 0 ; i < 10 ; i++ ) {
+            HEX_VALUES[ '0'+i ] = (byte) i;
+        }
+        for ( int i = 0 ; i < 6 ; i++ ) 
+        {
+            HEX_VALUES[ 'a'+i ] = (byte) (10+i);
+            HEX_VALUES[ 'A'+i ] = (byte) (10+i);
+        }
+    }
+
+    private final int bytesPerRecord;
+
+    public IntelHex() {
+        this( DEFAULT_BYTES_PER_RECORD );
+    }
+
+    public IntelHex(int bytesPerRecord) 
+    {
+        Validate.isTrue( bytesPerRecord >= 1 && bytesPerRecord <= 255 , "bytes per record must be in range 1...255" );
+        this.bytesPerRecord = bytesPerRecord;
+    }
+
+    /**
+     * Encodes a buffer's data.
+     *
+     * @param buffer
+     * @param out
+     * @return number of data bytes written
+     * @throws IOException
+     */
+    public int encode(Buffer buffer,OutputStream out) throws IOException 
+    {
+        Validate.notNull(buffer, "buffer must not be NULL");
+        final byte[] data = buffer.toByteArray();
+        return encode( data , 0 , data.length , buffer.getStartAddress().getByteAddress() , out );
+    }
+
+    /**
+     * Encodes data.
+     *
+     * @param data
+     * @param offset
+     * @param len
+     * @param startAddress byte address of <code>data[offset]</code>
+     * @param out
+     * @return number of data bytes written (always <code>len</code>)
+     * @throws IOException
+     */
+    public int encode(byte[] data,int offset,int len,int startAddress,OutputStream out) throws IOException 
+    {
+        final Encoder encoder = createEncoder( startAddress , out );
+        encoder.write( data , offset , len );
+        encoder.finish();
+        return len;
+    }
+
+    /**
+     * Encodes all data read from an input stream.
+     *
+     * @param in
+     * @param out
+     * @param startAddress byte address of the first byte read from <code>in</code>
+     * @return number of data bytes written
+     * @throws IOException
+     */
+    public int rawToHex(InputStream in,OutputStream out,int startAddress) throws IOException 
+    {
+        Validate.notNull(in, "input stream must not be NULL");
+        final Encoder encoder = createEncoder( startAddress , out );
+        final byte[] buffer = new byte[ IO_BUFFER_SIZE ];
+        int total = 0;
+        int len;
+        while ( ( len = in.read( buffer ) ) != -1 ) 
+        {
+            encoder.write( buffer , 0 , len );
+            total += len;
+        }
+        encoder.finish();
+        return total;
+    }
+
+    public Encoder createEncoder(int startAddress,OutputStream out) 
+    {
+        return new Encoder( bytesPerRecord , startAddress , out );
+    }
+
+    /**
+     * Streaming encoder.
+     *
+     * <p>Output does not depend on how the data is split across calls to {@link #write(byte[], int, int)}.
+     * {@link #finish()} must be called after all data has been written.</p>
+     *
+     * @author tobias.gierke@code-sourcery.de
+     */
+    public static final class Encoder 
+    {
+        private final OutputStream out;
+        private final int bytesPerRecord;
+
+        // pending data of current record
+        private final byte[] record;
+        private int recordLen;
+        private int recordAddress;
+
+        private final byte[] outBuffer = new byte[ IO_BUFFER_SIZE ];
+        private int outPtr;
+
+        // upper 16 bits of the address last announced through a type 04 record
+        private int upperAddress;
+        private boolean finished;
+
+        private Encoder(int bytesPerRecord,int startAddress,OutputStream out) 
+        {
+            Validate.notNull(out, "output stream must not be NULL");
+            Validate.isTrue( startAddress >= 0 , "start address must be >= 0");
+            this.out = out;
+            this.bytesPerRecord = bytesPerRecord;
+            this.record = new byte[ bytesPerRecord ];
+            this.recordAddress = startAddress;
+        }
+
+        public void write(byte[] data,int offset,int len) throws IOException 
+        {
+            if ( finished ) {
+                throw new IllegalStateException("Encoder already finished");
+            }
+            int ptr = offset;
+            final int end = offset+len;
+            while ( ptr < end ) 
+            {
+                // records must not cross a 64 KB boundary
+                final int maxLen = Math.min( bytesPerRecord , 0x10000 - ( recordAddress & 0xffff ) );
+                final int toCopy = Math.min( maxLen - recordLen , end - ptr );
+                System.arraycopy( data , ptr , record , recordLen , toCopy );
+                recordLen += toCopy;
+                ptr += toCopy;
+                if ( recordLen == maxLen ) {
+                    flushRecord();
+                }
+            }
+        }
+
+        private void flushRecord() throws IOException 
+        {
+            if ( recordLen == 0 ) {
+                return;
+            }
+            final int upper = recordAddress >>> 16;
+            if ( upper != upperAddress ) 
+            {
+                upperAddress = upper;
+                final byte[] tmp = { (byte) (upper >>> 8) , (byte) upper };
+                writeRecord( RECORD_EXTENDED_LINEAR_ADDRESS , 0 , tmp , 2 );
+            }
+            writeRecord( RECORD_DATA , recordAddress & 0xffff , record , recordLen );
+            recordAddress += recordLen;
+            recordLen = 0;
+        }
+
+        private void writeRecord(int type,int address,byte[] data,int len) throws IOException 
+        {
+            if ( outPtr + MAX_RECORD_CHARS > outBuffer.length ) {
+                flushOutput();
+            }
+            final byte[] buf = outBuffer;
+            int ptr = outPtr;
+            buf[ptr++] = ':';
+            ptr = putHex( buf , ptr , len );
+            ptr = putHex( buf , ptr , address >>> 8 );
+            ptr = putHex( buf , ptr , address & 0xff );
+            ptr = putHex( buf , ptr , type );
+            int checksum = len + ( address >>> 8 ) + ( address & 0xff ) + type;
+            for ( int i = 0 ; i < len ; i++ ) 
+            {
+                final int value = data[i] & 0xff;
+                checksum += value;
+                buf[ptr++] = HEX_DIGITS[ value*2 ];
+                buf[ptr++] = HEX_DIGITS[ value*2+1 ];
+            }
+            ptr = putHex( buf , ptr , -checksum & 0xff );
+            buf[ptr++] = '\r';
+            buf[ptr++] = '\n';
+            outPtr = ptr;
+        }
+
+        private static int putHex(byte[] buf,int ptr,int value) 
+        {
+            buf[ptr] = HEX_DIGITS[ value*2 ];
+            buf[ptr+1] = HEX_DIGITS[ value*2+1 ];
+            return ptr+2;
+        }
+
+        private void flushOutput() throws IOException 
+        {
+            out.write( outBuffer , 0 , outPtr );
+            outPtr = 0;
+        }
+
+        /**
+         * Writes any pending data followed by the EOF record.
+         * 
+         * @throws IOException
+         */
+        public void finish() throws IOException 
+        {
+            if ( ! finished ) 
+            {
+                flushRecord();
+                writeRecord( RECORD_EOF , 0 , record , 0 );
+                flushOutput();
+                finished = true;
+            }
+        }
+    }
+
+    /**
+     * Decodes an Intel HEX file.
+     *
+     * @param in input stream, not closed by this method
+     * @return decoded data
+     * @throws IOException on I/O errors or malformed input
+     */
+    public static Image decode(InputStream in) throws IOException 
+    {
+        Validate.notNull(in, "input stream must not be NULL");
+
+        final Image image = new Image();
+        final byte[] buffer = new byte[ IO_BUFFER_SIZE ];
+        final byte[] line = new byte[ MAX_RECORD_CHARS ];
+        final byte[] data = new byte[255];
+        int lineLen = 0;
+        int lineNo = 1;
+        int baseAddress = 0;
+        int len;
+        while ( ( len = in.read( buffer ) ) != -1 ) 
+        {
+            for ( int i = 0 ; i < len ; i++ ) 
+            {
+                final byte c = buffer[i];
+                if ( c == '\n' ) 
+                {
+                    baseAddress = parseRecord( line , lineLen , lineNo , data , image , baseAddress );
+                    if ( baseAddress < 0 ) {
+                        return image;
+                    }
+                    lineLen = 0;
+                    lineNo++;
+                } 
+                else if ( c != '\r' ) 
+                {
+                    if ( lineLen == line.length ) {
+                        throw new IOException("Line "+lineNo+": Record too long");
+                    }
+                    line[lineLen++] = c;
+                }
+            }
+        }
+        if ( parseRecord( line , lineLen , lineNo , data , image , baseAddress ) >= 0 ) {
+            throw new IOException("Line "+lineNo+": Missing EOF record");
+        }
+        return image;
+    }
+
+    /**
+     * Parses a single record.
+     *
+     * @return new base address or -1 if the EOF record was encountered
+     */
+    private static int parseRecord(byte[] line,int len,int lineNo,byte[] data,Image image,int baseAddress) throws IOException 
+    {
+        // tolerate blank lines and trailing whitespace
+        while ( len > 0 && ( line[len-1] == ' ' || line[len-1] == '\t' ) ) {
+            len--;
+        }
+        if ( len == 0 ) {
+            return baseAddress;
+        }
+        if ( line[0] != ':' ) {
+            throw new IOException("Line "+lineNo+": Record does not start with ':'");
+        }
+        if ( len < 11 || ( len & 1 ) == 0 ) {
+            throw new IOException("Line "+lineNo+": Malformed record");
+        }
+        final int byteCount = hexByte( line , 1 , lineNo );
+        if ( len != 11 + byteCount*2 ) {
+            throw new IOException("Line "+lineNo+": Record length does not match byte count "+byteCount);
+        }
+        final int addrHi = hexByte( line , 3 , lineNo );
+        final int addrLo = hexByte( line , 5 , lineNo );
+        final int type = hexByte( line , 7 , lineNo );
+        int checksum = byteCount + addrHi + addrLo + type;
+        for ( int i = 0 , ptr = 9 ; i < byteCount ; i++ , ptr += 2 ) 
+        {
+            final int value = hexByte( line , ptr , lineNo );
+            data[i] = (byte) value;
+            checksum += value;
+        }
+        checksum += hexByte( line , 9 + byteCount*2 , lineNo );
+        if ( ( checksum & 0xff ) != 0 ) {
+            throw new IOException("Line "+lineNo+": Checksum mismatch");
+        }
+        switch( type ) 
+        {
+            case RECORD_DATA:
+                image.write( baseAddress + ( addrHi << 8 | addrLo ) , data , 0 , byteCount );
+                return baseAddress;
+            case RECORD_EOF:
+                return -1;
+            case RECORD_EXTENDED_SEGMENT_ADDRESS:
+                expectByteCount( 2 , byteCount , lineNo );
+                return ( ( data[0] & 0xff ) << 8 | ( data[1] & 0xff ) ) << 4;
+            case RECORD_EXTENDED_LINEAR_ADDRESS:
+                expectByteCount( 2 , byteCount , lineNo );
+                return ( ( data[0] & 0xff ) << 8 | ( data[1] & 0xff ) ) << 16;
+            case RECORD_START_SEGMENT_ADDRESS:
+            case RECORD_START_LINEAR_ADDRESS:
+                return baseAddress;
+            default:
+                throw new IOException("Line "+lineNo+": Unsupported record type "+type);
+        }
+    }
+
+    private static void expectByteCount(int expected,int actual,int lineNo) throws IOException 
+    {
+        if ( expected != actual ) {
+            throw new IOException("Line "+lineNo+": Expected "+expected+" data bytes but got "+actual);
+        }
+    }
+
+    private static int hexByte(byte[] line,int offset,int lineNo) throws IOException 
+    {
+        final int hi = HEX_VALUES[ line[offset] & 0xff ];
+        final int lo = HEX_VALUES[ line[offset+1] & 0xff ];
+        if ( ( hi | lo ) < 0 ) {
+            throw new IOException("Line "+lineNo+": Invalid hex digit");
+        }
+        return hi << 4 | lo;
+    }
+
+    /**
+     * Sparse memory image, made up of non-overlapping, non-adjacent blocks of data.
+     *
+     * @author tobias.gierke@code-sourcery.de
+     */
+    public static final class Image 
+    {
+        private final TreeMap<Integer,Block> blocks = new TreeMap<>();
+
+        // block most recently written to, HEX files usually contain consecutive records
+        private Block last;
+
+        public static final class Block 
+        {
+            private final int address;
+            private byte[] data;
+            private int len;
+
+            private Block(int address,int initialCapacity) 
+            {
+                this.address = address;
+                this.data = new byte[ Math.max( 16 , initialCapacity ) ];
+            }
+
+            public int getAddress() {
+                return address;
+            }
+
+            public int getLength() {
+                return len;
+            }
+
+            /**
+             * Returns the end address (exclusive).
+             * 
+             * @return
+             */
+            public int getEnd() {
+                return address+len;
+            }
+
+            public byte[] getData() {
+                return Arrays.copyOf( data , len );
+            }
+
+            private void put(int offset,byte[] src,int srcOffset,int count) 
+            {
+                final int newLen = Math.max( len , offset+count );
+                if ( newLen > data.length ) {
+                    data = Arrays.copyOf( data , Math.max( newLen , data.length*2 ) );
+                }
+                System.arraycopy( src , srcOffset , data , offset , count );
+                len = newLen;
+            }
+
+            @Override
+            public String toString() {
+                return "Block[ 0x"+Integer.toHexString( address )+" - 0x"+Integer.toHexString( getEnd() )+" ]";
+            }
+        }
+
+        /**
+         * Writes data, replacing any data previously written to the same addresses.
+         * 
+         * @param address
+         * @param src
+         * @param offset
+         * @param len
+         */
+        public void write(int address,byte[] src,int offset,int len) 
+        {
+            Validate.isTrue( address >= 0 , "address must be >= 0" );
+            if ( len == 0 ) {
+                return;
+            }
+            Block block = last;
+            if ( block == null || address != block.getEnd() ) 
+            {
+                final Map.Entry<Integer,Block> floor = blocks.floorEntry( address );
+                if ( floor != null && address <= floor.getValue().getEnd() ) {
+                    block = floor.getValue();
+                } else {
+                    block = new Block( address , len );
+                    blocks.put( address , block );
+                }
+            }
+            block.put( address - block.address , src , offset , len );
+
+            // merge with blocks that are now overlapping or adjacent,
+            // data just written takes precedence
+            Map.Entry<Integer,Block> next;
+            while ( ( next = blocks.higherEntry( block.address ) ) != null && next.getKey() <= block.getEnd() ) 
+            {
+                final Block other = next.getValue();
+                blocks.remove( next.getKey() );
+                if ( other.getEnd() > block.getEnd() ) 
+                {
+                    final int skip = block.getEnd() - other.address;
+                    block.put( block.len , other.data , skip , other.len - skip );
+                }
+            }
+            last = block;
+        }
+
+        public boolean isEmpty() {
+            return blocks.isEmpty();
+        }
+
+        public List<Block> getBlocks() {
+            return Collections.unmodifiableList( new ArrayList<>( blocks.values() ) );
+        }
+
+        /**
+         * Returns the lowest address holding data.
+         * 
+         * @return lowest address or 0 if this image is empty
+         */
+        public int getStartAddress() {
+            return blocks.isEmpty() ? 0 : blocks.firstKey();
+        }
+
+        /**
+         * Returns the address after the highest address holding data.
+         * 
+         * @return end address (exclusive) or 0 if this image is empty
+         */
+        public int getEndAddress() {
+            return blocks.isEmpty() ? 0 : blocks.lastEntry().getValue().getEnd();
+        }
+
+        /**
+         * Returns the number of bytes holding data.
+         * 
+         * @return
+         */
+        public int size() 
+        {
+            int result = 0;
+            for ( Block b : blocks.values() ) {
+                result += b.len;
+            }
+            return result;
+        }
+
+        /**
+         * Returns the data from {@link #getStartAddress()} to {@link #getEndAddress()}, gaps
+         * are filled with <code>0xff</code> (the value of erased flash memory).
+         * 
+         * @return
+         */
+        public byte[] toByteArray() {
+            return toByteArray( getStartAddress() , getEndAddress() , (byte) 0xff );
+        }
+
+        /**
+         * Returns the data in an address range.
+         * 
+         * @param startAddress first address (inclusive)
+         * @param endAddress last address (exclusive)
+         * @param fill value for addresses that hold no data
+         * @return
+         */
+        public byte[] toByteArray(int startAddress,int endAddress,byte fill) 
+        {
+            Validate.isTrue( startAddress <= endAddress , "start address must be <= end address");
+            final byte[] result = new byte[ endAddress - startAddress ];
+            Arrays.fill( result , fill );
+            for ( Block b : blocks.values() ) 
+            {
+                final int from = Math.max( b.address , startAddress );
+                final int to = Math.min( b.getEnd() , endAddress );
+                if ( from < to ) {
+                    System.arraycopy( b.data , from - b.address , result , from - startAddress , to - from );
+                }
+            }
+            return result;
+        }
+    }
+}
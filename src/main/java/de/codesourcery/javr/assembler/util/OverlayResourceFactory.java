@@ -0,0 +1,106 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.util;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.lang3.Validate;
+
+import de.codesourcery.javr.assembler.ResourceFactory;
+
+/**
+ * Resource factory that serves in-memory snapshots of resources (typically the
+ * unsaved content of open editors) and falls through to another factory for
+ * everything else.
+ *
+ * <p>Resources are always resolved by the underlying factory, snapshots are
+ * only returned by {@link #getContent(Resource)} so that compilation units keep
+ * referring to the underlying storage.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class OverlayResourceFactory implements ResourceFactory
+{
+    private final ResourceFactory delegate;
+
+    private final List<SnapshotResource> snapshots = new CopyOnWriteArrayList<>();
+
+    public OverlayResourceFactory(ResourceFactory delegate)
+    {
+        Validate.notNull(delegate, "delegate must not be NULL");
+        this.delegate = delegate;
+    }
+
+    /**
+     * Sets the content to serve for a resource, replacing any previous snapshot.
+     *
+     * @param resource
+     * @param content
+     * @return snapshot
+     */
+    public synchronized SnapshotResource setSnapshot(Resource resource,String content)
+    {
+        Validate.notNull(resource, "resource must not be NULL");
+        Validate.notNull(content, "content must not be NULL");
+        final SnapshotResource snapshot = new SnapshotResource( resource , content );
+        snapshots.removeIf( existing -> existing.pointsToSameData( resource ) );
+        snapshots.add( snapshot );
+        return snapshot;
+    }
+
+    /**
+     * Discards the snapshot of a resource (if any) so that its content
+     * gets read from the underlying storage again.
+     *
+     * @param resource
+     */
+    public synchronized void removeSnapshot(Resource resource)
+    {
+        Validate.notNull(resource, "resource must not be NULL");
+        snapshots.removeIf( existing -> existing.pointsToSameData( resource ) );
+    }
+
+    public boolean hasSnapshot(Resource resource)
+    {
+        Validate.notNull(resource, "resource must not be NULL");
+        return snapshots.stream().anyMatch( existing -> existing.pointsToSameData( resource ) );
+    }
+
+    @Override
+    public Resource getContent(Resource resource)
+    {
+        Validate.notNull(resource, "resource must not be NULL");
+        for ( SnapshotResource snapshot : snapshots )
+        {
+            if ( snapshot.pointsToSameData( resource ) ) {
+                return snapshot;
+            }
+        }
+        return resource;
+    }
+
+    @Override
+    public Resource resolveResource(String child) throws IOException {
+        return delegate.resolveResource( child );
+    }
+
+    @Override
+    public Resource resolveResource(Resource parent, String child) throws IOException {
+        return delegate.resolveResource( SnapshotResource.unwrap( parent ) , child );
+    }
+}
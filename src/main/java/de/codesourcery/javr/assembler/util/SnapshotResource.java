@@ -0,0 +1,122 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Immutable in-memory snapshot of another resource's (unsaved) content.
+ *
+ * <p>A snapshot is considered to point to the same data as the resource it was taken
+ * from. Writing to or deleting a snapshot affects the underlying resource.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see OverlayResourceFactory
+ */
+public class SnapshotResource implements Resource
+{
+    private final Resource delegate;
+    private final byte[] data;
+    private volatile String contentHash;
+
+    public SnapshotResource(Resource delegate,String content)
+    {
+        Validate.notNull(delegate, "delegate must not be NULL");
+        Validate.notNull(content, "content must not be NULL");
+        this.delegate = unwrap( delegate );
+        this.data = content.getBytes( Charset.forName( delegate.getEncoding() ) );
+    }
+
+    /**
+     * Returns the resource this snapshot was taken from.
+     *
+     * @return
+     */
+    public Resource getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Returns the resource a snapshot was taken from.
+     *
+     * @param resource
+     * @return the resource itself if it is no snapshot
+     */
+    public static Resource unwrap(Resource resource) {
+        return resource instanceof SnapshotResource ? ((SnapshotResource) resource).delegate : resource;
+    }
+
+    @Override
+    public InputStream createInputStream() throws IOException {
+        return new ByteArrayInputStream( data );
+    }
+
+    @Override
+    public OutputStream createOutputStream() throws IOException {
+        return delegate.createOutputStream();
+    }
+
+    @Override
+    public boolean pointsToSameData(Resource other) {
+        return other != null && delegate.pointsToSameData( unwrap( other ) );
+    }
+
+    @Override
+    public int size() {
+        return data.length;
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public String contentHash()
+    {
+        String result = contentHash;
+        if ( result == null ) {
+            result = contentHash = new HashingAlgorithm().update( data , 0 , data.length ).finish();
+        }
+        return result;
+    }
+
+    @Override
+    public String getEncoding() {
+        return delegate.getEncoding();
+    }
+
+    @Override
+    public void delete() throws IOException {
+        delegate.delete();
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString()+" (unsaved)";
+    }
+}
@@ -0,0 +1,261 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.ui;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.log4j.Logger;
+
+/**
+ * Watches a directory tree for changes and pushes them to listeners.
+ *
+ * <p>Hidden directories (names starting with '.') are not watched. Events
+ * that arrive in quick succession are coalesced so that listeners see at most one
+ * event per file and batch.</p>
+ *
+ * <p>Listeners are invoked on the watcher's thread.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class FileSystemWatcher implements AutoCloseable
+{
+    private static final Logger LOG = Logger.getLogger(FileSystemWatcher.class);
+
+    /**
+     * Time to wait for further events before notifying listeners.
+     */
+    private static final long COALESCE_MILLIS = 100;
+
+    public enum ChangeType
+    {
+        CREATED,
+        MODIFIED,
+        DELETED,
+        /**
+         * Events got lost, the directory needs to be rescanned.
+         */
+        OVERFLOW
+    }
+
+    public interface IChangeListener
+    {
+        public void changed(ChangeType type,File file);
+    }
+
+    private final File baseDir;
+    private final WatchService watchService;
+    private final Map<WatchKey,Path> watchedDirs = new ConcurrentHashMap<>();
+    private final List<IChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+
+    private volatile boolean closed;
+
+    public FileSystemWatcher(File baseDir) throws IOException
+    {
+        Validate.notNull(baseDir, "baseDir must not be NULL");
+        this.baseDir = baseDir;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        registerRecursively( baseDir.toPath() , null );
+
+        thread = new Thread( this::watch );
+        thread.setName("filesystem-watcher");
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    public File getBaseDir() {
+        return baseDir;
+    }
+
+    public void addListener(IChangeListener listener)
+    {
+        Validate.notNull(listener, "listener must not be NULL");
+        listeners.add( listener );
+    }
+
+    public void removeListener(IChangeListener listener)
+    {
+        Validate.notNull(listener, "listener must not be NULL");
+        listeners.remove( listener );
+    }
+
+    private static boolean isHidden(Path dir) {
+        return dir.getFileName() != null && dir.getFileName().toString().startsWith(".");
+    }
+
+    /**
+     * Watches a directory and all its (non-hidden) sub-directories.
+     * 
+     * @param start
+     * @param created if not <code>null</code>, receives a {@link ChangeType#CREATED} event for every
+     * file and sub-directory found below <code>start</code>. Used for directories that got created (or moved in) 
+     * while being watched, as no events are generated for their contents.
+     * @throws IOException
+     */
+    private void registerRecursively(Path start,Map<File,ChangeType> created) throws IOException
+    {
+        Files.walkFileTree( start , new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException
+            {
+                if ( ! dir.equals( start ) ) 
+                {
+                    if ( isHidden( dir ) ) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if ( created != null ) {
+                        created.put( dir.toFile() , ChangeType.CREATED );
+                    }
+                }
+                watchedDirs.put( dir.register( watchService , ENTRY_CREATE , ENTRY_DELETE , ENTRY_MODIFY ) , dir );
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+            {
+                if ( created != null ) {
+                    created.put( file.toFile() , ChangeType.CREATED );
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc)
+            {
+                LOG.warn("registerRecursively(): Failed to watch "+file+": "+exc.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void watch()
+    {
+        while ( ! closed )
+        {
+            final Map<File,ChangeType> changes = new LinkedHashMap<>();
+            try
+            {
+                WatchKey key = watchService.take();
+                while ( key != null )
+                {
+                    processEvents( key , changes );
+                    key = watchService.poll( COALESCE_MILLIS , TimeUnit.MILLISECONDS );
+                }
+            }
+            catch (InterruptedException | ClosedWatchServiceException e)
+            {
+                if ( ! closed ) {
+                    LOG.error("watch(): Watcher for "+baseDir.getAbsolutePath()+" terminated unexpectedly",e);
+                }
+                return;
+            }
+            changes.forEach( this::notifyListeners );
+        }
+    }
+
+    private void processEvents(WatchKey key,Map<File,ChangeType> changes)
+    {
+        final Path dir = watchedDirs.get( key );
+        if ( dir == null )
+        {
+            key.cancel();
+            return;
+        }
+        for ( WatchEvent<?> event : key.pollEvents() )
+        {
+            if ( event.kind() == OVERFLOW )
+            {
+                changes.put( dir.toFile() , ChangeType.OVERFLOW );
+                continue;
+            }
+            final Path path = dir.resolve( (Path) event.context() );
+            final File file = path.toFile();
+            if ( event.kind() == ENTRY_CREATE )
+            {
+                changes.put( file , ChangeType.CREATED );
+                if ( Files.isDirectory( path ) && ! isHidden( path ) )
+                {
+                    // files may have been created before the directory got registered
+                    try {
+                        registerRecursively( path , changes );
+                    } catch (IOException e) {
+                        LOG.warn("processEvents(): Failed to watch new directory "+path+": "+e.getMessage());
+                    }
+                }
+            }
+            else if ( event.kind() == ENTRY_DELETE )
+            {
+                changes.put( file , ChangeType.DELETED );
+            }
+            else if ( event.kind() == ENTRY_MODIFY )
+            {
+                // CREATED/DELETED take precedence over MODIFIED
+                changes.putIfAbsent( file , ChangeType.MODIFIED );
+            }
+        }
+        if ( ! key.reset() ) {
+            watchedDirs.remove( key );
+        }
+    }
+
+    private void notifyListeners(File file,ChangeType type)
+    {
+        for ( IChangeListener l : listeners )
+        {
+            try {
+                l.changed( type , file );
+            } catch(Exception e) {
+                LOG.error("notifyListeners(): Listener "+l+" failed: "+e,e);
+            }
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        closed = true;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            LOG.error("close(): Failed to close watch service",e);
+        }
+    }
+}
@@ -21,7 +21,10 @@ import de.codesourcery.javr.assembler.CompilationUnit;
 import de.codesourcery.javr.assembler.IObjectCodeWriter;
 import de.codesourcery.javr.assembler.ResourceFactory;
 import de.codesourcery.javr.assembler.arch.IArchitecture;
+import de.codesourcery.javr.assembler.metrics.CompileMetrics;
+import de.codesourcery.javr.assembler.symbols.CrossReferenceIndex;
 import de.codesourcery.javr.assembler.symbols.SymbolTable;
+import de.codesourcery.javr.assembler.util.OverlayResourceFactory;
 import de.codesourcery.javr.assembler.util.Resource;
 import de.codesourcery.javr.ui.config.IConfigProvider;
 import de.codesourcery.javr.ui.config.ProjectConfiguration;
@@ -60,6 +63,28 @@ public interface IProject extends ResourceFactory,IConfigProvider
     public CompilationUnit getCompilationUnit(Resource resource);
     
     public SymbolTable getGlobalSymbolTable();
+    
+    /**
+     * Returns the index of all symbol references, as recorded by the most recent compilation(s).
+     * 
+     * @return
+     */
+    public CrossReferenceIndex getCrossReferenceIndex();
+    
+    /**
+     * Returns the metrics of the most recent call to {@link #compile()}.
+     * 
+     * @return metrics or <code>null</code> if this project has not been compiled yet
+     */
+    public CompileMetrics getLastCompileMetrics();
+
+    /**
+     * Returns the resource factory used when compiling this project,
+     * serving unsaved editor contents instead of the files on disk.
+     * 
+     * @return
+     */
+    public OverlayResourceFactory getResourceOverlay();
 
 	public void removeCompilationUnit(CompilationUnit newUnit);
 	
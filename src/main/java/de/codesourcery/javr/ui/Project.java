@@ -15,26 +15,26 @@
  */
 package de.codesourcery.javr.ui;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.Paths;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.log4j.Logger;
-import de.codesourcery.hex2raw.IntelHex;
+import de.codesourcery.javr.assembler.ArtifactWriter;
 import de.codesourcery.javr.assembler.Assembler;
 import de.codesourcery.javr.assembler.Buffer;
 import de.codesourcery.javr.assembler.CompilationUnit;
@@ -42,16 +42,22 @@ import de.codesourcery.javr.assembler.ICompilationContext;
 import de.codesourcery.javr.assembler.IObjectCodeWriter;
 import de.codesourcery.javr.assembler.ObjectCodeWriter;
 import de.codesourcery.javr.assembler.ObjectCodeWriterWrapper;
+import de.codesourcery.javr.assembler.ResourceFactory;
 import de.codesourcery.javr.assembler.Segment;
 import de.codesourcery.javr.assembler.arch.IArchitecture;
 import de.codesourcery.javr.assembler.elf.ElfFile;
+import de.codesourcery.javr.assembler.metrics.CompileMetrics;
+import de.codesourcery.javr.assembler.metrics.MemoryMap;
 import de.codesourcery.javr.assembler.parser.Lexer;
 import de.codesourcery.javr.assembler.parser.LexerImpl;
 import de.codesourcery.javr.assembler.parser.Parser;
 import de.codesourcery.javr.assembler.parser.Parser.CompilationMessage;
 import de.codesourcery.javr.assembler.parser.Scanner;
+import de.codesourcery.javr.assembler.symbols.CrossReferenceIndex;
 import de.codesourcery.javr.assembler.symbols.SymbolTable;
+import de.codesourcery.javr.assembler.util.IntelHex;
 import de.codesourcery.javr.assembler.util.Misc;
+import de.codesourcery.javr.assembler.util.OverlayResourceFactory;
 import de.codesourcery.javr.assembler.util.Resource;
 import de.codesourcery.javr.ui.config.IConfig;
 import de.codesourcery.javr.ui.config.ProjectConfiguration;
@@ -68,8 +74,24 @@ public class Project implements IProject
     private CompilationUnit compileRoot;    
     
     private final SymbolTable globalSymbolTable = new SymbolTable( SymbolTable.GLOBAL );
+    
+    private final CrossReferenceIndex crossReferenceIndex = new CrossReferenceIndex();
 
     private ProjectConfiguration projectConfig = new ProjectConfiguration();
+
+    // serves unsaved editor contents to the assembler
+    private final OverlayResourceFactory resourceOverlay = new OverlayResourceFactory( new ResourceFactory() 
+    {
+        @Override
+        public Resource resolveResource(String child) throws IOException {
+            return projectConfig.resolveResource( child );
+        }
+
+        @Override
+        public Resource resolveResource(Resource parent, String child) throws IOException {
+            return projectConfig.resolveResource( parent , child );
+        }
+    });
     
     private final ObjectCodeWriter writerDelegate = new ObjectCodeWriter();
     private final IObjectCodeWriter objWriter = new ObjectCodeWriterWrapper( writerDelegate ) 
@@ -79,10 +101,6 @@ public class Project implements IProject
         {
             super.reset();
             artifactsGenerated = false;
-            for ( OutputSpec spec : projectConfig.getOutputFormats().values() ) 
-            {
-                spec.deleteFile();
-            }
         }
 
         @Override
@@ -93,9 +111,21 @@ public class Project implements IProject
             if ( ! success ) 
             {
                 compilationSuccess = false;
+                // do not leave artifacts of a previous compilation lying around
+                for ( OutputSpec spec : projectConfig.getOutputFormats().values() ) 
+                {
+                    if ( spec != null ) {
+                        spec.deleteFile();
+                    }
+                }
+                projectConfig.getMemoryMapResource().delete();
+                projectConfig.getMemoryMapJsonResource().delete();
                 return;
             }
             
+            final ArtifactWriter writer = new ArtifactWriter();
+            final Map<Segment,Integer> bytesUsed = new EnumMap<>( Segment.class );
+            final Map<Segment,ArtifactWriter.Artifact> artifacts = new EnumMap<>( Segment.class );
             for ( Segment s : Segment.values() ) 
             {
                 final OutputSpec spec = projectConfig.getOutputFormats().get( s );
@@ -108,52 +138,76 @@ public class Project implements IProject
                 if ( buffer.isEmpty() ) 
                 {
                     LOG.info("finish(): Not writing file, compilation produced no data for segment "+s);
+                    spec.deleteFile();
                     continue;
                 }
-                int bytesWritten;
-                try ( InputStream in = buffer.createInputStream() ; OutputStream out = spec.resource.createOutputStream() ) 
+                bytesUsed.put( s , buffer.size() );
+                
+                final ArtifactWriter.Artifact artifact;
+                if ( spec.format == OutputFormat.INTEL_HEX ) 
                 {
-                    if ( spec.format == OutputFormat.INTEL_HEX ) 
-                    {
-                        bytesWritten = new IntelHex().rawToHex( in , out , buffer.getStartAddress().getByteAddress() ); 
-                    } 
-                    else if ( spec.format == OutputFormat.RAW ) 
-                    {
-                        bytesWritten = IOUtils.copy( in , out );
-                    } 
-                    else if ( spec.format == OutputFormat.ELF_EXECUTABLE || spec.format == OutputFormat.ELF_RELOCATABLE ) 
-                    {
-                        final ByteArrayOutputStream program = new ByteArrayOutputStream();
-                        bytesWritten = IOUtils.copy( in , program );
-                        if ( s == Segment.FLASH ) {
-                            new ElfFile( spec.format ).write( getArchitecture() , delegate , context.globalSymbolTable() , out );
-                        }
-                    } else {
-                        throw new RuntimeException("Unhandled output format: "+spec.format);
-                    }
-                }
-                if ( bytesWritten > 0 )
+                    // generators run concurrently, so hand them a copy of the data
+                    final byte[] data = buffer.toByteArray();
+                    final int startAddress = buffer.getStartAddress().getByteAddress();
+                    artifact = writer.add( spec.resource , out -> new IntelHex().encode( data , 0 , data.length , startAddress , out ) ); 
+                } 
+                else if ( spec.format == OutputFormat.RAW ) 
+                {
+                    final byte[] data = buffer.toByteArray();
+                    artifact = writer.add( spec.resource , out -> out.write( data ) );
+                } 
+                else if ( spec.format == OutputFormat.ELF_EXECUTABLE || spec.format == OutputFormat.ELF_RELOCATABLE ) 
                 {
-                    artifactsGenerated = true;
-                    
-                    final int segSize = getArchitecture().getSegmentSize( s );
-                    final float percentage = 100.0f*(bytesWritten/(float) segSize);
-                    final DecimalFormat DF = new DecimalFormat("#####0.00");
-                    final String msg;
-                    if ( spec.format == OutputFormat.ELF_EXECUTABLE && s == Segment.SRAM ) {
-                        msg = s+": "+bytesWritten+" bytes used ("+DF.format(percentage)+" %)";
+                    // a single ELF file holds all segments
+                    if ( s == Segment.FLASH ) {
+                        artifact = writer.add( spec.resource , out -> new ElfFile( spec.format ).write( getArchitecture() , delegate , context.globalSymbolTable() , out ) );
                     } else {
-                        msg = s+": Wrote "+bytesWritten+" bytes ("+DF.format(percentage)+" %) to "+spec.resource;
+                        spec.deleteFile();
+                        artifact = null;
                     }
-                    context.message( CompilationMessage.info( context.currentCompilationUnit() , msg ) );                    
+                } else {
+                    throw new RuntimeException("Unhandled output format: "+spec.format);
+                }
+                if ( artifact != null ) {
+                    artifacts.put( s , artifact );
                 }
-                LOG.info("finish(): Wrote "+bytesWritten+" bytes to "+spec.resource+" in format "+spec.format);
-            } 
+            }
+
+            final MemoryMap memoryMap = MemoryMap.create( compileRoot , context.globalSymbolTable() , delegate , getArchitecture() );
+            writer.add( projectConfig.getMemoryMapResource() , memoryMap::writeText );
+            writer.add( projectConfig.getMemoryMapJsonResource() , memoryMap::writeJson );
+
+            writer.writeAll();
+            
+            final DecimalFormat DF = new DecimalFormat("#####0.00");
+            for ( Map.Entry<Segment,Integer> entry : bytesUsed.entrySet() )
+            {
+                final Segment s = entry.getKey();
+                final int bytesWritten = entry.getValue();
+                final ArtifactWriter.Artifact artifact = artifacts.get( s );
+                artifactsGenerated = true;
+                
+                final int segSize = getArchitecture().getSegmentSize( s );
+                final float percentage = 100.0f*(bytesWritten/(float) segSize);
+                final String msg;
+                if ( artifact == null ) {
+                    msg = s+": "+bytesWritten+" bytes used ("+DF.format(percentage)+" %)";
+                } else if ( artifact.isUpdated() ) {
+                    msg = s+": Wrote "+bytesWritten+" bytes ("+DF.format(percentage)+" %) to "+artifact.resource;
+                } else {
+                    msg = s+": "+bytesWritten+" bytes ("+DF.format(percentage)+" %), "+artifact.resource+" is up-to-date";
+                }
+                context.message( CompilationMessage.info( context.currentCompilationUnit() , msg ) );                    
+                if ( artifact != null ) {
+                    LOG.info("finish(): "+( artifact.isUpdated() ? "Wrote " : "Unchanged " )+artifact.getSize()+" bytes to "+artifact.resource);
+                }
+            }
         }
     };
 
     private boolean compilationSuccess = false;
     private boolean artifactsGenerated = false;
+    private CompileMetrics lastCompileMetrics;
 
     public Project(CompilationUnit compilationRoot) 
     {
@@ -307,20 +361,38 @@ public class Project implements IProject
     @Override
     public boolean compile() throws IOException 
     {
+        final Assembler asm = new Assembler();
     	try 
     	{
 	        compilationSuccess  = false;
 	        artifactsGenerated = false;
 	        
-	        final Assembler asm = new Assembler();
-	        compilationSuccess = asm.compile(  this , getObjectCodeWriter() , projectConfig , this );
+	        compilationSuccess = asm.compile(  this , getObjectCodeWriter() , resourceOverlay , this );
 	        return compilationSuccess;
     	} 
     	finally {
+    	    lastCompileMetrics = asm.getLastMetrics();
+    	    clearIsDirty( compileRoot );
     		invokeProjectListeners( l -> l.compilationFinished( Project.this , compilationSuccess ) );
     	}
     }
     
+    private static void clearIsDirty(CompilationUnit root) 
+    {
+        final Set<CompilationUnit> visited = Collections.newSetFromMap( new IdentityHashMap<>() );
+        final List<CompilationUnit> stack = new ArrayList<>();
+        stack.add( root );
+        while ( ! stack.isEmpty() ) 
+        {
+            final CompilationUnit unit = stack.remove( stack.size()-1 );
+            if ( visited.add( unit ) ) 
+            {
+                unit.clearIsDirty();
+                stack.addAll( unit.getDependencies() );
+            }
+        }
+    }
+    
     @Override
     public IConfig getConfig()
     {
@@ -383,15 +455,36 @@ public class Project implements IProject
         return projectConfig.resolveResource(parent,child);
     }
 
+    @Override
+    public Resource getContent(Resource resource) {
+        return resourceOverlay.getContent( resource );
+    }
+
+    @Override
+    public OverlayResourceFactory getResourceOverlay() {
+        return resourceOverlay;
+    }
+
     @Override
     public SymbolTable getGlobalSymbolTable() {
         return globalSymbolTable;
     }
+    
+    @Override
+    public CrossReferenceIndex getCrossReferenceIndex() {
+        return crossReferenceIndex;
+    }
+    
+    @Override
+    public CompileMetrics getLastCompileMetrics() {
+        return lastCompileMetrics;
+    }
 
 	@Override
 	public void removeCompilationUnit(CompilationUnit unit) 
 	{
 		if ( this.units.remove( unit ) ) {
+			crossReferenceIndex.remove( unit );
 			invokeProjectListeners( l -> l.unitRemoved( this , unit ) ) ;
 		}
 	}
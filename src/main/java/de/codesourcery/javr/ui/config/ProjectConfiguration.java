@@ -29,8 +29,9 @@ import de.codesourcery.javr.assembler.CompilerSettings;
 import de.codesourcery.javr.assembler.ResourceFactory;
 import de.codesourcery.javr.assembler.Segment;
 import de.codesourcery.javr.assembler.arch.Architecture;
+import de.codesourcery.javr.assembler.arch.DeviceRegistry;
 import de.codesourcery.javr.assembler.arch.IArchitecture;
-import de.codesourcery.javr.assembler.arch.impl.ATMega328p;
+import de.codesourcery.javr.assembler.arch.impl.DeviceArchitecture;
 import de.codesourcery.javr.assembler.util.FileResource;
 import de.codesourcery.javr.assembler.util.FileResourceFactory;
 import de.codesourcery.javr.assembler.util.Resource;
@@ -93,7 +94,7 @@ public class ProjectConfiguration implements ResourceFactory
     private String uploadCommand;
     private String outputName;
     private OutputFormat outputFormat = OutputFormat.INTEL_HEX;
-    private IArchitecture architecture = new ATMega328p();
+    private IArchitecture architecture = Architecture.ATMEGA328P.getImplementation();
     private CompilerSettings compilerSettings = new CompilerSettings();
     private String compilationRoot = "main.asm";
     private String sourceFolder = "src";
@@ -219,7 +220,27 @@ public class ProjectConfiguration implements ResourceFactory
         return outputName != null ? outputName : projectName;
     }
     
-    public void setOutputName(String outputName) 
+    /**
+     * Returns the file the human-readable memory map gets written to.
+     *
+     * @return
+     * @throws IOException
+     */
+    public Resource getMemoryMapResource() throws IOException {
+        return resourceFactory.resolveResource( getOutputName()+".map" );
+    }
+
+    /**
+     * Returns the file the memory map gets written to as JSON.
+     *
+     * @return
+     * @throws IOException
+     */
+    public Resource getMemoryMapJsonResource() throws IOException {
+        return resourceFactory.resolveResource( getOutputName()+".map.json" );
+    }
+
+    public void setOutputName(String outputName)
     {
         this.outputName = outputName;
         setupOutputResources();
@@ -241,6 +262,9 @@ public class ProjectConfiguration implements ResourceFactory
         props.put( "compilationRoot" , compilationRoot );
         props.put( "outputFormat" , outputFormat.name() );
         props.put( "architecture" , architecture.getType().name() );
+        if ( architecture instanceof DeviceArchitecture ) {
+            props.put( "device" , architecture.getDeviceName() );
+        }
 
         // compiler settings
         props.put( "warnIfInOutCanBeUsed" , Boolean.toString( getCompilerSettings().isWarnIfInOutCanBeUsed() ) );
@@ -272,6 +296,7 @@ public class ProjectConfiguration implements ResourceFactory
                 case "outputName": config.setOutputName( value); break;
                 case "sourceFolder": config.setSourceFolder( value); break;
                 case "compilationRoot": config.setCompilationRoot( value); break;
+                case "device": break; // applied below as it takes precedence over 'architecture'
                 default:
                     LOG.warn("load(): Ignored unknown property '"+key+"'");
             }
@@ -279,6 +304,16 @@ public class ProjectConfiguration implements ResourceFactory
         
         config.setBaseDir( baseDir );
         
+        final String device = props.getProperty( "device" );
+        if ( device != null ) 
+        {
+            if ( DeviceRegistry.getInstance().isKnownDevice( device ) ) {
+                config.setDevice( device );
+            } else {
+                LOG.warn("load(): Unknown device '"+device+"', using architecture "+config.getArchitecture().getType()+" instead");
+            }
+        }
+        
         final CompilerSettings settings = new CompilerSettings();
         if ( props.containsKey( "failOnAddressOutOfBounds" ) ) 
         {
@@ -304,10 +339,20 @@ public class ProjectConfiguration implements ResourceFactory
     public void setArchitecture(Architecture architecture) 
     {
         Validate.notNull(architecture, "architecture must not be NULL");
-        if ( this.architecture.getType() != architecture ) 
-        {
-            this.architecture = architecture.createImplementation();
-        }
+        this.architecture = architecture.getImplementation();
+    }
+    
+    /**
+     * Sets the architecture to the one of a specific part.
+     * 
+     * @param deviceName part name, case-insensitive
+     * @throws IllegalArgumentException if the part is unknown
+     * @see DeviceRegistry
+     */
+    public void setDevice(String deviceName) 
+    {
+        Validate.notBlank(deviceName, "deviceName must not be NULL or blank");
+        this.architecture = DeviceRegistry.getInstance().getArchitecture( deviceName );
     }
     
     public CompilerSettings getCompilerSettings() {
@@ -82,6 +82,10 @@ public class EditorFrame extends JInternalFrame implements IWindow
 		return editors.stream().filter( ed -> ed.getCompilationUnit().hasSameResourceAs( unit ) ).findFirst();
 	}
 	
+	public boolean hasEditor(CompilationUnit unit) {
+	    return getEditor( unit ).isPresent();
+	}
+	
 	public boolean closeEditor(CompilationUnit unit,boolean askIfDirty) {
 		
 		final Optional<EditorPanel> editor = getEditor(unit);
@@ -92,6 +96,22 @@ public class EditorFrame extends JInternalFrame implements IWindow
 		return false;
 	}
 	
+	/**
+	 * Asks the user whether to save unsaved changes of any editor.
+	 * 
+	 * @return <code>false</code> if the user cancelled
+	 */
+	public boolean askToSaveChanges() 
+	{
+	    for ( EditorPanel editor : editors ) 
+	    {
+	        if ( ! editor.askToSaveChanges() ) {
+	            return false;
+	        }
+	    }
+	    return true;
+	}
+	
 	public EditorPanel openEditor(IProject project,CompilationUnit unit) throws IOException 
 	{
 	    Optional<EditorPanel> existing = editors.stream().filter( editor -> editor.getProject().equals( project ) && 
@@ -18,35 +18,33 @@ package de.codesourcery.javr.ui.frames;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
+import java.awt.FlowLayout;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
 import java.util.function.Consumer;
+import javax.swing.JComboBox;
 import javax.swing.JInternalFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.SwingUtilities;
 import javax.swing.event.TableModelEvent;
-import javax.swing.event.TableModelListener;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.TableColumn;
-import javax.swing.table.TableModel;
 import org.apache.commons.lang3.Validate;
 import de.codesourcery.javr.assembler.parser.Parser.CompilationMessage;
+import de.codesourcery.javr.assembler.parser.Parser.Severity;
 
 public class MessageFrame extends JInternalFrame implements IWindow 
 {
-	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.S");
-	
-	public static final int COLUMN_TIMESTAMP = 0;
-	public static final int COLUMN_LOCATION = 1;
-	public static final int COLUMN_SEVERITY = 2;
-	public static final int COLUMN_MESSAGE = 3;
+	public static final int COLUMN_TIMESTAMP = MessageTableModel.COLUMN_TIMESTAMP;
+	public static final int COLUMN_LOCATION = MessageTableModel.COLUMN_LOCATION;
+	public static final int COLUMN_SEVERITY = MessageTableModel.COLUMN_SEVERITY;
+	public static final int COLUMN_MESSAGE = MessageTableModel.COLUMN_MESSAGE;
 	
     public static final String WINDOW_ID = "messagewindow";
 
@@ -56,148 +54,37 @@ public class MessageFrame extends JInternalFrame implements IWindow
     
     private Consumer<CompilationMessage> doubleClickListener = msg -> {};
     
-
-    protected final class MessageTableModel implements TableModel 
-    {
-        private final List<CompilationMessage> errors = new ArrayList<>();
-
-        private final List<TableModelListener> listeners = new ArrayList<>();
-
-        public void add(CompilationMessage msg) 
-        {
-            Validate.notNull(msg,"msg must not be NULL");
-            this.errors.add(msg);
-            int idx = this.errors.size();
-            final TableModelEvent ev = new TableModelEvent( this , idx ,idx );
-            listeners.forEach( l -> l.tableChanged( ev ) );
-            resizeColumns();
-        }
-
-        public void addAll(Collection<CompilationMessage> msg) 
-        {
-            Validate.notNull(msg,"msg must not be NULL");
-            final int start = errors.size();
-            this.errors.addAll(msg);
-            final int end = this.errors.size();
-            final TableModelEvent ev = new TableModelEvent( this , start,end );
-            listeners.forEach( l -> l.tableChanged( ev ) );
-            resizeColumns();
-        }        
-
-        public void clear() 
-        {
-            errors.clear();
-            final TableModelEvent ev = new TableModelEvent( this );
-            listeners.forEach( l -> l.tableChanged( ev ) );
-            resizeColumns();
-        }
-
-        @Override
-        public int getRowCount() {
-            return errors.size();
-        }
-
-        @Override
-        public int getColumnCount() {
-            return 4;
-        }
-
-        private void assertValidColumn(int columnIndex) {
-            if ( columnIndex < 0 || columnIndex > 3 ) {
-                throw new RuntimeException("Invalid column: "+columnIndex);
-            }
-        }
-        @Override
-        public String getColumnName(int columnIndex) 
-        {
-            switch(columnIndex) 
-            {
-            	case 0:
-            		return "Time";
-	            case 1:
-                    return "Location";
-                case 2:
-                    return "Severity";
-                case 3:
-                    return "Message";
-                default:
-                    throw new RuntimeException("Invalid column: "+columnIndex);
-            }
-        }
-
-        @Override
-        public Class<?> getColumnClass(int columnIndex) 
-        {
-            assertValidColumn(columnIndex);
-            return String.class;
-        }
-
-        @Override
-        public boolean isCellEditable(int rowIndex, int columnIndex) {
-            return false;
-        }
-
-        @Override
-        public Object getValueAt(int rowIndex, int columnIndex) 
-        {
-            final CompilationMessage msg = errors.get(rowIndex);
-            switch( columnIndex ) 
-            {
-            	case 0:
-            		return DATE_FORMAT.format( msg.getTimestamp() );
-                case 1:
-                    if ( msg.region == null ) {
-                        return "<unknown>";
-                    }
-                    return msg.region.toString();
-                case 2:
-                    return msg.severity.toString();
-                case 3:
-                    return msg.message;
-                default:
-                    throw new RuntimeException("Invalid column: "+columnIndex);                 
-            }
-        }
-
-        @Override
-        public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public void addTableModelListener(TableModelListener l) {
-            listeners.add(l);
-        }
-
-        @Override
-        public void removeTableModelListener(TableModelListener l) {
-            listeners.remove(l);
-        }
-
-        public CompilationMessage getRow(int row) {
-            return errors.get( row );
-        }
-    }
+    // widest cell of each column , columns only grow until the table gets cleared or re-sorted
+    private final int[] columnWidths = new int[ messageModel.getColumnCount() ];
     
     private int stringWidth(String text) {
         return (int) (getFontMetrics( getFont() ).stringWidth( text )*1.5);
     }
     
-    private void resizeColumns() 
+    private void resizeColumns(TableModelEvent e) 
     {
-        SwingUtilities.invokeLater( () -> {
-        for ( int i = 0 , len = errorTable.getModel().getColumnCount(); i < len ; i++) 
+        if ( e.getType() == TableModelEvent.DELETE ) {
+            return;
+        }
+        final boolean allRows = e.getFirstRow() == TableModelEvent.HEADER_ROW || e.getLastRow() == Integer.MAX_VALUE;
+        SwingUtilities.invokeLater( () -> 
         {
-            int maxWidth = stringWidth( errorTable.getColumnName( i ) );
-            for ( int j = 0 , len2 = errorTable.getModel().getRowCount() ; j < len2 ; j++ ) 
+            final int rowCount = messageModel.getRowCount();
+            final int firstRow = allRows ? 0 : Math.min( e.getFirstRow() , rowCount ); 
+            final int lastRow = allRows ? rowCount-1 : Math.min( e.getLastRow() , rowCount-1 );
+            for ( int i = 0 , len = messageModel.getColumnCount(); i < len ; i++) 
             {
-                final int textWidth = stringWidth( (String) errorTable.getModel().getValueAt( j , i ) );
-                maxWidth = Math.max( maxWidth , textWidth );
+                int maxWidth = allRows ? stringWidth( errorTable.getColumnName( i ) ) : columnWidths[i];
+                for ( int j = firstRow ; j <= lastRow ; j++ ) 
+                {
+                    final int textWidth = stringWidth( (String) messageModel.getValueAt( j , i ) );
+                    maxWidth = Math.max( maxWidth , textWidth );
+                }
+                columnWidths[i] = maxWidth;
+                final TableColumn col = errorTable.getColumnModel().getColumn( i );
+                col.setMinWidth( maxWidth );
+                col.setMaxWidth(maxWidth  );
             }
-            final TableColumn col = errorTable.getColumnModel().getColumn( i );
-            col.setMinWidth( maxWidth );
-            col.setMaxWidth(maxWidth  );
-        }
         });
     }
 
@@ -209,6 +96,7 @@ public class MessageFrame extends JInternalFrame implements IWindow
 
         errorTable.setFillsViewportHeight(true);
         errorTable.setPreferredScrollableViewportSize( new Dimension(800,400));
+        messageModel.addTableModelListener( this::resizeColumns );
         
         errorTable.setDefaultRenderer( String.class , new DefaultTableCellRenderer() 
         {
@@ -216,7 +104,7 @@ public class MessageFrame extends JInternalFrame implements IWindow
             public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) 
             {
                 final Component result = super.getTableCellRendererComponent(errorTable, value, isSelected, hasFocus, row, column);
-                if ( column == 2 ) {
+                if ( column == COLUMN_SEVERITY ) {
                 	final CompilationMessage msg = messageModel.getRow( row );            	
                     switch ( msg.severity ) 
                     {
@@ -253,12 +141,40 @@ public class MessageFrame extends JInternalFrame implements IWindow
                 }
             }
         });       
+        // click on column header sorts by column, clicking again reverses the sort order
+        errorTable.getTableHeader().addMouseListener( new MouseAdapter() 
+        {
+            @Override
+            public void mouseClicked(MouseEvent e) 
+            {
+                final int column = errorTable.convertColumnIndexToModel( errorTable.columnAtPoint( e.getPoint() ) );
+                if ( column != -1 && e.getButton() == MouseEvent.BUTTON1 ) 
+                {
+                    final boolean ascending = column != messageModel.getSortColumn() || ! messageModel.isSortAscending();
+                    messageModel.sortBy( column , ascending );
+                }
+            }
+        });
+
+        final JComboBox<Severity> severityFilter = new JComboBox<>( Severity.values() );
+        severityFilter.setSelectedItem( messageModel.getMinimumSeverity() );
+        severityFilter.addActionListener( ev -> messageModel.setMinimumSeverity( (Severity) severityFilter.getSelectedItem() ) );
+        final JPanel filterPanel = new JPanel( new FlowLayout( FlowLayout.LEFT ) );
+        filterPanel.add( new JLabel("Minimum severity:") );
+        filterPanel.add( severityFilter );
 
         getContentPane().setLayout( new GridBagLayout() );
-        final GridBagConstraints cnstrs = new GridBagConstraints();
+        GridBagConstraints cnstrs = new GridBagConstraints();
         cnstrs.gridheight = 1; cnstrs.gridwidth = 1;
-        cnstrs.fill = GridBagConstraints.BOTH;
+        cnstrs.fill = GridBagConstraints.HORIZONTAL;
         cnstrs.gridx = 0 ; cnstrs.gridy = 0;
+        cnstrs.weightx = 1; cnstrs.weighty = 0;
+        getContentPane().add( filterPanel , cnstrs );
+
+        cnstrs = new GridBagConstraints();
+        cnstrs.gridheight = 1; cnstrs.gridwidth = 1;
+        cnstrs.fill = GridBagConstraints.BOTH;
+        cnstrs.gridx = 0 ; cnstrs.gridy = 1;
         cnstrs.weightx = 1; cnstrs.weighty = 1;
         final JScrollPane pane = new JScrollPane( errorTable );
         getContentPane().add( pane , cnstrs );
@@ -283,6 +199,15 @@ public class MessageFrame extends JInternalFrame implements IWindow
         messageModel.addAll( msgs );
     }
 
+    /**
+     * Replaces all messages, only updating rows of messages that actually changed.
+     * 
+     * @param msgs
+     */
+    public void setMessages(Collection<CompilationMessage> msgs) {
+        messageModel.setMessages( msgs );
+    }
+
     @Override
     public String getWindowId() {
         return WINDOW_ID;
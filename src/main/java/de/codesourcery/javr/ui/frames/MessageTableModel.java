@@ -0,0 +1,482 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.ui.frames;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.table.TableModel;
+
+import org.apache.commons.lang3.Validate;
+
+import de.codesourcery.javr.assembler.parser.Parser.CompilationMessage;
+import de.codesourcery.javr.assembler.parser.Parser.Severity;
+
+/**
+ * Table model holding compilation messages.
+ *
+ * <p>{@link #setMessages(Collection)} diffs the new messages against the current ones (messages are considered
+ * equal if they refer to the same resource and text region and have the same severity and text) and only
+ * fires row insert/delete events for messages that actually changed. Rows of messages that are still present keep
+ * their position and timestamp.</p>
+ * 
+ * <p>All messages are kept in a backing store, the visible rows (filtered by minimum severity and sorted
+ * by column) are only re-computed after the filter or sort order changed.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class MessageTableModel implements TableModel
+{
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.S");
+
+    public static final int COLUMN_TIMESTAMP = 0;
+    public static final int COLUMN_LOCATION = 1;
+    public static final int COLUMN_SEVERITY = 2;
+    public static final int COLUMN_MESSAGE = 3;
+
+    private static final Comparator<Row> BY_SEQUENCE = (a,b) -> Long.compare( a.sequence , b.sequence );
+
+    private final List<TableModelListener> listeners = new CopyOnWriteArrayList<>();
+
+    // all messages, in order of arrival
+    private final List<Row> messages = new ArrayList<>();
+    // visible rows , only valid if viewValid == true
+    private final List<Row> rows = new ArrayList<>();
+    private boolean viewValid = true;
+
+    private long nextSequence;
+
+    private Severity minimumSeverity = Severity.INFO;
+    private int sortColumn = COLUMN_TIMESTAMP;
+    private boolean sortAscending = true;
+    private Comparator<Row> order = BY_SEQUENCE;
+
+    /**
+     * Identifies a message across compilations.
+     */
+    private static final class MessageKey
+    {
+        private final String resource;
+        private final int regionStart;
+        private final int regionLength;
+        private final Severity severity;
+        private final String message;
+        private final int hashCode;
+
+        public MessageKey(CompilationMessage msg)
+        {
+            this.resource = msg.unit == null ? null : msg.unit.getResource().toString();
+            this.regionStart = msg.region == null ? -1 : msg.region.start();
+            this.regionLength = msg.region == null ? -1 : msg.region.length();
+            this.severity = msg.severity;
+            this.message = msg.message;
+            this.hashCode = Objects.hash( resource , regionStart , regionLength , severity , message );
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if ( obj instanceof MessageKey )
+            {
+                final MessageKey other = (MessageKey) obj;
+                return this.hashCode == other.hashCode && 
+                        this.regionStart == other.regionStart && this.regionLength == other.regionLength && 
+                        this.severity == other.severity && 
+                        Objects.equals( this.resource , other.resource ) && 
+                        Objects.equals( this.message , other.message );
+            }
+            return false;
+        }
+    }
+
+    private static final class Row
+    {
+        public final MessageKey key;
+        public final long sequence;
+        public final ZonedDateTime timestamp;
+        public CompilationMessage message;
+
+        public Row(CompilationMessage message,long sequence)
+        {
+            this.key = new MessageKey( message );
+            this.sequence = sequence;
+            this.timestamp = message.getTimestamp();
+            this.message = message;
+        }
+    }
+
+    /**
+     * Replaces all messages.
+     * 
+     * @param newMessages
+     */
+    public void setMessages(Collection<CompilationMessage> newMessages)
+    {
+        Validate.notNull(newMessages, "newMessages must not be NULL");
+
+        // count occurrences of each new message
+        final Map<MessageKey,List<CompilationMessage>> available = new HashMap<>();
+        for ( CompilationMessage msg : newMessages ) {
+            available.computeIfAbsent( new MessageKey( msg ) , k -> new ArrayList<>(1) ).add( msg );
+        }
+
+        // keep existing messages that are still present
+        final Set<Row> removed = Collections.newSetFromMap( new IdentityHashMap<>() );
+        final Map<CompilationMessage,Boolean> kept = new IdentityHashMap<>();
+        for ( Row row : messages )
+        {
+            final List<CompilationMessage> candidates = available.get( row.key );
+            if ( candidates == null || candidates.isEmpty() ) {
+                removed.add( row );
+            } 
+            else 
+            {
+                // refer to the latest message but keep position and timestamp
+                row.message = candidates.remove( candidates.size()-1 );
+                kept.put( row.message , Boolean.TRUE );
+            }
+        }
+
+        final List<Row> added = new ArrayList<>();
+        for ( CompilationMessage msg : newMessages ) 
+        {
+            if ( ! kept.containsKey( msg ) ) {
+                added.add( new Row( msg , nextSequence++ ) );
+            }
+        }
+        update( removed , added );
+    }
+
+    public void add(CompilationMessage msg)
+    {
+        Validate.notNull(msg,"msg must not be NULL");
+        update( Collections.emptySet() , Collections.singletonList( new Row( msg , nextSequence++ ) ) );
+    }
+
+    public void addAll(Collection<CompilationMessage> msgs)
+    {
+        Validate.notNull(msgs,"msgs must not be NULL");
+        final List<Row> added = new ArrayList<>( msgs.size() );
+        for ( CompilationMessage msg : msgs ) {
+            added.add( new Row( msg , nextSequence++ ) );
+        }
+        update( Collections.emptySet() , added );
+    }
+
+    public void clear()
+    {
+        messages.clear();
+        rows.clear();
+        viewValid = true;
+        fireTableChanged( new TableModelEvent( this ) );
+    }
+
+    private void update(Set<Row> removed,List<Row> added)
+    {
+        if ( removed.isEmpty() && added.isEmpty() ) {
+            return;
+        }
+        if ( ! removed.isEmpty() ) {
+            messages.removeIf( removed::contains );
+        }
+        messages.addAll( added );
+
+        if ( ! viewValid ) {
+            // view gets re-computed lazily anyway
+            fireTableChanged( new TableModelEvent( this ) );
+            return;
+        }
+
+        // remove rows, firing events for each contiguous range in descending order
+        if ( ! removed.isEmpty() )
+        {
+            int rangeEnd = -1;
+            for ( int i = rows.size()-1 ; i >= 0 ; i-- )
+            {
+                final boolean isRemoved = removed.contains( rows.get(i) );
+                if ( isRemoved && rangeEnd == -1 ) {
+                    rangeEnd = i;
+                } 
+                else if ( ! isRemoved && rangeEnd != -1 ) 
+                {
+                    deleteRows( i+1 , rangeEnd );
+                    rangeEnd = -1;
+                }
+            }
+            if ( rangeEnd != -1 ) {
+                deleteRows( 0 , rangeEnd );
+            }
+        }
+
+        // merge new rows into the sorted view, firing events for each contiguous range in ascending order
+        final List<Row> toInsert = new ArrayList<>( added.size() );
+        for ( Row row : added ) 
+        {
+            if ( isVisible( row ) ) {
+                toInsert.add( row );
+            }
+        }
+        if ( toInsert.isEmpty() ) {
+            return;
+        }
+        toInsert.sort( order );
+        final List<Row> existing = new ArrayList<>( rows );
+        final List<Row> merged = new ArrayList<>( existing.size() + toInsert.size() );
+        int rangeStart = -1;
+        for ( int i = 0 , j = 0 ; i < existing.size() || j < toInsert.size() ; ) 
+        {
+            final boolean takeNew = j < toInsert.size() && ( i >= existing.size() || order.compare( toInsert.get(j) , existing.get(i) ) < 0 );
+            if ( takeNew ) 
+            {
+                if ( rangeStart == -1 ) {
+                    rangeStart = merged.size();
+                }
+                merged.add( toInsert.get(j++) );
+            } 
+            else 
+            {
+                if ( rangeStart != -1 ) 
+                {
+                    fireRowsInserted( merged , rangeStart , merged.size()-1 );
+                    rangeStart = -1;
+                }
+                merged.add( existing.get(i++) );
+            }
+        }
+        if ( rangeStart != -1 ) {
+            fireRowsInserted( merged , rangeStart , merged.size()-1 );
+        }
+    }
+
+    private void deleteRows(int firstRow,int lastRow)
+    {
+        rows.subList( firstRow , lastRow+1 ).clear();
+        fireTableChanged( new TableModelEvent( this , firstRow , lastRow , TableModelEvent.ALL_COLUMNS , TableModelEvent.DELETE ) );
+    }
+
+    private void fireRowsInserted(List<Row> merged,int firstRow,int lastRow)
+    {
+        // the view must match the state the event describes, rows past lastRow are not visible yet
+        rows.addAll( firstRow , merged.subList( firstRow , lastRow+1 ) );
+        fireTableChanged( new TableModelEvent( this , firstRow , lastRow , TableModelEvent.ALL_COLUMNS , TableModelEvent.INSERT ) );
+    }
+
+    private boolean isVisible(Row row) {
+        return row.message.severity.equalOrGreater( minimumSeverity );
+    }
+
+    private List<Row> view()
+    {
+        if ( ! viewValid )
+        {
+            rows.clear();
+            for ( Row row : messages )
+            {
+                if ( isVisible( row ) ) {
+                    rows.add( row );
+                }
+            }
+            rows.sort( order );
+            viewValid = true;
+        }
+        return rows;
+    }
+
+    /**
+     * Only show messages with at least the given severity.
+     * 
+     * @param minimumSeverity
+     */
+    public void setMinimumSeverity(Severity minimumSeverity)
+    {
+        Validate.notNull(minimumSeverity, "minimumSeverity must not be NULL");
+        if ( this.minimumSeverity != minimumSeverity ) 
+        {
+            this.minimumSeverity = minimumSeverity;
+            viewValid = false;
+            fireTableChanged( new TableModelEvent( this ) );
+        }
+    }
+
+    public Severity getMinimumSeverity() {
+        return minimumSeverity;
+    }
+
+    /**
+     * Sorts rows by a given column.
+     * 
+     * @param column
+     * @param ascending
+     */
+    public void sortBy(int column,boolean ascending)
+    {
+        assertValidColumn( column );
+        Comparator<Row> cmp;
+        switch( column ) 
+        {
+            case COLUMN_LOCATION:
+                cmp = Comparator.comparing( (Row row) -> row.key.resource , Comparator.nullsFirst( Comparator.naturalOrder() ) )
+                    .thenComparingInt( row -> row.key.regionStart );
+                break;
+            case COLUMN_SEVERITY:
+                cmp = Comparator.comparingInt( row -> row.key.severity.level );
+                break;
+            case COLUMN_MESSAGE:
+                cmp = Comparator.comparing( row -> row.key.message , Comparator.nullsFirst( Comparator.naturalOrder() ) );
+                break;
+            default:
+                cmp = BY_SEQUENCE;
+        }
+        if ( ! ascending ) {
+            cmp = cmp.reversed();
+        }
+        // ties are resolved by arrival so that merging new rows is stable
+        this.order = column == COLUMN_TIMESTAMP ? cmp : cmp.thenComparing( BY_SEQUENCE );
+        this.sortColumn = column;
+        this.sortAscending = ascending;
+        viewValid = false;
+        fireTableChanged( new TableModelEvent( this ) );
+    }
+
+    public int getSortColumn() {
+        return sortColumn;
+    }
+
+    public boolean isSortAscending() {
+        return sortAscending;
+    }
+
+    /**
+     * Returns the number of messages, including ones that are not visible because
+     * of the current severity filter.
+     * 
+     * @return
+     */
+    public int getMessageCount() {
+        return messages.size();
+    }
+
+    @Override
+    public int getRowCount() {
+        return view().size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return 4;
+    }
+
+    private static void assertValidColumn(int columnIndex) {
+        if ( columnIndex < 0 || columnIndex > 3 ) {
+            throw new RuntimeException("Invalid column: "+columnIndex);
+        }
+    }
+
+    @Override
+    public String getColumnName(int columnIndex)
+    {
+        switch(columnIndex)
+        {
+            case COLUMN_TIMESTAMP:
+                return "Time";
+            case COLUMN_LOCATION:
+                return "Location";
+            case COLUMN_SEVERITY:
+                return "Severity";
+            case COLUMN_MESSAGE:
+                return "Message";
+            default:
+                throw new RuntimeException("Invalid column: "+columnIndex);
+        }
+    }
+
+    @Override
+    public Class<?> getColumnClass(int columnIndex)
+    {
+        assertValidColumn(columnIndex);
+        return String.class;
+    }
+
+    @Override
+    public boolean isCellEditable(int rowIndex, int columnIndex) {
+        return false;
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex)
+    {
+        final Row row = view().get(rowIndex);
+        final CompilationMessage msg = row.message;
+        switch( columnIndex )
+        {
+            case COLUMN_TIMESTAMP:
+                return DATE_FORMAT.format( row.timestamp );
+            case COLUMN_LOCATION:
+                if ( msg.region == null ) {
+                    return "<unknown>";
+                }
+                return msg.region.toString();
+            case COLUMN_SEVERITY:
+                return msg.severity.toString();
+            case COLUMN_MESSAGE:
+                return msg.message;
+            default:
+                throw new RuntimeException("Invalid column: "+columnIndex);
+        }
+    }
+
+    @Override
+    public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void addTableModelListener(TableModelListener l) {
+        Validate.notNull(l, "listener must not be NULL");
+        listeners.add(l);
+    }
+
+    @Override
+    public void removeTableModelListener(TableModelListener l) {
+        listeners.remove(l);
+    }
+
+    private void fireTableChanged(TableModelEvent ev) {
+        listeners.forEach( l -> l.tableChanged( ev ) );
+    }
+
+    public CompilationMessage getRow(int row) {
+        return view().get( row ).message;
+    }
+}
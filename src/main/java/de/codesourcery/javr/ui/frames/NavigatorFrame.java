@@ -79,7 +79,7 @@ public class NavigatorFrame extends JInternalFrame implements IWindow
     }    
     
     public void fileAdded(File file) {
-        browser.pathChanged( file );
+        browser.fileAdded( file );
     }
     
     public void refreshPath(File topLevelDir) {
@@ -26,8 +26,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import javax.swing.JDesktopPane;
 import javax.swing.JDialog;
 import javax.swing.JFileChooser;
@@ -37,6 +40,7 @@ import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JPopupMenu;
+import javax.swing.SwingUtilities;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.log4j.Logger;
@@ -46,6 +50,8 @@ import de.codesourcery.javr.assembler.util.FileResource;
 import de.codesourcery.javr.assembler.util.Resource;
 import de.codesourcery.javr.assembler.util.StringResource;
 import de.codesourcery.javr.ui.CaretPositionTracker;
+import de.codesourcery.javr.ui.FileSystemWatcher;
+import de.codesourcery.javr.ui.FileSystemWatcher.ChangeType;
 import de.codesourcery.javr.ui.GlobalConfigurationWindow;
 import de.codesourcery.javr.ui.IDEMain;
 import de.codesourcery.javr.ui.IDEMain.ThrowingConsumer;
@@ -82,6 +88,8 @@ public class TopLevelWindow implements IWindow
 
     private final CaretPositionTracker caretTracker = new CaretPositionTracker();
 
+    private FileSystemWatcher watcher;
+
     private IProjectListener listener = new IProjectListener()
     {
 
@@ -90,11 +98,15 @@ public class TopLevelWindow implements IWindow
         {
             project.addProjectChangeListener( outlineFrame );    
             outlineFrame.setCompilationUnit( project.getCompileRoot() );            
+            if ( navigator != null ) {
+                watchProject( project );
+            }
         }
 
         @Override
         public void projectClosed(IProject project)
         {
+            stopWatching();
         }
     };
 
@@ -109,6 +121,7 @@ public class TopLevelWindow implements IWindow
         this.projectProvider = provider;
 
         addWindows( desktopPane );
+        watchProject( currentProject() );
 
         outlineFrame.setDoubleClickListener( symbol -> 
         {
@@ -122,7 +135,7 @@ public class TopLevelWindow implements IWindow
         });
 
         topLevelFrame.setJMenuBar( createMenu(topLevelFrame) );
-        topLevelFrame.setDefaultCloseOperation( JFrame.DISPOSE_ON_CLOSE );
+        topLevelFrame.setDefaultCloseOperation( JFrame.DO_NOTHING_ON_CLOSE );
 
         topLevelFrame.addWindowListener( new WindowAdapter() 
         {
@@ -146,6 +159,9 @@ public class TopLevelWindow implements IWindow
 
     public void quit() 
     {
+        if ( ! editorFrame.askToSaveChanges() ) {
+            return;
+        }
         LOG.info("quit(): Shutting down...");
         try 
         {
@@ -186,6 +202,75 @@ public class TopLevelWindow implements IWindow
         return projectProvider.getProject();
     }
 
+    private void stopWatching() 
+    {
+        if ( watcher != null ) 
+        {
+            watcher.close();
+            watcher = null;
+        }
+    }
+    
+    private void watchProject(IProject project) 
+    {
+        stopWatching();
+        final File baseDir = project.getConfiguration().getBaseDir();
+        try {
+            watcher = new FileSystemWatcher( baseDir );
+        } 
+        catch (IOException e) 
+        {
+            LOG.error("watchProject(): Failed to watch "+baseDir.getAbsolutePath()+", external changes will not be picked up",e);
+            return;
+        }
+        watcher.addListener( (type,file) -> SwingUtilities.invokeLater( () -> fileChanged( type , file ) ) );
+    }
+    
+    private void fileChanged(ChangeType type,File file) 
+    {
+        switch( type ) 
+        {
+            case CREATED:  navigator.fileAdded( file ); break;
+            case DELETED:  navigator.fileRemoved( file ); break;
+            case OVERFLOW: navigator.refreshPath( file ); break;
+            case MODIFIED: break;
+            default:
+                throw new RuntimeException("Unhandled switch/case: "+type);
+        }
+        if ( type == ChangeType.OVERFLOW || ! file.isDirectory() ) {
+            recompileIfNecessary();
+        }
+    }
+    
+    /**
+     * Triggers compilation if any source file that took part in the last compilation
+     * got changed outside of the editor.
+     */
+    private void recompileIfNecessary() 
+    {
+        final IProject project = currentProject();
+        final Set<CompilationUnit> visited = Collections.newSetFromMap( new IdentityHashMap<>() );
+        final List<CompilationUnit> stack = new ArrayList<>();
+        stack.add( project.getCompileRoot() );
+        while ( ! stack.isEmpty() ) 
+        {
+            final CompilationUnit unit = stack.remove( stack.size()-1 );
+            if ( visited.add( unit ) ) 
+            {
+                // editors own the content of units they're displaying
+                if ( ! editorFrame.hasEditor( unit ) && unit.isDirty() ) 
+                {
+                    LOG.info("recompileIfNecessary(): "+unit.getResource()+" changed, recompiling");
+                    if ( editorFrame.currentEditor() != null ) {
+                        editorFrame.compile();
+                    }
+                    return;
+                }
+                stack.addAll( unit.getDependencies() );
+            }
+        }
+    }
+
     public void openFile(File file)
     {
         try 
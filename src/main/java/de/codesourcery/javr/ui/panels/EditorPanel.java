@@ -43,16 +43,12 @@ import java.io.PrintWriter;
 import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 import javax.swing.DefaultListCellRenderer;
 import javax.swing.JButton;
@@ -109,6 +105,7 @@ import de.codesourcery.javr.assembler.PrettyPrinter;
 import de.codesourcery.javr.assembler.Segment;
 import de.codesourcery.javr.assembler.arch.AbstractArchitecture;
 import de.codesourcery.javr.assembler.exceptions.ParseException;
+import de.codesourcery.javr.assembler.metrics.CompileMetrics;
 import de.codesourcery.javr.assembler.parser.Identifier;
 import de.codesourcery.javr.assembler.parser.Parser.CompilationMessage;
 import de.codesourcery.javr.assembler.parser.Parser.Severity;
@@ -129,6 +126,7 @@ import de.codesourcery.javr.assembler.parser.ast.StatementNode;
 import de.codesourcery.javr.assembler.phases.ParseSourcePhase;
 import de.codesourcery.javr.assembler.symbols.Symbol;
 import de.codesourcery.javr.assembler.symbols.Symbol.Type;
+import de.codesourcery.javr.assembler.symbols.SymbolIndex;
 import de.codesourcery.javr.assembler.symbols.SymbolTable;
 import de.codesourcery.javr.assembler.util.Resource;
 import de.codesourcery.javr.assembler.util.StringResource;
@@ -176,6 +174,9 @@ public abstract class EditorPanel extends JPanel
     private ShadowDOM currentDOM = frontDOM;
 
     private boolean ignoreEditEvents;
+
+    // whether the document has been edited since it was last loaded or saved
+    private boolean unsavedChanges;
     private boolean indentFilterEnabled=true;
 
     private final UndoManagerWrapper undoManager = new UndoManagerWrapper();
@@ -229,25 +230,8 @@ public abstract class EditorPanel extends JPanel
                 if ( node != null )
                 {
                     final Symbol symbol = getSymbol( node );
-                    if ( symbol != null && symbol.getTextRegion() != null )
-                    {
-                        final TextRegion region = symbol.getTextRegion();
-                        if ( symbol.getCompilationUnit().hasSameResourceAs( currentUnit ) ) {
-                            setSelection( region );
-                        }
-                        else
-                        {
-                            try
-                            {
-                                final EditorPanel editor = topLevelWindow.openEditor( project , symbol.getCompilationUnit() );
-                                SwingUtilities.invokeLater( () -> editor.setSelection( region ) );
-                            }
-                            catch (IOException e1)
-                            {
-                                LOG.error("mouseClicked(): Failed to open editor",e1);
-                                IDEMain.showError( "Failed to open editor", e1 );
-                            }
-                        }
+                    if ( symbol != null ) {
+                        gotoSymbol( symbol );
                     }
                 }
             }
@@ -443,76 +427,6 @@ public abstract class EditorPanel extends JPanel
         }
     }
 
-    protected static final class FilteredList<T> extends AbstractList<T> {
-
-        private final List<T> unfiltered = new ArrayList<T>();
-        private final List<T> filtered = new ArrayList<T>();
-
-        private Function<T,Boolean> filterFunc = x -> true;
-
-        public void setFilterFunc(Function<T,Boolean> filterFunc )
-        {
-            Validate.notNull(filterFunc, "filterFunc must not be NULL");
-            this.filterFunc = filterFunc;
-            doFilter();
-        }
-
-        private void doFilter()
-        {
-            filtered.clear();
-            for ( T elem : unfiltered )
-            {
-                if ( filterFunc.apply( elem ) == Boolean.TRUE ) {
-                    filtered.add( elem );
-                }
-            }
-        }
-
-        @Override
-        public boolean addAll(Collection<? extends T> c)
-        {
-            boolean result = false;
-            for ( T elem : c ) {
-                result |= add(elem);
-            }
-            return result;
-        }
-
-        @Override
-        public boolean add(T e)
-        {
-            Validate.notNull(e, "e must not be NULL");
-            unfiltered.add( e );
-            if ( filterFunc.apply( e ) == Boolean.TRUE ) {
-                filtered.add(e);
-                return true;
-            }
-            return false;
-        }
-
-        @Override
-        public void clear() {
-            filtered.clear();
-            unfiltered.clear();
-        }
-
-        @Override
-        public Iterator<T> iterator() {
-            return filtered.iterator();
-        }
-
-        @Override
-        public T get(int index)
-        {
-            return filtered.get(index);
-        }
-
-        @Override
-        public int size() {
-            return filtered.size();
-        }
-    }
-
     protected class IndentFilter extends DocumentFilter
     {
         private static final String NEWLINE = "\n";
@@ -656,7 +570,8 @@ public abstract class EditorPanel extends JPanel
 
     private final class SymbolTableModel implements TableModel {
 
-        private final FilteredList<Symbol> symbols = new FilteredList<>();
+        private SymbolIndex index = SymbolIndex.EMPTY;
+        private List<Symbol> symbols = Collections.emptyList();
 
         private final List<TableModelListener> listeners = new ArrayList<>();
 
@@ -665,15 +580,13 @@ public abstract class EditorPanel extends JPanel
         public void setSymbolTable(SymbolTable table)
         {
             Validate.notNull(table,"table must not be NULL");
-            this.symbols.clear();
-            final List<Symbol> allSymbolsSorted = table.getAllSymbolsSorted();
-            this.symbols.addAll( allSymbolsSorted );
-            tableChanged();
+            this.index = table.getSearchIndex();
+            setFilterString( this.filterString );
         }
 
         public void clear()
         {
-            symbols.clear();
+            this.index = SymbolIndex.EMPTY;
             setFilterString( this.filterString );
         }
 
@@ -684,15 +597,8 @@ public abstract class EditorPanel extends JPanel
 
         public void setFilterString(String s)
         {
-            this.filterString = s == null ? null : s.toLowerCase();
-            final Function<Symbol,Boolean> func;
-            if ( filterString == null )
-            {
-                func = symbol -> true;
-            } else {
-                func = symbol -> filterString == null ? Boolean.TRUE : Boolean.valueOf( symbol.name().value.toLowerCase().contains( filterString ) );
-            }
-            symbols.setFilterFunc( func );
+            this.filterString = StringUtils.isEmpty( s ) ? null : s.toLowerCase();
+            this.symbols = filterString == null ? index.getAll() : index.findContaining( filterString );
             tableChanged();
         }
 
@@ -877,56 +783,6 @@ public abstract class EditorPanel extends JPanel
 
             private final char[] separatorChars = new char[] {'(',')',','};
 
-            private boolean matches(Identifier name,String userInput)
-            {
-                for ( int i = 0 , matchCount = 0 , len = name.value.length() < userInput.length() ? name.value.length() : userInput.length() ; i < len ; i++ )
-                {
-                    final char c = Character.toLowerCase( name.value.charAt( i ) );
-                    if ( c == userInput.charAt(i) )
-                    {
-                        matchCount++;
-                        if ( matchCount == 3 ) {
-                            return true;
-                        }
-                    } else {
-                        break;
-                    }
-                }
-                if ( name.value.toLowerCase().contains( userInput ) ) {
-                    return true;
-                }
-                return false;
-            }
-
-            private boolean matches(Symbol symbol,String userInput)
-            {
-                if ( previousGlobalSymbol != null )
-                {
-                    if ( symbol.isLocalLabel() )
-                    {
-                        if ( symbol.getGlobalNamePart().equals( previousGlobalSymbol.name() ) )
-                        {
-                            if ( matches( symbol.getLocalNamePart() , userInput) ) {
-                                return true;
-                            }
-                        }
-                    }
-                    else if ( matches( symbol.name() , userInput ) ) // global label 
-                    {
-                        return true;
-                    }
-                }
-                else
-                {
-                    // no previous global symbol, only consider global labels
-                    if ( symbol.isGlobalLabel() && matches( symbol.name() , userInput ) )
-                    {
-                        return true;
-                    }
-                }
-                return false;
-            }
-
             @Override
             protected boolean isSeparatorChar(char c)
             {
@@ -945,47 +801,8 @@ public abstract class EditorPanel extends JPanel
             @Override
             public List<Symbol> getProposals(String input)
             {
-                final String lower = input.toLowerCase();
-
-                final List<Symbol> globalMatches = new ArrayList<>();
-                final List<Symbol> localMatches = new ArrayList<>();
-
                 final SymbolTable globalTable = currentUnit.getSymbolTable().getTopLevelTable();
-                globalTable.visitSymbols( (symbol) ->
-                                          {
-                                              switch( symbol.getType() )
-                                              {
-                                                  case ADDRESS_LABEL:
-                                                      if ( matches(symbol , lower ) )
-                                                      {
-                                                          if ( symbol.isLocalLabel() ) {
-                                                              localMatches.add(symbol);
-                                                          } else {
-                                                              globalMatches.add(symbol);
-                                                          }
-                                                      }
-                                                      break;
-                                                  case EQU:
-                                                  case PREPROCESSOR_MACRO:
-                                                      if ( symbol.name().value.toLowerCase().contains( lower ) )
-                                                      {
-                                                          globalMatches.add( symbol );
-                                                      }
-                                                      break;
-                                                  default:
-                                                      break;
-                                              }
-
-                                              return Boolean.TRUE;
-                                          });
-
-                globalMatches.sort( (a,b) -> a.name().value.compareTo( b.name().value ) );
-                localMatches.sort( (a,b) -> a.getLocalNamePart().value.compareTo( b.getLocalNamePart().value ) );
-
-                final List<Symbol> result = new ArrayList<>( globalMatches.size() + localMatches.size() );
-                result.addAll( localMatches );
-                result.addAll( globalMatches );
-                return result;
+                return SymbolProposals.getProposals( globalTable.getPublishedSnapshot().getSearchIndex() , previousGlobalSymbol , input );
             }
 
             @Override
@@ -1171,6 +988,10 @@ public abstract class EditorPanel extends JPanel
                     {
                         gotoLine();
                     }
+                    else if ( e.getKeyChar() == 0x0f ) // CTRL-O ... goto symbol
+                    {
+                        showGotoSymbolDialog();
+                    }
                     else if ( e.getKeyChar() == 0x0d ) // CTRL+S ... save 
                     {
                         try {
@@ -1343,6 +1164,7 @@ public abstract class EditorPanel extends JPanel
             @Override
             public void insertUpdate(DocumentEvent e)
             {
+                unsavedChanges = true;
                 if ( ! ignoreEditEvents ) {
                     lastEditLocation = e.getOffset();
                     recompilationThread.documentChanged(e);
@@ -1353,6 +1175,7 @@ public abstract class EditorPanel extends JPanel
             @Override
             public void removeUpdate(DocumentEvent e)
             {
+                unsavedChanges = true;
                 if ( ! ignoreEditEvents )
                 {
                     lastEditLocation = e.getOffset();
@@ -1579,10 +1402,15 @@ public abstract class EditorPanel extends JPanel
         }
     }
 
+    private String getSource()
+    {
+        final String text = editor.getText();
+        return text == null ? "" : text;
+    }
+
     private void saveSource() throws IOException
     {
-        String text = editor.getText();
-        text = text == null ? "" : text;
+        final String text = getSource();
 
         final Resource resource = currentUnit.getResource();
         LOG.info("saveSource(): Saving source to "+currentUnit.getResource());
@@ -1591,26 +1419,21 @@ public abstract class EditorPanel extends JPanel
             final byte[] bytes = text.getBytes( resource.getEncoding() );
             out.write( bytes );
         }
+        unsavedChanges = false;
+        // file content is now up-to-date
+        project.getResourceOverlay().removeSnapshot( resource );
     }
 
     public void compile()
     {
         highlight = null;
 
-        messageFrame.clearMessages();
         currentUnit.clearMessages();
         symbolModel.clear();
 
-        // save source to file
-        try {
-            saveSource();
-        }
-        catch(IOException e)
-        {
-            LOG.error("compile(): Failed to save changes",e);
-            currentUnit.addMessage( CompilationMessage.error( currentUnit, "Failed to save changes: "+e.getMessage()) );
-            IDEMain.showError( "Failed to save changes", e );
-            return;
+        // compile the editor's current content, saving is up to the user
+        if ( unsavedChanges ) {
+            project.getResourceOverlay().setSnapshot( currentUnit.getResource() , getSource() );
         }
 
         // parse only this compilation unit
@@ -1623,7 +1446,6 @@ public abstract class EditorPanel extends JPanel
         // later on
         final CompilationUnit tmpUnit = new CompilationUnit( currentUnit.getResource() );
 
-        final long parseStart =  System.currentTimeMillis();
         try
         {
             final CompilerSettings compilerSettings = new CompilerSettings();
@@ -1637,11 +1459,9 @@ public abstract class EditorPanel extends JPanel
             IDEMain.showError( "Parsing source failed", e );
         }
         astTreeModel.setAST( tmpUnit.getAST() );
-        final long parseEnd =  System.currentTimeMillis();
 
         // do syntax highlighting
         doSyntaxHighlighting();
-        final long highlightEnd =  System.currentTimeMillis();
 
         // assemble
         final CompilationUnit root = project.getCompileRoot();
@@ -1658,24 +1478,19 @@ public abstract class EditorPanel extends JPanel
         }
         symbolModel.setSymbolTable( currentUnit.getSymbolTable() );
 
-        final long compileEnd =  System.currentTimeMillis();
-
         // generation info message about compilation outcome
-        final long parseTime = parseEnd - parseStart;
-        final long highlightTime = highlightEnd - parseEnd;
-        final long compileTime = compileEnd - highlightEnd;
-
-        final String assembleTime = "parsing: "+parseTime+" ms,highlighting: "+highlightTime+" ms,compile: "+compileTime+" ms";
+        final CompileMetrics metrics = project.getLastCompileMetrics();
+        final String assembleTime = metrics == null ? "" : " ("+metrics.toPhaseSummary()+")";
 
         final String success = compilationSuccessful ? "successful" : "failed";
         final DateTimeFormatter df = DateTimeFormatter.ofPattern( "yyyy-MM-dd HH:mm:ss");
-        currentUnit.addMessage( CompilationMessage.info(currentUnit,"Compilation "+success+" ("+assembleTime+") on "+df.format( ZonedDateTime.now() ) ) );
+        currentUnit.addMessage( CompilationMessage.info(currentUnit,"Compilation "+success+assembleTime+" on "+df.format( ZonedDateTime.now() ) ) );
 
         if ( isPrettyPrintShown() ) {
             showPrettyPrint( prettyPrintWindow.gnuSyntax );
         }
 
-        messageFrame.addAll( root.getMessages(true) );
+        messageFrame.setMessages( root.getMessages(true) );
 
         gutterPanel.repaint();
 
@@ -2189,6 +2004,44 @@ public abstract class EditorPanel extends JPanel
         return frame;
     }
 
+    /**
+     * Selects the definition of a symbol, opening the editor
+     * for the symbol's compilation unit if necessary.
+     *
+     * @param symbol
+     */
+    private void gotoSymbol(Symbol symbol)
+    {
+        final TextRegion region = symbol.getTextRegion();
+        if ( region == null ) {
+            return;
+        }
+        if ( symbol.getCompilationUnit().hasSameResourceAs( currentUnit ) ) {
+            setSelection( region );
+        }
+        else
+        {
+            try
+            {
+                final EditorPanel editor = topLevelWindow.openEditor( project , symbol.getCompilationUnit() );
+                SwingUtilities.invokeLater( () -> editor.setSelection( region ) );
+            }
+            catch (IOException e1)
+            {
+                LOG.error("gotoSymbol(): Failed to open editor",e1);
+                IDEMain.showError( "Failed to open editor", e1 );
+            }
+        }
+    }
+
+    private void showGotoSymbolDialog()
+    {
+        final SymbolTable table = currentUnit.getSymbolTable().getTopLevelTable();
+        final GotoSymbolDialog dialog = new GotoSymbolDialog( SwingUtilities.getWindowAncestor( this ) , () -> table.getPublishedSnapshot().getSearchIndex() , this::gotoSymbol );
+        dialog.setLocationRelativeTo( this );
+        dialog.setVisible( true );
+    }
+
     private void gotoLine() {
 
         final String lineNo = JOptionPane.showInputDialog(null, "Enter line number", "Go to line", JOptionPane.QUESTION_MESSAGE );
@@ -2256,6 +2109,8 @@ public abstract class EditorPanel extends JPanel
         setText(source);
         undoManager.discardAllEdits();
         editor.setCaretPosition( 0 );
+        unsavedChanges = false;
+        project.getResourceOverlay().removeSnapshot( unit.getResource() );
     }
 
     public void save(File file) throws FileNotFoundException
@@ -2269,8 +2124,46 @@ public abstract class EditorPanel extends JPanel
         }
     }
 
+    public boolean hasUnsavedChanges() {
+        return unsavedChanges;
+    }
+
+    /**
+     * Asks the user whether to save unsaved changes (if any).
+     *
+     * @return <code>false</code> if the user cancelled or saving failed
+     */
+    public boolean askToSaveChanges()
+    {
+        if ( ! unsavedChanges ) {
+            return true;
+        }
+        final int choice = JOptionPane.showConfirmDialog( this , "Save changes to "+currentUnit.getResource().getName()+" ?" , 
+                "Unsaved changes" , JOptionPane.YES_NO_CANCEL_OPTION , JOptionPane.QUESTION_MESSAGE );
+        if ( choice == JOptionPane.NO_OPTION ) {
+            return true;
+        }
+        if ( choice != JOptionPane.YES_OPTION ) {
+            return false;
+        }
+        try {
+            saveSource();
+            return true;
+        }
+        catch (IOException e)
+        {
+            IDEMain.showError("Failed to save file",e);
+            return false;
+        }
+    }
+
     public boolean close(boolean askIfDirty)
     {
+        if ( askIfDirty && ! askToSaveChanges() ) {
+            return false;
+        }
+        // compile against the file again
+        project.getResourceOverlay().removeSnapshot( currentUnit.getResource() );
         lastEditLocation = -1;
         setVisible( false );
         final Container parent = getParent();
@@ -22,11 +22,16 @@ import java.awt.GridBagLayout;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -51,6 +56,17 @@ public class FileSystemBrowser extends JPanel
 {
 	private static final Logger LOG = Logger.getLogger(FileSystemBrowser.class);
 
+	/**
+	 * Sorts directories before files, otherwise by name.
+	 */
+	private static final Comparator<DirNode> NODE_COMPARATOR = (a,b) -> 
+	{
+	    if ( a.isDirectory() == b.isDirectory() ) {
+	        return a.file.getName().compareTo( b.file.getName() );
+	    }
+	    return a.isDirectory() ? -1 : 1;
+	};
+	
 	private MyTreeModel treeModel;
 
 	private final JTree tree = new JTree( treeModel );
@@ -66,13 +82,34 @@ public class FileSystemBrowser extends JPanel
 	{
 		public final File file;
 		public final DirNode parent;
+		private final boolean isDirectory;
 		private final List<DirNode> children = new ArrayList<>();
 		public boolean dataFetched = false;
 
 		public DirNode(File file,DirNode parent) {
+		    this( file , parent , file.isDirectory() );
+		}
+		
+		private DirNode(File file,DirNode parent,boolean isDirectory) {
 			Validate.notNull(file, "file must not be NULL");
 			this.file = file;
 			this.parent = parent;
+			this.isDirectory = isDirectory;
+		}
+		
+		/**
+		 * Returns whether this node represents a directory.
+		 * 
+		 * The value is determined once when the node is created so that 
+		 * rendering/sorting does not need to hit the file system. 
+		 * @return
+		 */
+		public boolean isDirectory() {
+		    return isDirectory;
+		}
+		
+		public Optional<DirNode> getChild(File file) {
+		    return children.stream().filter( c -> c.file.equals( file ) ).findFirst();
 		}
 
 		public List<DirNode> children() {
@@ -130,7 +167,7 @@ public class FileSystemBrowser extends JPanel
 		        {
 		            if ( ! result.file.getAbsolutePath().equals( absPath ) ) // we found something but it's not a full match
 		            {
-		                if ( ! result.file.isDirectory() ) // we failed to find a full match so return the directory where we found the match instead
+		                if ( ! result.isDirectory() ) // we failed to find a full match so return the directory where we found the match instead
 		                {
 		                    return result.parent;
 		                }
@@ -201,10 +238,7 @@ public class FileSystemBrowser extends JPanel
 		{
             node.dataFetched = false;
             node.children.clear();
-            getFiles( node.file ).forEach( file -> 
-            {
-                node.children.add( new DirNode( file , node ) );
-            });
+            node.children.addAll( getChildren( node ) );
             node.dataFetched = true;
             
             final List<DirNode> nodes = node.getPathToRoot(); // element[0] = root , ...
@@ -214,27 +248,57 @@ public class FileSystemBrowser extends JPanel
             notifyListeners( l -> l.treeStructureChanged( ev ) );
 		}
 
-		private List<File> getFiles(File file) 
+		private List<DirNode> getChildren(DirNode parent) 
 		{
-            final File[] contents = file.listFiles();
-            if ( contents != null) 
-            {
-                final List<File> dirs = new ArrayList<>( Arrays.asList( contents ) );
-                dirs.removeIf( f -> f.getName().startsWith("." ) || ! fileFilter.test( f ) );
-                dirs.sort( (a,b) -> 
-                {
-                    if ( a.isDirectory() && b.isDirectory() || a.isFile() && b .isFile() ) 
-                    {
-                        return a.getName().compareTo( b.getName() );
-                    } 
-                    if ( a .isDirectory() ) {
-                        return -1;
-                    }
-                    return 1;
-                });
-                return dirs;
-            }
-            return new ArrayList<>();
+		    final List<DirNode> result = new ArrayList<>();
+		    try ( DirectoryStream<Path> stream = Files.newDirectoryStream( parent.file.toPath() ) ) 
+		    {
+		        for ( Path path : stream ) 
+		        {
+		            final DirNode child = createNode( parent , path.toFile() );
+		            if ( child != null ) {
+		                result.add( child );
+		            }
+		        }
+		    } 
+		    catch (IOException e) 
+		    {
+		        LOG.warn("getChildren(): Failed to list "+parent.file.getAbsolutePath()+": "+e.getMessage());
+		        return result;
+		    }
+		    result.sort( NODE_COMPARATOR );
+		    return result;
+		}
+		
+		private DirNode createNode(DirNode parent,File file) 
+		{
+		    if ( file.getName().startsWith("." ) || ! fileFilter.test( file ) ) {
+		        return null;
+		    }
+		    return new DirNode( file , parent , Files.isDirectory( file.toPath() ) );
+		}
+		
+		/**
+		 * Inserts a single node for a newly created file.
+		 * 
+		 * @param parent
+		 * @param file
+		 */
+		public void nodeAdded(DirNode parent,File file) 
+		{
+		    if ( ! parent.dataFetched || parent.getChild( file ).isPresent() ) {
+		        return; // children will be fetched when the node gets expanded
+		    }
+		    final DirNode child = createNode( parent , file );
+		    if ( child == null ) {
+		        return;
+		    }
+		    int idx = Collections.binarySearch( parent.children , child , NODE_COMPARATOR );
+		    idx = idx < 0 ? -(idx+1) : idx;
+		    parent.children.add( idx , child );
+		    
+		    final TreeModelEvent ev = new TreeModelEvent( this , parent.getTreePathToRoot() , new int[] {idx} , new DirNode[] { child } );
+		    notifyListeners( l -> l.treeNodesInserted( ev ) );
 		}
 		
 		public void reload() {
@@ -253,15 +317,11 @@ public class FileSystemBrowser extends JPanel
 			try 
 			{
 				System.out.println("Fetching children of "+node.file.getAbsolutePath());
-				final List<File> dirs = getFiles( node.file );
-				for ( File f : dirs ) 
+				for ( DirNode newChild : getChildren( node ) ) 
 				{
-					System.out.println("Got "+f.getAbsolutePath());
 					childIndices.add( i++ );
-					final DirNode newChild = new DirNode( f , node );
 					childNodes.add( newChild );
 					node.children.add( newChild  );
-					i++;
 				}
 			} 
 			finally 
@@ -313,10 +373,10 @@ public class FileSystemBrowser extends JPanel
 		public boolean isLeaf(Object node) 
 		{
 			final DirNode dirNode = (DirNode) node;
-			if ( dirNode.file.isDirectory() && ! dirNode.dataFetched ) {
+			if ( dirNode.isDirectory() && ! dirNode.dataFetched ) {
 				fetchChildren( dirNode );
 			}
-			return dirNode.file.isFile() || dirNode.children.isEmpty();
+			return ! dirNode.isDirectory() || dirNode.children.isEmpty();
 		}
 
 		@Override
@@ -502,13 +562,29 @@ public class FileSystemBrowser extends JPanel
                 final TreeModelEvent ev = new TreeModelEvent( this , path , new int[] {idx} , new DirNode[] { current } );
                 treeModel.notifyListeners( l -> l.treeNodesRemoved( ev ) );
             } 
-            else 
-            {
-                pathChanged( current.file );
-            }
         }
     }
 
+    /**
+     * Adds a tree node for a newly created file or directory. 
+     * 
+     * Only the parent node is updated, no other directories are rescanned.
+     * 
+     * @param file
+     */
+    public void fileAdded(File file) 
+    {
+        final File parentDir = file.getParentFile();
+        if ( parentDir == null ) {
+            return;
+        }
+        final DirNode parent = treeModel.getRoot().findClosestNode( parentDir );
+        if ( parent != null && parent.file.equals( parentDir ) ) 
+        {
+            treeModel.nodeAdded( parent , file );
+        }
+    }
+    
     public void pathChanged(File topLevelDir) 
     {
         final DirNode current = treeModel.getRoot().findClosestNode( topLevelDir );
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.ui.panels;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Window;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.DefaultListModel;
+import javax.swing.JDialog;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+import org.apache.commons.lang3.Validate;
+
+import de.codesourcery.javr.assembler.symbols.Symbol;
+import de.codesourcery.javr.assembler.symbols.SymbolIndex;
+
+/**
+ * Modal dialog that lets the user pick a symbol by (fuzzy) name.
+ *
+ * <p>Pressing ENTER or double-clicking a result closes the dialog and passes
+ * the selected symbol to a callback, ESC closes the dialog without selecting anything.</p>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class GotoSymbolDialog extends JDialog
+{
+    private static final int MAX_RESULTS = 100;
+
+    private final Supplier<SymbolIndex> index;
+    private final Consumer<Symbol> callback;
+
+    private final JTextField input = new JTextField();
+    private final DefaultListModel<Symbol> results = new DefaultListModel<>();
+    private final JList<Symbol> resultList = new JList<>( results );
+
+    public GotoSymbolDialog(Window owner,Supplier<SymbolIndex> index,Consumer<Symbol> callback)
+    {
+        super( owner , "Go to symbol" , ModalityType.APPLICATION_MODAL );
+        Validate.notNull(index, "index must not be NULL");
+        Validate.notNull(callback, "callback must not be NULL");
+        this.index = index;
+        this.callback = callback;
+
+        resultList.setSelectionMode( ListSelectionModel.SINGLE_SELECTION );
+        resultList.setCellRenderer( new DefaultListCellRenderer()
+        {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int idx, boolean isSelected, boolean cellHasFocus)
+            {
+                final Component result = super.getListCellRendererComponent(list, value, idx, isSelected, cellHasFocus);
+                final Symbol symbol = (Symbol) value;
+                setText( symbol.name().value+" ("+symbol.getType()+")" );
+                return result;
+            }
+        });
+        resultList.addMouseListener( new MouseAdapter()
+        {
+            @Override
+            public void mouseClicked(MouseEvent e)
+            {
+                if ( e.getClickCount() == 2 && e.getButton() == MouseEvent.BUTTON1 ) {
+                    selectionFinished();
+                }
+            }
+        });
+
+        input.getDocument().addDocumentListener( new DocumentListener()
+        {
+            @Override
+            public void insertUpdate(DocumentEvent e) { updateResults(); }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) { updateResults(); }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) { updateResults(); }
+        });
+        input.addKeyListener( new KeyAdapter()
+        {
+            @Override
+            public void keyPressed(KeyEvent e)
+            {
+                switch( e.getKeyCode() )
+                {
+                    case KeyEvent.VK_ENTER:
+                        selectionFinished();
+                        break;
+                    case KeyEvent.VK_ESCAPE:
+                        dispose();
+                        break;
+                    case KeyEvent.VK_DOWN:
+                        moveSelection( 1 );
+                        e.consume();
+                        break;
+                    case KeyEvent.VK_UP:
+                        moveSelection( -1 );
+                        e.consume();
+                        break;
+                    default:
+                }
+            }
+        });
+
+        getContentPane().setLayout( new BorderLayout() );
+        getContentPane().add( input , BorderLayout.NORTH );
+        getContentPane().add( new JScrollPane( resultList ) , BorderLayout.CENTER );
+        setPreferredSize( new Dimension( 400 , 300 ) );
+        setDefaultCloseOperation( DISPOSE_ON_CLOSE );
+        pack();
+
+        updateResults();
+    }
+
+    private void updateResults()
+    {
+        results.clear();
+        index.get().search( input.getText().trim() , MAX_RESULTS , true ).forEach( results::addElement );
+        if ( ! results.isEmpty() ) {
+            resultList.setSelectedIndex( 0 );
+        }
+    }
+
+    private void moveSelection(int delta)
+    {
+        if ( ! results.isEmpty() )
+        {
+            final int newIndex = Math.max( 0 , Math.min( results.size() - 1 , resultList.getSelectedIndex() + delta ) );
+            resultList.setSelectedIndex( newIndex );
+            resultList.ensureIndexIsVisible( newIndex );
+        }
+    }
+
+    private void selectionFinished()
+    {
+        final Symbol selected = resultList.getSelectedValue();
+        dispose();
+        if ( selected != null ) {
+            callback.accept( selected );
+        }
+    }
+}
@@ -22,9 +22,11 @@ import java.awt.GridBagLayout;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.function.Consumer;
-import java.util.stream.Stream;
+import java.util.stream.Collectors;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
@@ -36,6 +38,7 @@ import de.codesourcery.javr.assembler.CompilationUnit;
 import de.codesourcery.javr.assembler.parser.Identifier;
 import de.codesourcery.javr.assembler.symbols.Symbol;
 import de.codesourcery.javr.assembler.symbols.Symbol.Type;
+import de.codesourcery.javr.assembler.symbols.SymbolIndex;
 import de.codesourcery.javr.assembler.symbols.SymbolTable;
 import de.codesourcery.javr.ui.config.IModel;
 
@@ -158,9 +161,6 @@ public class OutlinePanel extends JPanel
 	
 	private boolean isVisible(Symbol s) {
 		
-		if ( pattern != null && ! s.name().value.toLowerCase().contains( pattern ) ) {
-			return false;
-		}
 		return  ( showLocalLabels && s.hasType( Type.ADDRESS_LABEL ) && Identifier.isLocalGlobalIdentifier( s.name() ) ) ||
 				( showGlobalLabels && s.hasType( Type.ADDRESS_LABEL ) && ! Identifier.isLocalGlobalIdentifier( s.name() ) ) ||
 				( showEqu && s.hasType( Type.EQU ) ) |
@@ -177,10 +177,9 @@ public class OutlinePanel extends JPanel
 		return Optional.ofNullable( table == null ? null : table.getTopLevelTable() );
 	}
 	
-	private Stream<Symbol> symbolStream() 
+	private SymbolIndex symbolIndex() 
 	{
-		return symbols().map( table -> table.getAllSymbolsSorted().stream() ).orElse( Stream.empty() )
-				.filter( this::isVisible );
+		return symbols().map( table -> table.getPublishedSnapshot().getSearchIndex() ).orElse( SymbolIndex.EMPTY );
 	}
 	
 	public void setModel(IModel<CompilationUnit> model) {
@@ -203,14 +202,31 @@ public class OutlinePanel extends JPanel
 	{
 		private final ArrayList<TableModelListener> listener = new ArrayList<>();
 		
+		// visible symbols and the index they were taken from
+		private SymbolIndex index;
+		private List<Symbol> rows = Collections.emptyList();
+		
+		private List<Symbol> rows() 
+		{
+			final SymbolIndex current = symbolIndex();
+			if ( current != index ) 
+			{
+				final List<Symbol> candidates = pattern == null ? current.getAll() : current.findContaining( pattern );
+				rows = candidates.stream().filter( OutlinePanel.this::isVisible ).collect( Collectors.toList() );
+				index = current;
+			}
+			return rows;
+		}
+		
 		public Optional<Symbol> row(int row) {
-			return symbolStream().skip(row).findFirst();
+			final List<Symbol> rows = rows();
+			return row < rows.size() ? Optional.of( rows.get( row ) ) : Optional.empty();
 		}
 		
 		@Override
 		public int getRowCount() 
 		{
-			return (int) symbolStream().count();
+			return rows().size();
 		}
 
 		@Override
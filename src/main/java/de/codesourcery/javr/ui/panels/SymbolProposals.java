@@ -0,0 +1,160 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.ui.panels;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.Validate;
+
+import de.codesourcery.javr.assembler.parser.Identifier;
+import de.codesourcery.javr.assembler.symbols.Symbol;
+import de.codesourcery.javr.assembler.symbols.SymbolIndex;
+
+/**
+ * Computes the symbols proposed by the editor's auto-completion.
+ * 
+ * <p>A label is proposed if its name contains the user input or starts with the
+ * same {@link #PREFIX_LENGTH} characters. Local labels are only proposed
+ * below their global label and are matched by their local name.</p>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+final class SymbolProposals 
+{
+    /**
+     * Number of leading characters a label must share with the user input to be
+     * proposed even if it does not contain the input.
+     */
+    static final int PREFIX_LENGTH = 3;
+    
+    private SymbolProposals() {
+    }
+    
+    /**
+     * Returns proposals for some user input.
+     * 
+     * @param index index of all symbols
+     * @param previousGlobalSymbol global label preceding the caret, <code>null</code> if there is none 
+     * @param input user input
+     * @return local labels sorted by local name, followed by all other proposals sorted by name
+     */
+    public static List<Symbol> getProposals(SymbolIndex index,Symbol previousGlobalSymbol,String input) 
+    {
+        Validate.notNull(index, "index must not be NULL");
+        Validate.notNull(input, "input must not be NULL");
+        
+        final String lower = input.toLowerCase();
+        
+        // candidates contain the user input somewhere in their name or share its prefix 
+        final Set<Symbol> candidates = new LinkedHashSet<>( index.findContaining( lower ) );
+        if ( lower.length() >= PREFIX_LENGTH ) 
+        {
+            final String prefix = lower.substring( 0 , PREFIX_LENGTH );
+            candidates.addAll( index.findByPrefix( prefix ) );
+            if ( previousGlobalSymbol != null ) {
+                candidates.addAll( index.findByPrefix( previousGlobalSymbol.name().value+Identifier.LOCAL_GLOBAL_LABEL_SEPARATOR+prefix ) );
+            }
+        }
+        
+        final List<Symbol> globalMatches = new ArrayList<>();
+        final List<Symbol> localMatches = new ArrayList<>();
+        for ( Symbol symbol : candidates )
+        {
+            switch( symbol.getType() )
+            {
+                case ADDRESS_LABEL:
+                    if ( matches( symbol , previousGlobalSymbol , lower ) )
+                    {
+                        if ( symbol.isLocalLabel() ) {
+                            localMatches.add(symbol);
+                        } else {
+                            globalMatches.add(symbol);
+                        }
+                    }
+                    break;
+                case EQU:
+                case PREPROCESSOR_MACRO:
+                    if ( symbol.name().value.toLowerCase().contains( lower ) ) {
+                        globalMatches.add( symbol );
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        
+        globalMatches.sort( (a,b) -> a.name().value.compareTo( b.name().value ) );
+        localMatches.sort( (a,b) -> a.getLocalNamePart().value.compareTo( b.getLocalNamePart().value ) );
+        
+        final List<Symbol> result = new ArrayList<>( globalMatches.size() + localMatches.size() );
+        result.addAll( localMatches );
+        result.addAll( globalMatches );
+        return result;
+    }
+    
+    private static boolean matches(Identifier name,String userInput)
+    {
+        for ( int i = 0 , matchCount = 0 , len = name.value.length() < userInput.length() ? name.value.length() : userInput.length() ; i < len ; i++ )
+        {
+            final char c = Character.toLowerCase( name.value.charAt( i ) );
+            if ( c == userInput.charAt(i) )
+            {
+                matchCount++;
+                if ( matchCount == PREFIX_LENGTH ) {
+                    return true;
+                }
+            } else {
+                break;
+            }
+        }
+        if ( name.value.toLowerCase().contains( userInput ) ) {
+            return true;
+        }
+        return false;
+    }
+    
+    private static boolean matches(Symbol symbol,Symbol previousGlobalSymbol,String userInput)
+    {
+        if ( previousGlobalSymbol != null )
+        {
+            if ( symbol.isLocalLabel() )
+            {
+                if ( symbol.getGlobalNamePart().equals( previousGlobalSymbol.name() ) )
+                {
+                    if ( matches( symbol.getLocalNamePart() , userInput) ) {
+                        return true;
+                    }
+                }
+            }
+            else if ( matches( symbol.name() , userInput ) ) // global label 
+            {
+                return true;
+            }
+        }
+        else
+        {
+            // no previous global symbol, only consider global labels
+            if ( symbol.isGlobalLabel() && matches( symbol.name() , userInput ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
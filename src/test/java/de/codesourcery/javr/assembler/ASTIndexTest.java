@@ -0,0 +1,115 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.codesourcery.javr.assembler.parser.TextRegion;
+import de.codesourcery.javr.assembler.parser.ast.AST;
+import de.codesourcery.javr.assembler.parser.ast.ASTNode;
+import de.codesourcery.javr.assembler.parser.ast.CommentNode;
+import de.codesourcery.javr.assembler.parser.ast.StatementNode;
+
+public class ASTIndexTest extends ParseTestHelper 
+{
+    private static String createSource(int lines) 
+    {
+        final StringBuilder source = new StringBuilder();
+        for ( int i = 0 ; i < lines ; i++ ) 
+        {
+            switch( i % 4 ) {
+                case 0: source.append("label").append(i).append(": ldi r16, ").append( i & 0xff ).append("\n"); break;
+                case 1: source.append("  ; some comment\n"); break;
+                case 2: source.append("\n"); break;
+                default:
+                    source.append("  rjmp label").append( i - 3 ).append(" ; jump\n");
+            }
+        }
+        return source.toString();
+    }
+    
+    // reference implementation (linear scan)
+    private static ASTNode findNode(ASTNode node,int offset) 
+    {
+        final TextRegion m = node.getMergedTextRegion();
+        if ( m == null || ! m.contains( offset ) ) {
+            return null;
+        }
+        for ( ASTNode child : node.children() ) 
+        {
+            final ASTNode tmp = findNode( child , offset );
+            if ( tmp != null ) {
+                return tmp;
+            }
+        }
+        return node.getTextRegion() != null && node.getTextRegion().contains( offset ) ? node : null;
+    }
+    
+    private static void findIntersecting(ASTNode node,int start,int end,List<ASTNode> result) 
+    {
+        for ( ASTNode child : node.children() ) 
+        {
+            final TextRegion r = child.getTextRegion();
+            if ( r != null && r.start() < end && r.end() > start ) {
+                result.add( child );
+            }
+            findIntersecting( child , start , end , result );
+        }
+    }
+    
+    public void testNodeAtOffsetMatchesLinearScan() 
+    {
+        final String source = createSource( 400 );
+        final AST ast = parse( source );
+        for ( int offset = -1 ; offset <= source.length()+1 ; offset++ ) {
+            assertSame( "offset "+offset , findNode( ast , offset ) , ast.getNodeAtOffset( offset ) );
+        }
+    }
+    
+    public void testNodesIntersecting() 
+    {
+        final String source = createSource( 100 );
+        final AST ast = parse( source );
+        for ( int start = 0 ; start < source.length() ; start += 7 ) 
+        {
+            final int len = start % 3 == 0 ? 0 : 25;
+            final List<ASTNode> expected = new ArrayList<>();
+            findIntersecting( ast , start , Math.max( start + len , start + 1 ) , expected );
+            assertEquals( "region "+start+"/"+len , expected , ast.getNodesIntersecting( new TextRegion( start , len , 0 , 0 ) ) );
+        }
+        assertTrue( ast.getNodesIntersecting( new TextRegion( source.length() + 10 , 5 , 0 , 0 ) ).isEmpty() );
+    }
+    
+    public void testIndexIsUpdatedWhenASTChanges() 
+    {
+        final String source = createSource( 10 );
+        final AST ast = parse( source );
+        final int offset = source.length() + 100;
+        assertNull( ast.getNodeAtOffset( offset ) );
+        
+        final StatementNode stmt = new StatementNode();
+        final CommentNode comment = new CommentNode( "; added later" , new TextRegion( offset , 13 , 0 , 0 ) );
+        stmt.addChild( comment );
+        ast.addChild( stmt );
+        assertSame( comment , ast.getNodeAtOffset( offset ) );
+        
+        // change region of a node that is already part of the AST 
+        comment.setRegion( new TextRegion( offset + 50 , 13 , 0 , 0 ) );
+        assertNull( ast.getNodeAtOffset( offset ) );
+        assertSame( comment , ast.getNodeAtOffset( offset + 50 ) );
+    }
+}
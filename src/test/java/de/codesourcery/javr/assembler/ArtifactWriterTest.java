@@ -0,0 +1,104 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+
+import de.codesourcery.javr.assembler.util.FileResource;
+import de.codesourcery.javr.assembler.util.Resource;
+import junit.framework.TestCase;
+
+public class ArtifactWriterTest extends TestCase
+{
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory( "artifactwritertest" ).toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory( dir );
+    }
+
+    private Resource resource(String name) throws IOException {
+        return new FileResource( new File( dir , name ) , Resource.ENCODING_UTF );
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes( StandardCharsets.UTF_8 );
+    }
+
+    public void testWriteAllWritesEveryArtifact() throws IOException
+    {
+        final ArtifactWriter writer = new ArtifactWriter();
+        final ArtifactWriter.Artifact a = writer.add( resource("a.raw") , out -> out.write( bytes("flash") ) );
+        final ArtifactWriter.Artifact b = writer.add( resource("b.raw") , out -> out.write( bytes("eeprom") ) );
+        writer.writeAll();
+
+        assertTrue( a.isUpdated() );
+        assertTrue( b.isUpdated() );
+        assertEquals( 5 , a.getSize() );
+        assertEquals( "flash" , new String( Files.readAllBytes( new File( dir , "a.raw" ).toPath() ) , StandardCharsets.UTF_8 ) );
+        assertEquals( "eeprom" , new String( Files.readAllBytes( new File( dir , "b.raw" ).toPath() ) , StandardCharsets.UTF_8 ) );
+        // no temporary files are left behind
+        assertEquals( Arrays.asList("a.raw","b.raw") , Arrays.asList( sortedNames() ) );
+    }
+
+    private String[] sortedNames() {
+        final String[] names = dir.list();
+        Arrays.sort( names );
+        return names;
+    }
+
+    public void testUnchangedFileIsNotTouched() throws IOException
+    {
+        final File file = new File( dir , "a.hex" );
+        Files.write( file.toPath() , bytes("data") );
+        final long lastModified = 1000L*1000L;
+        assertTrue( file.setLastModified( lastModified ) );
+
+        assertFalse( ArtifactWriter.writeIfChanged( resource("a.hex") , bytes("data") ) );
+        assertEquals( lastModified , file.lastModified() );
+
+        assertTrue( ArtifactWriter.writeIfChanged( resource("a.hex") , bytes("datb") ) );
+        assertEquals( "datb" , new String( Files.readAllBytes( file.toPath() ) , StandardCharsets.UTF_8 ) );
+    }
+
+    public void testFailureIsReported() throws IOException
+    {
+        final ArtifactWriter writer = new ArtifactWriter();
+        writer.add( resource("a.raw") , out -> out.write( bytes("flash") ) );
+        writer.add( resource("b.raw") , out -> { throw new IOException("expected"); } );
+        try {
+            writer.writeAll();
+            fail("Should've failed");
+        } catch(IOException e) {
+            assertEquals( "expected" , e.getMessage() );
+        }
+        assertTrue( new File( dir , "a.raw" ).exists() );
+        assertFalse( new File( dir , "b.raw" ).exists() );
+    }
+}
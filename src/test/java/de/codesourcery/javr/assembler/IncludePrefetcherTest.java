@@ -0,0 +1,111 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import de.codesourcery.javr.assembler.parser.IncludePrefetcher;
+import de.codesourcery.javr.assembler.parser.Lexer;
+import de.codesourcery.javr.assembler.parser.LexerImpl;
+import de.codesourcery.javr.assembler.parser.Scanner;
+import de.codesourcery.javr.assembler.parser.Token;
+import de.codesourcery.javr.assembler.util.FileResource;
+import de.codesourcery.javr.assembler.util.FileResourceFactory;
+import de.codesourcery.javr.assembler.util.Resource;
+import junit.framework.TestCase;
+
+public class IncludePrefetcherTest extends TestCase
+{
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory("prefetch").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        for ( File f : dir.listFiles() ) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private Resource file(String name,String content) throws Exception
+    {
+        final File f = new File( dir , name );
+        Files.write( f.toPath() , content.getBytes( StandardCharsets.UTF_8 ) );
+        return new FileResource( f , Resource.ENCODING_UTF );
+    }
+
+    public void testIncludesArePrefetchedTransitively() throws Exception
+    {
+        final Resource root = file( "main.asm" , "#include \"a.inc\"\n  # include   \"b.inc\"\nldi r16,1\n" );
+        final Resource a = file( "a.inc" , ".equ A = 1 ; comment\n#include \"c.inc\"\n" );
+        final Resource b = file( "b.inc" , ".equ B = 2\n" );
+        final Resource c = file( "c.inc" , "#define C 3\n\tnop" );
+        final Resource unrelated = file( "d.inc" , "nop" );
+
+        final IncludePrefetcher prefetcher = new IncludePrefetcher( FileResourceFactory.createInstance( dir ) , ForkJoinPool.commonPool() );
+        prefetcher.start( root );
+
+        for ( Resource r : new Resource[] { a , b , c } )
+        {
+            // PreprocessingLexer always reads included files with whitespace enabled
+            assertEquals( lex( new LexerImpl( new Scanner( r ) ) ) , lex( prefetcher.createLexer( r ) ) );
+        }
+        assertNull( prefetcher.createLexer( unrelated ) );
+    }
+
+    public void testCircularIncludesTerminate() throws Exception
+    {
+        final Resource root = file( "main.asm" , "#include \"a.inc\"\n" );
+        final Resource a = file( "a.inc" , "#include \"main.asm\"\n" );
+
+        final IncludePrefetcher prefetcher = new IncludePrefetcher( FileResourceFactory.createInstance( dir ) , ForkJoinPool.commonPool() );
+        prefetcher.start( root );
+        assertNotNull( prefetcher.createLexer( a ) );
+    }
+
+    public void testMissingIncludeIsNotPrefetched() throws Exception
+    {
+        final Resource root = file( "main.asm" , "#include \"missing.inc\"\n" );
+
+        final IncludePrefetcher prefetcher = new IncludePrefetcher( FileResourceFactory.createInstance( dir ) , ForkJoinPool.commonPool() );
+        prefetcher.start( root );
+        assertNull( prefetcher.createLexer( new FileResource( new File( dir , "missing.inc" ) , Resource.ENCODING_UTF ) ) );
+    }
+
+    private static List<String> lex(Lexer lexer)
+    {
+        assertNotNull( lexer );
+        lexer.setIgnoreWhitespace( false );
+        final List<String> result = new ArrayList<>();
+        Token tok;
+        do {
+            tok = lexer.next();
+            result.add( tok.type+":"+tok.value+"@"+tok.offset+"/"+tok.line+":"+tok.column );
+        } while ( ! tok.isEOF() );
+        return result;
+    }
+}
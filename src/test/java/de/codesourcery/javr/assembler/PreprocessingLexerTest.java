@@ -443,6 +443,41 @@ public class PreprocessingLexerTest extends TestCase
         assertFalse( tokens.hasNext() );
     }    
 
+    public void testMacroExpandingToMacroInvocationUsesFollowingArguments() 
+    {
+        final Iterator<Token> tokens = lex("#define func(x) x+x\n"
+                + "#define f func\n"
+                + "f(2)");
+        assertToken(TokenType.DIGITS,"2",35,tokens);
+        assertToken(TokenType.OPERATOR,"+",36,tokens);
+        assertToken(TokenType.DIGITS,"2",37,tokens);
+        assertToken(TokenType.EOF,"",39,tokens);
+        assertFalse( tokens.hasNext() );
+    }
+
+    public void testMutuallyRecursiveMacrosTerminate() 
+    {
+        final Iterator<Token> tokens = lex("#define a b\n"
+                + "#define b a\n"
+                + "a");
+        assertToken(TokenType.TEXT,"a",24,tokens);
+        assertToken(TokenType.EOF,"",25,tokens);
+        assertFalse( tokens.hasNext() );
+    }
+
+    public void testMacroDefinedAfterFirstUseIsExpandedInLaterLines() 
+    {
+        final Iterator<Token> tokens = lex("#define a b\n"
+                + "a\n"
+                + "#define b c\n"
+                + "a");
+        assertToken(TokenType.TEXT,"b",12,tokens);
+        assertTokenType(TokenType.EOL,13,tokens);
+        assertToken(TokenType.TEXT,"c",26,tokens);
+        assertToken(TokenType.EOF,"",27,tokens);
+        assertFalse( tokens.hasNext() );
+    }
+
     public void testExpandDefineWithLongValue() 
     {
         final Iterator<Token> tokens = lex("#define a xxxxx\n"
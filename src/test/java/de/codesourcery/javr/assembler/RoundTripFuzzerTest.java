@@ -0,0 +1,71 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler;
+
+import java.util.Random;
+
+import de.codesourcery.javr.assembler.RoundTripFuzzer.Failure;
+import de.codesourcery.javr.assembler.RoundTripFuzzer.Result;
+import de.codesourcery.javr.assembler.arch.Architecture;
+import junit.framework.TestCase;
+
+public class RoundTripFuzzerTest extends TestCase
+{
+    public void testRandomInputsRoundTrip() throws Exception
+    {
+        final RoundTripFuzzer fuzzer = new RoundTripFuzzer( Architecture.ATMEGA88.getImplementation() ).setThreads( 2 ).setChunkSize( 1024 );
+        final Result result = fuzzer.run( 0xdeadbeef , 16 , 60_000 );
+        assertTrue( result.failures.toString() , result.isSuccess() );
+        assertEquals( 16 , result.inputs );
+        assertEquals( 16*1024 , result.bytes );
+        assertTrue( result.instructions > 0 );
+    }
+
+    public void testTruncatedInstructionRoundTrips()
+    {
+        final RoundTripFuzzer fuzzer = new RoundTripFuzzer( Architecture.ATMEGA88.getImplementation() );
+        // first word of STS without the address
+        assertNull( fuzzer.check( new byte[] { 0x70 , (byte) 0x92 } ) );
+    }
+
+    public void testShrinkFindsMinimalInput()
+    {
+        final RoundTripFuzzer fuzzer = new RoundTripFuzzer( Architecture.ATMEGA88.getImplementation() ) 
+        {
+            @Override
+            protected Failure check(byte[] data)
+            {
+                for ( int i = 0 ; i+1 < data.length ; i += 2 ) 
+                {
+                    if ( data[i] == (byte) 0xff && data[i+1] == (byte) 0xfe ) {
+                        return new Failure( data , "" , null , "boom" );
+                    }
+                }
+                return null;
+            }
+        };
+        final byte[] input = new byte[512];
+        new Random( 42 ).nextBytes( input );
+        for ( int i = 0 ; i < input.length ; i++ ) {
+            input[i] &= 0x7f;
+        }
+        input[300] = (byte) 0xff;
+        input[301] = (byte) 0xfe;
+
+        final Failure shrunk = fuzzer.shrink( fuzzer.check( input ) );
+        assertEquals( 2 , shrunk.input.length );
+    }
+}
@@ -23,8 +23,12 @@ import org.junit.Test;
 
 import de.codesourcery.javr.assembler.exceptions.ParseException;
 import de.codesourcery.javr.assembler.parser.Scanner;
+import de.codesourcery.javr.assembler.util.InMemoryResource;
 import de.codesourcery.javr.assembler.util.StringResource;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.function.Function;
 
 public class ScannerTest
@@ -249,6 +253,61 @@ public class ScannerTest
         return Character.toString(c);
     }
 
+    @Test
+    public void testWholeFileRemovesCarriageReturns()
+    {
+        this.scanner = new Scanner( new StringResource( "dummy", "\rx\r\nx\r\r\n\r") );
+        Assert.assertEquals( "x\nx\n", readString() );
+    }
+
+    @Test
+    public void testWholeFileEmptyStringWorks()
+    {
+        this.scanner = new Scanner( new StringResource( "dummy", "") );
+        assertEOF();
+        scanner.setOffset( 0 );
+        assertEOF();
+    }
+
+    @Test
+    public void testWholeFileDecodesNonAscii() throws IOException
+    {
+        final InMemoryResource resource = new InMemoryResource( "dummy" , "UTF-8" );
+        try ( OutputStream out = resource.createOutputStream() ) {
+            out.write( "; \u00e4\u00f6\u00fc \u20ac\r\nldi".getBytes( StandardCharsets.UTF_8 ) );
+        }
+        this.scanner = new Scanner( resource );
+        Assert.assertEquals( "; \u00e4\u00f6\u00fc \u20ac\nldi", readString() );
+        assertEquals( 11 , scanner.offset() );
+    }
+
+    @Test
+    public void testWholeFileBacktracksToAnyOffset()
+    {
+        final String input = StringUtils.repeat( "0123456789" , 500 );
+        this.scanner = new Scanner( new StringResource( "dummy", input ) );
+        Assert.assertEquals( input , readString() );
+
+        scanner.setOffset( 0 );
+        assertEquals( '0' , scanner.peek() );
+        scanner.setOffset( input.length()-1 );
+        assertEquals( '9' , scanner.next() );
+        assertEOF();
+        scanner.setOffset( 1234 );
+        assertEquals( '4' , scanner.next() );
+        assertEquals( '5' , scanner.next() );
+        scanner.pushBack();
+        assertEquals( 1235 , scanner.offset() );
+        assertEquals( '5' , scanner.peek() );
+
+        try {
+            scanner.setOffset( input.length()+1 );
+            fail("Should've failed");
+        } catch(IllegalStateException e) {
+            // ok
+        }
+    }
+
     private void assertEOF()
     {
         assertTrue( this.scanner.eof() );
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.arch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+public class ArchitectureTest extends TestCase
+{
+    public void testImplementationIsShared() throws Exception
+    {
+        final ExecutorService pool = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            final List<Future<IArchitecture>> futures = new ArrayList<>();
+            for ( int i = 0 ; i < 16 ; i++ ) {
+                futures.add( pool.submit( Architecture.XMEGA::getImplementation ) );
+            }
+            final IArchitecture expected = Architecture.XMEGA.getImplementation();
+            for ( Future<IArchitecture> f : futures ) {
+                assertSame( expected , f.get() );
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertNotSame( Architecture.ATMEGA88.getImplementation() , Architecture.ATMEGA88.createImplementation() );
+    }
+
+    public void testTablesAreImmutableAfterConstruction()
+    {
+        final AbstractArchitecture arch = (AbstractArchitecture) Architecture.ATMEGA328P.getImplementation();
+        try {
+            arch.insn( "foo" , "1111 1111 1111 1111" );
+            fail("Should've failed");
+        } catch(IllegalStateException e) {
+            // ok
+        }
+        try {
+            arch.aliasMnemonic( "foo" , "nop" );
+            fail("Should've failed");
+        } catch(IllegalStateException e) {
+            // ok
+        }
+        assertFalse( arch.isValidMnemonic( "foo" ) );
+    }
+}
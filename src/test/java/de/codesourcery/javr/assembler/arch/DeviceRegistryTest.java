@@ -0,0 +1,203 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.arch;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+
+import de.codesourcery.javr.assembler.AbstractCompilerTest;
+import de.codesourcery.javr.assembler.Segment;
+import de.codesourcery.javr.assembler.arch.impl.DeviceArchitecture;
+import de.codesourcery.javr.ui.config.ProjectConfiguration;
+
+public class DeviceRegistryTest extends AbstractCompilerTest
+{
+    private static final List<String> BUNDLED = Arrays.asList( "ATmega168P" , "ATmega328P" , "ATmega48P" , "ATmega88P" );
+
+    private String device;
+
+    // part without register data that is registered by the tests, ATtiny85-like (8K flash, no multiplier)
+    private static DeviceDescriptor tinyPart() 
+    {
+        return new DeviceDescriptor( "TestTiny" , DeviceDescriptor.Core.AVR8 , 8*1024 , 0x60 , 512 , 512 , 0x20 , 0x40 , 32 , 15 , 
+                Collections.emptyMap() , Arrays.asList( "MUL" , "MULS" , "MULSU" , "FMUL" , "FMULS" , "FMULSU" ) );
+    }
+
+    // ATmega2560-like part (256K flash)
+    private static DeviceDescriptor bigMegaPart() 
+    {
+        return new DeviceDescriptor( "TestMega" , DeviceDescriptor.Core.AVR8 , 256*1024 , 0x200 , 8*1024 , 4*1024 , 0x20 , 0x1e0 , 32 , 57 , 
+                Collections.emptyMap() , Collections.emptyList() );
+    }
+
+    public void testAllBundledDevicesCanBeLoaded()
+    {
+        final DeviceRegistry registry = DeviceRegistry.getInstance();
+        assertTrue( registry.getDeviceNames().containsAll( BUNDLED ) );
+        for ( String name : BUNDLED )
+        {
+            final DeviceDescriptor desc = registry.getDescriptor( name );
+            assertEquals( name , desc.getName() );
+            // bundled parts must carry register data
+            assertTrue( desc.getIORegisters().containsKey( "SREG" ) );
+            assertSame( registry.getArchitecture( name ) , registry.getArchitecture( name.toUpperCase() ) );
+        }
+    }
+
+    public void testMemoryMap()
+    {
+        final DeviceDescriptor desc = DeviceRegistry.getInstance().getDescriptor( "atmega328p" );
+        assertEquals( "ATmega328P" , desc.getName() );
+        assertEquals( 32*1024 , desc.getSegmentSize( Segment.FLASH ) );
+        assertEquals( 2048 , desc.getSegmentSize( Segment.SRAM ) );
+        assertEquals( 1024 , desc.getSegmentSize( Segment.EEPROM ) );
+        assertEquals( 0x100 , desc.getSRAMStartAddress() );
+        assertEquals( 26 , desc.getIRQVectorCount() );
+        assertEquals( Integer.valueOf( 0x5f ) , desc.getIORegisters().get( "SREG" ) );
+        assertEquals( Integer.valueOf( 0x2b ) , desc.getIORegisters().get( "PORTD" ) );
+        assertEquals( Integer.valueOf( 0xc6 ) , desc.getIORegisters().get( "UDR0" ) );
+        assertEquals( 87 , desc.getIORegisters().size() );
+
+        // IN/OUT take I/O addresses, everything else is accessed through the data space
+        assertEquals( Integer.valueOf( 0x3f ) , desc.getIORegisterSymbols().get( "SREG" ) );
+        assertEquals( Integer.valueOf( 0x0b ) , desc.getIORegisterSymbols().get( "PORTD" ) );
+        assertEquals( Integer.valueOf( 0xc6 ) , desc.getIORegisterSymbols().get( "UDR0" ) );
+
+        final IArchitecture arch = DeviceRegistry.getInstance().getArchitecture( "ATmega328P" );
+        assertEquals( "ATmega328P" , arch.getDeviceName() );
+        assertEquals( 2048 , arch.getSegmentSize( Segment.SRAM ) );
+        assertEquals( 26 , arch.getIRQVectorCount() );
+    }
+
+    public void testXMegaRegistersAreRelocated() throws IOException
+    {
+        final String xml = "<?xml version=\"1.0\"?>\n"
+                + "<avr-tools-device-file>\n"
+                + "  <devices>\n"
+                + "    <device name=\"ATxmega128A1\" architecture=\"AVR8_XMEGA\">\n"
+                + "      <address-spaces>\n"
+                + "        <address-space name=\"prog\" id=\"prog\" start=\"0x0000\" size=\"0x22000\">\n"
+                + "          <memory-segment start=\"0x0000\" size=\"0x20000\" type=\"flash\" name=\"APP_SECTION\"/>\n"
+                + "          <memory-segment start=\"0x20000\" size=\"0x2000\" type=\"flash\" name=\"BOOT_SECTION\"/>\n"
+                + "        </address-space>\n"
+                + "        <address-space name=\"data\" id=\"data\" start=\"0x0000\" size=\"0x1000000\">\n"
+                + "          <memory-segment name=\"MAPPED_IO\" start=\"0x0000\" size=\"0x1000\" type=\"io\"/>\n"
+                + "          <memory-segment name=\"INTERNAL_SRAM\" start=\"0x2000\" size=\"0x2000\" type=\"ram\"/>\n"
+                + "        </address-space>\n"
+                + "        <address-space name=\"eeprom\" id=\"eeprom\" start=\"0x0000\" size=\"0x0800\">\n"
+                + "          <memory-segment start=\"0x0000\" size=\"0x0800\" type=\"eeprom\" name=\"EEPROM\"/>\n"
+                + "        </address-space>\n"
+                + "      </address-spaces>\n"
+                + "      <peripherals>\n"
+                + "        <module name=\"CPU\"><instance name=\"CPU\"><register-group name=\"CPU\" name-in-module=\"CPU\" offset=\"0x0030\"/></instance></module>\n"
+                + "        <module name=\"PORT\"><instance name=\"PORTB\"><register-group name=\"PORTB\" name-in-module=\"PORT\" offset=\"0x0620\"/></instance></module>\n"
+                + "      </peripherals>\n"
+                + "      <interrupts><interrupt index=\"0\" name=\"RESET\"/><interrupt index=\"124\" name=\"USBD_TRNCOMPL\"/></interrupts>\n"
+                + "    </device>\n"
+                + "  </devices>\n"
+                + "  <modules>\n"
+                + "    <module name=\"CPU\"><register-group name=\"CPU\"><register name=\"SREG\" offset=\"0x0F\" size=\"1\"/></register-group></module>\n"
+                + "    <module name=\"PORT\"><register-group name=\"PORT\"><register name=\"OUT\" offset=\"0x04\" size=\"1\"/></register-group></module>\n"
+                + "  </modules>\n"
+                + "</avr-tools-device-file>\n";
+
+        final DeviceDescriptor desc = AtdfParser.parse( new ByteArrayInputStream( xml.getBytes( StandardCharsets.UTF_8 ) ) );
+        assertEquals( DeviceDescriptor.Core.AVR8_XMEGA , desc.getCore() );
+        assertEquals( 0x2000 , desc.getSRAMStartAddress() );
+        assertEquals( 8*1024 , desc.getSegmentSize( Segment.SRAM ) );
+        assertEquals( Integer.valueOf( 0x3f ) , desc.getIORegisters().get( "SREG" ) );
+        assertEquals( Integer.valueOf( 0x624 ) , desc.getIORegisters().get( "PORTB_OUT" ) );
+        assertEquals( Integer.valueOf( 0x3f ) , desc.getIORegisterSymbols().get( "SREG" ) );
+        assertEquals( Integer.valueOf( 0x624 ) , desc.getIORegisterSymbols().get( "PORTB_OUT" ) );
+        assertTrue( desc.getUnsupportedInstructions().isEmpty() );
+    }
+
+    public void testInstructionSubset()
+    {
+        final IArchitecture tiny = new DeviceArchitecture( tinyPart() );
+        assertFalse( tiny.isValidMnemonic( "mul" ) );
+        assertFalse( tiny.isValidMnemonic( "jmp" ) );
+        assertFalse( tiny.isValidMnemonic( "des" ) );
+        assertTrue( tiny.isValidMnemonic( "rjmp" ) );
+
+        final IArchitecture mega = new DeviceArchitecture( bigMegaPart() );
+        assertTrue( mega.isValidMnemonic( "mul" ) );
+        assertTrue( mega.isValidMnemonic( "jmp" ) );
+        assertTrue( mega.isValidMnemonic( "eicall" ) );
+        assertFalse( mega.isValidMnemonic( "xch" ) );
+    }
+
+    public void testCompileForDevice() throws IOException
+    {
+        device = "ATmega328P";
+        assertEquals( 4 , compile( "jmp 0\n" ).length );
+
+        DeviceRegistry.getInstance().register( tinyPart() );
+        device = "TestTiny";
+        try {
+            compile( "jmp 0\n" );
+            fail("Should've failed");
+        } catch(CompilationFailedException e) {
+            // ok
+        }
+    }
+
+    public void testDeviceRegistersCanBeUsedWithoutDefiningThem() throws IOException
+    {
+        device = "ATmega328P";
+        // out 0x0b,r16
+        Assert.assertArrayEquals( new byte[] { 0x0b , (byte) 0xb9 } , compile( "out PORTD,r16\n" ) );
+        // sts 0x00c6,r16
+        Assert.assertArrayEquals( new byte[] { 0x00 , (byte) 0x93 , (byte) 0xc6 , 0x00 } , compile( "sts UDR0,r16\n" ) );
+        // definitions in the source take precedence
+        Assert.assertArrayEquals( new byte[] { 0x05 , (byte) 0xb9 } , compile( ".equ PORTD = 0x05\nout PORTD,r16\n" ) );
+
+        DeviceRegistry.getInstance().register( tinyPart() );
+        device = "TestTiny";
+        try {
+            compile( "out PORTD,r16\n" );
+            fail("Should've failed");
+        } catch(CompilationFailedException e) {
+            // ok, no register data for this part
+        }
+    }
+
+    public void testParseRejectsDoctype()
+    {
+        final String xml = "<?xml version=\"1.0\"?><!DOCTYPE foo [ <!ENTITY x SYSTEM \"file:///etc/passwd\"> ]><avr-tools-device-file/>";
+        try {
+            AtdfParser.parse( new ByteArrayInputStream( xml.getBytes( StandardCharsets.UTF_8 ) ) );
+            fail("Should've failed");
+        } catch(IOException e) {
+            // ok
+        }
+    }
+
+    @Override
+    protected void decorateProjectConfiguration(ProjectConfiguration configuration)
+    {
+        configuration.setOutputFormat( ProjectConfiguration.OutputFormat.RAW );
+        if ( device != null ) {
+            configuration.setDevice( device );
+        }
+    }
+}
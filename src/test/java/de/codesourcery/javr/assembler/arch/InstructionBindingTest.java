@@ -0,0 +1,91 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.arch;
+
+import de.codesourcery.javr.assembler.Instruction;
+import de.codesourcery.javr.assembler.arch.AbstractArchitecture.InstructionBinding;
+import de.codesourcery.javr.assembler.arch.impl.ATMega328p;
+import de.codesourcery.javr.assembler.parser.TextRegion;
+import de.codesourcery.javr.assembler.parser.ast.InstructionNode;
+import junit.framework.TestCase;
+
+public class InstructionBindingTest extends TestCase
+{
+    private final ATMega328p arch = new ATMega328p();
+
+    private static InstructionNode insn(String mnemonic) {
+        return new InstructionNode( new Instruction( mnemonic ) , new TextRegion(0,0,0,0) );
+    }
+
+    public void testBindingIsCachedOnNode()
+    {
+        final InstructionNode node = insn("ldi");
+        assertNull( node.getBinding() );
+        final InstructionBinding binding = arch.bind( node );
+        assertSame( binding , node.getBinding() );
+        assertSame( binding , arch.bind( node ) );
+        assertEquals( "ldi" , binding.mnemonic );
+        assertSame( binding.encodings , binding.codeEncodings );
+    }
+
+    public void testBindingIsSharedBetweenNodes()
+    {
+        assertSame( arch.bind( insn("nop") ) , arch.bind( insn("NOP") ) );
+    }
+
+    public void testBindingIsDiscardedWhenInstructionChanges()
+    {
+        final InstructionNode node = insn("nop");
+        final InstructionBinding nop = arch.bind( node );
+        node.instruction = new Instruction("ret");
+        assertNull( node.getBinding() );
+        final InstructionBinding ret = arch.bind( node );
+        assertNotSame( nop , ret );
+        assertEquals( "ret" , ret.mnemonic );
+    }
+
+    public void testRewrittenInstructionsUseTargetEncoding()
+    {
+        final InstructionBinding clr = arch.bind( insn("clr") );
+        assertEquals( "clr" , clr.encodings.encodings.get(0).mnemonic );
+        assertEquals( "eor" , clr.codeEncodings.encodings.get(0).mnemonic );
+
+        final InstructionBinding ser = arch.bind( insn("ser") );
+        assertEquals( "ldi" , ser.codeEncodings.encodings.get(0).mnemonic );
+    }
+
+    public void testInstructionsAreSizedWithoutLookingAtOperands()
+    {
+        // LD needs its source operand to pick an encoding but all encodings have the same length
+        final InstructionNode ld = insn("ld");
+        assertTrue( arch.bind( ld ).encodings.hasFixedLength() );
+        assertEquals( 2 , arch.getInstructionLengthInBytes( ld , null , true ) );
+
+        final InstructionNode lds = insn("lds");
+        assertTrue( arch.bind( lds ).encodings.hasFixedLength() );
+        assertEquals( 4 , arch.getInstructionLengthInBytes( lds , null , true ) );
+    }
+
+    public void testUnknownMnemonicFails()
+    {
+        try {
+            arch.bind( insn("doesnotexist") );
+            fail("Should've failed");
+        } catch(RuntimeException e) {
+            // ok
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import de.codesourcery.javr.assembler.AbstractCompilerTest;
+import de.codesourcery.javr.assembler.CmdLine;
+import de.codesourcery.javr.assembler.CompilationUnit;
+import de.codesourcery.javr.assembler.CompilerSettings;
+import de.codesourcery.javr.assembler.Segment;
+import de.codesourcery.javr.assembler.arch.Architecture;
+import de.codesourcery.javr.assembler.parser.Parser.CompilationMessage;
+import de.codesourcery.javr.assembler.parser.Parser.Severity;
+import de.codesourcery.javr.assembler.parser.TextRegion;
+import de.codesourcery.javr.assembler.util.Resource;
+
+public class BuildCacheTest extends AbstractCompilerTest
+{
+    private File sourceFile;
+    private File includeFile;
+    private File cacheDir;
+
+    private void setupSources() throws IOException
+    {
+        final File dir = createTmpDir();
+        cacheDir = new File( dir , "cache" );
+        setupSources( new File( dir , "project" ) );
+    }
+
+    private void setupSources(File projectDir) throws IOException
+    {
+        projectDir.mkdirs();
+        sourceFile = writeFile( new File( projectDir , "main.asm" ) , "#include \"inc.asm\"\nnop\n".getBytes() );
+        includeFile = writeFile( new File( projectDir , "inc.asm" ) , "ldi r16,1\n".getBytes() );
+    }
+
+    private File assemble() 
+    {
+        final int exitCode = new CmdLine().run( new String[] { "-f" , "raw" , "--build-cache" , cacheDir.getAbsolutePath() , sourceFile.getAbsolutePath() } );
+        assertEquals( 0 , exitCode );
+        return new File( sourceFile.getParentFile() , sourceFile.getName()+".flash.raw" );
+    }
+
+    private int countEntries() throws IOException
+    {
+        return (int) Files.walk( cacheDir.toPath() ).filter( p -> p.toString().endsWith(".entry" ) ).count();
+    }
+
+    public void testCacheHitRestoresArtifacts() throws IOException
+    {
+        setupSources();
+
+        final File output = assemble();
+        final byte[] expected = Files.readAllBytes( output.toPath() );
+        assertEquals( 4 , expected.length );
+        assertEquals( 1 , countEntries() );
+
+        assertTrue( output.delete() );
+        assemble();
+        assertArrayEquals( expected , Files.readAllBytes( output.toPath() ) );
+        assertEquals( 1 , countEntries() );
+    }
+
+    public void testChangedIncludeIsCacheMiss() throws IOException
+    {
+        setupSources();
+
+        final File output = assemble();
+        final byte[] first = Files.readAllBytes( output.toPath() );
+
+        writeFile( includeFile , "ldi r16,2\n".getBytes() );
+        final byte[] second = Files.readAllBytes( assemble().toPath() );
+        assertFalse( Arrays.equals( first , second ) );
+        assertEquals( 2 , countEntries() );
+
+        // switching back must be a hit for the first entry
+        writeFile( includeFile , "ldi r16,1\n".getBytes() );
+        assertArrayEquals( first , Files.readAllBytes( assemble().toPath() ) );
+        assertEquals( 2 , countEntries() );
+    }
+
+    public void testLeastRecentlyUsedEntriesAreEvicted() throws IOException
+    {
+        final File dir = createTmpDir();
+        final File input = writeFile( new File( dir , "input.asm" ) , "nop".getBytes() );
+        final BuildCache cache = new BuildCache( new File( dir , "cache" ) , 3000 );
+
+        for ( int i = 0 ; i < 3 ; i++ ) 
+        {
+            final Map<Segment,byte[]> artifacts = new EnumMap<>( Segment.class );
+            artifacts.put( Segment.FLASH , new byte[1000] );
+            final BuildCache.Input in = new BuildCache.Input( input , Files.readAllBytes( input.toPath() ).length+"_"+i );
+            cache.store( "key"+i , dir , new BuildCache.Entry( Collections.singletonList( in ) , Collections.emptyList() , artifacts ) );
+            new File( new File( cache.getDirectory() , "key"+i ).listFiles()[0].getAbsolutePath() ).setLastModified( i*10000L );
+        }
+        cacheDir = cache.getDirectory();
+        assertEquals( 2 , countEntries() );
+        assertFalse( new File( cache.getDirectory() , "key0" ).exists() );
+    }
+
+    public void testCacheIsSharedBetweenCopiesOfAProject() throws IOException
+    {
+        setupSources();
+        final File first = assemble();
+        final byte[] expected = Files.readAllBytes( first.toPath() );
+
+        // same sources at a different location
+        setupSources( new File( cacheDir.getParentFile() , "copy" ) );
+        final File second = assemble();
+        assertFalse( first.equals( second ) );
+        assertArrayEquals( expected , Files.readAllBytes( second.toPath() ) );
+        assertEquals( 1 , countEntries() );
+
+        // the copy's include file must be checked, not the original one
+        writeFile( includeFile , "ldi r16,2\n".getBytes() );
+        assertFalse( Arrays.equals( expected , Files.readAllBytes( assemble().toPath() ) ) );
+        assertEquals( 2 , countEntries() );
+    }
+
+    public void testMessagesAreRestoredToOriginatingUnit() throws IOException
+    {
+        setupSources();
+        final File baseDir = sourceFile.getParentFile();
+        final CompilationUnit root = new CompilationUnit( Resource.file( sourceFile ) );
+        final CompilationUnit include = new CompilationUnit( Resource.file( includeFile ) );
+        final TextRegion region = new TextRegion( 0 , 3 , 1 , 1 );
+
+        final BuildCache cache = new BuildCache( cacheDir );
+        final String rootKey = BuildCache.rootKey( root.getResource() , baseDir , new CompilerSettings() , Architecture.ATMEGA88.getImplementation() , Collections.emptyMap() );
+        final List<BuildCache.Message> messages = Arrays.asList( 
+                BuildCache.Message.of( new CompilationMessage( root , Severity.WARNING , "in root" ) ),
+                BuildCache.Message.of( new CompilationMessage( include , Severity.WARNING , "in include" , region ) ) );
+        cache.store( rootKey , baseDir , new BuildCache.Entry( BuildCache.gatherInputs( root ) , messages , Collections.emptyMap() ) );
+
+        final Optional<BuildCache.Entry> entry = cache.lookup( rootKey , baseDir );
+        assertTrue( entry.isPresent() );
+
+        final CompilationUnit restored = new CompilationUnit( Resource.file( sourceFile ) );
+        entry.get().restoreMessages( restored );
+        assertEquals( 1 , restored.getMessages( false ).size() );
+        assertEquals( "in root" , restored.getMessages( false ).get(0).message );
+
+        assertEquals( 1 , restored.getDependencies().size() );
+        final CompilationUnit restoredInclude = restored.getDependencies().get(0);
+        assertTrue( restoredInclude.getResource().pointsToSameData( include.getResource() ) );
+        final List<CompilationMessage> includeMessages = restoredInclude.getMessages( false );
+        assertEquals( 1 , includeMessages.size() );
+        assertEquals( "in include" , includeMessages.get(0).message );
+        assertSame( restoredInclude , includeMessages.get(0).unit );
+        assertEquals( region.start() , includeMessages.get(0).region.start() );
+        assertEquals( region.line() , includeMessages.get(0).region.line() );
+    }
+
+    public void testRootKeyDoesNotDependOnProjectLocation() throws IOException
+    {
+        setupSources();
+        final String first = BuildCache.rootKey( Resource.file( sourceFile ) , sourceFile.getParentFile() , new CompilerSettings() , Architecture.ATMEGA88.getImplementation() , Collections.emptyMap() );
+        setupSources( new File( cacheDir.getParentFile() , "copy" ) );
+        final String second = BuildCache.rootKey( Resource.file( sourceFile ) , sourceFile.getParentFile() , new CompilerSettings() , Architecture.ATMEGA88.getImplementation() , Collections.emptyMap() );
+        assertEquals( first , second );
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.diff;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import de.codesourcery.javr.assembler.AbstractCompilerTest;
+import de.codesourcery.javr.assembler.arch.impl.ATMega328p;
+import de.codesourcery.javr.assembler.diff.FirmwareDiff.FunctionDiff;
+import de.codesourcery.javr.assembler.diff.FirmwareDiff.Status;
+import de.codesourcery.javr.assembler.elf.ElfFile;
+import de.codesourcery.javr.assembler.linker.LinkedImage;
+import de.codesourcery.javr.assembler.linker.Linker;
+import de.codesourcery.javr.assembler.linker.ObjectFile;
+import de.codesourcery.javr.assembler.util.IntelHex;
+import de.codesourcery.javr.ui.config.ProjectConfiguration;
+import de.codesourcery.javr.ui.config.ProjectConfiguration.OutputFormat;
+
+public class FirmwareDiffTest extends AbstractCompilerTest
+{
+    private static final String SOURCE = "main: rcall sub1\n"
+            + "rcall sub2\n"
+            + "rjmp main\n"
+            + "sub1: ldi r16,1\n"
+            + "%s"
+            + "ret\n"
+            + "sub2: ldi r17,2\n"
+            + "ldi r18,3\n"
+            + "rcall sub1\n"
+            + "ret\n";
+
+    private final ATMega328p arch = new ATMega328p();
+
+    private OutputFormat outputFormat = OutputFormat.RAW;
+
+    @Override
+    protected void decorateProjectConfiguration(ProjectConfiguration configuration) {
+        configuration.setOutputFormat( outputFormat );
+    }
+
+    private FirmwareImage compileElf(String name,String source) throws IOException 
+    {
+        outputFormat = OutputFormat.ELF_RELOCATABLE;
+        compile( source );
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ElfFile( OutputFormat.ELF_RELOCATABLE ).write( project.getArchitecture() , objectCodeWriter , project.getGlobalSymbolTable() , out );
+        final LinkedImage image = new Linker( arch ).link( Arrays.asList( ObjectFile.read( name+".o" , out.toByteArray() ) ) );
+
+        out.reset();
+        image.writeElf( out );
+        return FirmwareImage.load( name , out.toByteArray() );
+    }
+
+    private static FunctionDiff function(FirmwareDiff diff,String name) 
+    {
+        return diff.getFunctions().stream().filter( f -> f.name.equalsIgnoreCase( name ) ).findFirst()
+                .orElseThrow( () -> new AssertionError("No function "+name+" in "+diff.getFunctions() ) );
+    }
+
+    public void testIdenticalImages() throws IOException 
+    {
+        final FirmwareImage image1 = compileElf( "old.elf" , String.format( SOURCE , "" ) );
+        final FirmwareImage image2 = compileElf( "new.elf" , String.format( SOURCE , "" ) );
+        assertEquals( FirmwareImage.Format.ELF , image1.format );
+        assertTrue( image1.hasSymbols() );
+
+        final FirmwareDiff diff = FirmwareDiff.compare( arch , image1 , image2 );
+        assertTrue( diff.isIdentical() );
+        assertTrue( diff.getChangedRegions().isEmpty() );
+        assertTrue( diff.getMovedRegions().isEmpty() );
+        assertTrue( diff.getFunctions().stream().allMatch( f -> f.status == Status.UNCHANGED ) );
+    }
+
+    public void testInsertedInstruction() throws IOException 
+    {
+        final FirmwareImage oldImage = compileElf( "old.elf" , String.format( SOURCE , "" ) );
+        final FirmwareImage newImage = compileElf( "new.elf" , String.format( SOURCE , "inc r16\n" ) );
+
+        final FirmwareDiff diff = FirmwareDiff.compare( arch , oldImage , newImage );
+        assertFalse( diff.isIdentical() );
+
+        assertEquals( Status.ADDRESSES_CHANGED , function( diff , "main" ).status );
+        assertEquals( Status.CHANGED , function( diff , "sub1" ).status );
+        assertEquals( 2 , function( diff , "sub1" ).getSizeDelta() );
+        assertEquals( Status.ADDRESSES_CHANGED , function( diff , "sub2" ).status );
+        assertEquals( 2 , function( diff , "sub2" ).newAddress - function( diff , "sub2" ).oldAddress );
+
+        assertEquals( 1 , diff.getChangedRegions().size() );
+        assertEquals( 0 , diff.getChangedRegions().get(0).oldSize );
+        assertEquals( 2 , diff.getChangedRegions().get(0).newSize );
+        assertEquals( 1 , diff.getMovedRegions().size() );
+        assertEquals( 2 , diff.getMovedRegions().get(0).getDelta() );
+    }
+
+    public void testOnlyAddressOperandsAreIgnored() throws IOException 
+    {
+        final InstructionStream original = InstructionStream.decode( arch , compile( "lds r16,0x100\nrjmp 0\n" ) );
+        final InstructionStream otherAddress = InstructionStream.decode( arch , compile( "lds r16,0x102\nrjmp 2\n" ) );
+        final InstructionStream otherRegister = InstructionStream.decode( arch , compile( "lds r17,0x100\nrjmp 0\n" ) );
+
+        assertEquals( original.key(0) , otherAddress.key(0) );
+        assertEquals( original.key(1) , otherAddress.key(1) );
+        assertTrue( original.value(0) != otherAddress.value(0) );
+        assertTrue( original.key(0) != otherRegister.key(0) );
+
+        final String source = "main: lds %s,0x100\n"
+                + "ret\n";
+        final FirmwareDiff diff = FirmwareDiff.compare( arch , 
+                compileElf( "old.elf" , String.format( source , "r16" ) ) , compileElf( "new.elf" , String.format( source , "r17" ) ) );
+        assertEquals( Status.CHANGED , function( diff , "main" ).status );
+        assertEquals( 1 , diff.getChangedRegions().size() );
+        assertTrue( diff.getMovedRegions().isEmpty() );
+    }
+
+    public void testFunctionsSeedAlignmentOfRepetitiveCode() throws IOException 
+    {
+        // no unique anchors and differences at both ends, only the symbols can align this
+        final String source = "f: ldi r16,%d\n"
+                + "inc r20\ninc r20\ninc r20\ninc r20\ninc r20\ninc r20\n"
+                + "g: inc r20\ninc r20\ninc r20\ninc r20\ninc r20\ninc r20\n"
+                + "ldi r17,%d\n"
+                + "ret\n";
+        final FirmwareImage oldImage = compileElf( "old.elf" , String.format( source , 1 , 1 ) );
+        final FirmwareImage newImage = compileElf( "new.elf" , String.format( source , 2 , 2 ) );
+
+        final FirmwareDiff seeded = FirmwareDiff.compare( arch , oldImage , newImage );
+        assertEquals( 2 , seeded.getChangedRegions().size() );
+        assertEquals( 0 , seeded.getChangedRegions().get(0).oldAddress );
+        assertEquals( 2 , seeded.getChangedRegions().get(0).oldSize );
+        assertEquals( 26 , seeded.getChangedRegions().get(1).oldAddress );
+        assertEquals( 2 , seeded.getChangedRegions().get(1).oldSize );
+        assertTrue( seeded.getMovedRegions().isEmpty() );
+        assertEquals( Status.CHANGED , function( seeded , "f" ).status );
+        assertEquals( Status.CHANGED , function( seeded , "g" ).status );
+
+        // same images without symbols
+        final FirmwareDiff unseeded = FirmwareDiff.compare( arch , 
+                FirmwareImage.load( "old.raw" , oldImage.getData() ) , FirmwareImage.load( "new.raw" , newImage.getData() ) );
+        assertEquals( 1 , unseeded.getChangedRegions().size() );
+    }
+
+    public void testLoadIntelHexAndRaw() throws IOException 
+    {
+        outputFormat = OutputFormat.RAW;
+        final byte[] raw = compile( String.format( SOURCE , "" ) );
+        final ByteArrayOutputStream hex = new ByteArrayOutputStream();
+        new IntelHex().encode( raw , 0 , raw.length , 0 , hex );
+
+        final FirmwareImage rawImage = FirmwareImage.load( "test.raw" , raw );
+        final FirmwareImage hexImage = FirmwareImage.load( "test.hex" , hex.toByteArray() );
+        assertEquals( FirmwareImage.Format.RAW , rawImage.format );
+        assertEquals( FirmwareImage.Format.INTEL_HEX , hexImage.format );
+        assertFalse( hexImage.hasSymbols() );
+        assertTrue( FirmwareDiff.compare( arch , rawImage , hexImage ).isIdentical() );
+    }
+
+    public void testMovedBlockIsDetected() throws IOException 
+    {
+        final Random rnd = new Random( 0xdeadbeef );
+        final byte[] blockA = randomCode( rnd , 64 );
+        final byte[] blockB = randomCode( rnd , 64 );
+        final byte[] blockC = randomCode( rnd , 64 );
+
+        final FirmwareImage oldImage = FirmwareImage.load( "old.raw" , concat( blockA , blockB , blockC ) );
+        final FirmwareImage newImage = FirmwareImage.load( "new.raw" , concat( blockA , blockC , blockB ) );
+        final FirmwareDiff diff = FirmwareDiff.compare( arch , oldImage , newImage );
+
+        assertTrue( diff.getChangedRegions().isEmpty() );
+        final List<FirmwareDiff.MovedRegion> moved = diff.getMovedRegions();
+        assertTrue( "Expected moved code but got "+moved , moved.size() >= 2 );
+        assertTrue( moved.stream().anyMatch( r -> r.oldAddress == 64 && r.newAddress == 128 && r.size == 64 ) );
+    }
+
+    public void testLargeImage() throws IOException 
+    {
+        final Random rnd = new Random( 0x12345678 );
+        final byte[] head = randomCode( rnd , 128*1024 );
+        final byte[] tail = randomCode( rnd , 128*1024 - 2 );
+        final byte[] nop = { 0 , 0 };
+
+        final FirmwareImage oldImage = FirmwareImage.load( "old.raw" , concat( head , tail ) );
+        final FirmwareImage newImage = FirmwareImage.load( "new.raw" , concat( head , nop , tail ) );
+        final FirmwareDiff diff = FirmwareDiff.compare( arch , oldImage , newImage );
+
+        assertEquals( 1 , diff.getChangedRegions().size() );
+        assertEquals( 128*1024 , diff.getChangedRegions().get(0).newAddress );
+        assertEquals( 1 , diff.getMovedRegions().size() );
+        assertEquals( 2 , diff.getMovedRegions().get(0).getDelta() );
+    }
+
+    // random 16-bit instructions that do not operate on addresses 
+    private static byte[] randomCode(Random rnd,int len) 
+    {
+        final byte[] result = new byte[len];
+        for ( int i = 0 ; i < len ; i += 2 ) 
+        {
+            // LDI Rd,K: 1110 KKKK dddd KKKK
+            final int word = 0xe000 | rnd.nextInt( 0x1000 );
+            result[i] = (byte) word;
+            result[i+1] = (byte) ( word >> 8 );
+        }
+        return result;
+    }
+
+    private static byte[] concat(byte[]... arrays) 
+    {
+        byte[] result = new byte[0];
+        for ( byte[] array : arrays ) 
+        {
+            final int offset = result.length;
+            result = Arrays.copyOf( result , offset + array.length );
+            System.arraycopy( array , 0 , result , offset , array.length );
+        }
+        return result;
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.elf;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.charset.StandardCharsets;
+
+import de.codesourcery.javr.ui.config.ProjectConfiguration.OutputFormat;
+import junit.framework.TestCase;
+
+public class StringTableTest extends TestCase
+{
+    public void testOffsetZeroHoldsEmptyString() 
+    {
+        final StringTable table = new StringTable();
+        assertEquals( 1 , table.size() );
+        assertEquals( 0 , table.add( "" ) );
+        assertEquals( "" , table.getStringAtByteOffset( 0 ) );
+        assertEquals( 1 , table.size() );
+    }
+    
+    public void testDuplicateAddReturnsSameOffset() 
+    {
+        final StringTable table = new StringTable();
+        final int offset = table.add( "main" );
+        assertEquals( 1 , offset );
+        assertEquals( offset , table.add( "main" ) );
+        assertEquals( 6 , table.size() );
+    }
+    
+    public void testSuffixReusesLongerString() 
+    {
+        final StringTable table = new StringTable();
+        final int offset = table.add( "barfoo" );
+        final int size = table.size();
+        
+        assertEquals( offset + 3 , table.add( "foo" ) );
+        assertEquals( offset + 5 , table.add( "o" ) );
+        assertEquals( offset , table.add( "barfoo" ) );
+        assertEquals( size , table.size() );
+        assertEquals( "foo" , table.getStringAtByteOffset( offset + 3 ) );
+    }
+    
+    public void testSuffixOfAnyEarlierStringIsFound() 
+    {
+        final StringTable table = new StringTable();
+        final int first = table.add( "xyzfoo" );
+        table.add( "abc" );
+        table.add( "xfoo" );
+        table.add( "zzz" );
+        final int size = table.size();
+        
+        final int offset = table.add( "zfoo" );
+        assertEquals( first + 2 , offset );
+        assertEquals( size , table.size() );
+    }
+    
+    public void testPrefixIsNotShared() 
+    {
+        final StringTable table = new StringTable();
+        table.add( "foobar" );
+        final int size = table.size();
+        assertEquals( size , table.add( "foo" ) );
+        assertEquals( size + 4 , table.size() );
+    }
+    
+    public void testWrite() 
+    {
+        final StringTable table = new StringTable();
+        table.add( ".text" );
+        table.add( ".rela.text" );
+        table.add( "text" );
+        table.add( ".data" );
+        
+        final ElfWriter writer = new ElfWriter( new ElfFile( OutputFormat.ELF_RELOCATABLE ) );
+        table.write( writer );
+        assertArrayEquals( "\0.text\0.rela.text\0.data\0".getBytes( StandardCharsets.ISO_8859_1 ) , writer.getBytes() );
+    }
+}
@@ -0,0 +1,319 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.linker;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.codesourcery.javr.assembler.AbstractCompilerTest;
+import de.codesourcery.javr.assembler.Segment;
+import de.codesourcery.javr.assembler.arch.impl.ATMega328p;
+import de.codesourcery.javr.assembler.elf.ElfFile;
+import de.codesourcery.javr.assembler.elf.Relocation;
+import de.codesourcery.javr.assembler.exceptions.LinkerException;
+import de.codesourcery.javr.ui.config.ProjectConfiguration;
+import de.codesourcery.javr.ui.config.ProjectConfiguration.OutputFormat;
+
+public class LinkerTest extends AbstractCompilerTest
+{
+    private static final String PREFIX = "nop\n"
+            + "nop\n";
+    
+    private static final String SOURCE = "loop: rcall sub\n"
+            + "ldi r31,HIGH(data)\n"
+            + "ldi r30,LOW(data)\n"
+            + "lds r16,data\n"
+            + "jmp loop\n"
+            + "sub: ret\n"
+            + ".dseg\n"
+            + "data: .byte 2\n";
+    
+    private OutputFormat outputFormat = OutputFormat.ELF_RELOCATABLE;
+    
+    @Override
+    protected void decorateProjectConfiguration(ProjectConfiguration configuration) {
+        configuration.setOutputFormat( outputFormat );
+    }
+    
+    private ObjectFile compileToObjectFile(String name,String source) throws IOException 
+    {
+        outputFormat = OutputFormat.ELF_RELOCATABLE;
+        compile( source );
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ElfFile( OutputFormat.ELF_RELOCATABLE ).write( project.getArchitecture() , objectCodeWriter , project.getGlobalSymbolTable() , out );
+        return ObjectFile.read( name , out.toByteArray() );
+    }
+    
+    public void testLinkSingleObject() throws IOException 
+    {
+        final ObjectFile obj = compileToObjectFile( "test.o" , SOURCE );
+        
+        outputFormat = OutputFormat.RAW;
+        final byte[] expected = compile( SOURCE );
+        
+        final LinkedImage image = new Linker( new ATMega328p() ).link( Arrays.asList( obj ) );
+        assertArrayEquals( expected , Arrays.copyOf( image.getFlashImage() , image.textSize ) );
+    }
+    
+    public void testRelocationsAreAppliedRelativeToSectionPlacement() throws IOException 
+    {
+        final ObjectFile prefix = compileToObjectFile( "prefix.o" , PREFIX );
+        final ObjectFile obj = compileToObjectFile( "test.o" , SOURCE );
+        
+        outputFormat = OutputFormat.RAW;
+        final byte[] expected = compile( PREFIX+SOURCE );
+        
+        final LinkedImage image = new Linker( new ATMega328p() ).link( Arrays.asList( prefix, obj ) );
+        assertArrayEquals( expected , Arrays.copyOf( image.getFlashImage() , image.textSize ) );
+        
+        assertEquals( 4 , image.getSymbol( "loop" ).address );
+        assertEquals( Segment.FLASH , image.getSymbol( "loop" ).segment );
+        assertEquals( 0x100 , image.getSymbol( "data" ).address );
+        assertEquals( Segment.SRAM , image.getSymbol( "data" ).segment );
+    }
+    
+    public void testDuplicateSymbolFails() throws IOException 
+    {
+        final ObjectFile obj1 = compileToObjectFile( "test1.o" , SOURCE );
+        final ObjectFile obj2 = compileToObjectFile( "test2.o" , SOURCE );
+        try {
+            new Linker( new ATMega328p() ).link( Arrays.asList( obj1, obj2 ) );
+            fail("Should've failed");
+        } 
+        catch(LinkerException e) 
+        {
+            assertTrue( e.getErrors().contains( "Duplicate symbol 'loop' defined in test2.o (first defined in test1.o)" ) );
+        }
+    }
+    
+    public void testWriteElfExecutable() throws IOException 
+    {
+        final ObjectFile obj = compileToObjectFile( "test.o" , SOURCE );
+        final LinkedImage image = new Linker( new ATMega328p() ).link( Arrays.asList( obj ) );
+        
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        image.writeElf( out );
+        final byte[] data = out.toByteArray();
+        assertEquals( 0x7f , data[0] );
+        assertEquals( 2 , data[16] ); // ET_EXEC
+        assertEquals( 0x53 , data[18] ); // EM_AVR
+    }
+    
+    public void testLinkResolvesSymbolDefinedInOtherObject() throws IOException 
+    {
+        // call func ; with 'func' being undefined
+        final ObjectFile caller = new ObjectBuilder( 0x0e , 0x94 , 0x00 , 0x00 )
+                .symbol( "main" , 0 , STB_GLOBAL , 1 )
+                .symbol( "func" , 0 , STB_GLOBAL , ElfFile.SHN_UNDEF )
+                .relocation( 0 , 2 , Relocation.Kind.R_AVR_CALL )
+                .build( "caller.o" );
+        // nop ; func: ret
+        final ObjectFile callee = new ObjectBuilder( 0x00 , 0x00 , 0x08 , 0x95 )
+                .symbol( "func" , 2 , STB_GLOBAL , 1 )
+                .build( "callee.o" );
+        
+        final LinkedImage image = new Linker( new ATMega328p() ).link( Arrays.asList( caller , callee ) );
+        assertEquals( 6 , image.getSymbol( "func" ).address );
+        assertEquals( "callee.o" , image.getSymbol( "func" ).objectFile );
+        assertArrayEquals( new byte[] { 0x0e , (byte) 0x94 , 0x03 , 0x00 , 0x00 , 0x00 , 0x08 , (byte) 0x95 } , Arrays.copyOf( image.getFlashImage() , image.textSize ) );
+    }
+    
+    public void testUndefinedSymbolFails() throws IOException 
+    {
+        final ObjectFile caller = new ObjectBuilder( 0x0e , 0x94 , 0x00 , 0x00 )
+                .symbol( "func" , 0 , STB_GLOBAL , ElfFile.SHN_UNDEF )
+                .relocation( 0 , 1 , Relocation.Kind.R_AVR_CALL )
+                .build( "caller.o" );
+        try {
+            new Linker( new ATMega328p() ).link( Arrays.asList( caller ) );
+            fail("Should've failed");
+        } 
+        catch(LinkerException e) 
+        {
+            assertEquals( Arrays.asList( "caller.o: Undefined reference to 'func'" ) , e.getErrors() );
+        }
+    }
+    
+    public void testUndefinedWeakSymbolResolvesToZero() throws IOException 
+    {
+        // nop ; call hook ; with 'hook' being an undefined weak symbol
+        final ObjectFile caller = new ObjectBuilder( 0x00 , 0x00 , 0x0e , 0x94 , 0xff , 0xff )
+                .symbol( "hook" , 0 , STB_WEAK , ElfFile.SHN_UNDEF )
+                .relocation( 2 , 1 , Relocation.Kind.R_AVR_CALL )
+                .build( "caller.o" );
+        
+        final LinkedImage image = new Linker( new ATMega328p() ).link( Arrays.asList( caller ) );
+        assertArrayEquals( new byte[] { 0x00 , 0x00 , 0x0e , (byte) 0x94 , 0x00 , 0x00 } , Arrays.copyOf( image.getFlashImage() , image.textSize ) );
+    }
+    
+    public void testCorruptSectionSizeFails() 
+    {
+        final byte[] data = new ObjectBuilder( 0x00 , 0x00 ).symbol( "main" , 0 , STB_GLOBAL , 1 ).toByteArray();
+        // size of .text section header 
+        final int shOffset = ByteBuffer.wrap( data ).order( ByteOrder.LITTLE_ENDIAN ).getInt( 32 );
+        ByteBuffer.wrap( data ).order( ByteOrder.LITTLE_ENDIAN ).putInt( shOffset + 40 + 20 , 0x80000000 );
+        try {
+            ObjectFile.read( "corrupt.o" , data );
+            fail("Should've failed");
+        } 
+        catch(IOException e) 
+        {
+            assertTrue( e.getMessage() , e.getMessage().startsWith( "corrupt.o: " ) );
+        }
+    }
+    
+    public void testCorruptSectionCountFails() 
+    {
+        final byte[] data = new ObjectBuilder( 0x00 , 0x00 ).symbol( "main" , 0 , STB_GLOBAL , 1 ).toByteArray();
+        ByteBuffer.wrap( data ).order( ByteOrder.LITTLE_ENDIAN ).putShort( 48 , (short) 0xffff );
+        try {
+            ObjectFile.read( "corrupt.o" , data );
+            fail("Should've failed");
+        } 
+        catch(IOException e) 
+        {
+            assertTrue( e.getMessage() , e.getMessage().startsWith( "corrupt.o: " ) );
+        }
+    }
+    
+    public void testRelativeJumpWrapsAroundOnlyOnSmallDevices() 
+    {
+        // rjmp from 0x0000 to 0x1ffe is out of range but wraps around to -2 words on a 8K device
+        final byte[] data = { 0x00 , (byte) 0xc0 };
+        Linker.applyRelocation( Relocation.Kind.R_AVR_13_PCREL , data , 0 , 0x1ffe , 0 , 8192 );
+        assertArrayEquals( new byte[] { (byte) 0xfe , (byte) 0xcf } , data );
+        
+        try {
+            Linker.applyRelocation( Relocation.Kind.R_AVR_13_PCREL , new byte[] { 0x00 , (byte) 0xc0 } , 0 , 0x1ffe , 0 , 32768 );
+            fail("Should've failed");
+        } 
+        catch(RuntimeException e) {
+            assertTrue( e.getMessage() , e.getMessage().contains( "out of range" ) );
+        }
+    }
+    
+    private static final int STB_GLOBAL = 1;
+    private static final int STB_WEAK = 2;
+    
+    /**
+     * Creates minimal relocatable ELF files with a single <code>.text</code> section,
+     * used to test linking against symbols that javr itself never leaves undefined.
+     */
+    private static final class ObjectBuilder 
+    {
+        private final byte[] text;
+        private final List<int[]> symbols = new ArrayList<>();
+        private final List<String> symbolNames = new ArrayList<>();
+        private final List<int[]> relocations = new ArrayList<>();
+        
+        public ObjectBuilder(int... text) 
+        {
+            this.text = new byte[ text.length ];
+            for ( int i = 0 ; i < text.length ; i++ ) {
+                this.text[i] = (byte) text[i];
+            }
+        }
+        
+        public ObjectBuilder symbol(String name,int value,int binding,int sectionIndex) 
+        {
+            symbolNames.add( name );
+            symbols.add( new int[] { value , binding , sectionIndex } );
+            return this;
+        }
+        
+        public ObjectBuilder relocation(int offset,int symbolIndex,Relocation.Kind kind) 
+        {
+            relocations.add( new int[] { offset , symbolIndex , kind.elfId } );
+            return this;
+        }
+        
+        public ObjectFile build(String name) throws IOException {
+            return ObjectFile.read( name , toByteArray() );
+        }
+        
+        public byte[] toByteArray() 
+        {
+            final ByteArrayOutputStream strings = new ByteArrayOutputStream();
+            strings.write( 0 );
+            final int[] nameOffsets = new int[ symbolNames.size() ];
+            for ( int i = 0 ; i < nameOffsets.length ; i++ ) 
+            {
+                nameOffsets[i] = strings.size();
+                strings.writeBytes( ( symbolNames.get(i)+"\0" ).getBytes( StandardCharsets.ISO_8859_1 ) );
+            }
+            final byte[] strTab = strings.toByteArray();
+            final byte[] shStrTab = "\0.text\0.symtab\0.strtab\0.shstrtab\0.rela.text\0".getBytes( StandardCharsets.ISO_8859_1 );
+            
+            final int textOffset = 52;
+            final int symTabOffset = textOffset + text.length + ( text.length & 1 );
+            final int symTabSize = ( symbols.size() + 1 ) * 16;
+            final int strTabOffset = symTabOffset + symTabSize;
+            final int shStrTabOffset = strTabOffset + strTab.length;
+            final int relaOffset = shStrTabOffset + shStrTab.length;
+            final int relaSize = relocations.size() * 12;
+            final int shOffset = relaOffset + relaSize;
+            
+            final ByteBuffer buffer = ByteBuffer.allocate( shOffset + 6 * 40 ).order( ByteOrder.LITTLE_ENDIAN );
+            buffer.put( new byte[] { 0x7f , 'E' , 'L' , 'F' , 1 , 1 , 1 } );
+            buffer.putShort( 16 , (short) 1 ); // ET_REL
+            buffer.putShort( 18 , (short) 0x53 ); // EM_AVR
+            buffer.putInt( 20 , 1 );
+            buffer.putInt( 32 , shOffset );
+            buffer.putShort( 40 , (short) 52 );
+            buffer.putShort( 46 , (short) 40 );
+            buffer.putShort( 48 , (short) 6 );
+            buffer.putShort( 50 , (short) 4 );
+            
+            buffer.position( textOffset );
+            buffer.put( text );
+            buffer.position( symTabOffset + 16 ); // first entry is always the NULL symbol
+            for ( int i = 0 ; i < symbols.size() ; i++ ) 
+            {
+                final int[] symbol = symbols.get(i);
+                buffer.putInt( nameOffsets[i] ).putInt( symbol[0] ).putInt( 0 );
+                buffer.put( (byte) ( symbol[1] << 4 ) ).put( (byte) 0 ).putShort( (short) symbol[2] );
+            }
+            buffer.put( strTab );
+            buffer.put( shStrTab );
+            for ( int[] reloc : relocations ) {
+                buffer.putInt( reloc[0] ).putInt( reloc[1] << 8 | reloc[2] ).putInt( 0 );
+            }
+            
+            // NULL section header is all zeros
+            sectionHeader( buffer , shOffset + 40 , 1 , 1 , 6 , textOffset , text.length , 0 , 0 , 2 , 0 );
+            sectionHeader( buffer , shOffset + 80 , 7 , 2 , 0 , symTabOffset , symTabSize , 3 , 1 , 4 , 16 );
+            sectionHeader( buffer , shOffset + 120 , 15 , 3 , 0 , strTabOffset , strTab.length , 0 , 0 , 1 , 0 );
+            sectionHeader( buffer , shOffset + 160 , 23 , 3 , 0 , shStrTabOffset , shStrTab.length , 0 , 0 , 1 , 0 );
+            sectionHeader( buffer , shOffset + 200 , 33 , 4 , 0 , relaOffset , relaSize , 2 , 1 , 4 , 12 );
+            return buffer.array();
+        }
+        
+        private static void sectionHeader(ByteBuffer buffer,int offset,int name,int type,int flags,int dataOffset,int size,int link,int info,int align,int entrySize) 
+        {
+            buffer.position( offset );
+            buffer.putInt( name ).putInt( type ).putInt( flags ).putInt( 0 ).putInt( dataOffset ).putInt( size );
+            buffer.putInt( link ).putInt( info ).putInt( align ).putInt( entrySize );
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+
+import de.codesourcery.javr.assembler.Assembler;
+import de.codesourcery.javr.assembler.CompilationUnit;
+import de.codesourcery.javr.assembler.CompilerSettings;
+import de.codesourcery.javr.assembler.ObjectCodeWriter;
+import de.codesourcery.javr.assembler.Segment;
+import de.codesourcery.javr.assembler.arch.Architecture;
+import de.codesourcery.javr.assembler.symbols.Symbol;
+import de.codesourcery.javr.assembler.util.FileResourceFactory;
+import de.codesourcery.javr.assembler.util.Resource;
+import de.codesourcery.javr.ui.Project;
+import de.codesourcery.javr.ui.config.ProjectConfiguration;
+import de.codesourcery.javr.ui.config.ProjectConfiguration.OutputFormat;
+import junit.framework.TestCase;
+
+public class MemoryMapTest extends TestCase
+{
+    private File tmpDir;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        tmpDir = Files.createTempDirectory("memorymaptest").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory( tmpDir );
+    }
+
+    public void testMemoryMap() throws IOException
+    {
+        write( new File( tmpDir , "lib.inc" ) , "func: nop\nnop\n.loop\nrjmp func\ntable: .db 1,2,3,4\n" );
+        final File source = new File( tmpDir , "main.asm" );
+        write( source , "start: rjmp start\nentry:\nmain: nop\n#include \"lib.inc\"\n.dseg\nbuffer: .byte 16\n" );
+
+        final CompilationUnit unit = new CompilationUnit( Resource.file( source ) );
+        final ProjectConfiguration projConfig = new ProjectConfiguration();
+        projConfig.setArchitecture( Architecture.ATMEGA328P );
+        projConfig.setBaseDir( tmpDir );
+        projConfig.setCompilerSettings( new CompilerSettings() );
+        projConfig.setOutputFormat( OutputFormat.RAW );
+        final Project project = new Project( unit , projConfig );
+
+        final ObjectCodeWriter writer = new ObjectCodeWriter();
+        assertTrue( new Assembler().compile( project , writer , FileResourceFactory.createInstance( tmpDir ) , project ) );
+
+        final MemoryMap map = MemoryMap.create( unit , project.getGlobalSymbolTable() , writer , project.getArchitecture() );
+
+        assertEquals( 2 , map.segments.size() );
+        final MemoryMap.SegmentUsage flash = map.segments.get(0);
+        assertEquals( Segment.FLASH , flash.segment );
+        assertEquals( 14 , flash.usedBytes );
+        assertEquals( 0 , flash.unattributedBytes );
+        assertEquals( project.getArchitecture().getSegmentSize( Segment.FLASH ) , flash.capacity );
+        assertEquals( Segment.SRAM , map.segments.get(1).segment );
+        assertEquals( 16 , map.segments.get(1).usedBytes );
+
+        // local labels are accounted to their global label
+        assertFalse( map.symbols.stream().anyMatch( s -> s.name.contains( "loop" ) ) );
+        assertEquals( 6 , map.symbols.size() );
+        assertSymbol( map.symbols.get(0) , "start" , 0 , 2 , "main.asm" );
+        assertSymbol( map.symbols.get(1) , "entry" , 2 , 2 , "main.asm" );
+        assertSymbol( map.symbols.get(2) , "main" , 2 , 0 , "main.asm" );
+        assertSymbol( map.symbols.get(3) , "func" , 4 , 6 , "lib.inc" );
+        assertSymbol( map.symbols.get(4) , "table" , 10 , 4 , "lib.inc" );
+        assertEquals( Symbol.ObjectType.DATA , map.symbols.get(4).objectType );
+        assertSymbol( map.symbols.get(5) , "buffer" , map.segments.get(1).startAddress , 16 , "main.asm" );
+        assertEquals( Segment.SRAM , map.symbols.get(5).segment );
+
+        assertEquals( 2 , map.units.size() );
+        final MemoryMap.UnitUsage main = map.units.get(0);
+        assertEquals( 0 , main.includeDepth );
+        assertEquals( Integer.valueOf( 4 ) , main.selfBytes.get( Segment.FLASH ) );
+        assertEquals( Integer.valueOf( 14 ) , main.totalBytes.get( Segment.FLASH ) );
+        assertEquals( Integer.valueOf( 16 ) , main.totalBytes.get( Segment.SRAM ) );
+        final MemoryMap.UnitUsage lib = map.units.get(1);
+        assertTrue( lib.resource.endsWith( "lib.inc" ) );
+        assertEquals( 1 , lib.includeDepth );
+        assertEquals( lib.selfBytes , lib.totalBytes );
+        assertEquals( Integer.valueOf( 10 ) , lib.totalBytes.get( Segment.FLASH ) );
+
+        assertEquals( 5 , map.largestSymbols.size() );
+        assertEquals( "buffer" , map.largestSymbols.get(0).name );
+        assertEquals( "func" , map.largestSymbols.get(1).name );
+        assertEquals( "table" , map.largestSymbols.get(2).name );
+
+        final String text = map.toString();
+        assertTrue( text.contains( "Memory map of "+unit.getResource() ) );
+        assertTrue( text.contains( "table" ) );
+    }
+
+    private static void assertSymbol(MemoryMap.SymbolUsage symbol,String name,int address,int size,String unit)
+    {
+        assertEquals( name , symbol.name );
+        assertEquals( name , address , symbol.address );
+        assertEquals( name , size , symbol.size );
+        assertTrue( symbol.unit , symbol.unit.endsWith( unit ) );
+    }
+
+    private static void write(File file,String content) throws IOException
+    {
+        try ( FileOutputStream out = new FileOutputStream( file ) ) {
+            out.write( content.getBytes("UTF8") );
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import de.codesourcery.javr.assembler.Assembler;
+import de.codesourcery.javr.assembler.CompilationUnit;
+import de.codesourcery.javr.assembler.CompilerSettings;
+import de.codesourcery.javr.assembler.ObjectCodeWriter;
+import de.codesourcery.javr.assembler.arch.Architecture;
+import de.codesourcery.javr.assembler.util.FileResourceFactory;
+import de.codesourcery.javr.assembler.util.Resource;
+import de.codesourcery.javr.ui.Project;
+import de.codesourcery.javr.ui.config.ProjectConfiguration;
+import de.codesourcery.javr.ui.config.ProjectConfiguration.OutputFormat;
+import junit.framework.TestCase;
+
+public class MetricsCollectorTest extends TestCase
+{
+    private File tmpDir;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        tmpDir = Files.createTempDirectory("metricstest").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory( tmpDir );
+    }
+
+    private static final class RecordingListener implements ICompileMetricsListener
+    {
+        public final List<UnitMetrics> units = new ArrayList<>();
+        public final List<PhaseMetrics> phases = new ArrayList<>();
+        public final List<CompileMetrics> compilations = new ArrayList<>();
+
+        @Override
+        public void unitParsed(UnitMetrics metrics) {
+            units.add( metrics );
+        }
+
+        @Override
+        public void phaseFinished(PhaseMetrics metrics) {
+            phases.add( metrics );
+        }
+
+        @Override
+        public void compilationFinished(CompileMetrics metrics) {
+            compilations.add( metrics );
+        }
+    }
+
+    public void testNestedUnitTimes() throws InterruptedException
+    {
+        final RecordingListener listener = new RecordingListener();
+        final MetricsCollector collector = new MetricsCollector( Arrays.asList( listener ) );
+
+        collector.unitStarted("outer");
+        collector.tokenRead();
+        collector.tokenRead();
+        collector.tokenRead();
+        collector.unitStarted("inner");
+        collector.tokenRead();
+        collector.tokenRead();
+        Thread.sleep( 20 );
+        collector.unitFinished();
+        collector.unitFinished();
+
+        assertEquals( 2 , listener.units.size() );
+        final UnitMetrics inner = listener.units.get(0);
+        final UnitMetrics outer = listener.units.get(1);
+
+        assertEquals( "inner" , inner.resource );
+        assertEquals( 1 , inner.includeDepth );
+        assertEquals( 2 , inner.tokenCount );
+        assertEquals( inner.totalNanos , inner.selfNanos );
+        assertTrue( inner.totalNanos >= 20_000_000 );
+
+        assertEquals( "outer" , outer.resource );
+        assertEquals( 0 , outer.includeDepth );
+        assertEquals( 3 , outer.tokenCount );
+        assertTrue( outer.totalNanos >= inner.totalNanos );
+        assertEquals( outer.totalNanos - inner.totalNanos , outer.selfNanos );
+    }
+
+    public void testUnbalancedFinishIsIgnored()
+    {
+        final RecordingListener listener = new RecordingListener();
+        final MetricsCollector collector = new MetricsCollector( Arrays.asList( listener ) );
+        collector.unitFinished();
+        collector.tokenRead();
+        assertTrue( listener.units.isEmpty() );
+    }
+
+    public void testCacheStatistics()
+    {
+        final CacheStatistics before = new CacheStatistics( 1 , 1 );
+        final CacheStatistics after = new CacheStatistics( 4 , 2 );
+        final CacheStatistics delta = after.minus( before );
+        assertEquals( 3 , delta.hits );
+        assertEquals( 1 , delta.misses );
+        assertEquals( 0.75d , delta.hitRate , 0.0001 );
+        assertEquals( 0d , new CacheStatistics( 0 , 0 ).hitRate , 0.0001 );
+    }
+
+    public void testCompileReportsMetrics() throws IOException
+    {
+        final File include = new File( tmpDir , "defs.inc" );
+        write( include , ".equ VALUE = 42\n" );
+        final File source = new File( tmpDir , "main.asm" );
+        write( source , "#include \"defs.inc\"\nldi r16,VALUE\nlabel: rjmp label\n" );
+
+        final CompilationUnit unit = new CompilationUnit( Resource.file( source ) );
+        final ProjectConfiguration projConfig = new ProjectConfiguration();
+        projConfig.setArchitecture( Architecture.ATMEGA328P );
+        projConfig.setBaseDir( tmpDir );
+        projConfig.setCompilerSettings( new CompilerSettings() );
+        projConfig.setOutputFormat( OutputFormat.RAW );
+        final Project project = new Project( unit , projConfig );
+
+        final RecordingListener listener = new RecordingListener();
+        final Assembler asm = new Assembler();
+        asm.addMetricsListener( listener );
+        assertTrue( asm.compile( project , new ObjectCodeWriter() , FileResourceFactory.createInstance( tmpDir ) , project ) );
+
+        assertEquals( Assembler.createPhases( project ).size() , listener.phases.size() );
+        assertEquals( "parse" , listener.phases.get(0).phase );
+        assertTrue( listener.phases.stream().allMatch( p -> p.successful ) );
+
+        assertEquals( 2 , listener.units.size() );
+        assertEquals( 1 , listener.units.get(0).includeDepth );
+        assertTrue( listener.units.get(0).resource.contains( "defs.inc" ) );
+        assertEquals( 0 , listener.units.get(1).includeDepth );
+
+        assertEquals( 1 , listener.compilations.size() );
+        final CompileMetrics metrics = listener.compilations.get(0);
+        assertSame( metrics , asm.getLastMetrics() );
+        assertTrue( metrics.successful );
+        assertTrue( metrics.tokenCount > 0 );
+        assertTrue( metrics.astNodeCount > 0 );
+        assertTrue( metrics.symbolCount >= 2 );
+        assertTrue( metrics.caches.containsKey( MetricsCollector.CACHE_FILE_HASHES ) );
+
+        final CompileMetrics withBuildCache = metrics.withCacheStatistics( "build" , new CacheStatistics( 1 , 0 ) );
+        assertEquals( 2 , withBuildCache.caches.size() );
+        assertEquals( 1 , metrics.caches.size() );
+
+        final String summary = metrics.toPhaseSummary();
+        assertTrue( summary , summary.startsWith( "parse: " ) );
+        assertTrue( summary , summary.endsWith( " ms" ) );
+        assertTrue( summary , summary.contains( "total: " ) );
+    }
+
+    private static void write(File file,String content) throws IOException
+    {
+        try ( FileOutputStream out = new FileOutputStream( file ) ) {
+            out.write( content.getBytes("UTF8") );
+        }
+    }
+}
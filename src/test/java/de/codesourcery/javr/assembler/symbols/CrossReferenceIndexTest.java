@@ -0,0 +1,180 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.symbols;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import de.codesourcery.javr.assembler.Assembler;
+import de.codesourcery.javr.assembler.CompilationUnit;
+import de.codesourcery.javr.assembler.CompilerSettings;
+import de.codesourcery.javr.assembler.ObjectCodeWriter;
+import de.codesourcery.javr.assembler.arch.Architecture;
+import de.codesourcery.javr.assembler.parser.Identifier;
+import de.codesourcery.javr.assembler.parser.TextRegion;
+import de.codesourcery.javr.assembler.symbols.CrossReferenceIndex.Reference;
+import de.codesourcery.javr.assembler.util.FileResourceFactory;
+import de.codesourcery.javr.assembler.util.Resource;
+import de.codesourcery.javr.assembler.util.StringResource;
+import de.codesourcery.javr.ui.Project;
+import de.codesourcery.javr.ui.config.ProjectConfiguration;
+import de.codesourcery.javr.ui.config.ProjectConfiguration.OutputFormat;
+import junit.framework.TestCase;
+
+public class CrossReferenceIndexTest extends TestCase
+{
+    private static final Identifier FOO = new Identifier("foo");
+    private static final Identifier BAR = new Identifier("bar");
+
+    private final CompilationUnit unit1 = new CompilationUnit( new StringResource("unit1" , "" ) );
+    private final CompilationUnit unit2 = new CompilationUnit( new StringResource("unit2" , "" ) );
+
+    private static TextRegion region(int start) {
+        return new TextRegion( start , 3 , 1 , start+1 );
+    }
+
+    public void testLookupAcrossUnits()
+    {
+        final CrossReferenceIndex index = new CrossReferenceIndex();
+        final CrossReferenceIndex.Updater updater = index.update( Arrays.asList( unit1 , unit2 ) );
+        updater.addReference( unit1 , FOO , region( 10 ) );
+        updater.addReference( unit1 , BAR , region( 20 ) );
+        updater.addReference( unit1 , FOO , region( 30 ) );
+        updater.addReference( unit2 , FOO , region( 5 ) );
+
+        assertEquals( 0 , index.getReferenceCount( FOO ) ); // not committed yet
+        updater.commit();
+
+        final List<Reference> refs = index.getReferences( FOO );
+        assertEquals( 3 , refs.size() );
+        assertSame( unit1 , refs.get(0).unit );
+        assertEquals( 10 , refs.get(0).region.start() );
+        assertEquals( 30 , refs.get(1).region.start() );
+        assertSame( unit2 , refs.get(2).unit );
+        assertEquals( 5 , refs.get(2).region.start() );
+        assertEquals( 6 , refs.get(2).region.column() );
+
+        assertEquals( 1 , index.getReferenceCount( BAR ) );
+        assertFalse( index.isReferenced( new Identifier("unknown") ) );
+        assertEquals( 3 , index.getReferences( unit1 ).size() );
+    }
+
+    public void testUpdateReplacesOnlyGivenUnits()
+    {
+        final CrossReferenceIndex index = new CrossReferenceIndex();
+        CrossReferenceIndex.Updater updater = index.update( Arrays.asList( unit1 , unit2 ) );
+        updater.addReference( unit1 , FOO , region( 10 ) );
+        updater.addReference( unit2 , FOO , region( 20 ) );
+        updater.commit();
+
+        updater = index.update( Arrays.asList( unit1 ) );
+        updater.addReference( unit1 , BAR , region( 10 ) );
+        updater.commit();
+
+        assertEquals( 1 , index.getReferenceCount( FOO ) );
+        assertSame( unit2 , index.getReferences( FOO ).get(0).unit );
+        assertEquals( 1 , index.getReferenceCount( BAR ) );
+
+        try {
+            index.update( Arrays.asList( unit1 ) ).addReference( unit2 , FOO , region(0) );
+            fail("Should've failed");
+        } catch(IllegalArgumentException e) {
+            // ok
+        }
+
+        index.remove( unit2 );
+        assertFalse( index.isReferenced( FOO ) );
+    }
+
+    public void testCompilationRecordsReferences() throws IOException
+    {
+        final File tmpDir = Files.createTempDirectory("xreftest").toFile();
+        try
+        {
+            write( new File( tmpDir , "defs.inc" ) , ".equ VALUE = 42\nldi r17,VALUE\n" );
+            final File source = new File( tmpDir , "main.asm" );
+            write( source , "#include \"defs.inc\"\nldi r16,VALUE\nlabel: rjmp label\n" );
+
+            final Project project = createProject( tmpDir , source );
+            final CompilationUnit unit = project.getCompileRoot();
+            assertTrue( compile( project , tmpDir ) );
+
+            final List<Reference> value = project.getCrossReferenceIndex().getReferences( new Identifier("VALUE") );
+            assertEquals( 2 , value.size() );
+            assertSame( unit , value.get(0).unit );
+            assertEquals( 28 , value.get(0).region.start() );
+            assertTrue( value.get(1).unit.getResource().toString().contains("defs.inc") );
+            assertEquals( 24 , value.get(1).region.start() );
+
+            final List<Reference> label = project.getCrossReferenceIndex().getReferences( new Identifier("label") );
+            assertEquals( 1 , label.size() );
+            assertEquals( 46 , label.get(0).region.start() );
+        }
+        finally {
+            FileUtils.deleteDirectory( tmpDir );
+        }
+    }
+
+    public void testOnlyIdentifiersReferringToSymbolsAreRecorded() throws IOException
+    {
+        final File tmpDir = Files.createTempDirectory("xreftest").toFile();
+        try
+        {
+            final File source = new File( tmpDir , "main.asm" );
+            write( source , ".equ VALUE = 1\nldi r16,VALUE\nout UNDEFINED_REGISTER,r16\n" );
+
+            final Project project = createProject( tmpDir , source );
+            assertFalse( compile( project , tmpDir ) );
+            final CrossReferenceIndex index = project.getCrossReferenceIndex();
+            assertEquals( 1 , index.getReferences( new Identifier("VALUE") ).size() );
+            assertTrue( index.getReferences( new Identifier("UNDEFINED_REGISTER") ).isEmpty() );
+            assertTrue( index.getReferences( project.getCompileRoot() ).stream()
+                    .allMatch( ref -> project.getGlobalSymbolTable().maybeGet( ref.symbol ).isPresent() ) );
+        }
+        finally {
+            FileUtils.deleteDirectory( tmpDir );
+        }
+    }
+
+    private static Project createProject(File tmpDir,File source) throws IOException
+    {
+        final CompilationUnit unit = new CompilationUnit( Resource.file( source ) );
+        final ProjectConfiguration projConfig = new ProjectConfiguration();
+        projConfig.setArchitecture( Architecture.ATMEGA328P );
+        projConfig.setBaseDir( tmpDir );
+        projConfig.setCompilerSettings( new CompilerSettings() );
+        projConfig.setOutputFormat( OutputFormat.RAW );
+        return new Project( unit , projConfig );
+    }
+
+    private static boolean compile(Project project,File tmpDir) throws IOException
+    {
+        return new Assembler().compile( project , new ObjectCodeWriter() , FileResourceFactory.createInstance( tmpDir ) , project );
+    }
+
+    private static void write(File file,String content) throws IOException
+    {
+        try ( FileOutputStream out = new FileOutputStream( file ) ) {
+            out.write( content.getBytes("UTF8") );
+        }
+    }
+}
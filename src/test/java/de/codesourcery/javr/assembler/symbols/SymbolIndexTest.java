@@ -0,0 +1,103 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.symbols;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import de.codesourcery.javr.assembler.CompilationUnit;
+import de.codesourcery.javr.assembler.parser.Identifier;
+import de.codesourcery.javr.assembler.symbols.Symbol.Type;
+import de.codesourcery.javr.assembler.util.StringResource;
+import junit.framework.TestCase;
+
+public class SymbolIndexTest extends TestCase
+{
+    private final CompilationUnit unit = new CompilationUnit( new StringResource("dummy" , "" ) );
+
+    private Symbol symbol(String name) {
+        return new Symbol( new Identifier( name ) , Type.UNDEFINED , unit , null );
+    }
+
+    private SymbolIndex index(String... names)
+    {
+        final List<Symbol> symbols = new ArrayList<>();
+        Arrays.stream( names ).map( this::symbol ).forEach( symbols::add );
+        return new SymbolIndex( symbols );
+    }
+
+    private static List<String> names(List<Symbol> symbols) {
+        return symbols.stream().map( s -> s.name().value ).collect( Collectors.toList() );
+    }
+
+    public void testFindByPrefix()
+    {
+        final SymbolIndex index = index( "loop" , "LOOP_END" , "main" , "lo" , "delay" );
+        assertEquals( Arrays.asList( "lo" , "loop" , "LOOP_END" ) , names( index.findByPrefix( "Lo" ) ) );
+        assertEquals( Arrays.asList( "main" ) , names( index.findByPrefix( "main" ) ) );
+        assertTrue( index.findByPrefix( "x" ).isEmpty() );
+        assertEquals( 5 , index.findByPrefix( "" ).size() );
+    }
+
+    public void testFindContainingMatchesLinearScan()
+    {
+        final String[] names = { "delay_loop" , "main" , "init_uart" , "uart_send" , "UART_RECEIVE" , "loop" , "a" , "ua" , "tuar" };
+        final SymbolIndex index = index( names );
+        for ( String term : new String[] { "" , "a" , "ua" , "uar" , "uart" , "UART_" , "oop" , "art_s" , "xyz" , "delay_loop" } )
+        {
+            final List<String> expected = Arrays.stream( names )
+                    .filter( n -> n.toLowerCase().contains( term.toLowerCase() ) )
+                    .sorted( String.CASE_INSENSITIVE_ORDER )
+                    .collect( Collectors.toList() );
+            assertEquals( "term: "+term , expected , names( index.findContaining( term ) ) );
+        }
+    }
+
+    public void testSearchRanking()
+    {
+        final SymbolIndex index = index( "send_byte" , "uart_send" , "send" , "sendByteNow" , "serial_end" );
+        assertEquals( Arrays.asList( "send" , "send_byte" , "sendByteNow" , "uart_send" ) , names( index.search( "send" , 10 , false ) ) );
+
+        // camel humps & underscores
+        assertEquals( "sendByteNow" , names( index.search( "sbn" , 10 , true ) ).get(0) );
+        assertEquals( Arrays.asList( "send_byte" , "sendByteNow" ) , names( index.search( "sb" , 10 , true ) ) );
+
+        // subsequence matches only when fuzzy
+        assertTrue( index.search( "sre" , 10 , false ).isEmpty() );
+        assertEquals( Arrays.asList( "serial_end" ) , names( index.search( "sre" , 10 , true ) ) );
+
+        assertEquals( 2 , index.search( "" , 2 , true ).size() );
+    }
+
+    public void testSymbolTableRebuildsIndexOnChange() throws Exception
+    {
+        final SymbolTable parent = new SymbolTable( SymbolTable.GLOBAL );
+        final SymbolTable child = new SymbolTable( "child" , parent );
+
+        final SymbolIndex empty = child.getSearchIndex();
+        assertTrue( empty.isEmpty() );
+        assertSame( empty , child.getSearchIndex() );
+
+        parent.declareSymbol( new Identifier("foo") , unit );
+        final SymbolIndex index = child.getSearchIndex();
+        assertEquals( Arrays.asList( "foo" ) , names( index.getAll() ) );
+
+        parent.removeIf( s -> true );
+        assertTrue( child.getSearchIndex().isEmpty() );
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.symbols;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+
+import de.codesourcery.javr.assembler.CompilationUnit;
+import de.codesourcery.javr.assembler.parser.Identifier;
+import de.codesourcery.javr.assembler.util.StringResource;
+import junit.framework.TestCase;
+
+public class SymbolTableTest extends TestCase
+{
+    private final CompilationUnit unit = new CompilationUnit( new StringResource("dummy" , "" ) );
+
+    private static List<String> names(List<Symbol> symbols) {
+        return symbols.stream().map( s -> s.name().value ).collect( Collectors.toList() );
+    }
+
+    public void testSnapshotIsImmutable()
+    {
+        final SymbolTable table = new SymbolTable( SymbolTable.GLOBAL );
+        table.declareSymbol( new Identifier("b") , unit );
+        table.declareSymbol( new Identifier("a") , unit );
+
+        final SymbolTableSnapshot snapshot = table.getSnapshot();
+        assertSame( snapshot , table.getSnapshot() );
+        assertEquals( Arrays.asList("a","b") , names( snapshot.getAllSymbolsSorted() ) );
+
+        table.declareSymbol( new Identifier("c") , unit );
+        table.removeDeclared( new Identifier("a") );
+
+        assertEquals( Arrays.asList("a","b") , names( snapshot.getAllSymbolsSorted() ) );
+        final SymbolTableSnapshot current = table.getSnapshot();
+        assertNotSame( snapshot , current );
+        assertTrue( current.getVersion() > snapshot.getVersion() );
+        assertEquals( Arrays.asList("b","c") , names( current.getAllSymbolsSorted() ) );
+        assertFalse( current.isDeclared( new Identifier("a") ) );
+    }
+
+    public void testChildSnapshotIncludesParentSymbols()
+    {
+        final SymbolTable parent = new SymbolTable( SymbolTable.GLOBAL );
+        final SymbolTable child = new SymbolTable( "child" , parent );
+        parent.declareSymbol( new Identifier("global") , unit );
+        child.declareSymbol( new Identifier("local") , unit );
+
+        assertEquals( Arrays.asList("global","local") , names( child.getAllSymbolsSorted() ) );
+        assertEquals( Arrays.asList("global","local") , names( parent.getAllSymbolsSorted() ) );
+
+        // changing the parent invalidates the child's snapshot
+        final SymbolTableSnapshot snapshot = child.getSnapshot();
+        parent.declareSymbol( new Identifier("other") , unit );
+        assertEquals( Arrays.asList("global","local","other") , names( child.getAllSymbolsSorted() ) );
+        assertEquals( 2 , snapshot.size() );
+    }
+
+    public void testSetParentInvalidatesSnapshot()
+    {
+        final SymbolTable parent1 = new SymbolTable( SymbolTable.GLOBAL );
+        parent1.declareSymbol( new Identifier("a") , unit );
+        parent1.declareSymbol( new Identifier("b") , unit );
+        final SymbolTable parent2 = new SymbolTable( SymbolTable.GLOBAL );
+        parent2.declareSymbol( new Identifier("c") , unit );
+
+        final SymbolTable child = new SymbolTable( "child" , parent1 );
+        final SymbolTableSnapshot snapshot = child.getSnapshot();
+        assertEquals( Arrays.asList("a","b") , names( snapshot.getAllSymbolsSorted() ) );
+
+        // the new chain has fewer modifications than the old one
+        child.setParent( parent2 );
+        final SymbolTableSnapshot current = child.getSnapshot();
+        assertNotSame( snapshot , current );
+        assertTrue( current.getVersion() > snapshot.getVersion() );
+        assertEquals( Arrays.asList("c") , names( current.getAllSymbolsSorted() ) );
+    }
+
+    public void testPublishedSnapshotSurvivesClear()
+    {
+        final SymbolTable table = new SymbolTable( SymbolTable.GLOBAL );
+        table.declareSymbol( new Identifier("a") , unit );
+        assertEquals( 1 , table.getPublishedSnapshot().size() );
+
+        table.publishSnapshot();
+        table.clear();
+        table.declareSymbol( new Identifier("b") , unit );
+
+        assertEquals( Arrays.asList("a") , names( table.getPublishedSnapshot().getAllSymbolsSorted() ) );
+        assertEquals( Arrays.asList("b") , names( table.getAllSymbolsSorted() ) );
+    }
+
+    public void testSetParentTwice()
+    {
+        final SymbolTable parent = new SymbolTable( SymbolTable.GLOBAL );
+        final SymbolTable child = new SymbolTable( "child" , parent );
+        child.setParent( parent );
+        child.declareSymbol( new Identifier("a") , unit );
+        parent.removeSymbol( parent.get( new Identifier("a") ) );
+        assertTrue( child.isEmpty() );
+        assertTrue( parent.isEmpty() );
+
+        try {
+            parent.setParent( child );
+            fail("Should've failed");
+        } catch(IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+    public void testConcurrentDeclarations() throws Exception
+    {
+        final SymbolTable parent = new SymbolTable( SymbolTable.GLOBAL );
+        final int threadCount = 4;
+        final int perThread = 500;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        final List<Throwable> errors = new ArrayList<>();
+        for ( int i = 0 ; i < threadCount ; i++ ) 
+        {
+            final SymbolTable child = new SymbolTable( "child"+i , parent );
+            final int threadNo = i;
+            final Thread t = new Thread( () -> 
+            {
+                try 
+                {
+                    start.await();
+                    for ( int j = 0 ; j < perThread ; j++ ) 
+                    {
+                        child.declareSymbol( new Identifier( "shared"+j ) , unit );
+                        child.declareSymbol( new Identifier( "t"+threadNo+"_"+j ) , unit );
+                        // snapshots taken concurrently must always be internally consistent
+                        final SymbolTableSnapshot snapshot = parent.getSnapshot();
+                        assertEquals( snapshot.size() , snapshot.getAllSymbolsUnsorted().size() );
+                    }
+                } 
+                catch(Throwable e) 
+                {
+                    synchronized( errors ) {
+                        errors.add( e );
+                    }
+                }
+            });
+            threads.add( t );
+            t.start();
+        }
+        start.countDown();
+        for ( Thread t : threads ) {
+            t.join();
+        }
+        assertTrue( errors.toString() , errors.isEmpty() );
+        assertEquals( perThread + threadCount*perThread , parent.size() );
+        assertEquals( parent.size() , parent.getSnapshot().size() );
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+
+import de.codesourcery.javr.assembler.util.HashingAlgorithm.Type;
+import junit.framework.TestCase;
+
+public class HashingAlgorithmTest extends TestCase
+{
+    private static String hash(Type type,String s) 
+    {
+        final byte[] data = s.getBytes( StandardCharsets.US_ASCII );
+        return new HashingAlgorithm( type ).update( data , 0 , data.length ).finish();
+    }
+
+    public void testKnownValues() 
+    {
+        assertEquals( "ef46db3751d8e999" , hash( Type.XXHASH64 , "" ) );
+        assertEquals( "d24ec4f1a98c6e5b" , hash( Type.XXHASH64 , "a" ) );
+        assertEquals( "44bc2cf5ad770999" , hash( Type.XXHASH64 , "abc" ) );
+        assertEquals( "e3069283" , hash( Type.CRC32C , "123456789" ) );
+        assertEquals( "900150983cd24fb0d6963f7d28e17f72" , hash( Type.MD5 , "abc" ) );
+    }
+
+    public void testChunkedUpdatesHonorOffset() 
+    {
+        final byte[] data = new byte[1000];
+        new Random(0xdeadbeef).nextBytes( data );
+        for ( Type type : Type.values() ) 
+        {
+            final String expected = new HashingAlgorithm( type ).update( data , 0 , data.length ).finish();
+            for ( int chunkSize : new int[] { 1, 3, 7, 31, 32, 33, 100 } ) 
+            {
+                final HashingAlgorithm digest = new HashingAlgorithm( type );
+                for ( int offset = 0 ; offset < data.length ; offset += chunkSize ) {
+                    digest.update( data , offset , Math.min( chunkSize , data.length - offset ) );
+                }
+                assertEquals( type+" / chunk size "+chunkSize , expected , digest.finish() );
+            }
+        }
+    }
+
+    public void testFileHashIsComputedWhileReading() throws IOException 
+    {
+        final File file = File.createTempFile( "hashtest" , ".asm" );
+        try 
+        {
+            Files.write( file.toPath() , "ldi r16,1".getBytes() );
+            file.setLastModified( System.currentTimeMillis() - 10000 );
+            final FileHashCache cache = FileHashCache.getInstance();
+            cache.invalidate( file );
+
+            final FileResource resource = new FileResource( file , Resource.ENCODING_UTF );
+            try ( InputStream in = resource.createInputStream() ) {
+                IOUtils.toByteArray( in );
+            }
+            // file is not re-read as long as timestamp and size are unchanged
+            assertTrue( file.setReadable( false ) || ! file.canRead() );
+            try {
+                assertEquals( hash( HashingAlgorithm.getDefaultType() , "ldi r16,1" ) , resource.contentHash() );
+            } finally {
+                file.setReadable( true );
+            }
+
+            Files.write( file.toPath() , "ldi r16,2".getBytes() );
+            file.setLastModified( System.currentTimeMillis() - 5000 );
+            assertEquals( hash( HashingAlgorithm.getDefaultType() , "ldi r16,2" ) , resource.contentHash() );
+        } 
+        finally 
+        {
+            file.delete();
+        }
+    }
+}
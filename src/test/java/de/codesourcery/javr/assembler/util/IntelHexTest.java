@@ -0,0 +1,153 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class IntelHexTest extends TestCase
+{
+    private static String encode(byte[] data,int startAddress) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals( data.length , new IntelHex().encode( data , 0 , data.length , startAddress , out ) );
+        return new String( out.toByteArray() , StandardCharsets.US_ASCII );
+    }
+
+    private static IntelHex.Image decode(String hex) throws IOException {
+        return IntelHex.decode( new ByteArrayInputStream( hex.getBytes( StandardCharsets.US_ASCII ) ) );
+    }
+
+    public void testEncodeRecord() throws IOException
+    {
+        final byte[] data = "address gap".getBytes( StandardCharsets.US_ASCII );
+        assertEquals( ":0B0010006164647265737320676170A7\r\n:00000001FF\r\n" , encode( data , 0x10 ) );
+    }
+
+    public void testEncodeEmpty() throws IOException
+    {
+        assertEquals( ":00000001FF\r\n" , encode( new byte[0] , 0 ) );
+    }
+
+    public void testRecordsDoNotCross64KBoundary() throws IOException
+    {
+        final byte[] data = new byte[20];
+        final String hex = encode( data , 0xfff8 );
+        final String[] lines = hex.split("\r\n");
+        assertEquals( Arrays.asList( 
+                ":08FFF800000000000000000001" , 
+                ":020000040001F9" , 
+                ":0C000000000000000000000000000000F4" , 
+                ":00000001FF" ) , Arrays.asList( lines ) );
+    }
+
+    public void testRoundTrip() throws IOException
+    {
+        final Random rnd = new Random(0xdeadbeef);
+        final byte[] data = new byte[ 150000 ];
+        rnd.nextBytes( data );
+        final IntelHex.Image image = decode( encode( data , 0x100 ) );
+        assertEquals( 1 , image.getBlocks().size() );
+        assertEquals( 0x100 , image.getStartAddress() );
+        assertEquals( 0x100 + data.length , image.getEndAddress() );
+        assertTrue( Arrays.equals( data , image.toByteArray() ) );
+    }
+
+    public void testStreamingOutputIndependentOfChunking() throws IOException
+    {
+        final Random rnd = new Random(42);
+        final byte[] data = new byte[ 1000 ];
+        rnd.nextBytes( data );
+        final String expected = encode( data , 3 );
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final IntelHex.Encoder encoder = new IntelHex().createEncoder( 3 , out );
+        for ( int ptr = 0 ; ptr < data.length ; ) 
+        {
+            final int len = Math.min( data.length - ptr , 1 + rnd.nextInt( 40 ) );
+            encoder.write( data , ptr , len );
+            ptr += len;
+        }
+        encoder.finish();
+        assertEquals( expected , new String( out.toByteArray() , StandardCharsets.US_ASCII ) );
+
+        assertEquals( expected , new String( rawToHex( data , 3 ) , StandardCharsets.US_ASCII ) );
+    }
+
+    private static byte[] rawToHex(byte[] data,int startAddress) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals( data.length , new IntelHex().rawToHex( new ByteArrayInputStream( data ) , out , startAddress ) );
+        return out.toByteArray();
+    }
+
+    public void testDecodeSparseImage() throws IOException
+    {
+        final String hex = 
+                ":0400000001020304F2\n"+
+                ":020000021000EC\n"+ // segment base 0x10000
+                ":02000000AABB99\n"+
+                ":00000001FF\n"+
+                ":0400000001020304F2\n"; // after EOF, ignored
+        final IntelHex.Image image = decode( hex );
+        assertEquals( 2 , image.getBlocks().size() );
+        assertEquals( 6 , image.size() );
+        assertEquals( 0 , image.getStartAddress() );
+        assertEquals( 0x10002 , image.getEndAddress() );
+        assertTrue( Arrays.equals( new byte[] {1,2,3,4} , image.getBlocks().get(0).getData() ) );
+        assertEquals( 0x10000 , image.getBlocks().get(1).getAddress() );
+        assertTrue( Arrays.equals( new byte[] {3,4,(byte) 0xff,(byte) 0xff} , image.toByteArray( 2 , 6 , (byte) 0xff ) ) );
+    }
+
+    public void testOverlappingWritesAreMerged()
+    {
+        final IntelHex.Image image = new IntelHex.Image();
+        image.write( 10 , new byte[] {1,1,1,1} , 0 , 4 );
+        image.write( 0 , new byte[] {2,2} , 0 , 2 );
+        image.write( 20 , new byte[] {3,3} , 0 , 2 );
+        // bridges all blocks
+        image.write( 1 , new byte[] {4,4,4,4,4,4,4,4,4,4,4} , 0 , 11 );
+        assertEquals( 2 , image.getBlocks().size() );
+        assertTrue( Arrays.equals( new byte[] {2,4,4,4,4,4,4,4,4,4,4,4,1,1} , image.getBlocks().get(0).getData() ) );
+        assertEquals( 20 , image.getBlocks().get(1).getAddress() );
+    }
+
+    public void testDecodeErrors() throws IOException
+    {
+        assertDecodeFails( ":0400000001020304F3\n:00000001FF\n" , "Checksum" );
+        assertDecodeFails( "0400000001020304F2\n:00000001FF\n" , "':'" );
+        assertDecodeFails( ":0500000001020304F2\n:00000001FF\n" , "byte count" );
+        assertDecodeFails( ":04000000010203G4F2\n:00000001FF\n" , "hex digit" );
+        assertDecodeFails( ":0400000001020304F2\n" , "EOF" );
+        assertDecodeFails( ":00000006FA\n:00000001FF\n" , "record type" );
+    }
+
+    private static void assertDecodeFails(String hex,String expectedMessage) 
+    {
+        try {
+            decode( hex );
+            fail("Should've failed: "+hex);
+        } catch(IOException e) {
+            assertTrue( e.getMessage() , e.getMessage().contains( expectedMessage ) );
+        }
+    }
+}
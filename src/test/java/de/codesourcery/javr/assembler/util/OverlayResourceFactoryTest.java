@@ -0,0 +1,107 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.assembler.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import junit.framework.TestCase;
+
+public class OverlayResourceFactoryTest extends TestCase
+{
+    private File dir;
+    private OverlayResourceFactory factory;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory("overlaytest").toFile();
+        Files.write( new File( dir , "main.asm" ).toPath() , "#include \"inc.asm\"".getBytes( StandardCharsets.UTF_8 ) );
+        Files.write( new File( dir , "inc.asm" ).toPath() , "ldi r16,1".getBytes( StandardCharsets.UTF_8 ) );
+        factory = new OverlayResourceFactory( FileResourceFactory.createInstance( dir ) );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory( dir );
+    }
+
+    private static String read(Resource resource) throws IOException
+    {
+        try ( InputStream in = resource.createInputStream() ) {
+            return IOUtils.toString( in , resource.getEncoding() );
+        }
+    }
+
+    public void testFallsThroughWithoutSnapshot() throws IOException
+    {
+        final Resource resource = factory.resolveResource( "inc.asm" );
+        assertSame( resource , factory.getContent( resource ) );
+        assertEquals( "ldi r16,1" , read( factory.getContent( resource ) ) );
+        assertFalse( factory.hasSnapshot( resource ) );
+    }
+
+    public void testServesSnapshot() throws IOException
+    {
+        final Resource resource = factory.resolveResource( "inc.asm" );
+        final String diskHash = resource.contentHash();
+        factory.setSnapshot( resource , "ldi r16,2" );
+
+        final Resource content = factory.getContent( factory.resolveResource( "inc.asm" ) );
+        assertTrue( content instanceof SnapshotResource );
+        assertTrue( content.pointsToSameData( resource ) );
+        assertTrue( resource.pointsToSameData( SnapshotResource.unwrap( content ) ) );
+        assertEquals( "ldi r16,2" , read( content ) );
+        assertEquals( 9 , content.size() );
+        assertFalse( diskHash.equals( content.contentHash() ) );
+
+        // disk content is left alone
+        assertEquals( "ldi r16,1" , read( resource ) );
+        assertEquals( diskHash , resource.contentHash() );
+    }
+
+    public void testNewSnapshotReplacesOldOne() throws IOException
+    {
+        final Resource resource = factory.resolveResource( "inc.asm" );
+        factory.setSnapshot( resource , "ldi r16,2" );
+        factory.setSnapshot( resource , "ldi r16,3" );
+        assertEquals( "ldi r16,3" , read( factory.getContent( resource ) ) );
+    }
+
+    public void testRemoveSnapshot() throws IOException
+    {
+        final Resource resource = factory.resolveResource( "inc.asm" );
+        factory.setSnapshot( resource , "ldi r16,2" );
+        factory.removeSnapshot( factory.resolveResource( "inc.asm" ) );
+        assertFalse( factory.hasSnapshot( resource ) );
+        assertEquals( "ldi r16,1" , read( factory.getContent( resource ) ) );
+    }
+
+    public void testResolvesRelativeToSnapshot() throws IOException
+    {
+        final Resource main = factory.setSnapshot( factory.resolveResource( "main.asm" ) , "; unsaved" );
+        final Resource include = factory.resolveResource( main , "inc.asm" );
+        assertTrue( include instanceof FileResource );
+        assertEquals( "ldi r16,1" , read( include ) );
+    }
+}
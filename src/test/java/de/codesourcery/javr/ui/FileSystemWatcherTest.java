@@ -0,0 +1,115 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.ui;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+
+import de.codesourcery.javr.ui.FileSystemWatcher.ChangeType;
+import junit.framework.TestCase;
+
+public class FileSystemWatcherTest extends TestCase
+{
+    private File baseDir;
+    private FileSystemWatcher watcher;
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        baseDir = Files.createTempDirectory( "watchertest" ).toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        if ( watcher != null ) {
+            watcher.close();
+        }
+        FileUtils.deleteDirectory( baseDir );
+    }
+
+    private void startWatcher() throws IOException
+    {
+        watcher = new FileSystemWatcher( baseDir );
+        watcher.addListener( (type,file) -> events.add( type+":"+baseDir.toPath().relativize( file.toPath() ) ) );
+    }
+
+    private void awaitEvent(String expected) throws InterruptedException
+    {
+        String event;
+        do
+        {
+            event = events.poll( 10 , TimeUnit.SECONDS );
+            assertNotNull( "Timeout while waiting for "+expected , event );
+        } while ( ! expected.equals( event ) );
+    }
+
+    public void testFileCreationAndDeletion() throws Exception
+    {
+        startWatcher();
+
+        final File file = new File( baseDir , "test.asm" );
+        Files.write( file.toPath() , "nop".getBytes() );
+        awaitEvent( ChangeType.CREATED+":test.asm" );
+
+        assertTrue( file.delete() );
+        awaitEvent( ChangeType.DELETED+":test.asm" );
+    }
+
+    public void testNewDirectoriesAreWatched() throws Exception
+    {
+        startWatcher();
+
+        final File dir = new File( baseDir , "sub" );
+        assertTrue( dir.mkdir() );
+        awaitEvent( ChangeType.CREATED+":sub" );
+
+        Files.write( new File( dir , "test.asm" ).toPath() , "nop".getBytes() );
+        awaitEvent( ChangeType.CREATED+":sub"+File.separator+"test.asm" );
+    }
+
+    public void testContentsOfMovedInDirectoriesAreReported() throws Exception
+    {
+        // hidden directories are not watched, so nothing gets reported while preparing the tree
+        final File staging = new File( baseDir , ".staging" );
+        final File nested = new File( staging , "sub"+File.separator+"nested" );
+        assertTrue( nested.mkdirs() );
+        Files.write( new File( nested , "test.asm" ).toPath() , "nop".getBytes() );
+        startWatcher();
+
+        Files.move( new File( staging , "sub" ).toPath() , new File( baseDir , "sub" ).toPath() );
+        awaitEvent( ChangeType.CREATED+":sub"+File.separator+"nested"+File.separator+"test.asm" );
+    }
+
+    public void testHiddenDirectoriesAreIgnored() throws Exception
+    {
+        final File hidden = new File( baseDir , ".git" );
+        assertTrue( hidden.mkdir() );
+        startWatcher();
+
+        Files.write( new File( hidden , "index" ).toPath() , "data".getBytes() );
+        Files.write( new File( baseDir , "marker" ).toPath() , "data".getBytes() );
+        final String event = events.poll( 10 , TimeUnit.SECONDS );
+        assertEquals( ChangeType.CREATED+":marker" , event );
+    }
+}
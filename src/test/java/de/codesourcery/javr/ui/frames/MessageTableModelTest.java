@@ -0,0 +1,135 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.ui.frames;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.event.TableModelEvent;
+
+import de.codesourcery.javr.assembler.CompilationUnit;
+import de.codesourcery.javr.assembler.parser.Parser.CompilationMessage;
+import de.codesourcery.javr.assembler.parser.Parser.Severity;
+import de.codesourcery.javr.assembler.parser.TextRegion;
+import de.codesourcery.javr.assembler.util.StringResource;
+import junit.framework.TestCase;
+
+public class MessageTableModelTest extends TestCase
+{
+    private final CompilationUnit unit = new CompilationUnit( new StringResource("test.asm" , "" ) );
+
+    private MessageTableModel model;
+    private final List<String> events = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        model = new MessageTableModel();
+        model.addTableModelListener( ev -> 
+        {
+            final String type;
+            switch( ev.getType() ) {
+                case TableModelEvent.INSERT: type = "INSERT"; break;
+                case TableModelEvent.DELETE: type = "DELETE"; break;
+                default: type = "UPDATE";
+            }
+            if ( ev.getFirstRow() == TableModelEvent.HEADER_ROW ) {
+                events.add( type );
+            } else {
+                events.add( type+":"+ev.getFirstRow()+"-"+ev.getLastRow() );
+            }
+        });
+    }
+
+    private CompilationMessage msg(Severity severity,String text,int offset) {
+        return new CompilationMessage( unit , severity , text , new TextRegion( offset , 1 , 1 , 1 ) );
+    }
+
+    private List<String> messages()
+    {
+        final List<String> result = new ArrayList<>();
+        for ( int i = 0 ; i < model.getRowCount() ; i++ ) {
+            result.add( model.getRow( i ).message );
+        }
+        return result;
+    }
+
+    public void testUnchangedMessagesFireNoEvents()
+    {
+        model.setMessages( Arrays.asList( msg(Severity.ERROR,"a",1) , msg(Severity.WARNING,"b",2) ) );
+        assertEquals( Arrays.asList("INSERT:0-1") , events );
+        events.clear();
+
+        final CompilationMessage a = msg(Severity.ERROR,"a",1);
+        model.setMessages( Arrays.asList( a , msg(Severity.WARNING,"b",2) ) );
+        assertTrue( events.toString() , events.isEmpty() );
+        assertSame( a , model.getRow( 0 ) );
+        assertEquals( 2 , model.getRowCount() );
+    }
+
+    public void testRemoveAndAdd()
+    {
+        model.setMessages( Arrays.asList( msg(Severity.ERROR,"a",1) , msg(Severity.ERROR,"b",2) , msg(Severity.ERROR,"c",3) , msg(Severity.ERROR,"d",4) ) );
+        events.clear();
+
+        model.setMessages( Arrays.asList( msg(Severity.ERROR,"a",1) , msg(Severity.ERROR,"d",4) , msg(Severity.ERROR,"e",5) ) );
+        assertEquals( Arrays.asList("DELETE:1-2" , "INSERT:2-2") , events );
+        assertEquals( Arrays.asList("a","d","e") , messages() );
+    }
+
+    public void testDuplicateMessagesAreCounted()
+    {
+        model.setMessages( Arrays.asList( msg(Severity.ERROR,"a",1) , msg(Severity.ERROR,"a",1) ) );
+        events.clear();
+
+        model.setMessages( Arrays.asList( msg(Severity.ERROR,"a",1) ) );
+        assertEquals( Arrays.asList("DELETE:1-1") , events );
+        assertEquals( 1 , model.getRowCount() );
+    }
+
+    public void testMinimumSeverity()
+    {
+        model.setMessages( Arrays.asList( msg(Severity.INFO,"a",1) , msg(Severity.ERROR,"b",2) , msg(Severity.WARNING,"c",3) ) );
+        model.setMinimumSeverity( Severity.WARNING );
+        assertEquals( Arrays.asList("b","c") , messages() );
+        assertEquals( 3 , model.getMessageCount() );
+        events.clear();
+
+        // hidden messages do not fire events
+        model.add( msg(Severity.INFO,"d",4) );
+        assertTrue( events.toString() , events.isEmpty() );
+        assertEquals( Arrays.asList("b","c") , messages() );
+
+        model.setMinimumSeverity( Severity.INFO );
+        assertEquals( Arrays.asList("a","b","c","d") , messages() );
+    }
+
+    public void testSortedInsert()
+    {
+        model.setMessages( Arrays.asList( msg(Severity.ERROR,"b",1) , msg(Severity.ERROR,"d",2) ) );
+        model.sortBy( MessageTableModel.COLUMN_MESSAGE , true );
+        model.setMessages( Arrays.asList( msg(Severity.ERROR,"b",1) , msg(Severity.ERROR,"d",2) , msg(Severity.ERROR,"a",3) , msg(Severity.ERROR,"c",4) ) );
+        assertEquals( Arrays.asList("a","b","c","d") , messages() );
+
+        model.sortBy( MessageTableModel.COLUMN_MESSAGE , false );
+        assertEquals( Arrays.asList("d","c","b","a") , messages() );
+
+        events.clear();
+        model.add( msg(Severity.ERROR,"e",5) );
+        assertEquals( Arrays.asList("INSERT:0-0") , events );
+    }
+}
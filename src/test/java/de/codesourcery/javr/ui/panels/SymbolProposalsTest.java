@@ -0,0 +1,81 @@
+/**
+ * Copyright 2015-2018 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.javr.ui.panels;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import de.codesourcery.javr.assembler.CompilationUnit;
+import de.codesourcery.javr.assembler.parser.Identifier;
+import de.codesourcery.javr.assembler.symbols.Symbol;
+import de.codesourcery.javr.assembler.symbols.Symbol.Type;
+import de.codesourcery.javr.assembler.symbols.SymbolIndex;
+import de.codesourcery.javr.assembler.util.StringResource;
+import junit.framework.TestCase;
+
+public class SymbolProposalsTest extends TestCase
+{
+    private final CompilationUnit unit = new CompilationUnit( new StringResource("dummy" , "" ) );
+
+    private Symbol symbol(String name,Type type) 
+    {
+        final String[] parts = name.split( "\\." );
+        final Identifier id = parts.length == 1 ? new Identifier( name ) : Identifier.newLocalGlobalIdentifier( new Identifier( parts[0] ) , new Identifier( parts[1] ) );
+        final Symbol result = new Symbol( id , Type.UNDEFINED , unit , null );
+        result.setType( type );
+        return result;
+    }
+
+    private static List<String> names(List<Symbol> symbols) {
+        return symbols.stream().map( s -> s.name().value ).collect( Collectors.toList() );
+    }
+
+    public void testProposesGlobalLabelsWithSamePrefix()
+    {
+        final SymbolIndex index = new SymbolIndex( Arrays.asList( 
+                symbol( "loop1" , Type.ADDRESS_LABEL ) ,
+                symbol( "main" , Type.ADDRESS_LABEL ) ,
+                symbol( "looping" , Type.EQU ) ) );
+        
+        assertEquals( Arrays.asList( "loop1" ) , names( SymbolProposals.getProposals( index , null , "loopx" ) ) );
+        assertEquals( Arrays.asList( "loop1" ) , names( SymbolProposals.getProposals( index , null , "LOOPX" ) ) );
+        assertTrue( SymbolProposals.getProposals( index , null , "lox" ).isEmpty() );
+    }
+
+    public void testProposesLocalLabelsWithSamePrefix()
+    {
+        final Symbol main = symbol( "main" , Type.ADDRESS_LABEL );
+        final SymbolIndex index = new SymbolIndex( Arrays.asList( 
+                main,
+                symbol( "main.loop1" , Type.ADDRESS_LABEL ) ,
+                symbol( "other.loop2" , Type.ADDRESS_LABEL ) ,
+                symbol( "loop3" , Type.ADDRESS_LABEL ) ) );
+        
+        assertEquals( Arrays.asList( "main.loop1" , "loop3" ) , names( SymbolProposals.getProposals( index , main , "loopx" ) ) );
+        assertEquals( Arrays.asList( "loop3" ) , names( SymbolProposals.getProposals( index , null , "loopx" ) ) );
+    }
+
+    public void testProposesSymbolsContainingInput()
+    {
+        final SymbolIndex index = new SymbolIndex( Arrays.asList( 
+                symbol( "delay_loop" , Type.ADDRESS_LABEL ) ,
+                symbol( "LOOP_COUNT" , Type.EQU ) ,
+                symbol( "main" , Type.ADDRESS_LABEL ) ) );
+        
+        assertEquals( Arrays.asList( "LOOP_COUNT" , "delay_loop" ) , names( SymbolProposals.getProposals( index , null , "loop" ) ) );
+    }
+}